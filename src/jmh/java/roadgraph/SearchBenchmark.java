@@ -0,0 +1,148 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import geography.GeographicPoint;
+import util.GraphLoader;
+
+/**
+ * Benchmarks of the MapGraph searches on every map in data/maps.
+ *
+ * Each search runs between origin/destination pairs drawn with a fixed
+ * seed, so runs on different builds search the same routes.  Throughput
+ * and sampled latency (with percentiles) are reported for each search,
+ * and the settledNodes counter reports how many vertices each one visits,
+ * which catches a search that got slower by doing more work.
+ * greedyAlgForSalespersonProblem plans a round trip from a fixed start
+ * through every intersection in its strongly connected component, and
+ * planTour one through a fixed set of stops that can all reach each
+ * other.  Run with ./gradlew jmh; the gc profiler adds the allocation
+ * rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+    private static final int NUM_PAIRS = 1024;
+    private static final int NUM_STOPS = 50;
+    private static final long SEED = 42;
+
+    @Param({"data/maps/ucsd.map", "data/maps/utc.map", "data/maps/san_diego.map",
+            "data/maps/hollywood_large.map", "data/maps/new_york.map"})
+    public String map;
+
+    private MapGraph graph;
+    private GeographicPoint[] origins;
+    private GeographicPoint[] destinations;
+    private List<GeographicPoint> stops;
+
+    /**
+     * The number of vertices the searches visit, reported next to the
+     * search timings.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long settledNodes;
+
+        private int next;
+        private Consumer<GeographicPoint> onSettled;
+
+        @Setup(Level.Trial)
+        public void setUp()
+        {
+            onSettled = (p) -> settledNodes++;
+        }
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            settledNodes = 0;
+        }
+
+        int nextPair()
+        {
+            int pair = next;
+            next = (next + 1) % NUM_PAIRS;
+            return pair;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        graph = new MapGraph();
+        new GraphLoader().loadRoadMap(map, graph);
+        CompactMapGraph compact = graph.freeze();
+
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(graph.getVertices());
+        vertices.sort((a, b) -> a.getX() != b.getX()
+                ? Double.compare(a.getX(), b.getX()) : Double.compare(a.getY(), b.getY()));
+        Random random = new Random(SEED);
+        origins = new GeographicPoint[NUM_PAIRS];
+        destinations = new GeographicPoint[NUM_PAIRS];
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            origins[i] = vertices.get(random.nextInt(vertices.size()));
+            destinations[i] = vertices.get(random.nextInt(vertices.size()));
+        }
+
+        // Tour stops that can all reach each other, so every plan succeeds
+        List<GeographicPoint> component = compact.stronglyConnected(origins[0]);
+        stops = new ArrayList<GeographicPoint>();
+        stops.add(origins[0]);
+        while (stops.size() < Math.min(NUM_STOPS, component.size())) {
+            GeographicPoint stop = component.get(random.nextInt(component.size()));
+            if (!stops.contains(stop)) {
+                stops.add(stop);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<GeographicPoint> bfs(Counters counters)
+    {
+        int pair = counters.nextPair();
+        return graph.bfs(origins[pair], destinations[pair], counters.onSettled);
+    }
+
+    @Benchmark
+    public List<GeographicPoint> dijkstra(Counters counters)
+    {
+        int pair = counters.nextPair();
+        return graph.dijkstra(origins[pair], destinations[pair], counters.onSettled);
+    }
+
+    @Benchmark
+    public List<GeographicPoint> aStarSearch(Counters counters)
+    {
+        int pair = counters.nextPair();
+        return graph.aStarSearch(origins[pair], destinations[pair], counters.onSettled);
+    }
+
+    @Benchmark
+    public List<GeographicPoint> greedyAlgForSalespersonProblem(Counters counters)
+    {
+        return graph.greedyAlgForSalespersonProblem(origins[0], counters.onSettled);
+    }
+
+    @Benchmark
+    public TourPlanner.Tour planTour()
+    {
+        return graph.planTour(stops);
+    }
+}
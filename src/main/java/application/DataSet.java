@@ -1,10 +1,14 @@
 package application;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
 import geography.GeographicPoint;
+import roadgraph.GraphSnapshot;
 import roadgraph.MapGraph;
 import util.GraphLoader;
 
@@ -16,11 +20,14 @@ import util.GraphLoader;
  *
  */
 public class DataSet {
+	private static final int NUM_LANDMARKS = 16;
+
 	String filePath;
 	MapGraph graph;
 	Set<GeographicPoint> intersections;
     private HashMap<GeographicPoint,HashSet<geography.RoadSegment>>  roads;
 	boolean currentlyDisplayed;
+	private GraphSnapshot snapshot;
 
 	public DataSet (String path) {
         this.filePath = path;
@@ -53,15 +60,67 @@ public class DataSet {
     	}
     }
     
-    public HashMap<GeographicPoint,HashSet<geography.RoadSegment>>  getRoads() { return this.roads; }
+    public HashMap<GeographicPoint,HashSet<geography.RoadSegment>>  getRoads() {
+    	if (roads == null && snapshot != null) {
+    		roads = snapshot.getRoads();
+    	}
+    	return this.roads;
+    }
 
+    /** Load the graph.  If a snapshot of this map newer than the .map
+     * file exists it is read instead of parsing the map; otherwise the
+     * map is parsed and a snapshot is written for next time.
+     */
     public void initializeGraph() {
-        graph = new MapGraph();
-        roads = new HashMap<GeographicPoint, HashSet<geography.RoadSegment>>();
-        intersections = new HashSet<GeographicPoint>();
-        //TODO: change to use intersections for points in graph.
-        GraphLoader loader = new GraphLoader();
-        loader.loadRoadMap(filePath, graph, roads, intersections);
+        File snapshotFile = getDataFile(".snapshot");
+        File mapFile = getDataFile(".map");
+        if (snapshotFile.isFile() && snapshotFile.lastModified() >= mapFile.lastModified()) {
+            try {
+                snapshot = GraphSnapshot.read(snapshotFile);
+                graph = new MapGraph(snapshot.getGraph());
+                roads = null;
+                intersections = graph.getVertices();
+            }
+            catch (IOException e) {
+                System.err.println("Problem loading graph snapshot: " + snapshotFile);
+                e.printStackTrace();
+                snapshot = null;
+            }
+        }
+        if (snapshot == null) {
+            graph = new MapGraph();
+            roads = new HashMap<GeographicPoint, HashSet<geography.RoadSegment>>();
+            intersections = new HashSet<GeographicPoint>();
+            //TODO: change to use intersections for points in graph.
+            GraphLoader loader = new GraphLoader();
+            loader.setParallel(true);
+            loader.loadRoadMap(filePath, graph, roads, intersections);
+            try {
+                GraphSnapshot.write(snapshotFile, graph.freeze(), roads);
+            }
+            catch (IOException e) {
+                System.err.println("Problem writing graph snapshot: " + snapshotFile);
+                e.printStackTrace();
+            }
+        }
+        graph.useLandmarks(getDataFile(".landmarks"), NUM_LANDMARKS);
+    }
+
+    /** Return a file next to the .map file of this data set, with the
+     * same name but the given extension.
+     * @param extension The extension, including the dot
+     * @return The file
+     */
+    public File getDataFile(String extension) {
+    	String path = filePath;
+    	URL url = getClass().getClassLoader().getResource(filePath);
+    	if (url != null) {
+    		path = url.getFile();
+    	}
+    	if (path.endsWith(".map")) {
+    		path = path.substring(0, path.length() - ".map".length());
+    	}
+    	return new File(path + extension);
     }
 
 	public String getFilePath() {
@@ -70,7 +129,7 @@ public class DataSet {
 
 
     public Object[] getPoints() {
-    	Set<GeographicPoint> pointSet = roads.keySet();
+    	Set<GeographicPoint> pointSet = getRoads().keySet();
     	return pointSet.toArray();
     }
 
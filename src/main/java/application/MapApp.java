@@ -275,10 +275,22 @@ implements MapComponentInitializedListener {
 		RadioButton rbB = new RadioButton("BFS");
 		rbB.setUserData("BFS");
 
+		RadioButton rbBD = new RadioButton("Bidirectional Dijkstra");
+		rbBD.setUserData("Bidirectional Dijkstra");
+
+		RadioButton rbBA = new RadioButton("Bidirectional A*");
+		rbBA.setUserData("Bidirectional A*");
+
+		RadioButton rbL = new RadioButton("A* (landmarks)");
+		rbL.setUserData("A* (landmarks)");
+
 		rbB.setToggleGroup(group);
 		rbD.setToggleGroup(group);
 		rbA.setToggleGroup(group);
-		return new LinkedList<RadioButton>(Arrays.asList(rbB, rbD, rbA));
+		rbBD.setToggleGroup(group);
+		rbBA.setToggleGroup(group);
+		rbL.setToggleGroup(group);
+		return new LinkedList<RadioButton>(Arrays.asList(rbB, rbD, rbA, rbBD, rbBA, rbL));
 	}
 
 	public static void showInfoAlert(String header, String content) {
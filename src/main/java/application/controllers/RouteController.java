@@ -10,6 +10,9 @@ import javafx.scene.control.ToggleGroup;
 
 public class RouteController {
 	// Strings for slider labels
+	public static final int ALT = 6;
+	public static final int BI_A_STAR = 5;
+	public static final int BI_DIJ = 4;
 	public static final int BFS = 3;
     public static final int A_STAR = 2;
     public static final int DIJ = 1;
@@ -111,6 +114,15 @@ public class RouteController {
             else if(group.getSelectedToggle().getUserData().equals("BFS")) {
             	selectedToggle = BFS;
             }
+            else if(group.getSelectedToggle().getUserData().equals("Bidirectional Dijkstra")) {
+            	selectedToggle = BI_DIJ;
+            }
+            else if(group.getSelectedToggle().getUserData().equals("Bidirectional A*")) {
+            	selectedToggle = BI_A_STAR;
+            }
+            else if(group.getSelectedToggle().getUserData().equals("A* (landmarks)")) {
+            	selectedToggle = ALT;
+            }
             else {
             	System.err.println("Invalid radio button selection");
             }
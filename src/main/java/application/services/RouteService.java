@@ -10,6 +10,8 @@ import application.MarkerManager;
 import application.controllers.RouteController;
 import geography.GeographicPoint;
 import geography.RoadSegment;
+import roadgraph.MapGraph;
+import roadgraph.RouteAlgorithm;
 import com.lynden.gmapsfx.GoogleMapView;
 import com.lynden.gmapsfx.shapes.Polyline;
 import com.lynden.gmapsfx.javascript.object.*;
@@ -73,19 +75,16 @@ public class RouteService extends JavascriptObject{
         	}
 
         	if(toggle == RouteController.DIJ || toggle == RouteController.A_STAR ||
-        			toggle == RouteController.BFS) {
+        			toggle == RouteController.BFS || toggle == RouteController.BI_DIJ ||
+        			toggle == RouteController.BI_A_STAR || toggle == RouteController.ALT) {
         		markerManager.initVisualization();
             	Consumer<GeographicPoint> nodeAccepter = markerManager.getVisualization()::acceptPoint;
-            	List<GeographicPoint> path = null;
-            	if (toggle == RouteController.BFS) {
-            		path = markerManager.getDataSet().getGraph().bfs(start, end, nodeAccepter);
-            	}
-            	else if (toggle == RouteController.DIJ) {
-            		path = markerManager.getDataSet().getGraph().dijkstra(start, end, nodeAccepter);
-            	}
-            	else if (toggle == RouteController.A_STAR) {
-            		path = markerManager.getDataSet().getGraph().aStarSearch(start, end, nodeAccepter);
-            	}
+            	// snap points that are not intersections onto the nearest road
+            	MapGraph graph = markerManager.getDataSet().getGraph();
+            	start = graph.snapToRoad(start);
+            	end = graph.snapToRoad(end);
+            	// repeated searches are answered from the graph's route cache
+            	List<GeographicPoint> path = graph.route(start, end, algorithmFor(toggle), nodeAccepter);
 
             	if(path == null) {
                     MapApp.showInfoAlert("Routing Error : ", "No path found");
@@ -101,6 +100,24 @@ public class RouteService extends JavascriptObject{
         return false;
     }
 
+    // The search algorithm chosen by a RouteController toggle
+    private static RouteAlgorithm algorithmFor(int toggle) {
+    	switch (toggle) {
+    	case RouteController.BFS:
+    		return RouteAlgorithm.BFS;
+    	case RouteController.A_STAR:
+    		return RouteAlgorithm.A_STAR;
+    	case RouteController.BI_DIJ:
+    		return RouteAlgorithm.BIDIRECTIONAL_DIJKSTRA;
+    	case RouteController.BI_A_STAR:
+    		return RouteAlgorithm.BIDIRECTIONAL_A_STAR;
+    	case RouteController.ALT:
+    		return RouteAlgorithm.ALT;
+    	default:
+    		return RouteAlgorithm.DIJKSTRA;
+    	}
+    }
+
     /**
      * Construct path including road regments
      * @param path - path with only intersections
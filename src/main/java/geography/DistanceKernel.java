@@ -0,0 +1,236 @@
+package geography;
+
+/**
+ * Fast distances between points given as primitive latitude and
+ * longitude arrays, for code that measures the same points over and
+ * over, such as the A* heuristic and the edge lengths of a road map.
+ *
+ * Over short spans the earth is flat enough that an equirectangular
+ * projection (longitude scaled by the cosine of the latitude) agrees
+ * with the haversine great circle distance to within MAX_RELATIVE_ERROR.
+ * That needs one square root instead of several trigonometric calls, and
+ * a kernel made for a set of points caches the cosine of each latitude
+ * so it needs no trigonometry at all.  Pairs farther apart than
+ * MAX_SPAN_DEGREES, or too near a pole, fall back to the exact haversine
+ * distance, which also stays available as haversine().
+ */
+public final class DistanceKernel {
+	/** The radius of the earth in km, as GeographicPoint.distance uses */
+	public static final double EARTH_RADIUS = 6373;
+
+	/** The length of one degree of latitude, in km */
+	public static final double KM_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+	/** The largest difference in latitude or longitude, in degrees, that
+	 * the equirectangular approximation is used for */
+	public static final double MAX_SPAN_DEGREES = 0.5;
+
+	/** Pairs of points nearer the poles than this are measured exactly */
+	public static final double MAX_LATITUDE = 75;
+
+	/** The largest relative difference between distance() and haversine() */
+	public static final double MAX_RELATIVE_ERROR = 1e-5;
+
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] cosLatitudes;
+
+	// A planar projection of the points, in km, in which no distance is
+	// longer than the great circle distance or distance()
+	private final double[] xs;
+	private final double[] ys;
+
+	/**
+	 * Make a kernel for a set of points.  The arrays are not copied, so
+	 * they must not be changed while the kernel is in use.
+	 * @param latitudes The latitude of each point, in degrees
+	 * @param longitudes The longitude of each point, in degrees
+	 */
+	public DistanceKernel(double[] latitudes, double[] longitudes)
+	{
+		if (latitudes.length != longitudes.length) {
+			throw new IllegalArgumentException("latitudes and longitudes differ in length");
+		}
+		int n = latitudes.length;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		cosLatitudes = cosLatitudes(latitudes);
+
+		// Scaling every longitude by the smallest cosine of any latitude
+		// the points or the great circles between them reach makes the
+		// projection shrink every distance.  A great circle rises poleward
+		// of its ends by at most about d^2 tan(lat) / 8R^2 radians, for
+		// ends d km apart.
+		double minLat = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY;
+		double maxLon = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			minLat = Math.min(minLat, latitudes[i]);
+			maxLat = Math.max(maxLat, latitudes[i]);
+			minLon = Math.min(minLon, longitudes[i]);
+			maxLon = Math.max(maxLon, longitudes[i]);
+		}
+		double cosMin = 1;
+		if (n > 0) {
+			double polemost = Math.max(Math.abs(minLat), Math.abs(maxLat));
+			double across = haversine(minLat, minLon, maxLat, maxLon);
+			double bulge = Math.toDegrees(across * across / (8 * EARTH_RADIUS * EARTH_RADIUS)
+					* Math.tan(Math.toRadians(Math.min(polemost, 89))));
+			cosMin = Math.cos(Math.toRadians(Math.min(90, polemost + bulge)));
+		}
+		xs = new double[n];
+		ys = new double[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = longitudes[i] * cosMin * KM_PER_DEGREE;
+			ys[i] = latitudes[i] * KM_PER_DEGREE;
+		}
+	}
+
+	/** @return The number of points the kernel measures */
+	public int size()
+	{
+		return latitudes.length;
+	}
+
+	/**
+	 * Find the distance between two of the points, to within
+	 * MAX_RELATIVE_ERROR of the great circle distance.
+	 * @param u The index of one point
+	 * @param v The index of the other
+	 * @return The distance between them in km
+	 */
+	public double distance(int u, int v)
+	{
+		double dLat = latitudes[v] - latitudes[u];
+		double dLon = longitudes[v] - longitudes[u];
+		if (!isShort(latitudes[u], dLat, dLon)) {
+			return haversine(latitudes[u], longitudes[u], latitudes[v], longitudes[v]);
+		}
+		double x = dLon * (cosLatitudes[u] + cosLatitudes[v]) * 0.5;
+		return KM_PER_DEGREE * Math.sqrt(x * x + dLat * dLat);
+	}
+
+	/**
+	 * Find a lower bound on the distance between two of the points: their
+	 * distance in a flat projection of all the points that shrinks every
+	 * distance a little.  Being a straight line distance in a plane it
+	 * obeys the triangle inequality, so it is a consistent A* heuristic
+	 * for any graph whose edges are no shorter than distance() or the
+	 * great circle distance between their ends.
+	 * @param u The index of one point
+	 * @param v The index of the other
+	 * @return A lower bound on the distance between them in km
+	 */
+	public double lowerBound(int u, int v)
+	{
+		double dx = xs[v] - xs[u];
+		double dy = ys[v] - ys[u];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Find the distance from one of the points to every point.
+	 * @param u The index of the point to measure from
+	 * @param out Where to put the distance to each point in km; at least
+	 *   size() long
+	 */
+	public void distancesFrom(int u, double[] out)
+	{
+		int n = latitudes.length;
+		distances(latitudes[u], longitudes[u], cosLatitudes[u],
+				latitudes, longitudes, cosLatitudes, out, 0, n);
+		// Patch up the few points too far away for the approximation
+		for (int v = 0; v < n; v++) {
+			if (!isShort(latitudes[u], latitudes[v] - latitudes[u], longitudes[v] - longitudes[u])) {
+				out[v] = haversine(latitudes[u], longitudes[u], latitudes[v], longitudes[v]);
+			}
+		}
+	}
+
+	/**
+	 * Calculate the cosine of each of a list of latitudes, for the batch
+	 * form of distances.
+	 * @param latitudes Latitudes in degrees
+	 * @return The cosine of each
+	 */
+	public static double[] cosLatitudes(double[] latitudes)
+	{
+		double[] cos = new double[latitudes.length];
+		for (int i = 0; i < cos.length; i++) {
+			cos[i] = Math.cos(Math.toRadians(latitudes[i]));
+		}
+		return cos;
+	}
+
+	/**
+	 * Find the equirectangular distance from one point to each of a range
+	 * of points, with no branches or trigonometry in the loop so the JIT
+	 * can vectorize it.  The results are only accurate for points within
+	 * MAX_SPAN_DEGREES of (lat, lon).
+	 * @param lat The latitude of the point to measure from
+	 * @param lon The longitude of the point to measure from
+	 * @param cosLat The cosine of lat
+	 * @param lats The latitudes of the points to measure to
+	 * @param lons The longitudes of the points to measure to
+	 * @param cosLats The cosines of lats, from cosLatitudes()
+	 * @param out Where to put the distances in km, at the same indexes
+	 * @param from The first index to measure to
+	 * @param to One past the last index to measure to
+	 */
+	public static void distances(double lat, double lon, double cosLat,
+			double[] lats, double[] lons, double[] cosLats,
+			double[] out, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			double dLat = lats[i] - lat;
+			double x = (lons[i] - lon) * (cosLat + cosLats[i]) * 0.5;
+			out[i] = KM_PER_DEGREE * Math.sqrt(x * x + dLat * dLat);
+		}
+	}
+
+	/**
+	 * Calculate the distance in km between two lat, lon pairs, using the
+	 * equirectangular approximation when they are close enough together
+	 * and the haversine formula otherwise.
+	 * @return The distance between (lat1, lon1) and (lat2, lon2), to
+	 *   within MAX_RELATIVE_ERROR
+	 */
+	public static double distance(double lat1, double lon1, double lat2, double lon2)
+	{
+		double dLat = lat2 - lat1;
+		double dLon = lon2 - lon1;
+		if (!isShort(lat1, dLat, dLon)) {
+			return haversine(lat1, lon1, lat2, lon2);
+		}
+		double x = dLon * Math.cos(Math.toRadians(lat1 + dLat * 0.5));
+		return KM_PER_DEGREE * Math.sqrt(x * x + dLat * dLat);
+	}
+
+	/**
+	 * Calculate the great circle distance in km between two lat, lon pairs
+	 * with the haversine formula.
+	 * @return The distance between (lat1, lon1) and (lat2, lon2)
+	 */
+	public static double haversine(double lat1, double lon1, double lat2, double lon2)
+	{
+		double lat1rad = Math.toRadians(lat1);
+		double lat2rad = Math.toRadians(lat2);
+		double deltaLat = Math.toRadians(lat2 - lat1);
+		double deltaLon = Math.toRadians(lon2 - lon1);
+
+		double a = Math.sin(deltaLat / 2) * Math.sin(deltaLat / 2) +
+				Math.cos(lat1rad) * Math.cos(lat2rad) *
+				Math.sin(deltaLon / 2) * Math.sin(deltaLon / 2);
+		double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+		return EARTH_RADIUS * c;
+	}
+
+	// Whether a pair of points is close enough, and far enough from the
+	// poles, for the equirectangular approximation
+	private static boolean isShort(double lat, double dLat, double dLon)
+	{
+		return Math.abs(dLat) <= MAX_SPAN_DEGREES && Math.abs(dLon) <= MAX_SPAN_DEGREES
+				&& Math.abs(lat) <= MAX_LATITUDE;
+	}
+}
@@ -18,27 +18,33 @@ public class GeographicPoint extends Double {
 	 */
 	public double distance(GeographicPoint other)
 	{
-		return getDist(this.getX(), this.getY(),
+		return distance(this.getX(), this.getY(),
                 other.getX(), other.getY());     
 	}
 	
-    
-    private double getDist(double lat1, double lon1, double lat2, double lon2)
+    /**
+     * Calculates the geographic distance in km between two lat, lon pairs
+     * without requiring GeographicPoint objects for them.
+     * @return The distance between (lat1, lon1) and (lat2, lon2)
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2)
     {
-    	int R = 6373; // radius of the earth in kilometres
-    	double lat1rad = Math.toRadians(lat1);
-    	double lat2rad = Math.toRadians(lat2);
-    	double deltaLat = Math.toRadians(lat2-lat1);
-    	double deltaLon = Math.toRadians(lon2-lon1);
-
-    	double a = Math.sin(deltaLat/2) * Math.sin(deltaLat/2) +
-    	        Math.cos(lat1rad) * Math.cos(lat2rad) *
-    	        Math.sin(deltaLon/2) * Math.sin(deltaLon/2);
-    	double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
-
-    	double d = R * c;
-    	return d;
+    	return DistanceKernel.haversine(lat1, lon1, lat2, lon2);
     }
+
+	/**
+	 * Calculates an approximate geographic distance in km between this
+	 * point and the other point, several times faster than distance for
+	 * nearby points.  See DistanceKernel.distance.
+	 * @param other
+	 * @return The distance between this lat, lon point and the other
+	 *   point, to within DistanceKernel.MAX_RELATIVE_ERROR
+	 */
+	public double fastDistance(GeographicPoint other)
+	{
+		return DistanceKernel.distance(this.getX(), this.getY(),
+				other.getX(), other.getY());
+	}
     
     public String toString()
     {
@@ -108,6 +108,18 @@ public class RoadSegment {
 
 	// get the length of the road segment
 	public double getLength() { return this.length; }
+
+	// get the end points of the road segment, in the order it was built
+	public GeographicPoint getPoint1() { return this.point1; }
+	public GeographicPoint getPoint2() { return this.point2; }
+
+	// get the points between the two ends, from point1 to point2
+	public List<GeographicPoint> getGeometryPoints() {
+		return Collections.unmodifiableList(this.geometryPoints);
+	}
+
+	public String getRoadName() { return this.roadName; }
+	public String getRoadType() { return this.roadType; }
 	
 	
 	// given one end, return the other.
@@ -1,61 +1,378 @@
 package mapmaker;
 
-import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.json.*;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
+/**
+ * Fetches the roads in an area as Overpass JSON.
+ *
+ * The area is split into tiles of a fixed grid, tileSize degrees on a
+ * side, and each tile is fetched from the DataSource on its own.  The
+ * raw response for each tile is kept in the cache directory, under a
+ * name made from the tile's bounds and the highway types, so an area
+ * that overlaps one fetched before only fetches the tiles it has not
+ * seen.  Missing tiles are fetched a few at a time, and the responses
+ * are merged into one, without the nodes and ways that are in more than
+ * one tile.
+ */
 public class DataFetcher {
-    private final String[] HIGHWAYS = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential", "motorway_link", "trunk_link", "primary_link", "secondary_link", "tertiary_link", "living_street"};
+    static final String[] HIGHWAYS = {"motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential", "motorway_link", "trunk_link", "primary_link", "secondary_link", "tertiary_link", "living_street"};
+
+    /** The default tile size in degrees, about 5 km north to south */
+    public static final float DEFAULT_TILE_SIZE = 0.05f;
+
+    /** The default limit on the number of tiles in one fetch */
+    public static final int DEFAULT_MAX_TILES = 64;
+
+    private final float[] bounds;
+    private final DataSource source;
+    private String[] highways = HIGHWAYS;
+    private File cacheDirectory = new File(System.getProperty("java.io.tmpdir"), "mapmaker-cache");
+    private float tileSize = DEFAULT_TILE_SIZE;
+    private int maxTiles = DEFAULT_MAX_TILES;
+    // Overpass allows each client two requests at a time
+    private int concurrency = 2;
+
+    private int fetched;
 
-    private String query;
     public DataFetcher(float[] bounds) {
-        this.query = this.constructQuery(bounds);
+        this(bounds, new OverpassSource());
     }
 
-    public JsonObject getData() {
-        HttpURLConnection conn = null;
+    /**
+     * @param bounds [south, west, north, east]
+     * @param source Where to fetch tiles that are not in the cache
+     */
+    public DataFetcher(float[] bounds, DataSource source) {
+        this.bounds = bounds;
+        this.source = source;
+    }
+
+    /**
+     * Fetch only these highway types, rather than all of HIGHWAYS.
+     */
+    public void setHighways(String... highways) {
+        this.highways = highways.clone();
+    }
+
+    /**
+     * Keep tiles in this directory, which is created if need be.  The
+     * default is mapmaker-cache in the system temporary directory.
+     */
+    public void setCacheDirectory(File directory) {
+        cacheDirectory = directory;
+    }
+
+    /**
+     * Use tiles of this size, in degrees.  Tiles of different sizes are
+     * cached separately.
+     */
+    public void setTileSize(float degrees) {
+        if (!(degrees > 0)) {
+            throw new IllegalArgumentException("Tile size must be positive: " + degrees);
+        }
+        tileSize = degrees;
+    }
+
+    /**
+     * Refuse to fetch areas that need more than this many tiles.
+     */
+    public void setMaxTiles(int maxTiles) {
+        this.maxTiles = maxTiles;
+    }
+
+    /**
+     * Fetch up to this many tiles at a time.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+        this.concurrency = concurrency;
+    }
+
+    /** @return The number of tiles fetched from the source, rather than the cache, so far */
+    public synchronized int getFetched() {
+        return fetched;
+    }
+
+    /**
+     * @return The bounds of the tiles covering the area, [south, west,
+     *   north, east] each, row by row from the south west
+     */
+    public List<float[]> getTiles() {
+        // The tile size as the decimal it was given as, so the tile edges
+        // are round numbers in queries and cache names
+        double size = Double.parseDouble(Float.toString(tileSize));
+        int firstRow = (int) Math.floor(bounds[0] / size);
+        int lastRow = Math.max(firstRow, (int) Math.ceil(bounds[2] / size) - 1);
+        int firstColumn = (int) Math.floor(bounds[1] / size);
+        int lastColumn = Math.max(firstColumn, (int) Math.ceil(bounds[3] / size) - 1);
+        List<float[]> tiles = new ArrayList<float[]>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                tiles.add(new float[] { (float) (size * row), (float) (size * column),
+                                        (float) (size * (row + 1)), (float) (size * (column + 1)) });
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Make sure every tile of the area is in the cache, fetching the
+     * missing ones from the source at once.
+     * @return The cache files for the tiles, in the order of getTiles()
+     * @throws IOException if a tile cannot be fetched or saved
+     * @throws IllegalArgumentException if the area needs more than the
+     *   maximum number of tiles
+     */
+    public List<File> fetchTiles() throws IOException {
+        List<float[]> tiles = getTiles();
+        if (tiles.size() > maxTiles) {
+            throw new IllegalArgumentException("Area needs " + tiles.size()
+                    + " tiles, more than the limit of " + maxTiles);
+        }
+        if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + cacheDirectory);
+        }
+
+        List<File> files = new ArrayList<File>(tiles.size());
+        List<Callable<Void>> missing = new ArrayList<Callable<Void>>();
+        for (float[] tile : tiles) {
+            File file = new File(cacheDirectory, cacheName(tile));
+            files.add(file);
+            if (!file.isFile()) {
+                missing.add(() -> {
+                    fetchTile(tile, file);
+                    return null;
+                });
+            }
+        }
+        if (missing.isEmpty()) {
+            return files;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(concurrency, missing.size()));
         try {
-            URL url = new URL("http://overpass-api.de/api/interpreter");
-            conn = (HttpURLConnection)url.openConnection();
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
-            
-            DataOutputStream wr = new DataOutputStream(conn.getOutputStream());
-            wr.writeBytes(this.query);
-            wr.close();
-
-            InputStream is = conn.getInputStream();
-            JsonReader rdr = Json.createReader(is);
-        
-            return rdr.readObject();
-        } catch (Exception e) {
-            System.out.println(e);
-            return null;
+            for (Future<Void> result : pool.invokeAll(missing)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching tiles", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Problem fetching tiles", e.getCause());
+        } finally {
+            pool.shutdown();
         }
+        return files;
     }
 
-    public String constructQuery(float[] boundsArray) {
-        String q = "[out:json];(";
-        String bounds = "(";
-        for (int i = 0; i < 4; i++) {
-            bounds += boundsArray[i];
-            if (i < 3) {
-                bounds += ",";
+    // The cache file name for a tile: its bounds and the highway types
+    String cacheName(float[] tile) {
+        String[] types = highways.clone();
+        Arrays.sort(types);
+        int key = String.join(",", types).hashCode();
+        return "overpass_" + tile[0] + "_" + tile[1] + "_" + tile[2] + "_" + tile[3]
+                + "_" + String.format("%08x", key) + ".json";
+    }
+
+    // Fetch a tile into a temporary file and then move it into place, so
+    // the cache never holds part of a response
+    private void fetchTile(float[] tile, File file) throws IOException {
+        File part = File.createTempFile("tile", ".part", cacheDirectory);
+        try {
+            try (InputStream in = source.fetch(tile, highways);
+                 OutputStream out = new FileOutputStream(part)) {
+                byte[] buffer = new byte[1 << 16];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            try {
+                Files.move(part.toPath(), file.toPath(),
+                           StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            part.delete();
+        }
+        synchronized (this) {
+            fetched++;
+        }
+    }
+
+    /**
+     * Fetch the area and merge the tiles.
+     * @return The merged JSON, to be read and closed by the caller
+     * @throws IOException if a tile cannot be fetched, or Overpass
+     *   reported an error for it
+     */
+    public InputStream openData() throws IOException {
+        List<File> tiles = fetchTiles();
+        File merged = File.createTempFile("overpass", ".json");
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(merged))) {
+                merge(tiles, out);
+            }
+            return new FilterInputStream(new BufferedInputStream(new FileInputStream(merged))) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    merged.delete();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            merged.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the elements of several Overpass responses as one response,
+     * keeping only the first of each node and way.  Responses that report
+     * an error or are not JSON are deleted, so they are fetched again next
+     * time.
+     * @throws IOException if a response cannot be read or reports an error
+     */
+    static void merge(List<File> responses, OutputStream out) throws IOException {
+        NodeTable nodeIds = new NodeTable();
+        // Way ids, with the coordinates unused
+        NodeTable wayIds = new NodeTable();
+        IOException failure = null;
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStartArray("elements");
+            for (File response : responses) {
+                String error;
+                try (InputStream in = new BufferedInputStream(new FileInputStream(response));
+                     JsonParser parser = Json.createParser(in)) {
+                    error = copyElements(parser, generator, nodeIds, wayIds);
+                } catch (JsonException e) {
+                    error = e.getMessage();
+                }
+                if (error != null) {
+                    response.delete();
+                    if (failure == null) {
+                        failure = new IOException("Overpass error in " + response.getName() + ": " + error);
+                    }
+                }
+            }
+            generator.writeEnd();
+            generator.writeEnd();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Copy the elements not yet seen, and return the remark if it is an
+    // error, as when a query times out
+    private static String copyElements(JsonParser parser, JsonGenerator generator,
+                                       NodeTable nodeIds, NodeTable wayIds) {
+        if (parser.next() != Event.START_OBJECT) {
+            return "response is not a JSON object";
+        }
+        String error = null;
+        while (parser.next() == Event.KEY_NAME) {
+            String key = parser.getString();
+            Event event = parser.next();
+            if (key.equals("elements") && event == Event.START_ARRAY) {
+                while ((event = parser.next()) != Event.END_ARRAY) {
+                    JsonValue value = readValue(parser, event);
+                    if (!(value instanceof JsonObject)) {
+                        continue;
+                    }
+                    JsonObject element = (JsonObject) value;
+                    JsonValue id = element.get("id");
+                    if (!(id instanceof JsonNumber)) {
+                        continue;
+                    }
+                    String type = element.getString("type", "");
+                    long number = ((JsonNumber) id).longValue();
+                    boolean first = type.equals("node") ? nodeIds.add(number)
+                            : type.equals("way") ? wayIds.add(number) : true;
+                    if (first) {
+                        generator.write(element);
+                    }
+                }
+            } else if (key.equals("remark") && event == Event.VALUE_STRING
+                    && parser.getString().contains("error")) {
+                error = parser.getString();
             } else {
-                bounds += ")";
+                readValue(parser, event);
             }
         }
-        
+        return error;
+    }
 
-        for (String s : HIGHWAYS) {
-            q += "way[\"highway\"=\"" + s + "\"]" + bounds + ";";
+    // Read a value whose first event has just been read
+    private static JsonValue readValue(JsonParser parser, Event event) {
+        switch (event) {
+            case START_OBJECT:
+                JsonObjectBuilder object = Json.createObjectBuilder();
+                while (parser.next() == Event.KEY_NAME) {
+                    String key = parser.getString();
+                    object.add(key, readValue(parser, parser.next()));
+                }
+                return object.build();
+            case START_ARRAY:
+                JsonArrayBuilder array = Json.createArrayBuilder();
+                while ((event = parser.next()) != Event.END_ARRAY) {
+                    array.add(readValue(parser, event));
+                }
+                return array.build();
+            // javax.json 1.0 can only make strings and numbers inside a builder
+            case VALUE_STRING:
+                return Json.createArrayBuilder().add(parser.getString()).build().get(0);
+            case VALUE_NUMBER:
+                return Json.createArrayBuilder().add(parser.getBigDecimal()).build().get(0);
+            case VALUE_TRUE:
+                return JsonValue.TRUE;
+            case VALUE_FALSE:
+                return JsonValue.FALSE;
+            default:
+                return JsonValue.NULL;
         }
+    }
 
-        q += "); (._;>;); out;";
+    public JsonObject getData() {
+        try (InputStream is = openData()) {
+            JsonReader rdr = Json.createReader(is);
+            return rdr.readObject();
+        } catch (Exception e) {
+            System.out.println(e);
+            return null;
+        }
+    }
 
-        return q;
+    public String constructQuery(float[] boundsArray) {
+        return OverpassSource.query(boundsArray, highways);
     }
 }
@@ -0,0 +1,22 @@
+package mapmaker;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where DataFetcher gets road data from: the Overpass API
+ * (OverpassSource) by default, or a saved response (FileDataSource) for
+ * tests and offline runs.
+ */
+public interface DataSource {
+    /**
+     * Fetch the ways with the given highway types in an area, and their
+     * nodes, as an Overpass JSON response.  The response may hold more
+     * than was asked for; DataFetcher drops repeated nodes and ways.
+     * @param bounds [south, west, north, east]
+     * @param highways The highway types to fetch
+     * @return The JSON, to be read and closed by the caller
+     * @throws IOException if the data cannot be fetched
+     */
+    InputStream fetch(float[] bounds, String[] highways) throws IOException;
+}
@@ -0,0 +1,38 @@
+package mapmaker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Serves one saved Overpass JSON response, covering the whole area, for
+ * every request, so DataFetcher can run without a network.  Since
+ * DataFetcher drops the nodes and ways it has already seen, and MapMaker
+ * drops segments outside its bounds, the result is the same as fetching
+ * the area from Overpass when the response was saved.
+ */
+public class FileDataSource implements DataSource {
+    private final File file;
+    private int requests;
+
+    /**
+     * @param file The saved response
+     */
+    public FileDataSource(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public InputStream fetch(float[] bounds, String[] highways) throws IOException {
+        synchronized (this) {
+            requests++;
+        }
+        return new FileInputStream(file);
+    }
+
+    /** @return The number of requests served */
+    public synchronized int getRequests() {
+        return requests;
+    }
+}
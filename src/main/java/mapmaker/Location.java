@@ -17,6 +17,13 @@ public class Location {
      * @param bounds [south, west, north, east]
      */
     public boolean outsideBounds(float[] bounds) {
+        return outsideBounds(lat, lon, bounds);
+    }
+
+    /**
+     * @param bounds [south, west, north, east]
+     */
+    static boolean outsideBounds(double lat, double lon, float[] bounds) {
         return (lat < bounds[0] || lat > bounds[2] || lon < bounds[1] || lon > bounds[3]);
     }
 
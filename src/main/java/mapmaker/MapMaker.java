@@ -1,72 +1,281 @@
 package mapmaker;
 
-import java.io.PrintWriter;
-import java.util.HashMap;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import javax.json.*;
+import javax.json.Json;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 
+/**
+ * Turns OpenStreetMap data from the Overpass API into a .map file, one
+ * line per road segment between two nodes:
+ *
+ *   lat1 lon1 lat2 lon2 "road name" road_type
+ *
+ * with a second line the other way unless the road is one way.  Segments
+ * with an end outside the bounds are left out.
+ *
+ * The JSON is read as a stream of parser events rather than as one
+ * document, node coordinates are kept in a NodeTable, and each way is
+ * written out as soon as it is read, so only the nodes are held in
+ * memory.  Overpass lists nodes before the ways that use them; a way
+ * that comes before any of its nodes is held back until the end.
+ */
 public class MapMaker {
     float[] bounds;
-    HashMap<Integer, Location> nodes = new HashMap<Integer, Location>();
+    NodeTable nodes = new NodeTable();
+
+    private long segments;
+    private long missingNodes;
+
+    // The node ids of the way being read
+    private long[] refs = new long[64];
+    private int numRefs;
+
+    // Ways read before all their nodes, written once the input ends
+    private final List<DeferredWay> deferred = new ArrayList<DeferredWay>();
 
     public MapMaker(float[] bounds) {
         this.bounds = bounds;
     }
 
+    /**
+     * Fetch the data for the bounds from the Overpass API and write it to
+     * a .map file.
+     * @param filename The .map file to write
+     * @return true if the file was written
+     */
     public boolean parseData(String filename) {
-        DataFetcher fetcher = new DataFetcher(bounds);
-        JsonObject data = fetcher.getData();
-
-        JsonArray elements = data.getJsonArray("elements");
+        return parseData(new DataFetcher(bounds), filename);
+    }
 
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("node")) {
-                nodes.put(elem.getInt("id"), new Location(elem.getJsonNumber("lat").doubleValue(), elem.getJsonNumber("lon").doubleValue()));
-            }
+    /**
+     * Fetch data with a fetcher set up by the caller, for instance with
+     * its own cache or data source, and write it to a .map file.
+     * @param fetcher The fetcher to use
+     * @param filename The .map file to write
+     * @return true if the file was written
+     */
+    public boolean parseData(DataFetcher fetcher, String filename) {
+        try (InputStream in = fetcher.openData()) {
+            return convert(in, filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
         }
+    }
 
-        PrintWriter outfile;
-        try {
-            outfile = new PrintWriter(filename);
-        } catch (Exception e) {
+    /**
+     * Convert an Overpass JSON response saved to a file.
+     * @param jsonFile The JSON file to read
+     * @param filename The .map file to write
+     * @return true if the file was written
+     */
+    public boolean parseFile(String jsonFile, String filename) {
+        try (InputStream in = new FileInputStream(jsonFile)) {
+            return convert(in, filename);
+        } catch (IOException e) {
             e.printStackTrace();
             return false;
         }
+    }
 
-        for (JsonObject elem : elements.getValuesAs(JsonObject.class)) {
-            if (elem.getString("type").equals("way")) {
-                String street = elem.getJsonObject("tags").getString("name", "");
-                String type = elem.getJsonObject("tags").getString("highway", "");
-                String oneway = elem.getJsonObject("tags").getString("oneway", "no");
-                List<JsonNumber> nodelist = elem.getJsonArray("nodes").getValuesAs(JsonNumber.class);
-                for (int i = 0; i < nodelist.size() - 1; i++) {
-                    Location start = nodes.get(nodelist.get(i).intValue());
-                    Location end = nodes.get(nodelist.get(i + 1).intValue());
-                    if (start.outsideBounds(bounds) || end.outsideBounds(bounds)) {
-                        continue;
+    private boolean convert(InputStream in, String filename) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename), StandardCharsets.UTF_8))) {
+            convert(in, out);
+            return true;
+        }
+    }
+
+    /**
+     * Read an Overpass JSON response and write the road segments in it.
+     * @param in The JSON, in UTF-8
+     * @param out Where to write the .map lines
+     * @return The number of lines written
+     * @throws IOException if the lines cannot be written
+     * @throws javax.json.JsonException if the input cannot be read or is
+     *   not JSON
+     */
+    public long convert(InputStream in, Writer out) throws IOException {
+        long before = segments;
+        try (JsonParser parser = Json.createParser(in)) {
+            if (parser.next() != Event.START_OBJECT) {
+                return 0;
+            }
+            while (parser.next() == Event.KEY_NAME) {
+                boolean elements = parser.getString().equals("elements");
+                Event event = parser.next();
+                if (elements && event == Event.START_ARRAY) {
+                    while ((event = parser.next()) != Event.END_ARRAY) {
+                        if (event == Event.START_OBJECT) {
+                            readElement(parser, out);
+                        } else {
+                            skipValue(parser, event);
+                        }
                     }
+                } else {
+                    skipValue(parser, event);
+                }
+            }
+        }
+        for (DeferredWay way : deferred) {
+            writeWay(out, way.refs, way.refs.length, way.street, way.type, way.oneway);
+        }
+        deferred.clear();
+        out.flush();
+        return segments - before;
+    }
+
+    /** @return The number of nodes read so far */
+    public int getNumNodes() {
+        return nodes.size();
+    }
 
-                    outfile.println("" + start + end + "\"" + street + "\" " + type);
-                    if (oneway.equals("no")) {
-                        outfile.println("" + end + start + "\"" + street + "\" " + type);
+    /** @return The number of segments skipped because a node was never read */
+    public long getMissingNodes() {
+        return missingNodes;
+    }
+
+    // Read one element, just after its START_OBJECT, and store it if it is
+    // a node or write it out if it is a way
+    private void readElement(JsonParser parser, Writer out) throws IOException {
+        String type = null;
+        long id = 0;
+        double lat = Double.NaN;
+        double lon = Double.NaN;
+        String street = "";
+        String highway = "";
+        String oneway = "no";
+        numRefs = 0;
+        Event event;
+        while ((event = parser.next()) == Event.KEY_NAME) {
+            String key = parser.getString();
+            event = parser.next();
+            if (key.equals("type") && event == Event.VALUE_STRING) {
+                type = parser.getString();
+            } else if (key.equals("id") && event == Event.VALUE_NUMBER) {
+                id = parser.getLong();
+            } else if (key.equals("lat") && event == Event.VALUE_NUMBER) {
+                lat = Double.parseDouble(parser.getString());
+            } else if (key.equals("lon") && event == Event.VALUE_NUMBER) {
+                lon = Double.parseDouble(parser.getString());
+            } else if (key.equals("nodes") && event == Event.START_ARRAY) {
+                while (parser.next() == Event.VALUE_NUMBER) {
+                    if (numRefs == refs.length) {
+                        refs = Arrays.copyOf(refs, numRefs * 2);
                     }
+                    refs[numRefs++] = parser.getLong();
                 }
+            } else if (key.equals("tags") && event == Event.START_OBJECT) {
+                while (parser.next() == Event.KEY_NAME) {
+                    String tag = parser.getString();
+                    Event value = parser.next();
+                    if (value != Event.VALUE_STRING) {
+                        skipValue(parser, value);
+                        continue;
+                    }
+                    if (tag.equals("name")) {
+                        street = parser.getString();
+                    } else if (tag.equals("highway")) {
+                        highway = parser.getString();
+                    } else if (tag.equals("oneway")) {
+                        oneway = parser.getString();
+                    }
+                }
+            } else {
+                skipValue(parser, event);
+            }
+        }
+        if (event != Event.END_OBJECT) {
+            return;
+        }
+        if ("node".equals(type) && !Double.isNaN(lat) && !Double.isNaN(lon)) {
+            nodes.put(id, lat, lon);
+        } else if ("way".equals(type)) {
+            for (int i = 0; i < numRefs; i++) {
+                if (nodes.find(refs[i]) < 0) {
+                    deferred.add(new DeferredWay(Arrays.copyOf(refs, numRefs), street, highway, oneway));
+                    return;
+                }
+            }
+            writeWay(out, refs, numRefs, street, highway, oneway);
+        }
+    }
+
+    // Write the segments of a way through the first count nodes of refs
+    void writeWay(Writer out, long[] refs, int count, String street, String type, String oneway)
+            throws IOException {
+        for (int i = 0; i < count - 1; i++) {
+            int start = nodes.find(refs[i]);
+            int end = nodes.find(refs[i + 1]);
+            if (start < 0 || end < 0) {
+                missingNodes++;
+                continue;
+            }
+            if (Location.outsideBounds(nodes.lat(start), nodes.lon(start), bounds)
+                    || Location.outsideBounds(nodes.lat(end), nodes.lon(end), bounds)) {
+                continue;
+            }
+            writeSegment(out, start, end, street, type);
+            if (oneway.equals("no")) {
+                writeSegment(out, end, start, street, type);
             }
         }
-        outfile.close();
-        return true;
+    }
+
+    private void writeSegment(Writer out, int from, int to, String street, String type)
+            throws IOException {
+        out.write(Double.toString(nodes.lat(from)));
+        out.write(' ');
+        out.write(Double.toString(nodes.lon(from)));
+        out.write(' ');
+        out.write(Double.toString(nodes.lat(to)));
+        out.write(' ');
+        out.write(Double.toString(nodes.lon(to)));
+        out.write(" \"");
+        out.write(street);
+        out.write("\" ");
+        out.write(type);
+        out.write(System.lineSeparator());
+        segments++;
+    }
+
+    // Skip past the end of a value whose first event has just been read
+    private static void skipValue(JsonParser parser, Event event) {
+        int depth = 0;
+        while (true) {
+            if (event == Event.START_OBJECT || event == Event.START_ARRAY) {
+                depth++;
+            } else if (event == Event.END_OBJECT || event == Event.END_ARRAY) {
+                depth--;
+            }
+            if (depth == 0) {
+                return;
+            }
+            event = parser.next();
+        }
     }
 
     public static void main(String[] args) {
-        if (args.length != 4) {
-            System.out.println("Incorrect number of arguments.");
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("Usage: MapMaker south west north east [overpass.json]");
             System.out.println(args.length);
             return;
         }
 
         float[] bound_arr = new float[4];
         try {
-            for (int i = 0; i < args.length; i++) {
+            for (int i = 0; i < 4; i++) {
                 bound_arr[i] = Float.parseFloat(args[i]);
             }
         } catch (Exception e) {
@@ -75,6 +284,25 @@ public class MapMaker {
         }
 
         MapMaker map = new MapMaker(bound_arr);
-        map.parseData("ucsd.map");
+        if (args.length == 5) {
+            map.parseFile(args[4], "ucsd.map");
+        } else {
+            map.parseData("ucsd.map");
+        }
+    }
+
+    // A way whose nodes had not all been read when it was
+    private static final class DeferredWay {
+        final long[] refs;
+        final String street;
+        final String type;
+        final String oneway;
+
+        DeferredWay(long[] refs, String street, String type, String oneway) {
+            this.refs = refs;
+            this.street = street;
+            this.type = type;
+            this.oneway = oneway;
+        }
     }
 }
@@ -0,0 +1,130 @@
+package mapmaker;
+
+import java.util.Arrays;
+
+/**
+ * The coordinates of OSM nodes by node id, in an open-addressing hash
+ * table of primitive arrays.  A slot takes 24 bytes and the table is
+ * kept between a quarter and half full, against well over 100 bytes a
+ * node for a HashMap of boxed ids and Location objects.  Ids are full
+ * 64-bit OSM ids.
+ */
+final class NodeTable {
+    // Marks an empty slot; not a valid OSM id
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] ids;
+    private double[] lats;
+    private double[] lons;
+    private int size;
+
+    NodeTable() {
+        this(1024);
+    }
+
+    NodeTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        ids = new long[capacity];
+        lats = new double[capacity];
+        lons = new double[capacity];
+        Arrays.fill(ids, EMPTY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Set the coordinates of a node, replacing any it had.
+     */
+    void put(long id, double lat, double lon) {
+        if (id == EMPTY) {
+            throw new IllegalArgumentException("Invalid node id " + id);
+        }
+        if (2 * (size + 1) > ids.length) {
+            grow();
+        }
+        int slot = slot(id);
+        if (ids[slot] == EMPTY) {
+            ids[slot] = id;
+            size++;
+        }
+        lats[slot] = lat;
+        lons[slot] = lon;
+    }
+
+    /**
+     * Add a node with unknown (NaN) coordinates if it is not already in
+     * the table, as when a table is only used as a set of ids.
+     * @return true if the node was added
+     */
+    boolean add(long id) {
+        if (find(id) >= 0) {
+            return false;
+        }
+        put(id, Double.NaN, Double.NaN);
+        return true;
+    }
+
+    /**
+     * @return The slot holding a node, or -1 if it is not in the table
+     */
+    int find(long id) {
+        if (id == EMPTY) {
+            return -1;
+        }
+        int slot = slot(id);
+        return ids[slot] == EMPTY ? -1 : slot;
+    }
+
+    /**
+     * Set the coordinates of the node in a slot.  Unlike put this never
+     * moves anything, so threads can set different slots at once.
+     */
+    void set(int slot, double lat, double lon) {
+        lats[slot] = lat;
+        lons[slot] = lon;
+    }
+
+    /** @return One more than the largest slot */
+    int capacity() {
+        return ids.length;
+    }
+
+    double lat(int slot) {
+        return lats[slot];
+    }
+
+    double lon(int slot) {
+        return lons[slot];
+    }
+
+    // The slot holding id, or the empty slot where it belongs
+    private int slot(long id) {
+        int mask = ids.length - 1;
+        long h = id * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (ids[slot] != EMPTY && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldIds = ids;
+        double[] oldLats = lats;
+        double[] oldLons = lons;
+        ids = new long[oldIds.length * 2];
+        lats = new double[ids.length];
+        lons = new double[ids.length];
+        Arrays.fill(ids, EMPTY);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != EMPTY) {
+                int slot = slot(oldIds[i]);
+                ids[slot] = oldIds[i];
+                lats[slot] = oldLats[i];
+                lons[slot] = oldLons[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package mapmaker;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches road data from an Overpass API server with one POST request
+ * per area.
+ */
+public class OverpassSource implements DataSource {
+    /** The public server DataFetcher uses by default */
+    public static final String DEFAULT_URL = "http://overpass-api.de/api/interpreter";
+
+    private final String url;
+
+    public OverpassSource() {
+        this(DEFAULT_URL);
+    }
+
+    /**
+     * @param url The interpreter URL of the server
+     */
+    public OverpassSource(String url) {
+        this.url = url;
+    }
+
+    @Override
+    public InputStream fetch(float[] bounds, String[] highways) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Accept-Charset", "utf-8;q=0.7,*;q=0.7");
+
+        try (DataOutputStream wr = new DataOutputStream(conn.getOutputStream())) {
+            wr.writeBytes(query(bounds, highways));
+        }
+        return conn.getInputStream();
+    }
+
+    /**
+     * Build the Overpass QL query for the ways with the given highway
+     * types in an area, and their nodes.
+     * @param bounds [south, west, north, east]
+     */
+    public static String query(float[] bounds, String[] highways) {
+        String q = "[out:json];(";
+        String box = "(" + bounds[0] + "," + bounds[1] + "," + bounds[2] + "," + bounds[3] + ")";
+        for (String s : highways) {
+            q += "way[\"highway\"=\"" + s + "\"]" + box + ";";
+        }
+        q += "); (._;>;); out;";
+        return q;
+    }
+}
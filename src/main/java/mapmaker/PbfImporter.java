@@ -0,0 +1,888 @@
+package mapmaker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import geography.DistanceKernel;
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import roadgraph.GraphSnapshot;
+import roadgraph.MapGraph;
+
+/**
+ * Builds a MapGraph straight from an OpenStreetMap .osm.pbf extract,
+ * without going through the Overpass API or a .map file.
+ *
+ * Only ways whose highway tag is one of the DataFetcher.HIGHWAYS types
+ * are kept.  A way is one way if its oneway tag says so ("yes", "true",
+ * "1", or "-1" and "reverse" for against the order of its nodes), and
+ * motorways and roundabouts are one way unless tagged otherwise.  As
+ * with GraphLoader, the graph has a vertex only at each intersection or
+ * dead end, and the points between are kept as road geometry.
+ *
+ * The file is read twice.  The first pass reads the ways and records the
+ * nodes they use in a NodeTable; the second reads the coordinates of just
+ * those nodes, skipping blocks that hold no nodes.  So memory is bounded
+ * by the road network rather than by the extract, most of which is nodes
+ * of buildings and other things that are not roads.  In each pass blocks
+ * are inflated and decoded in parallel on a ForkJoinPool, a bounded
+ * number at a time, and the results are merged in file order.
+ *
+ * Blobs may be raw or zlib compressed; the other compression types are
+ * rarely used and are not supported.
+ */
+public class PbfImporter {
+    // The largest blob and blob header the format allows
+    private static final int MAX_BLOB_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+    private static final List<String> FEATURES = Arrays.asList("OsmSchema-V0.6", "DenseNodes");
+    private static final HashSet<String> HIGHWAYS =
+            new HashSet<String>(Arrays.asList(DataFetcher.HIGHWAYS));
+
+    // Which way a way may be travelled, relative to the order of its nodes
+    static final byte BOTH = 0;
+    static final byte FORWARD = 1;
+    static final byte BACKWARD = -1;
+
+    private final float[] bounds;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private int numWays;
+    private long missingNodes;
+
+    /**
+     * Make an importer that keeps the whole extract.
+     */
+    public PbfImporter() {
+        this(null);
+    }
+
+    /**
+     * Make an importer that leaves out road segments with an end outside
+     * the bounds.
+     * @param bounds [south, west, north, east], or null for no bounds
+     */
+    public PbfImporter(float[] bounds) {
+        this.bounds = bounds;
+    }
+
+    /**
+     * Decode blocks on the given pool rather than the common pool.
+     */
+    public void setPool(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        this.pool = pool;
+    }
+
+    /** @return The number of highways read by the last load */
+    public int getNumWays() {
+        return numWays;
+    }
+
+    /** @return The number of segments the last load left out because a node was not in the file */
+    public long getMissingNodes() {
+        return missingNodes;
+    }
+
+    /**
+     * Read an extract into a new graph.
+     * @param pbf The .osm.pbf file
+     * @return The road graph
+     * @throws IOException if the file cannot be read or is not a PBF file
+     *   this importer supports
+     */
+    public MapGraph load(File pbf) throws IOException {
+        MapGraph map = new MapGraph();
+        load(pbf, map, null);
+        return map;
+    }
+
+    /**
+     * Read an extract into a graph and, like GraphLoader.loadRoadMap,
+     * optionally record the road segments touching each intersection.
+     * @param pbf The .osm.pbf file
+     * @param map The graph to add the intersections and roads to
+     * @param segments Where to add the road segments, or null
+     * @throws IOException if the file cannot be read or is not a PBF file
+     *   this importer supports
+     */
+    public void load(File pbf, MapGraph map,
+                     HashMap<GeographicPoint, HashSet<RoadSegment>> segments) throws IOException {
+        Ways ways = new Ways();
+        NodeTable nodes = new NodeTable();
+        BitSet nodeBlocks = new BitSet();
+
+        // Pass 1: the highways, and which blocks hold nodes
+        int[] block = new int[1];
+        decode(pbf, null, PbfImporter::readWays, (found) -> {
+            if (found.hasNodes) {
+                nodeBlocks.set(block[0]);
+            }
+            block[0]++;
+            ways.add(found, nodes);
+        });
+        numWays = ways.count;
+
+        // Pass 2: the coordinates of the nodes the highways use
+        decode(pbf, nodeBlocks, (data) -> readNodes(data, nodes), (none) -> { });
+
+        RoadNetwork network = new RoadNetwork(ways, nodes);
+        network.addTo(map, segments);
+    }
+
+    /**
+     * Read an extract and write it as a GraphSnapshot, which can be
+     * loaded later without parsing or tracing anything.
+     * @param pbf The .osm.pbf file
+     * @param snapshot The snapshot file to write
+     * @return The graph that was written
+     * @throws IOException if either file cannot be read or written
+     */
+    public MapGraph writeSnapshot(File pbf, File snapshot) throws IOException {
+        MapGraph map = new MapGraph();
+        HashMap<GeographicPoint, HashSet<RoadSegment>> segments =
+                new HashMap<GeographicPoint, HashSet<RoadSegment>>();
+        load(pbf, map, segments);
+        GraphSnapshot.write(snapshot, map.freeze(), segments);
+        return map;
+    }
+
+    // Decode the OSMData blobs of a file in parallel, only the ones in
+    // wanted (counting OSMData blobs from 0) unless it is null, and merge
+    // the results in file order
+    private <T> void decode(File pbf, BitSet wanted, Decoder<T> decoder, Merger<T> merger)
+            throws IOException {
+        int window = 2 * pool.getParallelism() + 2;
+        ArrayDeque<Future<T>> pending = new ArrayDeque<Future<T>>(window);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(pbf), 1 << 16))) {
+            BlobHeader header = new BlobHeader();
+            int index = 0;
+            while (header.read(in)) {
+                if (header.type.equals("OSMHeader")) {
+                    checkHeader(inflate(readFully(in, header.size)));
+                    continue;
+                }
+                if (!header.type.equals("OSMData")
+                        || (wanted != null && !wanted.get(index++))) {
+                    skipFully(in, header.size);
+                    continue;
+                }
+                byte[] blob = readFully(in, header.size);
+                if (pending.size() == window) {
+                    merger.merge(result(pending.poll()));
+                }
+                pending.add(pool.submit((Callable<T>) () -> decoder.decode(inflate(blob))));
+            }
+            while (!pending.isEmpty()) {
+                merger.merge(result(pending.poll()));
+            }
+        } finally {
+            for (Future<T> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static <T> T result(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading PBF", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Problem reading PBF", e.getCause());
+        }
+    }
+
+    // The type and size of the next blob
+    private static final class BlobHeader {
+        String type;
+        int size;
+
+        // Read the header, or return false at the end of the file
+        boolean read(DataInputStream in) throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (length < 0 || length > MAX_HEADER_BYTES) {
+                throw new IOException("Bad PBF blob header length " + length);
+            }
+            ProtoReader header = new ProtoReader(readFully(in, length));
+            type = null;
+            size = -1;
+            while (header.next()) {
+                switch (header.field()) {
+                    case 1: type = header.readString(); break;
+                    case 3: size = header.readInt32(); break;
+                    default: header.skip();
+                }
+            }
+            if (type == null || size < 0 || size > MAX_BLOB_BYTES) {
+                throw new IOException("Bad PBF blob header");
+            }
+            return true;
+        }
+    }
+
+    private static byte[] readFully(DataInputStream in, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void skipFully(DataInputStream in, int size) throws IOException {
+        while (size > 0) {
+            int skipped = in.skipBytes(size);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated PBF file");
+            }
+            size -= skipped;
+        }
+    }
+
+    // The contents of a Blob, inflated if need be
+    private static byte[] inflate(byte[] blob) throws IOException {
+        ProtoReader in = new ProtoReader(blob);
+        ProtoReader data = null;
+        boolean compressed = false;
+        int rawSize = -1;
+        while (in.next()) {
+            switch (in.field()) {
+                case 1:
+                case 3:
+                    compressed = in.field() == 3;
+                    data = in.readMessage();
+                    break;
+                case 2:
+                    rawSize = in.readInt32();
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    throw new IOException("Unsupported PBF blob compression (field " + in.field() + ")");
+                default:
+                    in.skip();
+            }
+        }
+        if (data == null) {
+            throw new IOException("PBF blob has no data");
+        }
+        if (!compressed) {
+            return Arrays.copyOfRange(blob, data.position(), data.position() + data.remaining());
+        }
+        if (rawSize < 0 || rawSize > MAX_BLOB_BYTES) {
+            throw new IOException("Bad PBF blob size " + rawSize);
+        }
+        byte[] raw = new byte[rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, data.position(), data.remaining());
+            int done = 0;
+            while (done < rawSize) {
+                int n = inflater.inflate(raw, done, rawSize - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated PBF blob");
+                }
+                done += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Bad PBF blob", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    private static void checkHeader(byte[] data) throws IOException {
+        ProtoReader in = new ProtoReader(data);
+        while (in.next()) {
+            if (in.field() == 4) {
+                String feature = in.readString();
+                if (!FEATURES.contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                in.skip();
+            }
+        }
+    }
+
+    // The parts of a PrimitiveBlock the importer reads
+    private static final class Block {
+        private ProtoReader stringTable;
+        private String[] strings;
+        final List<ProtoReader> groups = new ArrayList<ProtoReader>();
+        long granularity = 100;
+        long latOffset;
+        long lonOffset;
+
+        Block(byte[] data) throws IOException {
+            ProtoReader in = new ProtoReader(data);
+            while (in.next()) {
+                switch (in.field()) {
+                    case 1: stringTable = in.readMessage(); break;
+                    case 2: groups.add(in.readMessage()); break;
+                    case 17: granularity = in.readVarint(); break;
+                    case 19: latOffset = in.readVarint(); break;
+                    case 20: lonOffset = in.readVarint(); break;
+                    default: in.skip();
+                }
+            }
+        }
+
+        // The string table, decoded the first time it is needed since
+        // blocks of nodes never need it
+        String string(int index) throws IOException {
+            if (strings == null) {
+                List<String> table = new ArrayList<String>();
+                while (stringTable != null && stringTable.next()) {
+                    if (stringTable.field() == 1) {
+                        table.add(stringTable.readString());
+                    } else {
+                        stringTable.skip();
+                    }
+                }
+                strings = table.toArray(new String[0]);
+            }
+            if (index < 0 || index >= strings.length) {
+                throw new IOException("Bad PBF string index " + index);
+            }
+            return strings[index];
+        }
+
+        // Divide rather than multiply by 1e-9, so the result is the
+        // nearest double to the exact decimal coordinate
+        double lat(long raw) {
+            return (latOffset + granularity * raw) / 1e9;
+        }
+
+        double lon(long raw) {
+            return (lonOffset + granularity * raw) / 1e9;
+        }
+    }
+
+    // The highways found in one block
+    private static final class WayBlock {
+        boolean hasNodes;
+        long[] refs = new long[256];
+        int[] starts = new int[17];
+        String[] names = new String[16];
+        String[] types = new String[16];
+        byte[] directions = new byte[16];
+        int count;
+
+        void add(long[] wayRefs, int length, String name, String type, byte direction) {
+            if (count == names.length) {
+                int capacity = names.length * 2;
+                starts = Arrays.copyOf(starts, capacity + 1);
+                names = Arrays.copyOf(names, capacity);
+                types = Arrays.copyOf(types, capacity);
+                directions = Arrays.copyOf(directions, capacity);
+            }
+            int start = starts[count];
+            if (start + length > refs.length) {
+                refs = Arrays.copyOf(refs, Math.max(refs.length * 2, start + length));
+            }
+            System.arraycopy(wayRefs, 0, refs, start, length);
+            names[count] = name;
+            types[count] = type;
+            directions[count] = direction;
+            count++;
+            starts[count] = start + length;
+        }
+    }
+
+    // Pass 1: find the highways in a block
+    private static WayBlock readWays(byte[] data) throws IOException {
+        Block block = new Block(data);
+        WayBlock ways = new WayBlock();
+        long[] refs = new long[64];
+        for (ProtoReader group : block.groups) {
+            while (group.next()) {
+                switch (group.field()) {
+                    case 1:
+                    case 2:
+                        ways.hasNodes = true;
+                        group.skip();
+                        break;
+                    case 3:
+                        refs = readWay(group.readMessage(), block, ways, refs);
+                        break;
+                    default:
+                        group.skip();
+                }
+            }
+        }
+        return ways;
+    }
+
+    // Add a way to ways if it is a highway, and return the refs buffer,
+    // which is grown if the way has more nodes than it holds
+    private static long[] readWay(ProtoReader way, Block block, WayBlock ways, long[] refs)
+            throws IOException {
+        ProtoReader keys = null;
+        ProtoReader vals = null;
+        int numRefs = 0;
+        while (way.next()) {
+            switch (way.field()) {
+                case 2:
+                    keys = way.readMessage();
+                    break;
+                case 3:
+                    vals = way.readMessage();
+                    break;
+                case 8:
+                    ProtoReader packed = way.readMessage();
+                    long ref = 0;
+                    while (packed.hasMore()) {
+                        ref += packed.readSInt64();
+                        if (numRefs == refs.length) {
+                            refs = Arrays.copyOf(refs, numRefs * 2);
+                        }
+                        refs[numRefs++] = ref;
+                    }
+                    break;
+                default:
+                    way.skip();
+            }
+        }
+        if (keys == null || vals == null || numRefs < 2) {
+            return refs;
+        }
+
+        String highway = null;
+        String name = "";
+        String oneway = null;
+        String junction = null;
+        while (keys.hasMore() && vals.hasMore()) {
+            String key = block.string(keys.readInt32());
+            int value = vals.readInt32();
+            switch (key) {
+                case "highway": highway = block.string(value); break;
+                case "name": name = block.string(value); break;
+                case "oneway": oneway = block.string(value); break;
+                case "junction": junction = block.string(value); break;
+                default:
+            }
+        }
+        if (highway != null && HIGHWAYS.contains(highway)) {
+            ways.add(refs, numRefs, name, highway, direction(oneway, highway, junction));
+        }
+        return refs;
+    }
+
+    /**
+     * Which way a road may be travelled, from its tags.
+     * @param oneway The oneway tag, or null if it has none
+     * @param highway The highway tag
+     * @param junction The junction tag, or null if it has none
+     * @return BOTH, FORWARD (in the order of the way's nodes) or BACKWARD
+     */
+    static byte direction(String oneway, String highway, String junction) {
+        if (oneway == null) {
+            boolean implied = highway.equals("motorway") || "roundabout".equals(junction);
+            return implied ? FORWARD : BOTH;
+        }
+        switch (oneway) {
+            case "no":
+            case "false":
+            case "0":
+                return BOTH;
+            case "-1":
+            case "reverse":
+                return BACKWARD;
+            default:
+                return FORWARD;
+        }
+    }
+
+    // Pass 2: set the coordinates of the nodes in a block that are in the
+    // table.  Each node has its own slot, so blocks can do this at once.
+    private static Void readNodes(byte[] data, NodeTable nodes) throws IOException {
+        Block block = new Block(data);
+        for (ProtoReader group : block.groups) {
+            while (group.next()) {
+                switch (group.field()) {
+                    case 1: readNode(group.readMessage(), block, nodes); break;
+                    case 2: readDenseNodes(group.readMessage(), block, nodes); break;
+                    default: group.skip();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void readNode(ProtoReader node, Block block, NodeTable nodes) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (node.next()) {
+            switch (node.field()) {
+                case 1: id = node.readSInt64(); break;
+                case 8: lat = node.readSInt64(); break;
+                case 9: lon = node.readSInt64(); break;
+                default: node.skip();
+            }
+        }
+        int slot = nodes.find(id);
+        if (slot >= 0) {
+            nodes.set(slot, block.lat(lat), block.lon(lon));
+        }
+    }
+
+    // Dense nodes are three packed, delta coded lists with one entry
+    // for each node
+    private static void readDenseNodes(ProtoReader dense, Block block, NodeTable nodes)
+            throws IOException {
+        ProtoReader ids = null;
+        ProtoReader lats = null;
+        ProtoReader lons = null;
+        while (dense.next()) {
+            switch (dense.field()) {
+                case 1: ids = dense.readMessage(); break;
+                case 8: lats = dense.readMessage(); break;
+                case 9: lons = dense.readMessage(); break;
+                default: dense.skip();
+            }
+        }
+        if (ids == null || lats == null || lons == null) {
+            return;
+        }
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (ids.hasMore()) {
+            id += ids.readSInt64();
+            lat += lats.readSInt64();
+            lon += lons.readSInt64();
+            int slot = nodes.find(id);
+            if (slot >= 0) {
+                nodes.set(slot, block.lat(lat), block.lon(lon));
+            }
+        }
+    }
+
+    // All the highways read, in file order, with their names and types
+    // replaced by ids
+    private static final class Ways {
+        long[] refs = new long[1024];
+        int[] starts = new int[65];
+        int[] names = new int[64];
+        int[] types = new int[64];
+        byte[] directions = new byte[64];
+        int count;
+
+        final List<String> nameList = new ArrayList<String>();
+        final List<String> typeList = new ArrayList<String>();
+        private final HashMap<String, Integer> nameIds = new HashMap<String, Integer>();
+        private final HashMap<String, Integer> typeIds = new HashMap<String, Integer>();
+
+        // Add the highways of a block, and their nodes to the table
+        // with unknown coordinates
+        void add(WayBlock block, NodeTable nodes) {
+            int numRefs = starts[count];
+            int total = numRefs + block.starts[block.count];
+            if (total > refs.length) {
+                refs = Arrays.copyOf(refs, Math.max(refs.length * 2, total));
+            }
+            System.arraycopy(block.refs, 0, refs, numRefs, total - numRefs);
+            for (int i = numRefs; i < total; i++) {
+                nodes.add(refs[i]);
+            }
+            for (int w = 0; w < block.count; w++) {
+                if (count == names.length) {
+                    int capacity = names.length * 2;
+                    starts = Arrays.copyOf(starts, capacity + 1);
+                    names = Arrays.copyOf(names, capacity);
+                    types = Arrays.copyOf(types, capacity);
+                    directions = Arrays.copyOf(directions, capacity);
+                }
+                names[count] = id(block.names[w], nameIds, nameList);
+                types[count] = id(block.types[w], typeIds, typeList);
+                directions[count] = block.directions[w];
+                count++;
+                starts[count] = numRefs + block.starts[w + 1];
+            }
+        }
+
+        private static int id(String s, HashMap<String, Integer> ids, List<String> list) {
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = list.size();
+                ids.put(s, id);
+                list.add(s);
+            }
+            return id;
+        }
+    }
+
+    // The highways as segments between nodes numbered from 0, with the
+    // segments out of and into each node in CSR arrays.  Segment s runs
+    // from node from[s] to node to[s] along way way[s].
+    private final class RoadNetwork {
+        final Ways ways;
+        int numNodes;
+        double[] lats;
+        double[] lons;
+
+        int numSegments;
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        int[] way = new int[1024];
+
+        int[] outStart;
+        int[] outSegments;
+        int[] inStart;
+        int[] inSegments;
+
+        RoadNetwork(Ways ways, NodeTable nodes) {
+            this.ways = ways;
+            lats = new double[nodes.size()];
+            lons = new double[nodes.size()];
+            missingNodes = 0;
+
+            // Number the nodes in the order they are first used
+            int[] numbers = new int[nodes.capacity()];
+            Arrays.fill(numbers, -1);
+            for (int w = 0; w < ways.count; w++) {
+                for (int i = ways.starts[w]; i < ways.starts[w + 1] - 1; i++) {
+                    int start = nodes.find(ways.refs[i]);
+                    int end = nodes.find(ways.refs[i + 1]);
+                    if (Double.isNaN(nodes.lat(start)) || Double.isNaN(nodes.lat(end))) {
+                        missingNodes++;
+                        continue;
+                    }
+                    if (start == end || (bounds != null
+                            && (Location.outsideBounds(nodes.lat(start), nodes.lon(start), bounds)
+                            || Location.outsideBounds(nodes.lat(end), nodes.lon(end), bounds)))) {
+                        continue;
+                    }
+                    int a = number(start, nodes, numbers);
+                    int b = number(end, nodes, numbers);
+                    if (ways.directions[w] != BACKWARD) {
+                        addSegment(a, b, w);
+                    }
+                    if (ways.directions[w] != FORWARD) {
+                        addSegment(b, a, w);
+                    }
+                }
+            }
+
+            outStart = new int[numNodes + 1];
+            inStart = new int[numNodes + 1];
+            outSegments = index(from, outStart);
+            inSegments = index(to, inStart);
+        }
+
+        private int number(int slot, NodeTable nodes, int[] numbers) {
+            if (numbers[slot] < 0) {
+                numbers[slot] = numNodes;
+                lats[numNodes] = nodes.lat(slot);
+                lons[numNodes] = nodes.lon(slot);
+                numNodes++;
+            }
+            return numbers[slot];
+        }
+
+        private void addSegment(int a, int b, int w) {
+            if (numSegments == from.length) {
+                from = Arrays.copyOf(from, numSegments * 2);
+                to = Arrays.copyOf(to, numSegments * 2);
+                way = Arrays.copyOf(way, numSegments * 2);
+            }
+            from[numSegments] = a;
+            to[numSegments] = b;
+            way[numSegments] = w;
+            numSegments++;
+        }
+
+        // Group the segments by end, in order, filling start[] with the
+        // offset of each node's group
+        private int[] index(int[] end, int[] start) {
+            for (int s = 0; s < numSegments; s++) {
+                start[end[s] + 1]++;
+            }
+            for (int v = 0; v < numNodes; v++) {
+                start[v + 1] += start[v];
+            }
+            int[] next = Arrays.copyOf(start, numNodes);
+            int[] segments = new int[numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                segments[next[end[s]]++] = s;
+            }
+            return segments;
+        }
+
+        private int name(int s) {
+            return ways.names[way[s]];
+        }
+
+        private boolean isReverse(int s, int t) {
+            return from[s] == to[t] && to[s] == from[t]
+                    && name(s) == name(t) && ways.types[way[s]] == ways.types[way[t]];
+        }
+
+        // The same test as GraphLoader: a node is an intersection unless
+        // one road passes through it, which is when it has one segment in
+        // and one out of the same road and not going back, or two in and
+        // two out of the same road that pair up as the two directions
+        boolean isIntersection(int v) {
+            int numIn = inStart[v + 1] - inStart[v];
+            int numOut = outStart[v + 1] - outStart[v];
+            if (numIn == 1 && numOut == 1) {
+                int in = inSegments[inStart[v]];
+                int out = outSegments[outStart[v]];
+                return from[in] == to[out] || name(in) != name(out);
+            }
+            if (numIn == 2 && numOut == 2) {
+                int in1 = inSegments[inStart[v]];
+                int in2 = inSegments[inStart[v] + 1];
+                int out1 = outSegments[outStart[v]];
+                int out2 = outSegments[outStart[v] + 1];
+                int name = name(in1);
+                boolean sameName = name(in2) == name && name(out1) == name && name(out2) == name;
+                boolean passThrough = (isReverse(in1, out1) && isReverse(in2, out2))
+                        || (isReverse(in1, out2) && isReverse(in2, out1));
+                return !(sameName && passThrough);
+            }
+            return true;
+        }
+
+        // Add the intersections to the graph, and an edge for each road
+        // between them, traced through the nodes that are not
+        // intersections as GraphLoader does
+        void addTo(MapGraph map, HashMap<GeographicPoint, HashSet<RoadSegment>> segments) {
+            GeographicPoint[] points = new GeographicPoint[numNodes];
+            for (int v = 0; v < numNodes; v++) {
+                if (isIntersection(v)) {
+                    points[v] = new GeographicPoint(lats[v], lons[v]);
+                    map.addVertex(points[v]);
+                }
+            }
+
+            List<GeographicPoint> geometry = new ArrayList<GeographicPoint>();
+            for (int v = 0; v < numNodes; v++) {
+                if (points[v] == null) {
+                    continue;
+                }
+                for (int i = outStart[v]; i < outStart[v + 1]; i++) {
+                    int s = outSegments[i];
+                    int previous = v;
+                    int end = to[s];
+                    double length = distance(v, end);
+                    geometry.clear();
+                    for (int steps = 0; points[end] == null; steps++) {
+                        if (steps == numNodes) {
+                            throw new IllegalStateException("Road from " + points[v]
+                                    + " does not reach an intersection");
+                        }
+                        if (segments != null) {
+                            geometry.add(new GeographicPoint(lats[end], lons[end]));
+                        }
+                        int next = outSegments[outStart[end]];
+                        if (outStart[end + 1] - outStart[end] == 2 && to[next] == previous) {
+                            next = outSegments[outStart[end] + 1];
+                        }
+                        previous = end;
+                        end = to[next];
+                        length += distance(previous, end);
+                    }
+
+                    String name = ways.nameList.get(name(s));
+                    String type = ways.typeList.get(ways.types[way[s]]);
+                    map.addEdge(points[v], points[end], name, type, length);
+                    if (segments != null) {
+                        RoadSegment segment = new RoadSegment(points[v], points[end], geometry,
+                                                              name, type, length);
+                        addSegment(segments, points[v], segment);
+                        addSegment(segments, points[end], segment);
+                    }
+                }
+            }
+        }
+
+        private double distance(int a, int b) {
+            return DistanceKernel.distance(lats[a], lons[a], lats[b], lons[b]);
+        }
+
+        private void addSegment(HashMap<GeographicPoint, HashSet<RoadSegment>> segments,
+                                GeographicPoint point, RoadSegment segment) {
+            HashSet<RoadSegment> touching = segments.get(point);
+            if (touching == null) {
+                touching = new HashSet<RoadSegment>();
+                segments.put(point, touching);
+            }
+            touching.add(segment);
+        }
+    }
+
+    // The work done on each block, and on each result in file order
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T decode(byte[] data) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Merger<T> {
+        void merge(T result) throws IOException;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 6) {
+            System.out.println("Usage: PbfImporter extract.osm.pbf out.snapshot [south west north east]");
+            return;
+        }
+
+        float[] bounds = null;
+        if (args.length == 6) {
+            bounds = new float[4];
+            try {
+                for (int i = 0; i < 4; i++) {
+                    bounds[i] = Float.parseFloat(args[i + 2]);
+                }
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        PbfImporter importer = new PbfImporter(bounds);
+        try {
+            long start = System.nanoTime();
+            MapGraph map = importer.writeSnapshot(new File(args[0]), new File(args[1]));
+            System.out.println(importer.getNumWays() + " highways, " + map.getNumVertices()
+                    + " intersections, " + map.getNumEdges() + " roads in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package mapmaker;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the protocol buffer wire format from a byte array, one field at
+ * a time.  Only what OSM PBF files use is supported: varints (plain and
+ * zigzag), length-delimited fields and packed repeated varints.  Fixed
+ * width fields are skipped.
+ *
+ * <pre>
+ *   while (in.next()) {
+ *       switch (in.field()) {
+ *           case 1: id = in.readSInt64(); break;
+ *           default: in.skip();
+ *       }
+ *   }
+ * </pre>
+ */
+final class ProtoReader {
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+    private int field;
+    private int wireType;
+
+    ProtoReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    ProtoReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Read the key of the next field.
+     * @return false at the end of the message
+     */
+    boolean next() throws IOException {
+        if (pos >= limit) {
+            return false;
+        }
+        long key = readVarint();
+        field = (int) (key >>> 3);
+        wireType = (int) (key & 7);
+        return true;
+    }
+
+    /** @return The number of the field whose key was just read */
+    int field() {
+        return field;
+    }
+
+    /** Skip the value of the field whose key was just read. */
+    void skip() throws IOException {
+        switch (wireType) {
+            case VARINT:
+                readVarint();
+                break;
+            case FIXED64:
+                advance(8);
+                break;
+            case LENGTH_DELIMITED:
+                advance(readLength());
+                break;
+            case FIXED32:
+                advance(4);
+                break;
+            default:
+                throw new IOException("Unsupported protobuf wire type " + wireType);
+        }
+    }
+
+    long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= limit) {
+                throw new IOException("Truncated protobuf varint");
+            }
+            byte b = buf[pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed protobuf varint");
+    }
+
+    int readInt32() throws IOException {
+        return (int) readVarint();
+    }
+
+    long readSInt64() throws IOException {
+        long raw = readVarint();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    String readString() throws IOException {
+        int length = readLength();
+        String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return s;
+    }
+
+    /**
+     * Read a length-delimited field as a message of its own.  This is
+     * also how packed repeated fields are read: the values are then read
+     * from the returned reader, with readVarint or readSInt64, while
+     * hasMore() is true.
+     */
+    ProtoReader readMessage() throws IOException {
+        int length = readLength();
+        ProtoReader message = new ProtoReader(buf, pos, length);
+        pos += length;
+        return message;
+    }
+
+    /** @return true if there is more to read */
+    boolean hasMore() {
+        return pos < limit;
+    }
+
+    /** @return The number of bytes left to read */
+    int remaining() {
+        return limit - pos;
+    }
+
+    /** @return The position of the next byte to read in the underlying array */
+    int position() {
+        return pos;
+    }
+
+    /** @return The underlying array */
+    byte[] buffer() {
+        return buf;
+    }
+
+    private int readLength() throws IOException {
+        long length = readVarint();
+        if (length < 0 || length > limit - pos) {
+            throw new IOException("Truncated protobuf field");
+        }
+        return (int) length;
+    }
+
+    private void advance(int bytes) throws IOException {
+        if (bytes > limit - pos) {
+            throw new IOException("Truncated protobuf field");
+        }
+        pos += bytes;
+    }
+}
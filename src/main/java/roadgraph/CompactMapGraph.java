@@ -0,0 +1,1506 @@
+package roadgraph;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import geography.DistanceKernel;
+import geography.GeographicPoint;
+
+/**
+ * An immutable, frozen view of a MapGraph stored in compressed sparse
+ * row (CSR) form.
+ *
+ * Vertices are numbered 0..n-1 in (latitude, longitude) order, so a
+ * GeographicPoint can be turned into a vertex id with a binary search and
+ * no extra lookup table.  The outgoing edges of vertex v are stored in
+ * targets[offsets[v]] .. targets[offsets[v+1]-1], with the road length,
+ * name and type of each edge kept in parallel primitive arrays.  A
+ * reverse index lists the incoming edges of each vertex the same way,
+ * for searches that run backward from the goal.
+ *
+ * Searches weigh each edge by its road length (MapEdge.getLength()),
+ * or, given a CostProfile, by a cost worked out once per profile from
+ * the length and road type and kept in an array beside the lengths.
+ * The graph itself is never written by a search, so any number of
+ * threads may search it at once; each search keeps its state in a
+ * SearchContext.
+ */
+public final class CompactMapGraph {
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] lengths;
+    private final int[] roadNameIds;
+    private final int[] roadTypeIds;
+    private final String[] roadNames;
+    private final String[] roadTypes;
+
+    // Incoming edges of v: sources[reverseOffsets[v]] .. , where
+    // reverseEdges holds the index of the same edge in the forward arrays
+    private final int[] reverseOffsets;
+    private final int[] sources;
+    private final int[] reverseEdges;
+
+    private final SearchContextPool contexts;
+    private final DistanceKernel kernel;
+    private final Heuristic straightLine;
+
+    // The cost of every edge under each profile used so far
+    private final ConcurrentHashMap<CostProfile,double[]> weights =
+            new ConcurrentHashMap<CostProfile,double[]>();
+
+    CompactMapGraph(double[] latitudes, double[] longitudes,
+                    int[] offsets, int[] targets, double[] lengths,
+                    int[] roadNameIds, int[] roadTypeIds,
+                    String[] roadNames, String[] roadTypes)
+    {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.lengths = lengths;
+        this.roadNameIds = roadNameIds;
+        this.roadTypeIds = roadTypeIds;
+        this.roadNames = roadNames;
+        this.roadTypes = roadTypes;
+
+        // Counting sort of the edges by target gives the reverse index
+        int n = latitudes.length;
+        reverseOffsets = new int[n + 1];
+        for (int e = 0; e < targets.length; e++) {
+            reverseOffsets[targets[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            reverseOffsets[v + 1] += reverseOffsets[v];
+        }
+        sources = new int[targets.length];
+        reverseEdges = new int[targets.length];
+        int[] fill = Arrays.copyOf(reverseOffsets, n);
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int slot = fill[targets[e]]++;
+                sources[slot] = v;
+                reverseEdges[slot] = e;
+            }
+        }
+        contexts = new SearchContextPool(n);
+        kernel = new DistanceKernel(latitudes, longitudes);
+        straightLine = kernel::lowerBound;
+    }
+
+    /**
+     * Build the CSR arrays from the nodes of a MapGraph.
+     * @param nodes The nodes of the graph, each with its outgoing edges
+     * @return The frozen view of those nodes
+     */
+    static CompactMapGraph build(Collection<MapNode> nodes)
+    {
+        int n = nodes.size();
+        MapNode[] sorted = nodes.toArray(new MapNode[n]);
+        Arrays.sort(sorted, (a, b) -> comparePoints(
+                a.getLocation().getX(), a.getLocation().getY(),
+                b.getLocation().getX(), b.getLocation().getY()));
+
+        HashMap<MapNode,Integer> ids = new HashMap<MapNode,Integer>();
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        int numEdges = 0;
+        for (int v = 0; v < n; v++) {
+            ids.put(sorted[v], v);
+            lat[v] = sorted[v].getLocation().getX();
+            lon[v] = sorted[v].getLocation().getY();
+            numEdges += sorted[v].getEdges().size();
+        }
+
+        HashMap<String,Integer> nameIds = new HashMap<String,Integer>();
+        HashMap<String,Integer> typeIds = new HashMap<String,Integer>();
+        List<String> names = new ArrayList<String>();
+        List<String> types = new ArrayList<String>();
+
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[numEdges];
+        double[] lengths = new double[numEdges];
+        int[] nameOf = new int[numEdges];
+        int[] typeOf = new int[numEdges];
+        int e = 0;
+        for (int v = 0; v < n; v++) {
+            offsets[v] = e;
+            // keep the edges of a vertex ordered by target for locality
+            MapEdge[] out = sorted[v].getEdges().toArray(new MapEdge[0]);
+            Arrays.sort(out, (a, b) -> {
+                int c = Integer.compare(ids.get(a.getEndNode()), ids.get(b.getEndNode()));
+                return c != 0 ? c : Double.compare(a.getLength(), b.getLength());
+            });
+            for (MapEdge edge : out) {
+                targets[e] = ids.get(edge.getEndNode());
+                lengths[e] = edge.getLength();
+                nameOf[e] = intern(edge.getRoadName(), nameIds, names);
+                typeOf[e] = intern(edge.getRoadType(), typeIds, types);
+                e++;
+            }
+        }
+        offsets[n] = e;
+
+        return new CompactMapGraph(lat, lon, offsets, targets, lengths, nameOf, typeOf,
+                names.toArray(new String[0]), types.toArray(new String[0]));
+    }
+
+    // Return the dictionary index for s, adding it if it is new.
+    private static int intern(String s, HashMap<String,Integer> ids, List<String> values)
+    {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = values.size();
+            ids.put(s, id);
+            values.add(s);
+        }
+        return id;
+    }
+
+    // Order points by latitude then longitude, matching GeographicPoint.equals
+    private static int comparePoints(double lat1, double lon1, double lat2, double lon2)
+    {
+        if (lat1 < lat2) return -1;
+        if (lat1 > lat2) return 1;
+        if (lon1 < lon2) return -1;
+        if (lon1 > lon2) return 1;
+        return 0;
+    }
+
+    /**
+     * Get the number of vertices (road intersections) in the graph
+     * @return The number of vertices in the graph.
+     */
+    public int getNumVertices()
+    {
+        return latitudes.length;
+    }
+
+    /**
+     * Get the number of road segments in the graph
+     * @return The number of edges in the graph.
+     */
+    public int getNumEdges()
+    {
+        return targets.length;
+    }
+
+    /**
+     * Get the intersections of the graph, as a read-only set backed by
+     * the graph that creates each GeographicPoint as it is visited.
+     * @return The vertices of the graph as GeographicPoints
+     */
+    public Set<GeographicPoint> getVertices()
+    {
+        return new AbstractSet<GeographicPoint>() {
+            @Override
+            public int size()
+            {
+                return getNumVertices();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return o instanceof GeographicPoint && indexOf((GeographicPoint) o) >= 0;
+            }
+
+            @Override
+            public Iterator<GeographicPoint> iterator()
+            {
+                return new Iterator<GeographicPoint>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return next < getNumVertices();
+                    }
+
+                    @Override
+                    public GeographicPoint next()
+                    {
+                        if (next >= getNumVertices()) {
+                            throw new NoSuchElementException();
+                        }
+                        return getLocation(next++);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Find the vertex id of a location.
+     * @param location The location of the intersection
+     * @return The vertex id, or -1 if the location is not a vertex
+     */
+    public int indexOf(GeographicPoint location)
+    {
+        double lat = location.getX();
+        double lon = location.getY();
+        int lo = 0;
+        int hi = latitudes.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = comparePoints(latitudes[mid], longitudes[mid], lat, lon);
+            if (c < 0) {
+                lo = mid + 1;
+            }
+            else if (c > 0) {
+                hi = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the location of a vertex
+     * @param v The vertex id
+     * @return A new GeographicPoint at the location of v
+     */
+    public GeographicPoint getLocation(int v)
+    {
+        return new GeographicPoint(latitudes[v], longitudes[v]);
+    }
+
+    double getLatitude(int v)
+    {
+        return latitudes[v];
+    }
+
+    double getLongitude(int v)
+    {
+        return longitudes[v];
+    }
+
+    int firstEdge(int v)
+    {
+        return offsets[v];
+    }
+
+    int lastEdge(int v)
+    {
+        return offsets[v + 1];
+    }
+
+    int getTarget(int e)
+    {
+        return targets[e];
+    }
+
+    double getLength(int e)
+    {
+        return lengths[e];
+    }
+
+    int firstInEdge(int v)
+    {
+        return reverseOffsets[v];
+    }
+
+    int lastInEdge(int v)
+    {
+        return reverseOffsets[v + 1];
+    }
+
+    int getSource(int r)
+    {
+        return sources[r];
+    }
+
+    // The forward edge index of the r'th entry in the reverse index
+    int getReverseEdge(int r)
+    {
+        return reverseEdges[r];
+    }
+
+    String getRoadName(int e)
+    {
+        return roadNames[roadNameIds[e]];
+    }
+
+    String getRoadType(int e)
+    {
+        return roadTypes[roadTypeIds[e]];
+    }
+
+    // The raw arrays, for GraphSnapshot to write out.  Not copied, so
+    // they must not be changed.
+    double[] latitudes()
+    {
+        return latitudes;
+    }
+
+    double[] longitudes()
+    {
+        return longitudes;
+    }
+
+    int[] offsets()
+    {
+        return offsets;
+    }
+
+    int[] targets()
+    {
+        return targets;
+    }
+
+    double[] lengths()
+    {
+        return lengths;
+    }
+
+    int[] roadNameIds()
+    {
+        return roadNameIds;
+    }
+
+    int[] roadTypeIds()
+    {
+        return roadTypeIds;
+    }
+
+    String[] roadNames()
+    {
+        return roadNames;
+    }
+
+    String[] roadTypes()
+    {
+        return roadTypes;
+    }
+
+    /**
+     * Get the cost of every edge under a profile, working them out the
+     * first time the profile is used.  The costs for SHORTEST (or null)
+     * are the edge lengths.
+     * @param profile A cost profile, or null
+     * @return The cost of each edge, indexed like the edges
+     */
+    double[] weightsFor(CostProfile profile)
+    {
+        if (profile == null || profile == CostProfile.SHORTEST) {
+            return lengths;
+        }
+        return weights.computeIfAbsent(profile, (p) -> {
+            double[] perType = new double[roadTypes.length];
+            for (int i = 0; i < perType.length; i++) {
+                perType[i] = p.getCostPerKm(roadTypes[i]);
+            }
+            double[] w = new double[lengths.length];
+            for (int e = 0; e < w.length; e++) {
+                w[e] = lengths[e] * perType[roadTypeIds[e]];
+            }
+            return w;
+        });
+    }
+
+    // A heuristic in km turned into a lower bound on a profile's costs
+    private static Heuristic scaled(Heuristic heuristic, CostProfile profile)
+    {
+        return profile == null ? heuristic : scaled(heuristic, profile.getMinCostPerKm());
+    }
+
+    // A heuristic in km turned into a lower bound on costs of at least
+    // minCostPerKm per km
+    static Heuristic scaled(Heuristic heuristic, double minCostPerKm)
+    {
+        if (heuristic == null || minCostPerKm == 1) {
+            return heuristic;
+        }
+        return (from, to) -> heuristic.estimate(from, to) * minCostPerKm;
+    }
+
+    /**
+     * Get the pool of search contexts used by the searches on this graph.
+     * Callers that run many searches on one thread can take a context
+     * from here and pass it to the search methods directly.
+     * @return The context pool for this graph
+     */
+    public SearchContextPool getContextPool()
+    {
+        return contexts;
+    }
+
+    /**
+     * Compute a hash of the vertices, edges and edge lengths of the graph,
+     * so data derived from it (such as landmark tables) saved to disk can
+     * be checked against the graph it is loaded for.
+     * @return A 64-bit fingerprint of the graph
+     */
+    public long fingerprint()
+    {
+        long h = 0xcbf29ce484222325L;
+        int n = getNumVertices();
+        for (int v = 0; v < n; v++) {
+            h = mix(h, Double.doubleToLongBits(latitudes[v]));
+            h = mix(h, Double.doubleToLongBits(longitudes[v]));
+            h = mix(h, offsets[v + 1]);
+        }
+        for (int e = 0; e < targets.length; e++) {
+            h = mix(h, targets[e]);
+            h = mix(h, Double.doubleToLongBits(lengths[e]));
+        }
+        return h;
+    }
+
+    // One FNV-1a style step over a whole 64-bit word
+    private static long mix(long h, long x)
+    {
+        h ^= x;
+        h *= 0x100000001b3L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Get the heuristic aStarSearch uses by default: the straight line
+     * distance between two vertices, as a slight underestimate of the
+     * great circle distance that needs no trigonometry
+     * (DistanceKernel.lowerBound).
+     * @return The straight line heuristic for this graph
+     */
+    public Heuristic getStraightLineHeuristic()
+    {
+        return straightLine;
+    }
+
+    /**
+     * Get the distance kernel for the vertices of this graph, indexed by
+     * vertex id, for code that measures straight line distances between
+     * many vertices.
+     * @return The distance kernel for this graph
+     */
+    public DistanceKernel getDistanceKernel()
+    {
+        return kernel;
+    }
+
+    /** Find the path from start to goal using breadth first search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest (unweighted)
+     *   path from start to goal (including both start and goal), or null
+     *   if either point is not in the graph or there is no path.
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal)
+    {
+        return bfs(start, goal, (x) -> {});
+    }
+
+    /** Find the path from start to goal using breadth first search
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the shortest (unweighted)
+     *   path from start to goal (including both start and goal), or null
+     *   if either point is not in the graph or there is no path.
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start,
+                                     GeographicPoint goal,
+                                     Consumer<GeographicPoint> nodeSearched)
+    {
+        SearchContext context = contexts.acquire();
+        try {
+            return bfs(start, goal, nodeSearched, context);
+        }
+        finally {
+            contexts.release(context);
+        }
+    }
+
+    /** Find the path from start to goal using breadth first search,
+     * keeping the search state in the given context.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param context A clean context for this graph
+     * @return The list of intersections that form the shortest (unweighted)
+     *   path from start to goal (including both start and goal), or null
+     *   if either point is not in the graph or there is no path.
+     */
+    public List<GeographicPoint> bfs(GeographicPoint start,
+                                     GeographicPoint goal,
+                                     Consumer<GeographicPoint> nodeSearched,
+                                     SearchContext context)
+    {
+        if (start == null || goal == null)
+            throw new NullPointerException("Cannot find route from or to null node");
+        checkContext(context);
+        int s = indexOf(start);
+        int t = indexOf(goal);
+        if (s < 0 || t < 0) {
+            return null;
+        }
+
+        int[] queue = context.fifo;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = s;
+        context.reach(s, 0, -1);
+        context.pushed(1);
+
+        while (head < tail) {
+            int v = queue[head++];
+            context.visit(v);
+            nodeSearched.accept(getLocation(v));
+            if (v == t) {
+                return reconstructPath(context, s, t);
+            }
+            double hops = context.getDistance(v) + 1;
+            context.scanned(offsets[v + 1] - offsets[v]);
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                if (!context.isReached(w)) {
+                    context.reach(w, hops, v);
+                    queue[tail++] = w;
+                    context.pushed(tail - head);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Find the path from start to goal using Dijkstra's algorithm
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal)
+    {
+        return dijkstra(start, goal, (x) -> {});
+    }
+
+    /** Find the path from start to goal using Dijkstra's algorithm
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start,
+                                          GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched)
+    {
+        SearchContext context = contexts.acquire();
+        try {
+            return dijkstra(start, goal, nodeSearched, context);
+        }
+        finally {
+            contexts.release(context);
+        }
+    }
+
+    /** Find the path from start to goal using Dijkstra's algorithm,
+     * keeping the search state in the given context.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param context A clean context for this graph
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start,
+                                          GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched,
+                                          SearchContext context)
+    {
+        return shortestPath(start, goal, nodeSearched, context, null, lengths);
+    }
+
+    /** Find the cheapest path from start to goal under a cost profile
+     * using Dijkstra's algorithm, keeping the search state in the given
+     * context.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param context A clean context for this graph
+     * @param profile How to weigh each road
+     * @return The list of intersections that form the cheapest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> dijkstra(GeographicPoint start,
+                                          GeographicPoint goal,
+                                          Consumer<GeographicPoint> nodeSearched,
+                                          SearchContext context,
+                                          CostProfile profile)
+    {
+        return shortestPath(start, goal, nodeSearched, context, null, weightsFor(profile));
+    }
+
+    /** Find the path from start to goal using A-Star search, with the
+     * straight line distance to the goal as the heuristic.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start, GeographicPoint goal)
+    {
+        return aStarSearch(start, goal, (x) -> {});
+    }
+
+    /** Find the path from start to goal using A-Star search, with the
+     * straight line distance to the goal as the heuristic.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start,
+                                             GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched)
+    {
+        SearchContext context = contexts.acquire();
+        try {
+            return aStarSearch(start, goal, nodeSearched, context);
+        }
+        finally {
+            contexts.release(context);
+        }
+    }
+
+    /** Find the path from start to goal using A-Star search, keeping the
+     * search state in the given context.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param context A clean context for this graph
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start,
+                                             GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched,
+                                             SearchContext context)
+    {
+        return aStarSearch(start, goal, nodeSearched, context, straightLine);
+    }
+
+    /** Find the path from start to goal using A-Star search with the
+     * given heuristic, e.g. a LandmarkHeuristic built for this graph.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param context A clean context for this graph
+     * @param heuristic A consistent lower bound on distances in this graph
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start,
+                                             GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched,
+                                             SearchContext context,
+                                             Heuristic heuristic)
+    {
+        return shortestPath(start, goal, nodeSearched, context, heuristic, lengths);
+    }
+
+    /** Find the cheapest path from start to goal under a cost profile,
+     * using A-Star search with the given heuristic (in km, as for the
+     * other searches; it is scaled to the profile's costs), or Dijkstra's
+     * algorithm if the heuristic is null.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param context A clean context for this graph
+     * @param heuristic A consistent lower bound on distances in km in
+     *   this graph, or null
+     * @param profile How to weigh each road
+     * @return The list of intersections that form the cheapest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> aStarSearch(GeographicPoint start,
+                                             GeographicPoint goal,
+                                             Consumer<GeographicPoint> nodeSearched,
+                                             SearchContext context,
+                                             Heuristic heuristic,
+                                             CostProfile profile)
+    {
+        return shortestPath(start, goal, nodeSearched, context, scaled(heuristic, profile),
+                            weightsFor(profile));
+    }
+
+    /** Find the path from start to goal using Dijkstra's algorithm run
+     * from both ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, GeographicPoint goal)
+    {
+        return bidirectionalSearch(start, goal, (x) -> {}, null, lengths);
+    }
+
+    /** Find the path from start to goal using Dijkstra's algorithm run
+     * from both ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param forward A clean context for the search from start
+     * @param backward A clean context for the search from goal
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start,
+                                                       GeographicPoint goal,
+                                                       Consumer<GeographicPoint> nodeSearched,
+                                                       SearchContext forward,
+                                                       SearchContext backward)
+    {
+        return bidirectionalSearch(start, goal, nodeSearched, forward, backward, null, lengths);
+    }
+
+    /** Find the path from start to goal using A-Star search run from both
+     * ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start, GeographicPoint goal)
+    {
+        return bidirectionalSearch(start, goal, (x) -> {}, straightLine, lengths);
+    }
+
+    /** Find the path from start to goal using A-Star search run from both
+     * ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param forward A clean context for the search from start
+     * @param backward A clean context for the search from goal
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+                                                          GeographicPoint goal,
+                                                          Consumer<GeographicPoint> nodeSearched,
+                                                          SearchContext forward,
+                                                          SearchContext backward)
+    {
+        return bidirectionalSearch(start, goal, nodeSearched, forward, backward, straightLine, lengths);
+    }
+
+    /** Find the path from start to goal using A-Star search run from both
+     * ends at once, with the given heuristic
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param forward A clean context for the search from start
+     * @param backward A clean context for the search from goal
+     * @param heuristic A consistent lower bound on distances in this graph
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+                                                          GeographicPoint goal,
+                                                          Consumer<GeographicPoint> nodeSearched,
+                                                          SearchContext forward,
+                                                          SearchContext backward,
+                                                          Heuristic heuristic)
+    {
+        return bidirectionalSearch(start, goal, nodeSearched, forward, backward, heuristic, lengths);
+    }
+
+    /** Find the cheapest path from start to goal under a cost profile,
+     * searching from both ends at once: A-Star search with the given
+     * heuristic (in km; it is scaled to the profile's costs), or
+     * Dijkstra's algorithm if the heuristic is null.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @param forward A clean context for the search from start
+     * @param backward A clean context for the search from goal
+     * @param heuristic A consistent lower bound on distances in km in
+     *   this graph, or null
+     * @param profile How to weigh each road
+     * @return The list of intersections that form the cheapest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+                                                          GeographicPoint goal,
+                                                          Consumer<GeographicPoint> nodeSearched,
+                                                          SearchContext forward,
+                                                          SearchContext backward,
+                                                          Heuristic heuristic,
+                                                          CostProfile profile)
+    {
+        return bidirectionalSearch(start, goal, nodeSearched, forward, backward,
+                                   scaled(heuristic, profile), weightsFor(profile));
+    }
+
+    private List<GeographicPoint> bidirectionalSearch(GeographicPoint start,
+                                                      GeographicPoint goal,
+                                                      Consumer<GeographicPoint> nodeSearched,
+                                                      Heuristic heuristic,
+                                                      double[] weights)
+    {
+        SearchContext forward = contexts.acquire();
+        SearchContext backward = contexts.acquire();
+        try {
+            return bidirectionalSearch(start, goal, nodeSearched, forward, backward, heuristic, weights);
+        }
+        finally {
+            contexts.release(forward);
+            contexts.release(backward);
+        }
+    }
+
+    // Dijkstra (or A*) forward from start over outgoing edges and backward
+    // from goal over incoming edges, alternating on the smaller queue key.
+    //
+    // A* uses the average potential p(v) = (h(v, goal) - h(start, v)) / 2
+    // forward and -p(v) backward, which keeps both searches consistent so
+    // the usual stopping rule still holds: once the two smallest keys add
+    // up to at least the best path seen, that path is the shortest.
+    private List<GeographicPoint> bidirectionalSearch(GeographicPoint start,
+                                                      GeographicPoint goal,
+                                                      Consumer<GeographicPoint> nodeSearched,
+                                                      SearchContext forward,
+                                                      SearchContext backward,
+                                                      Heuristic heuristic,
+                                                      double[] weights)
+    {
+        checkContext(forward);
+        checkContext(backward);
+        int s = vertexOf(start);
+        int t = vertexOf(goal);
+        if (s == t) {
+            // Reach s first so that reset() clears its visited bit
+            forward.reach(s, 0, -1);
+            forward.visit(s);
+            nodeSearched.accept(getLocation(s));
+            List<GeographicPoint> path = new LinkedList<GeographicPoint>();
+            path.add(getLocation(s));
+            return path;
+        }
+
+        IndexedPriorityQueue forwardQueue = forward.queue;
+        IndexedPriorityQueue backwardQueue = backward.queue;
+        forward.reach(s, 0, -1);
+        forwardQueue.insert(s, heuristic != null ? potential(heuristic, s, s, t) : 0);
+        forward.pushed(1);
+        backward.reach(t, 0, -1);
+        backwardQueue.insert(t, heuristic != null ? -potential(heuristic, t, s, t) : 0);
+        backward.pushed(1);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meetFrom = -1;
+        int meetTo = -1;
+        while (!forwardQueue.isEmpty() && !backwardQueue.isEmpty()) {
+            if (forwardQueue.minKey() + backwardQueue.minKey() >= best) {
+                break;
+            }
+            if (forwardQueue.minKey() <= backwardQueue.minKey()) {
+                int v = forwardQueue.pollMin();
+                forward.visit(v);
+                nodeSearched.accept(getLocation(v));
+                double distV = forward.getDistance(v);
+                forward.scanned(offsets[v + 1] - offsets[v]);
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int w = targets[e];
+                    double d = distV + weights[e];
+                    if (!forward.isVisited(w) && d < forward.getDistance(w)) {
+                        forward.reach(w, d, v);
+                        forwardQueue.offer(w, heuristic != null ? d + potential(heuristic, w, s, t) : d);
+                        forward.pushed(forwardQueue.size());
+                    }
+                    if (backward.isReached(w) && d + backward.getDistance(w) < best) {
+                        best = d + backward.getDistance(w);
+                        meetFrom = v;
+                        meetTo = w;
+                    }
+                }
+            }
+            else {
+                int v = backwardQueue.pollMin();
+                backward.visit(v);
+                nodeSearched.accept(getLocation(v));
+                double distV = backward.getDistance(v);
+                backward.scanned(reverseOffsets[v + 1] - reverseOffsets[v]);
+                for (int r = reverseOffsets[v]; r < reverseOffsets[v + 1]; r++) {
+                    int u = sources[r];
+                    double d = distV + weights[reverseEdges[r]];
+                    if (!backward.isVisited(u) && d < backward.getDistance(u)) {
+                        backward.reach(u, d, v);
+                        backwardQueue.offer(u, heuristic != null ? d - potential(heuristic, u, s, t) : d);
+                        backward.pushed(backwardQueue.size());
+                    }
+                    if (forward.isReached(u) && d + forward.getDistance(u) < best) {
+                        best = d + forward.getDistance(u);
+                        meetFrom = u;
+                        meetTo = v;
+                    }
+                }
+            }
+        }
+        if (meetFrom < 0) {
+            return null;
+        }
+
+        LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
+        for (int v = meetFrom; v != -1; v = forward.getParent(v)) {
+            path.addFirst(getLocation(v));
+        }
+        for (int v = meetTo; v != -1; v = backward.getParent(v)) {
+            path.addLast(getLocation(v));
+        }
+        return path;
+    }
+
+    // The forward potential of v for a search from s to t.
+    private static double potential(Heuristic heuristic, int v, int s, int t)
+    {
+        return (heuristic.estimate(v, t) - heuristic.estimate(s, v)) / 2;
+    }
+
+    /** Find the length of the shortest path from start to goal
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The length of the shortest path in km, or
+     *   Double.POSITIVE_INFINITY if there is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal)
+    {
+        SearchContext context = contexts.acquire();
+        try {
+            int t = vertexOf(goal);
+            if (!search(vertexOf(start), t, (x) -> {}, context, straightLine, lengths)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return context.getDistance(t);
+        }
+        finally {
+            contexts.release(context);
+        }
+    }
+
+    /** Find the cost of the cheapest path from start to goal under a
+     * cost profile
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param profile How to weigh each road
+     * @return The cost of the cheapest path, in the profile's units, or
+     *   Double.POSITIVE_INFINITY if there is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal, CostProfile profile)
+    {
+        return distance(start, goal, scaled(straightLine, profile), weightsFor(profile));
+    }
+
+    // The cost of the cheapest path under the given edge costs, found by
+    // A* with a heuristic that bounds those costs
+    double distance(GeographicPoint start, GeographicPoint goal, Heuristic heuristic,
+                    double[] weights)
+    {
+        SearchContext context = contexts.acquire();
+        try {
+            int t = vertexOf(goal);
+            if (!search(vertexOf(start), t, (x) -> {}, context, heuristic, weights)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return context.getDistance(t);
+        }
+        finally {
+            contexts.release(context);
+        }
+    }
+
+    /** Find the intersections that can both be reached from a location
+     * and drive back to it, so that any tour through them can be driven.
+     *
+     * @param location The location to start from
+     * @return The intersections in the location's strongly connected
+     *   component, including the location, in vertex id order
+     * @throws NullPointerException if location is null or not in the graph
+     */
+    public List<GeographicPoint> stronglyConnected(GeographicPoint location)
+    {
+        int s = vertexOf(location);
+        boolean[] forward = reachable(s, true);
+        boolean[] backward = reachable(s, false);
+        List<GeographicPoint> component = new ArrayList<GeographicPoint>();
+        for (int v = 0; v < getNumVertices(); v++) {
+            if (forward[v] && backward[v]) {
+                component.add(getLocation(v));
+            }
+        }
+        return component;
+    }
+
+    // The vertices reachable from s along the edges, or against them
+    private boolean[] reachable(int s, boolean forward)
+    {
+        boolean[] seen = new boolean[getNumVertices()];
+        int[] stack = new int[getNumVertices()];
+        int size = 0;
+        seen[s] = true;
+        stack[size++] = s;
+        while (size > 0) {
+            int v = stack[--size];
+            int first = forward ? firstEdge(v) : firstInEdge(v);
+            int last = forward ? lastEdge(v) : lastInEdge(v);
+            for (int e = first; e < last; e++) {
+                int w = forward ? targets[e] : sources[e];
+                if (!seen[w]) {
+                    seen[w] = true;
+                    stack[size++] = w;
+                }
+            }
+        }
+        return seen;
+    }
+
+    /** Find the shortest paths from a location to every vertex within a
+     * distance of it.
+     *
+     * @param source The location to start from
+     * @param cutoff The largest distance to search to, in km
+     * @return The tree of shortest paths to the vertices within cutoff
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if the cutoff is negative
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source, double cutoff)
+    {
+        return shortestPathTree(source, cutoff, CostProfile.SHORTEST);
+    }
+
+    /** Find the cheapest paths under a cost profile from a location to
+     * every vertex within a cost of it.
+     *
+     * @param source The location to start from
+     * @param cutoff The largest cost to search to, in the profile's units
+     * @param profile How to weigh each road
+     * @return The tree of cheapest paths to the vertices within cutoff
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if the cutoff is negative
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source, double cutoff,
+                                             CostProfile profile)
+    {
+        SearchContext context = contexts.acquire();
+        try {
+            return shortestPathTree(source, cutoff, profile, context);
+        }
+        finally {
+            contexts.release(context);
+        }
+    }
+
+    /** Find the shortest paths from a location to every vertex within a
+     * distance of it, keeping the search state in the given context.
+     *
+     * @param source The location to start from
+     * @param cutoff The largest distance to search to, in km
+     * @param context A clean context for this graph
+     * @return The tree of shortest paths to the vertices within cutoff
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if the cutoff is negative
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source, double cutoff,
+                                             SearchContext context)
+    {
+        return shortestPathTree(source, cutoff, CostProfile.SHORTEST, context);
+    }
+
+    /** Find the cheapest paths under a cost profile from a location to
+     * every vertex within a cost of it, keeping the search state in the
+     * given context.
+     *
+     * @param source The location to start from
+     * @param cutoff The largest cost to search to, in the profile's units
+     * @param profile How to weigh each road
+     * @param context A clean context for this graph
+     * @return The tree of cheapest paths to the vertices within cutoff
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if the cutoff is negative
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source, double cutoff,
+                                             CostProfile profile, SearchContext context)
+    {
+        if (!(cutoff >= 0)) {
+            throw new IllegalArgumentException("cutoff must not be negative: " + cutoff);
+        }
+        checkContext(context);
+        int s = vertexOf(source);
+        double[] weights = weightsFor(profile);
+        // Settled vertices in order; the BFS queue is free during this search
+        int[] settled = context.fifo;
+        int count = 0;
+
+        IndexedPriorityQueue toExplore = context.queue;
+        context.reach(s, 0, -1);
+        toExplore.insert(s, 0);
+        context.pushed(1);
+        while (!toExplore.isEmpty()) {
+            int v = toExplore.pollMin();
+            context.visit(v);
+            settled[count++] = v;
+            double distV = context.getDistance(v);
+            context.scanned(offsets[v + 1] - offsets[v]);
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                double d = distV + weights[e];
+                if (d <= cutoff && !context.isVisited(w) && d < context.getDistance(w)) {
+                    context.reach(w, d, v);
+                    toExplore.offer(w, d);
+                    context.pushed(toExplore.size());
+                }
+            }
+        }
+        return new ShortestPathTree(this, profile, weights, cutoff, settled, count, context);
+    }
+
+    /** Find the lengths of the shortest paths from each of a list of
+     * sources to each of a list of targets.  Runs one Dijkstra search per
+     * source, each stopping once every target is settled, spread over the
+     * common fork/join pool.
+     *
+     * @param sources The locations to measure from
+     * @param targets The locations to measure to
+     * @return A matrix whose [i][j] entry is the length in km of the
+     *   shortest path from sources[i] to targets[j], or
+     *   Double.POSITIVE_INFINITY if there is no path
+     * @throws NullPointerException if any point is null or not in the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets)
+    {
+        return distanceMatrix(sources, targets, ForkJoinPool.commonPool());
+    }
+
+    /** Find the lengths of the shortest paths from each of a list of
+     * sources to each of a list of targets, running the searches in the
+     * given pool.
+     *
+     * @param sources The locations to measure from
+     * @param targets The locations to measure to
+     * @param pool The pool to run the searches in
+     * @return A matrix whose [i][j] entry is the length in km of the
+     *   shortest path from sources[i] to targets[j], or
+     *   Double.POSITIVE_INFINITY if there is no path
+     * @throws NullPointerException if any point is null or not in the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets,
+                                     ForkJoinPool pool)
+    {
+        return distanceMatrix(sources, targets, pool, CostProfile.SHORTEST);
+    }
+
+    /** Find the costs of the cheapest paths under a cost profile from each
+     * of a list of sources to each of a list of targets, running the
+     * searches in the given pool.
+     *
+     * @param sources The locations to measure from
+     * @param targets The locations to measure to
+     * @param pool The pool to run the searches in
+     * @param profile How to weigh each road
+     * @return A matrix whose [i][j] entry is the cost, in the profile's
+     *   units, of the cheapest path from sources[i] to targets[j], or
+     *   Double.POSITIVE_INFINITY if there is no path
+     * @throws NullPointerException if any point is null or not in the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets,
+                                     ForkJoinPool pool, CostProfile profile)
+    {
+        int[] from = new int[sources.size()];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = vertexOf(sources.get(i));
+        }
+        int[] to = new int[targets.size()];
+        for (int j = 0; j < to.length; j++) {
+            to[j] = vertexOf(targets.get(j));
+        }
+        return distanceMatrix(from, to, pool, profile);
+    }
+
+    /** Find the lengths of the shortest paths from each of a list of
+     * source vertices to each of a list of target vertices.  When there
+     * are fewer targets than sources the searches run backward from the
+     * targets instead, so there are never more searches than the shorter
+     * list.
+     *
+     * @param sources The vertex ids to measure from
+     * @param targets The vertex ids to measure to
+     * @param pool The pool to run the searches in
+     * @return A matrix whose [i][j] entry is the length in km of the
+     *   shortest path from sources[i] to targets[j], or
+     *   Double.POSITIVE_INFINITY if there is no path
+     */
+    public double[][] distanceMatrix(int[] sources, int[] targets, ForkJoinPool pool)
+    {
+        return distanceMatrix(sources, targets, pool, CostProfile.SHORTEST);
+    }
+
+    /** Find the costs of the cheapest paths under a cost profile from each
+     * of a list of source vertices to each of a list of target vertices,
+     * as distanceMatrix(int[], int[], ForkJoinPool) does for lengths.
+     *
+     * @param sources The vertex ids to measure from
+     * @param targets The vertex ids to measure to
+     * @param pool The pool to run the searches in
+     * @param profile How to weigh each road
+     * @return A matrix whose [i][j] entry is the cost, in the profile's
+     *   units, of the cheapest path from sources[i] to targets[j], or
+     *   Double.POSITIVE_INFINITY if there is no path
+     */
+    public double[][] distanceMatrix(int[] sources, int[] targets, ForkJoinPool pool,
+                                     CostProfile profile)
+    {
+        double[] weights = weightsFor(profile);
+        double[][] matrix = new double[sources.length][targets.length];
+        if (sources.length == 0 || targets.length == 0) {
+            return matrix;
+        }
+        boolean backward = targets.length < sources.length;
+        int[] roots = backward ? targets : sources;
+        int[] goals = backward ? sources : targets;
+        boolean[] isGoal = new boolean[getNumVertices()];
+        int distinctGoals = 0;
+        for (int v : goals) {
+            if (!isGoal[v]) {
+                isGoal[v] = true;
+                distinctGoals++;
+            }
+        }
+        int numGoals = distinctGoals;
+
+        // Split the roots into a few ranges per thread; each range reuses
+        // one context for all its searches
+        int ranges = Math.max(1, Math.min(roots.length, 4 * pool.getParallelism()));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(ranges);
+        for (int r = 0; r < ranges; r++) {
+            int first = (int) ((long) roots.length * r / ranges);
+            int last = (int) ((long) roots.length * (r + 1) / ranges);
+            tasks.add(() -> {
+                SearchContext context = contexts.acquire();
+                try {
+                    for (int i = first; i < last; i++) {
+                        settleGoals(roots[i], isGoal, numGoals, context, backward, weights);
+                        for (int j = 0; j < goals.length; j++) {
+                            double d = context.isVisited(goals[j])
+                                    ? context.getDistance(goals[j]) : Double.POSITIVE_INFINITY;
+                            if (backward) {
+                                matrix[j][i] = d;
+                            }
+                            else {
+                                matrix[i][j] = d;
+                            }
+                        }
+                        context.reset();
+                    }
+                }
+                finally {
+                    contexts.release(context);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> result : pool.invokeAll(tasks)) {
+            try {
+                result.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while computing distances", e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Problem computing distances", e.getCause());
+            }
+        }
+        return matrix;
+    }
+
+    // Run Dijkstra's algorithm from root, over the incoming edges if
+    // backward, until all numGoals vertices marked in isGoal are settled
+    // or there is nothing left to settle.
+    private void settleGoals(int root, boolean[] isGoal, int numGoals,
+                             SearchContext context, boolean backward, double[] weights)
+    {
+        IndexedPriorityQueue toExplore = context.queue;
+        context.reach(root, 0, -1);
+        toExplore.insert(root, 0);
+        context.pushed(1);
+        int remaining = numGoals;
+
+        while (!toExplore.isEmpty()) {
+            int v = toExplore.pollMin();
+            context.visit(v);
+            if (isGoal[v] && --remaining == 0) {
+                return;
+            }
+            double distV = context.getDistance(v);
+            int first = backward ? reverseOffsets[v] : offsets[v];
+            int last = backward ? reverseOffsets[v + 1] : offsets[v + 1];
+            context.scanned(last - first);
+            for (int i = first; i < last; i++) {
+                int w = backward ? sources[i] : targets[i];
+                double d = distV + weights[backward ? reverseEdges[i] : i];
+                if (!context.isVisited(w) && d < context.getDistance(w)) {
+                    context.reach(w, d, v);
+                    toExplore.offer(w, d);
+                    context.pushed(toExplore.size());
+                }
+            }
+        }
+    }
+
+    // Shared body of dijkstra and aStarSearch, and of the searches on
+    // live weights.
+    List<GeographicPoint> shortestPath(GeographicPoint start,
+                                       GeographicPoint goal,
+                                       Consumer<GeographicPoint> nodeSearched,
+                                       SearchContext context,
+                                       Heuristic heuristic,
+                                       double[] weights)
+    {
+        checkContext(context);
+        int s = vertexOf(start);
+        int t = vertexOf(goal);
+        if (!search(s, t, nodeSearched, context, heuristic, weights)) {
+            return null;
+        }
+        return reconstructPath(context, s, t);
+    }
+
+    // Find the vertex id of a search endpoint, or throw.
+    private int vertexOf(GeographicPoint location)
+    {
+        if (location == null) {
+            throw new NullPointerException("Cannot find route from or to null node");
+        }
+        int v = indexOf(location);
+        if (v < 0) {
+            throw new NullPointerException("node does not exist");
+        }
+        return v;
+    }
+
+    // Run A* from s until t is settled; with a null heuristic this is
+    // Dijkstra's algorithm.  Returns whether t was reached.
+    private boolean search(int s, int t, Consumer<GeographicPoint> nodeSearched,
+                           SearchContext context, Heuristic heuristic, double[] weights)
+    {
+        IndexedPriorityQueue toExplore = context.queue;
+        context.reach(s, 0, -1);
+        toExplore.insert(s, 0);
+        context.pushed(1);
+
+        while (!toExplore.isEmpty()) {
+            int v = toExplore.pollMin();
+            context.visit(v);
+            nodeSearched.accept(getLocation(v));
+            if (v == t) {
+                return true;
+            }
+            double distV = context.getDistance(v);
+            context.scanned(offsets[v + 1] - offsets[v]);
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                double d = distV + weights[e];
+                if (!context.isVisited(w) && d < context.getDistance(w)) {
+                    context.reach(w, d, v);
+                    toExplore.offer(w, heuristic != null ? d + heuristic.estimate(w, t) : d);
+                    context.pushed(toExplore.size());
+                }
+            }
+        }
+        return false;
+    }
+
+    // Make sure a caller-supplied context fits this graph.
+    private void checkContext(SearchContext context)
+    {
+        if (context.capacity() != getNumVertices()) {
+            throw new IllegalArgumentException("Search context has room for " +
+                    context.capacity() + " vertices, graph has " + getNumVertices());
+        }
+    }
+
+    // Walk the parent links back from goal to start.
+    private List<GeographicPoint> reconstructPath(SearchContext context, int start, int goal)
+    {
+        LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
+        int current = goal;
+        while (current != start) {
+            path.addFirst(getLocation(current));
+            current = context.getParent(current);
+        }
+        path.addFirst(getLocation(start));
+        return path;
+    }
+}
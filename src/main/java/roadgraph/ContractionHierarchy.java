@@ -0,0 +1,543 @@
+package roadgraph;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * A Contraction Hierarchy over a CompactMapGraph, for fast point to point
+ * shortest paths.
+ *
+ * Preprocessing contracts the vertices one at a time, least important
+ * first, where importance is the edge difference (shortcuts added minus
+ * edges removed) plus the number of neighbors already contracted.  When a
+ * vertex v is contracted, a shortcut u->w is added for each pair of
+ * neighbors whose only shortest path runs through v.
+ *
+ * A query runs Dijkstra's algorithm upward (towards more important
+ * vertices) from both ends and meets in the middle; it settles a few
+ * hundred vertices where plain Dijkstra settles thousands.  Shortcuts are
+ * unpacked so the result is the same list of intersections that
+ * MapGraph.dijkstra returns.
+ */
+public final class ContractionHierarchy {
+    // Limits on the local searches that look for paths avoiding v
+    private static final int WITNESS_SETTLE_LIMIT = 256;
+
+    private final CompactMapGraph graph;
+    private final int[] rank;
+
+    // Edges v->w with rank[w] > rank[v], grouped by v
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upMiddles;
+
+    // Edges u->v with rank[u] > rank[v], grouped by v
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final double[] downWeights;
+    private final int[] downMiddles;
+
+    private final SearchContextPool contexts;
+
+    private ContractionHierarchy(CompactMapGraph graph, int[] rank,
+                                 int[] upOffsets, int[] upTargets, double[] upWeights, int[] upMiddles,
+                                 int[] downOffsets, int[] downSources, double[] downWeights, int[] downMiddles)
+    {
+        this.graph = graph;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upMiddles = upMiddles;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downWeights = downWeights;
+        this.downMiddles = downMiddles;
+        contexts = new SearchContextPool(graph.getNumVertices());
+    }
+
+    /**
+     * Contract every vertex of a graph and build the hierarchy.
+     * @param graph The graph to preprocess
+     * @return The contraction hierarchy for graph
+     */
+    public static ContractionHierarchy build(CompactMapGraph graph)
+    {
+        int n = graph.getNumVertices();
+        EdgeList[] out = new EdgeList[n];
+        EdgeList[] in = new EdgeList[n];
+        for (int v = 0; v < n; v++) {
+            out[v] = new EdgeList();
+            in[v] = new EdgeList();
+        }
+        for (int v = 0; v < n; v++) {
+            for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                int w = graph.getTarget(e);
+                if (w != v) {
+                    out[v].addOrLower(w, graph.getLength(e), -1);
+                    in[w].addOrLower(v, graph.getLength(e), -1);
+                }
+            }
+        }
+
+        Contractor contractor = new Contractor(n, out, in);
+        IndexedBinaryHeap order = new IndexedBinaryHeap(n);
+        for (int v = 0; v < n; v++) {
+            order.insert(v, contractor.priority(v));
+        }
+
+        int[] rank = new int[n];
+        EdgeList[] up = new EdgeList[n];
+        EdgeList[] down = new EdgeList[n];
+        int next = 0;
+        while (!order.isEmpty()) {
+            int v = order.pollMin();
+            // Lazy update: the priority may have grown since v was queued
+            double priority = contractor.priority(v);
+            if (!order.isEmpty() && priority > order.minKey()) {
+                order.insert(v, priority);
+                continue;
+            }
+            rank[v] = next++;
+            up[v] = out[v].copy();
+            down[v] = in[v].copy();
+            for (int nb : contractor.contract(v)) {
+                if (order.contains(nb)) {
+                    double p = contractor.priority(nb);
+                    if (p < order.getKey(nb)) {
+                        order.decreaseKey(nb, p);
+                    }
+                }
+            }
+        }
+
+        int[] upOffsets = new int[n + 1];
+        int[] downOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] = upOffsets[v] + up[v].size;
+            downOffsets[v + 1] = downOffsets[v] + down[v].size;
+        }
+        int[] upTargets = new int[upOffsets[n]];
+        double[] upWeights = new double[upOffsets[n]];
+        int[] upMiddles = new int[upOffsets[n]];
+        int[] downSources = new int[downOffsets[n]];
+        double[] downWeights = new double[downOffsets[n]];
+        int[] downMiddles = new int[downOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            up[v].copyInto(upOffsets[v], upTargets, upWeights, upMiddles);
+            down[v].copyInto(downOffsets[v], downSources, downWeights, downMiddles);
+        }
+        return new ContractionHierarchy(graph, rank, upOffsets, upTargets, upWeights, upMiddles,
+                downOffsets, downSources, downWeights, downMiddles);
+    }
+
+    /**
+     * Get the graph this hierarchy was built from
+     * @return The underlying graph
+     */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /**
+     * Get the number of shortcut edges added by preprocessing
+     * @return The number of shortcuts
+     */
+    public int getNumShortcuts()
+    {
+        int count = 0;
+        for (int m : upMiddles) {
+            if (m >= 0) count++;
+        }
+        for (int m : downMiddles) {
+            if (m >= 0) count++;
+        }
+        return count;
+    }
+
+    /** Find the path from start to goal using the hierarchy
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal)
+    {
+        return route(start, goal, (x) -> {});
+    }
+
+    /** Find the path from start to goal using the hierarchy
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal), or null if there
+     *   is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal,
+                                       Consumer<GeographicPoint> nodeSearched)
+    {
+        int s = vertexOf(start);
+        int t = vertexOf(goal);
+        SearchContext forward = contexts.acquire();
+        SearchContext backward = contexts.acquire();
+        try {
+            int meet = search(s, t, forward, backward, nodeSearched);
+            if (meet < 0) {
+                return null;
+            }
+            return unpackPath(s, t, meet, forward, backward);
+        }
+        finally {
+            contexts.release(forward);
+            contexts.release(backward);
+        }
+    }
+
+    /** Find the length of the shortest path from start to goal
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The length of the shortest path in km, or
+     *   Double.POSITIVE_INFINITY if there is no path.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal)
+    {
+        int s = vertexOf(start);
+        int t = vertexOf(goal);
+        SearchContext forward = contexts.acquire();
+        SearchContext backward = contexts.acquire();
+        try {
+            int meet = search(s, t, forward, backward, (x) -> {});
+            if (meet < 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return forward.getDistance(meet) + backward.getDistance(meet);
+        }
+        finally {
+            contexts.release(forward);
+            contexts.release(backward);
+        }
+    }
+
+    private int vertexOf(GeographicPoint location)
+    {
+        if (location == null) {
+            throw new NullPointerException("Cannot find route from or to null node");
+        }
+        int v = graph.indexOf(location);
+        if (v < 0) {
+            throw new NullPointerException("node does not exist");
+        }
+        return v;
+    }
+
+    // Run the upward searches from s and t.  Returns the vertex where the
+    // shortest path turns from going up to going down, or -1.
+    private int search(int s, int t, SearchContext forward, SearchContext backward,
+                       Consumer<GeographicPoint> nodeSearched)
+    {
+        IndexedPriorityQueue forwardQueue = forward.queue;
+        IndexedPriorityQueue backwardQueue = backward.queue;
+        forward.reach(s, 0, -1);
+        forwardQueue.insert(s, 0);
+        backward.reach(t, 0, -1);
+        backwardQueue.insert(t, 0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            // Each direction may stop once it can no longer improve best
+            boolean forwardDone = forwardQueue.isEmpty() || forwardQueue.minKey() >= best;
+            boolean backwardDone = backwardQueue.isEmpty() || backwardQueue.minKey() >= best;
+            if (forwardDone && backwardDone) {
+                break;
+            }
+            boolean goForward = backwardDone ||
+                    (!forwardDone && forwardQueue.minKey() <= backwardQueue.minKey());
+            SearchContext self = goForward ? forward : backward;
+            SearchContext other = goForward ? backward : forward;
+            int v = self.queue.pollMin();
+            self.visit(v);
+            nodeSearched.accept(graph.getLocation(v));
+            double distV = self.getDistance(v);
+
+            if (other.isReached(v) && distV + other.getDistance(v) < best) {
+                best = distV + other.getDistance(v);
+                meet = v;
+            }
+            if (goForward) {
+                if (!isStalled(v, distV, self, downOffsets, downSources, downWeights)) {
+                    relax(v, distV, self, upOffsets, upTargets, upWeights);
+                }
+            }
+            else {
+                if (!isStalled(v, distV, self, upOffsets, upTargets, upWeights)) {
+                    relax(v, distV, self, downOffsets, downSources, downWeights);
+                }
+            }
+        }
+        return meet;
+    }
+
+    private static void relax(int v, double distV, SearchContext context,
+                              int[] offsets, int[] heads, double[] weights)
+    {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            int w = heads[e];
+            double d = distV + weights[e];
+            if (!context.isVisited(w) && d < context.getDistance(w)) {
+                context.reach(w, d, v);
+                context.queue.offer(w, d);
+            }
+        }
+    }
+
+    // Stall on demand: v cannot be on a shortest upward path if a more
+    // important vertex already reached reaches v more cheaply.
+    private static boolean isStalled(int v, double distV, SearchContext context,
+                                     int[] offsets, int[] heads, double[] weights)
+    {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            int u = heads[e];
+            if (context.getDistance(u) + weights[e] < distV) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Turn the up-down path through meet into the list of intersections
+    // on the original graph.
+    private List<GeographicPoint> unpackPath(int s, int t, int meet,
+                                             SearchContext forward, SearchContext backward)
+    {
+        LinkedList<Integer> hierarchyPath = new LinkedList<Integer>();
+        for (int v = meet; v != s; v = forward.getParent(v)) {
+            hierarchyPath.addFirst(v);
+        }
+        hierarchyPath.addFirst(s);
+        for (int v = meet; v != t; ) {
+            v = backward.getParent(v);
+            hierarchyPath.addLast(v);
+        }
+
+        LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
+        path.add(graph.getLocation(s));
+        ArrayDeque<int[]> stack = new ArrayDeque<int[]>();
+        Integer previous = null;
+        for (Integer v : hierarchyPath) {
+            if (previous != null) {
+                stack.push(new int[] {previous, v});
+                while (!stack.isEmpty()) {
+                    int[] edge = stack.pop();
+                    int middle = middleOf(edge[0], edge[1]);
+                    if (middle < 0) {
+                        path.add(graph.getLocation(edge[1]));
+                    }
+                    else {
+                        stack.push(new int[] {middle, edge[1]});
+                        stack.push(new int[] {edge[0], middle});
+                    }
+                }
+            }
+            previous = v;
+        }
+        return path;
+    }
+
+    // Find the vertex a shortcut u->w skips, or -1 for an original edge.
+    private int middleOf(int u, int w)
+    {
+        if (rank[w] > rank[u]) {
+            for (int e = upOffsets[u]; e < upOffsets[u + 1]; e++) {
+                if (upTargets[e] == w) return upMiddles[e];
+            }
+        }
+        else {
+            for (int e = downOffsets[w]; e < downOffsets[w + 1]; e++) {
+                if (downSources[e] == u) return downMiddles[e];
+            }
+        }
+        throw new IllegalStateException("No hierarchy edge from " + u + " to " + w);
+    }
+
+    // The remaining graph during preprocessing, and the witness searches
+    // that decide which shortcuts are needed.
+    private static class Contractor {
+        private final EdgeList[] out;
+        private final EdgeList[] in;
+        private final int[] contractedNeighbors;
+        private final SearchContext witness;
+
+        Contractor(int n, EdgeList[] out, EdgeList[] in)
+        {
+            this.out = out;
+            this.in = in;
+            contractedNeighbors = new int[n];
+            witness = new SearchContext(n);
+        }
+
+        // Edge difference plus the number of contracted neighbors
+        double priority(int v)
+        {
+            int shortcuts = shortcuts(v, false);
+            return shortcuts - in[v].size - out[v].size + contractedNeighbors[v];
+        }
+
+        // Contract v and return its remaining neighbors.
+        int[] contract(int v)
+        {
+            shortcuts(v, true);
+            EdgeList outV = out[v];
+            EdgeList inV = in[v];
+            int[] neighbors = new int[outV.size + inV.size];
+            int k = 0;
+            for (int i = 0; i < outV.size; i++) {
+                int w = outV.nodes[i];
+                in[w].remove(v);
+                contractedNeighbors[w]++;
+                neighbors[k++] = w;
+            }
+            for (int i = 0; i < inV.size; i++) {
+                int u = inV.nodes[i];
+                out[u].remove(v);
+                contractedNeighbors[u]++;
+                neighbors[k++] = u;
+            }
+            outV.size = 0;
+            inV.size = 0;
+            return neighbors;
+        }
+
+        // Count (and if add is set, add) the shortcuts contracting v needs.
+        private int shortcuts(int v, boolean add)
+        {
+            EdgeList inV = in[v];
+            EdgeList outV = out[v];
+            int count = 0;
+            for (int i = 0; i < inV.size; i++) {
+                int u = inV.nodes[i];
+                double toV = inV.weights[i];
+                double limit = 0;
+                for (int j = 0; j < outV.size; j++) {
+                    if (outV.nodes[j] != u) {
+                        limit = Math.max(limit, toV + outV.weights[j]);
+                    }
+                }
+                witnessSearch(u, v, limit);
+                for (int j = 0; j < outV.size; j++) {
+                    int w = outV.nodes[j];
+                    double via = toV + outV.weights[j];
+                    if (w != u && witness.getDistance(w) > via) {
+                        count++;
+                        if (add) {
+                            out[u].addOrLower(w, via, v);
+                            in[w].addOrLower(u, via, v);
+                        }
+                    }
+                }
+                witness.reset();
+            }
+            return count;
+        }
+
+        // Dijkstra from u in the remaining graph without v, up to limit.
+        private void witnessSearch(int u, int v, double limit)
+        {
+            IndexedPriorityQueue queue = witness.queue;
+            witness.reach(u, 0, -1);
+            queue.insert(u, 0);
+            int settled = 0;
+            while (!queue.isEmpty() && queue.minKey() <= limit && settled < WITNESS_SETTLE_LIMIT) {
+                int x = queue.pollMin();
+                witness.visit(x);
+                settled++;
+                double distX = witness.getDistance(x);
+                EdgeList outX = out[x];
+                for (int i = 0; i < outX.size; i++) {
+                    int y = outX.nodes[i];
+                    double d = distX + outX.weights[i];
+                    if (y != v && !witness.isVisited(y) && d < witness.getDistance(y)) {
+                        witness.reach(y, d, x);
+                        queue.offer(y, d);
+                    }
+                }
+            }
+        }
+    }
+
+    // A growable list of edges to or from one vertex, with at most one
+    // (the cheapest) edge per neighbor.
+    private static class EdgeList {
+        int size;
+        int[] nodes = new int[4];
+        double[] weights = new double[4];
+        int[] middles = new int[4];
+
+        void addOrLower(int node, double weight, int middle)
+        {
+            for (int i = 0; i < size; i++) {
+                if (nodes[i] == node) {
+                    if (weight < weights[i]) {
+                        weights[i] = weight;
+                        middles[i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+                middles = Arrays.copyOf(middles, size * 2);
+            }
+            nodes[size] = node;
+            weights[size] = weight;
+            middles[size] = middle;
+            size++;
+        }
+
+        void remove(int node)
+        {
+            for (int i = 0; i < size; i++) {
+                if (nodes[i] == node) {
+                    size--;
+                    nodes[i] = nodes[size];
+                    weights[i] = weights[size];
+                    middles[i] = middles[size];
+                    return;
+                }
+            }
+        }
+
+        EdgeList copy()
+        {
+            EdgeList copy = new EdgeList();
+            copy.size = size;
+            copy.nodes = Arrays.copyOf(nodes, size);
+            copy.weights = Arrays.copyOf(weights, size);
+            copy.middles = Arrays.copyOf(middles, size);
+            return copy;
+        }
+
+        void copyInto(int offset, int[] nodesOut, double[] weightsOut, int[] middlesOut)
+        {
+            System.arraycopy(nodes, 0, nodesOut, offset, size);
+            System.arraycopy(weights, 0, weightsOut, offset, size);
+            System.arraycopy(middles, 0, middlesOut, offset, size);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package roadgraph;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How the searches weigh a road: a cost per km for each road type.  The
+ * cost of an edge is its length times the cost per km of its road type,
+ * so a profile can measure routes in km (SHORTEST), in minutes at a
+ * typical speed for each road type (FASTEST), or in minutes with some
+ * road types made more expensive so routes avoid them (AVOID_MOTORWAYS).
+ *
+ * A CompactMapGraph works out the cost of every edge the first time a
+ * profile is used on it and keeps the costs in an array, so a search
+ * under any profile reads one array element per edge.  Profiles are
+ * immutable and compared by identity; make each custom profile once and
+ * reuse it.
+ */
+public final class CostProfile {
+    /** The speed assumed for road types a speed table does not list, in km/h */
+    public static final double DEFAULT_SPEED = 30;
+
+    /** Route by length; costs are in km */
+    public static final CostProfile SHORTEST =
+            new CostProfile("shortest", Collections.<String,Double>emptyMap(), 1);
+
+    /** Route by driving time at typical speeds for each road type; costs are in minutes */
+    public static final CostProfile FASTEST = bySpeed("fastest", defaultSpeeds(), DEFAULT_SPEED);
+
+    /** Route by driving time, counting time on motorways as four times as long */
+    public static final CostProfile AVOID_MOTORWAYS =
+            FASTEST.withPenalty("avoid motorways", 4, "motorway", "motorway_link");
+
+    private final String name;
+    private final Map<String,Double> costPerKm;
+    private final double defaultCostPerKm;
+    private final double minCostPerKm;
+
+    private CostProfile(String name, Map<String,Double> costPerKm, double defaultCostPerKm)
+    {
+        this.name = name;
+        this.costPerKm = Collections.unmodifiableMap(costPerKm);
+        this.defaultCostPerKm = defaultCostPerKm;
+        double min = defaultCostPerKm;
+        for (double cost : costPerKm.values()) {
+            min = Math.min(min, cost);
+        }
+        minCostPerKm = min;
+    }
+
+    /**
+     * Create a profile that routes by driving time.
+     * @param name The name of the profile
+     * @param speeds The speed on each road type, in km/h
+     * @param defaultSpeed The speed on road types not in speeds, in km/h
+     * @return A profile whose costs are in minutes
+     * @throws IllegalArgumentException if a speed is not positive
+     */
+    public static CostProfile bySpeed(String name, Map<String,Double> speeds, double defaultSpeed)
+    {
+        HashMap<String,Double> costs = new HashMap<String,Double>();
+        for (Map.Entry<String,Double> entry : speeds.entrySet()) {
+            costs.put(entry.getKey(), minutesPerKm(entry.getValue()));
+        }
+        return new CostProfile(name, costs, minutesPerKm(defaultSpeed));
+    }
+
+    /**
+     * Create a profile like this one, but with some road types costing
+     * more, so routes use them only when the alternative is much longer.
+     * @param name The name of the new profile
+     * @param factor What the cost of the road types is multiplied by; at least 1
+     * @param roadTypes The road types to avoid
+     * @return The new profile
+     */
+    public CostProfile withPenalty(String name, double factor, String... roadTypes)
+    {
+        if (!(factor >= 1)) {
+            throw new IllegalArgumentException("penalty factor must be at least 1: " + factor);
+        }
+        HashMap<String,Double> costs = new HashMap<String,Double>(costPerKm);
+        for (String roadType : roadTypes) {
+            costs.put(roadType, getCostPerKm(roadType) * factor);
+        }
+        return new CostProfile(name, costs, defaultCostPerKm);
+    }
+
+    /** @return The name of the profile */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @param roadType A road type
+     * @return The cost of one km of a road of that type
+     */
+    public double getCostPerKm(String roadType)
+    {
+        Double cost = costPerKm.get(roadType);
+        return cost != null ? cost : defaultCostPerKm;
+    }
+
+    /**
+     * Get the cost per km of the cheapest road type.  Multiplying a lower
+     * bound on a distance in km by this gives a lower bound on its cost,
+     * which is how the A* searches scale their heuristics.
+     * @return The smallest cost of one km of road
+     */
+    public double getMinCostPerKm()
+    {
+        return minCostPerKm;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    private static double minutesPerKm(double speed)
+    {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+        return 60 / speed;
+    }
+
+    // Typical urban speeds for the OpenStreetMap highway types in the maps
+    private static Map<String,Double> defaultSpeeds()
+    {
+        HashMap<String,Double> speeds = new HashMap<String,Double>();
+        speeds.put("motorway", 100.0);
+        speeds.put("motorway_link", 60.0);
+        speeds.put("trunk", 80.0);
+        speeds.put("trunk_link", 50.0);
+        speeds.put("primary", 60.0);
+        speeds.put("primary_link", 45.0);
+        speeds.put("secondary", 50.0);
+        speeds.put("secondary_link", 40.0);
+        speeds.put("tertiary", 40.0);
+        speeds.put("tertiary_link", 35.0);
+        speeds.put("unclassified", 30.0);
+        speeds.put("residential", 25.0);
+        speeds.put("living_street", 10.0);
+        speeds.put("service", 15.0);
+        return speeds;
+    }
+}
@@ -0,0 +1,485 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A multilevel partition of a CompactMapGraph into nested cells, the
+ * metric-independent half of customizable route planning.  Level 0 has
+ * the smallest cells; each cell of level l + 1 is a union of cells of
+ * level l.  A vertex with an edge to or from another cell of a level is
+ * a boundary vertex of its cell at that level; OverlayMetric works out
+ * the cost of crossing each cell between its boundary vertices.
+ *
+ * Cells are found by recursive inertial flow bisection: the vertices are
+ * sorted along a few directions, the first and last quarter along each
+ * direction are joined to a source and a sink, and the minimum cut
+ * between them (the roads treated as undirected, unit capacity edges)
+ * splits the set.  The direction with the smallest cut wins.  Small cuts
+ * keep the boundaries, and so the overlay, small.
+ *
+ * A partition depends only on the shape of the graph, so it is built
+ * once and shared by every metric; it is never changed after it is built.
+ */
+public final class GraphPartition {
+    // The largest cells of each level for graphs of any size; levels as
+    // big as the graph are left out
+    private static final int[] DEFAULT_CELL_SIZES = { 32, 256, 4096, 65536 };
+
+    // The share of the vertices joined to each of the source and the sink
+    private static final double BALANCE = 0.25;
+
+    // The directions bisection tries, as (longitude, latitude) weights
+    private static final double[][] DIRECTIONS = { { 1, 0 }, { 0, 1 }, { 1, 1 }, { 1, -1 } };
+
+    private final CompactMapGraph graph;
+    private final int[] maxCellSizes;
+
+    // cells[l][v] is the cell of v at level l
+    private final int[][] cells;
+    private final int[] numCells;
+
+    // The boundary vertices of cell c of level l are
+    // boundary[l][boundaryStart[l][c]] .. boundary[l][boundaryStart[l][c + 1] - 1],
+    // and boundaryIndex[l][v] is the position of v among those of its
+    // cell, or -1.  The clique of cell c is the square matrix of costs
+    // between them, stored from cliqueStart[l][c] in row order.
+    private final int[][] boundaryStart;
+    private final int[][] boundary;
+    private final int[][] boundaryIndex;
+    private final int[][] cliqueStart;
+
+    private GraphPartition(CompactMapGraph graph, int[] maxCellSizes, int[][] cells, int[] numCells)
+    {
+        this.graph = graph;
+        this.maxCellSizes = maxCellSizes;
+        this.cells = cells;
+        this.numCells = numCells;
+        int levels = cells.length;
+        int n = graph.getNumVertices();
+        boundaryStart = new int[levels][];
+        boundary = new int[levels][];
+        boundaryIndex = new int[levels][];
+        cliqueStart = new int[levels][];
+        for (int l = 0; l < levels; l++) {
+            int[] cell = cells[l];
+            boolean[] isBoundary = new boolean[n];
+            for (int v = 0; v < n; v++) {
+                for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                    int w = graph.getTarget(e);
+                    if (cell[w] != cell[v]) {
+                        isBoundary[v] = true;
+                        isBoundary[w] = true;
+                    }
+                }
+            }
+            int[] start = new int[numCells[l] + 1];
+            for (int v = 0; v < n; v++) {
+                if (isBoundary[v]) {
+                    start[cell[v] + 1]++;
+                }
+            }
+            for (int c = 0; c < numCells[l]; c++) {
+                start[c + 1] += start[c];
+            }
+            int[] list = new int[start[numCells[l]]];
+            int[] index = new int[n];
+            int[] fill = Arrays.copyOf(start, numCells[l]);
+            for (int v = 0; v < n; v++) {
+                if (isBoundary[v]) {
+                    index[v] = fill[cell[v]] - start[cell[v]];
+                    list[fill[cell[v]]++] = v;
+                }
+                else {
+                    index[v] = -1;
+                }
+            }
+            int[] clique = new int[numCells[l] + 1];
+            for (int c = 0; c < numCells[l]; c++) {
+                int k = start[c + 1] - start[c];
+                clique[c + 1] = clique[c] + k * k;
+            }
+            boundaryStart[l] = start;
+            boundary[l] = list;
+            boundaryIndex[l] = index;
+            cliqueStart[l] = clique;
+        }
+    }
+
+    /**
+     * Partition a graph with cell sizes suited to its size.
+     * @param graph The graph to partition
+     * @return The partition
+     */
+    public static GraphPartition build(CompactMapGraph graph)
+    {
+        int n = graph.getNumVertices();
+        int levels = 1;
+        while (levels < DEFAULT_CELL_SIZES.length && DEFAULT_CELL_SIZES[levels] < n) {
+            levels++;
+        }
+        return build(graph, Arrays.copyOf(DEFAULT_CELL_SIZES, levels));
+    }
+
+    /**
+     * Partition a graph into cells of at most the given sizes.
+     * @param graph The graph to partition
+     * @param maxCellSizes The most vertices a cell of each level may hold,
+     *   smallest (level 0) first
+     * @return The partition
+     * @throws IllegalArgumentException if there are no sizes, or they are
+     *   not positive and increasing
+     */
+    public static GraphPartition build(CompactMapGraph graph, int... maxCellSizes)
+    {
+        if (maxCellSizes.length == 0) {
+            throw new IllegalArgumentException("A partition needs at least one level");
+        }
+        for (int l = 0; l < maxCellSizes.length; l++) {
+            if (maxCellSizes[l] < 1 || (l > 0 && maxCellSizes[l] <= maxCellSizes[l - 1])) {
+                throw new IllegalArgumentException("Cell sizes must be positive and increasing: "
+                                                   + Arrays.toString(maxCellSizes));
+            }
+        }
+        int n = graph.getNumVertices();
+        int levels = maxCellSizes.length;
+        int[][] cells = new int[levels][n];
+        int[] numCells = new int[levels];
+        Bisector bisector = new Bisector(graph);
+
+        // Split the whole graph into top level cells, then each cell into
+        // the cells of the level below, so the cells nest
+        int[] all = new int[n];
+        for (int v = 0; v < n; v++) {
+            all[v] = v;
+        }
+        List<int[]> parents = new ArrayList<int[]>();
+        parents.add(all);
+        for (int l = levels - 1; l >= 0; l--) {
+            List<int[]> pieces = new ArrayList<int[]>();
+            for (int[] parent : parents) {
+                bisector.splitUntil(parent, maxCellSizes[l], pieces);
+            }
+            for (int c = 0; c < pieces.size(); c++) {
+                for (int v : pieces.get(c)) {
+                    cells[l][v] = c;
+                }
+            }
+            numCells[l] = pieces.size();
+            parents = pieces;
+        }
+        return new GraphPartition(graph, maxCellSizes.clone(), cells, numCells);
+    }
+
+    /** @return The graph that was partitioned */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /** @return The number of levels of cells */
+    public int getNumLevels()
+    {
+        return cells.length;
+    }
+
+    /**
+     * @param level A level, from 0 (the smallest cells)
+     * @return The most vertices a cell of the level may hold
+     */
+    public int getMaxCellSize(int level)
+    {
+        return maxCellSizes[level];
+    }
+
+    /**
+     * @param level A level, from 0 (the smallest cells)
+     * @return The number of cells of the level
+     */
+    public int getNumCells(int level)
+    {
+        return numCells[level];
+    }
+
+    /**
+     * @param level A level, from 0 (the smallest cells)
+     * @param v A vertex id
+     * @return The cell of the level the vertex is in
+     */
+    public int getCell(int level, int v)
+    {
+        return cells[level][v];
+    }
+
+    /**
+     * @param level A level, from 0 (the smallest cells)
+     * @return The number of boundary vertices of all the cells of the level
+     */
+    public int getNumBoundaryVertices(int level)
+    {
+        return boundary[level].length;
+    }
+
+    /**
+     * @param level A level, from 0 (the smallest cells)
+     * @param v A vertex id
+     * @return true if the vertex has an edge to or from another cell of
+     *   the level
+     */
+    public boolean isBoundary(int level, int v)
+    {
+        return boundaryIndex[level][v] >= 0;
+    }
+
+    // The raw arrays, for OverlayMetric.  Not copied, so they must not be
+    // changed.
+    int[] cells(int level)
+    {
+        return cells[level];
+    }
+
+    int[] boundaryStart(int level)
+    {
+        return boundaryStart[level];
+    }
+
+    int[] boundary(int level)
+    {
+        return boundary[level];
+    }
+
+    int[] boundaryIndex(int level)
+    {
+        return boundaryIndex[level];
+    }
+
+    int[] cliqueStart(int level)
+    {
+        return cliqueStart[level];
+    }
+
+    // Recursive inertial flow bisection, with scratch arrays reused across
+    // the sets it splits
+    private static final class Bisector {
+        private final CompactMapGraph graph;
+        private final double[] xs;
+        private final double[] ys;
+        // The position of each vertex in the set being split, or -1
+        private final int[] local;
+
+        Bisector(CompactMapGraph graph)
+        {
+            this.graph = graph;
+            int n = graph.getNumVertices();
+            double middle = 0;
+            for (int v = 0; v < n; v++) {
+                middle += graph.getLatitude(v) / n;
+            }
+            double scale = Math.cos(Math.toRadians(middle));
+            xs = new double[n];
+            ys = new double[n];
+            for (int v = 0; v < n; v++) {
+                xs[v] = graph.getLongitude(v) * scale;
+                ys[v] = graph.getLatitude(v);
+            }
+            local = new int[n];
+            Arrays.fill(local, -1);
+        }
+
+        // Split vertices in two until every piece has at most maxSize
+        void splitUntil(int[] vertices, int maxSize, List<int[]> pieces)
+        {
+            if (vertices.length <= maxSize) {
+                pieces.add(vertices);
+                return;
+            }
+            boolean[] side = bisect(vertices);
+            int count = 0;
+            for (boolean s : side) {
+                if (s) {
+                    count++;
+                }
+            }
+            int[] first = new int[count];
+            int[] second = new int[vertices.length - count];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < vertices.length; k++) {
+                if (side[k]) {
+                    first[i++] = vertices[k];
+                }
+                else {
+                    second[j++] = vertices[k];
+                }
+            }
+            splitUntil(first, maxSize, pieces);
+            splitUntil(second, maxSize, pieces);
+        }
+
+        // Find the smallest cut over the directions; true marks the source
+        // side
+        private boolean[] bisect(int[] vertices)
+        {
+            int m = vertices.length;
+            for (int i = 0; i < m; i++) {
+                local[vertices[i]] = i;
+            }
+            FlowNetwork network = new FlowNetwork(m);
+            for (int i = 0; i < m; i++) {
+                int v = vertices[i];
+                for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                    int j = local[graph.getTarget(e)];
+                    if (j >= 0 && j != i) {
+                        network.addEdge(i, j);
+                    }
+                }
+            }
+
+            boolean[] best = null;
+            int bestCut = Integer.MAX_VALUE;
+            int bestImbalance = Integer.MAX_VALUE;
+            int k = Math.max(1, (int) (m * BALANCE));
+            for (double[] direction : DIRECTIONS) {
+                Integer[] order = new Integer[m];
+                double[] key = new double[m];
+                for (int i = 0; i < m; i++) {
+                    order[i] = i;
+                    key[i] = direction[0] * xs[vertices[i]] + direction[1] * ys[vertices[i]];
+                }
+                Arrays.sort(order, (a, b) -> Double.compare(key[a], key[b]));
+                int[] sources = new int[k];
+                int[] sinks = new int[k];
+                for (int i = 0; i < k; i++) {
+                    sources[i] = order[i];
+                    sinks[i] = order[m - 1 - i];
+                }
+                int cut = network.minCut(sources, sinks);
+                boolean[] side = network.sourceSide();
+                int count = 0;
+                for (boolean s : side) {
+                    if (s) {
+                        count++;
+                    }
+                }
+                int imbalance = Math.abs(2 * count - m);
+                if (cut < bestCut || (cut == bestCut && imbalance < bestImbalance)) {
+                    best = side;
+                    bestCut = cut;
+                    bestImbalance = imbalance;
+                }
+            }
+            for (int v : vertices) {
+                local[v] = -1;
+            }
+            return best;
+        }
+    }
+
+    // Unit capacity undirected edges between the vertices of a set, for
+    // finding minimum cuts by augmenting paths
+    private static final class FlowNetwork {
+        private final int size;
+        private final int[] head;
+        private int[] next = new int[16];
+        private int[] to = new int[16];
+        private int[] flow = new int[16];
+        private int numArcs;
+
+        // Scratch space for the searches
+        private final int[] parentArc;
+        private final int[] queue;
+        private final byte[] role;
+        private boolean[] reached;
+
+        FlowNetwork(int size)
+        {
+            this.size = size;
+            head = new int[size];
+            Arrays.fill(head, -1);
+            parentArc = new int[size];
+            queue = new int[size];
+            role = new byte[size];
+        }
+
+        // Arcs 2a and 2a + 1 are the two directions of one edge
+        void addEdge(int i, int j)
+        {
+            if (numArcs + 2 > to.length) {
+                next = Arrays.copyOf(next, to.length * 2);
+                flow = Arrays.copyOf(flow, to.length * 2);
+                to = Arrays.copyOf(to, to.length * 2);
+            }
+            addArc(i, j);
+            addArc(j, i);
+        }
+
+        private void addArc(int i, int j)
+        {
+            to[numArcs] = j;
+            next[numArcs] = head[i];
+            head[i] = numArcs++;
+        }
+
+        // Push as much flow as possible from the sources to the sinks, one
+        // shortest augmenting path at a time, and return its size
+        int minCut(int[] sources, int[] sinks)
+        {
+            Arrays.fill(flow, 0, numArcs, 0);
+            Arrays.fill(role, (byte) 0);
+            for (int s : sources) {
+                role[s] = 1;
+            }
+            for (int t : sinks) {
+                role[t] = 2;
+            }
+            int total = 0;
+            while (true) {
+                int sink = search(sources);
+                if (sink < 0) {
+                    return total;
+                }
+                for (int v = sink; role[v] != 1; ) {
+                    int a = parentArc[v];
+                    flow[a]++;
+                    flow[a ^ 1]--;
+                    v = to[a ^ 1];
+                }
+                total++;
+            }
+        }
+
+        // The vertices still reachable from the sources after minCut
+        boolean[] sourceSide()
+        {
+            return reached.clone();
+        }
+
+        // Breadth first search from the sources through arcs with spare
+        // capacity, returning the first sink reached or -1
+        private int search(int[] sources)
+        {
+            reached = new boolean[size];
+            int tail = 0;
+            for (int s : sources) {
+                reached[s] = true;
+                queue[tail++] = s;
+            }
+            for (int h = 0; h < tail; h++) {
+                int v = queue[h];
+                for (int a = head[v]; a >= 0; a = next[a]) {
+                    int w = to[a];
+                    if (!reached[w] && flow[a] < 1) {
+                        reached[w] = true;
+                        parentArc[w] = a;
+                        if (role[w] == 2) {
+                            return w;
+                        }
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+}
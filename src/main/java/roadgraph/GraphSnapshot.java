@@ -0,0 +1,405 @@
+package roadgraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import geography.GeographicPoint;
+import geography.RoadSegment;
+
+/**
+ * A binary snapshot of a built road graph: the CompactMapGraph arrays,
+ * the road name and type dictionaries, and the geometry of the road
+ * segments drawn on the map.
+ *
+ * Loading a .map text file tokenizes every line, then traces intersections
+ * and edges through hash maps of points.  A snapshot stores the result,
+ * so later starts can skip all of that: the file is mapped into memory
+ * and each array is copied out of it in one bulk read, with no object
+ * created per vertex or edge.  RoadSegment objects are only created when
+ * getRoads() is called.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *   header   int magic, version, n, m, names, types, segments, geometry points
+ *   doubles  latitudes[n], longitudes[n], lengths[m], segment lengths,
+ *            geometry latitudes, geometry longitudes
+ *   ints     offsets[n+1], targets[m], name ids[m], type ids[m],
+ *            segment from, to, name, type, geometry offsets[segments+1]
+ *   strings  for names then types: byte offsets[count+1], UTF-8 bytes
+ * </pre>
+ * All doubles come first so every array is naturally aligned.  The
+ * version is bumped whenever the layout changes, or the way GraphLoader
+ * computes the stored values changes, and read() rejects files of any
+ * other version.
+ */
+public final class GraphSnapshot {
+    /** The layout version written by this class.  Version 2 stores edge
+     * lengths from GeographicPoint.fastDistance instead of haversine. */
+    public static final int VERSION = 2;
+
+    private static final int MAGIC = 0x52475348;  // "RGSH"
+    private static final int HEADER_BYTES = 32;
+
+    private final CompactMapGraph graph;
+    private final String[] roadNames;
+    private final String[] roadTypes;
+
+    // Road segment s runs between vertices segmentFrom[s] and segmentTo[s]
+    // through geometry points geometryOffsets[s] .. geometryOffsets[s+1]-1
+    private final int[] segmentFrom;
+    private final int[] segmentTo;
+    private final int[] segmentName;
+    private final int[] segmentType;
+    private final double[] segmentLengths;
+    private final int[] geometryOffsets;
+    private final double[] geometryLatitudes;
+    private final double[] geometryLongitudes;
+
+    private GraphSnapshot(CompactMapGraph graph, String[] roadNames, String[] roadTypes,
+                          int[] segmentFrom, int[] segmentTo, int[] segmentName,
+                          int[] segmentType, double[] segmentLengths, int[] geometryOffsets,
+                          double[] geometryLatitudes, double[] geometryLongitudes)
+    {
+        this.graph = graph;
+        this.roadNames = roadNames;
+        this.roadTypes = roadTypes;
+        this.segmentFrom = segmentFrom;
+        this.segmentTo = segmentTo;
+        this.segmentName = segmentName;
+        this.segmentType = segmentType;
+        this.segmentLengths = segmentLengths;
+        this.geometryOffsets = geometryOffsets;
+        this.geometryLatitudes = geometryLatitudes;
+        this.geometryLongitudes = geometryLongitudes;
+    }
+
+    /**
+     * Write a snapshot of a graph and its road geometry.
+     * @param file The file to write
+     * @param graph The frozen graph
+     * @param roads The road segments touching each intersection, as built
+     *   by GraphLoader, or null to write no geometry
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if a road segment ends somewhere
+     *   that is not a vertex of the graph
+     */
+    public static void write(File file, CompactMapGraph graph,
+                             Map<GeographicPoint,? extends Collection<RoadSegment>> roads)
+            throws IOException
+    {
+        // Each segment is listed under both of its ends
+        LinkedHashSet<RoadSegment> segments = new LinkedHashSet<RoadSegment>();
+        if (roads != null) {
+            for (Collection<RoadSegment> touching : roads.values()) {
+                segments.addAll(touching);
+            }
+        }
+
+        // Segment names and types share the graph's dictionaries
+        List<String> names = new ArrayList<String>();
+        List<String> types = new ArrayList<String>();
+        HashMap<String,Integer> nameIds = dictionary(graph.roadNames(), names);
+        HashMap<String,Integer> typeIds = dictionary(graph.roadTypes(), types);
+
+        int numSegments = segments.size();
+        int[] from = new int[numSegments];
+        int[] to = new int[numSegments];
+        int[] nameOf = new int[numSegments];
+        int[] typeOf = new int[numSegments];
+        double[] segmentLengths = new double[numSegments];
+        int[] geometryOffsets = new int[numSegments + 1];
+        List<GeographicPoint> geometry = new ArrayList<GeographicPoint>();
+        int s = 0;
+        for (RoadSegment segment : segments) {
+            from[s] = vertexOf(graph, segment.getPoint1());
+            to[s] = vertexOf(graph, segment.getPoint2());
+            nameOf[s] = intern(segment.getRoadName(), nameIds, names);
+            typeOf[s] = intern(segment.getRoadType(), typeIds, types);
+            segmentLengths[s] = segment.getLength();
+            geometryOffsets[s] = geometry.size();
+            geometry.addAll(segment.getGeometryPoints());
+            s++;
+        }
+        geometryOffsets[numSegments] = geometry.size();
+
+        int n = graph.getNumVertices();
+        int m = graph.getNumEdges();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(m);
+            out.writeInt(names.size());
+            out.writeInt(types.size());
+            out.writeInt(numSegments);
+            out.writeInt(geometry.size());
+
+            writeDoubles(out, graph.latitudes());
+            writeDoubles(out, graph.longitudes());
+            writeDoubles(out, graph.lengths());
+            writeDoubles(out, segmentLengths);
+            for (GeographicPoint p : geometry) {
+                out.writeDouble(p.getX());
+            }
+            for (GeographicPoint p : geometry) {
+                out.writeDouble(p.getY());
+            }
+
+            writeInts(out, graph.offsets());
+            writeInts(out, graph.targets());
+            writeInts(out, graph.roadNameIds());
+            writeInts(out, graph.roadTypeIds());
+            writeInts(out, from);
+            writeInts(out, to);
+            writeInts(out, nameOf);
+            writeInts(out, typeOf);
+            writeInts(out, geometryOffsets);
+
+            writeStrings(out, names);
+            writeStrings(out, types);
+        }
+    }
+
+    /**
+     * Read a snapshot written by write().
+     * @param file The file to read
+     * @return The snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot,
+     *   was written in a different version of the layout or is truncated
+     */
+    public static GraphSnapshot read(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a graph snapshot: " + file);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Graph snapshot too large to map: " + file);
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a graph snapshot: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported graph snapshot version " + version + ": " + file);
+            }
+            int n = buffer.getInt();
+            int m = buffer.getInt();
+            int numNames = buffer.getInt();
+            int numTypes = buffer.getInt();
+            int numSegments = buffer.getInt();
+            int numGeometry = buffer.getInt();
+            long arrays = 8L * (2L * n + m + numSegments + 2L * numGeometry)
+                    + 4L * ((n + 1L) + 3L * m + 4L * numSegments + (numSegments + 1L));
+            if (n < 0 || m < 0 || numSegments < 0 || numGeometry < 0
+                    || HEADER_BYTES + arrays > size) {
+                throw new IOException("Truncated graph snapshot: " + file);
+            }
+
+            double[] latitudes = readDoubles(buffer, n);
+            double[] longitudes = readDoubles(buffer, n);
+            double[] lengths = readDoubles(buffer, m);
+            double[] segmentLengths = readDoubles(buffer, numSegments);
+            double[] geometryLatitudes = readDoubles(buffer, numGeometry);
+            double[] geometryLongitudes = readDoubles(buffer, numGeometry);
+
+            int[] offsets = readInts(buffer, n + 1);
+            int[] targets = readInts(buffer, m);
+            int[] nameIds = readInts(buffer, m);
+            int[] typeIds = readInts(buffer, m);
+            int[] segmentFrom = readInts(buffer, numSegments);
+            int[] segmentTo = readInts(buffer, numSegments);
+            int[] segmentName = readInts(buffer, numSegments);
+            int[] segmentType = readInts(buffer, numSegments);
+            int[] geometryOffsets = readInts(buffer, numSegments + 1);
+
+            String[] names = readStrings(buffer, numNames, file);
+            String[] types = readStrings(buffer, numTypes, file);
+
+            CompactMapGraph graph = new CompactMapGraph(latitudes, longitudes, offsets,
+                    targets, lengths, nameIds, typeIds, names, types);
+            return new GraphSnapshot(graph, names, types, segmentFrom, segmentTo,
+                    segmentName, segmentType, segmentLengths, geometryOffsets,
+                    geometryLatitudes, geometryLongitudes);
+        }
+    }
+
+    /**
+     * Get the graph stored in the snapshot
+     * @return The frozen graph
+     */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /**
+     * Get the number of road segments stored in the snapshot
+     * @return The number of road segments
+     */
+    public int getNumSegments()
+    {
+        return segmentFrom.length;
+    }
+
+    /**
+     * Build the road segments touching each intersection, in the form
+     * GraphLoader.loadRoadMap fills in.  Each call builds a new map.
+     * @return The road segments, keyed by each of their end points
+     */
+    public HashMap<GeographicPoint,HashSet<RoadSegment>> getRoads()
+    {
+        HashMap<GeographicPoint,HashSet<RoadSegment>> roads =
+                new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+        GeographicPoint[] points = new GeographicPoint[graph.getNumVertices()];
+        for (int s = 0; s < segmentFrom.length; s++) {
+            GeographicPoint start = pointAt(points, segmentFrom[s]);
+            GeographicPoint end = pointAt(points, segmentTo[s]);
+            List<GeographicPoint> geometry =
+                    new ArrayList<GeographicPoint>(geometryOffsets[s + 1] - geometryOffsets[s]);
+            for (int i = geometryOffsets[s]; i < geometryOffsets[s + 1]; i++) {
+                geometry.add(new GeographicPoint(geometryLatitudes[i], geometryLongitudes[i]));
+            }
+            RoadSegment segment = new RoadSegment(start, end, geometry,
+                    roadNames[segmentName[s]], roadTypes[segmentType[s]], segmentLengths[s]);
+            addSegment(roads, start, segment);
+            addSegment(roads, end, segment);
+        }
+        return roads;
+    }
+
+    // One shared GeographicPoint per vertex
+    private GeographicPoint pointAt(GeographicPoint[] points, int v)
+    {
+        if (points[v] == null) {
+            points[v] = graph.getLocation(v);
+        }
+        return points[v];
+    }
+
+    private static void addSegment(HashMap<GeographicPoint,HashSet<RoadSegment>> roads,
+                                   GeographicPoint point, RoadSegment segment)
+    {
+        HashSet<RoadSegment> segs = roads.get(point);
+        if (segs == null) {
+            segs = new HashSet<RoadSegment>();
+            roads.put(point, segs);
+        }
+        segs.add(segment);
+    }
+
+    private static int vertexOf(CompactMapGraph graph, GeographicPoint point)
+    {
+        int v = graph.indexOf(point);
+        if (v < 0) {
+            throw new IllegalArgumentException("Road segment end " + point +
+                    " is not a vertex of the graph");
+        }
+        return v;
+    }
+
+    // Start a dictionary holding the given strings, in order.
+    private static HashMap<String,Integer> dictionary(String[] initial, List<String> values)
+    {
+        HashMap<String,Integer> ids = new HashMap<String,Integer>();
+        for (String s : initial) {
+            ids.put(s, values.size());
+            values.add(s);
+        }
+        return ids;
+    }
+
+    private static int intern(String s, HashMap<String,Integer> ids, List<String> values)
+    {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = values.size();
+            ids.put(s, id);
+            values.add(s);
+        }
+        return id;
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException
+    {
+        for (double x : values) {
+            out.writeDouble(x);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException
+    {
+        for (int x : values) {
+            out.writeInt(x);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException
+    {
+        byte[][] encoded = new byte[values.size()][];
+        int offset = 0;
+        out.writeInt(offset);
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = values.get(i).getBytes(StandardCharsets.UTF_8);
+            offset += encoded[i].length;
+            out.writeInt(offset);
+        }
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count)
+    {
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * count);
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count)
+    {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    private static String[] readStrings(ByteBuffer buffer, int count, File file) throws IOException
+    {
+        if (count < 0 || buffer.remaining() < 4L * (count + 1)) {
+            throw new IOException("Truncated graph snapshot: " + file);
+        }
+        int[] offsets = readInts(buffer, count + 1);
+        int length = offsets[count];
+        if (length < 0 || buffer.remaining() < length) {
+            throw new IOException("Truncated graph snapshot: " + file);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = new String(bytes, offsets[i], offsets[i + 1] - offsets[i],
+                    StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+}
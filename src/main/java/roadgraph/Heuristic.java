@@ -0,0 +1,18 @@
+package roadgraph;
+
+/**
+ * A lower bound on the distance between two vertices of a
+ * CompactMapGraph, used to guide A* searches.  A heuristic must never
+ * overestimate, and should be consistent: estimate(u, t) is at most the
+ * length of the edge u->v plus estimate(v, t).
+ */
+public interface Heuristic {
+
+    /**
+     * Estimate the shortest path distance from one vertex to another.
+     * @param from The vertex id the path starts at
+     * @param to The vertex id the path ends at
+     * @return A lower bound on the distance from from to to, in km
+     */
+    double estimate(int from, int to);
+}
@@ -0,0 +1,708 @@
+package roadgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import geography.GeographicPoint;
+
+/**
+ * A hub labeling (2-hop labeling) of a CompactMapGraph, for exact
+ * distances in about a microsecond.
+ *
+ * Every vertex v gets an out label, a list of hubs h with d(v,h), and an
+ * in label, a list of hubs h with d(h,v), chosen so that for any s and t
+ * some hub on a shortest path from s to t is in both the out label of s
+ * and the in label of t.  Then
+ *
+ *     d(s,t) = min over h of d(s,h) + d(h,t)
+ *
+ * and since labels are sorted by hub, the query is a merge of two short
+ * arrays with no search at all.
+ *
+ * Labels are built by pruned landmark labeling: vertices are taken in
+ * order of importance, and a Dijkstra search from each adds it as a hub
+ * to the labels it reaches, but stops at any vertex whose distance the
+ * labels already give.  Importance is the number of descendants a vertex
+ * has in a sample of shortest path trees, so vertices on many shortest
+ * paths (main roads, bridges) come first and cover most pairs early.
+ * Each label entry also records the next vertex towards the hub, so the
+ * path through the hub can be unpacked.
+ *
+ * The labels are kept outside the Java heap, in one buffer laid out the
+ * same way as the file save() writes; load() maps that file into memory
+ * rather than reading it.  Like landmark tables, the file records a
+ * fingerprint of the graph and its edge costs and is ignored if they
+ * have changed.
+ */
+public final class HubLabels {
+    private static final int MAGIC = 0x48554201;  // "HUB" 1
+    private static final int HEADER_BYTES = 24;
+
+    // The number of shortest path trees sampled to order the vertices
+    private static final int SAMPLE_TREES = 16;
+
+    private final CompactMapGraph graph;
+    private final CostProfile profile;
+    private final ByteBuffer data;
+
+    // order.get(r) is the vertex of the hub with rank r
+    private final IntBuffer order;
+    private final Labels out;
+    private final Labels in;
+
+    private HubLabels(CompactMapGraph graph, CostProfile profile, ByteBuffer data)
+    {
+        this.graph = graph;
+        this.profile = profile;
+        this.data = data;
+        int n = data.getInt(4);
+        int outEntries = data.getInt(16);
+        int inEntries = data.getInt(20);
+        int position = HEADER_BYTES;
+        order = ints(data, position, n);
+        position += 4 * n;
+        IntBuffer outOffsets = ints(data, position, n + 1);
+        position += 4 * (n + 1);
+        IntBuffer inOffsets = ints(data, position, n + 1);
+        position += 4 * (n + 1);
+        IntBuffer outHubs = ints(data, position, outEntries);
+        position += 4 * outEntries;
+        IntBuffer outNext = ints(data, position, outEntries);
+        position += 4 * outEntries;
+        IntBuffer inHubs = ints(data, position, inEntries);
+        position += 4 * inEntries;
+        IntBuffer inNext = ints(data, position, inEntries);
+        position += 4 * inEntries;
+        position = (position + 7) & ~7;
+        DoubleBuffer outDists = doubles(data, position, outEntries);
+        position += 8 * outEntries;
+        DoubleBuffer inDists = doubles(data, position, inEntries);
+        out = new Labels(outOffsets, outHubs, outNext, outDists);
+        in = new Labels(inOffsets, inHubs, inNext, inDists);
+    }
+
+    /**
+     * Build hub labels for road lengths.
+     * @param graph The graph to label
+     * @return The labels
+     */
+    public static HubLabels build(CompactMapGraph graph)
+    {
+        return build(graph, CostProfile.SHORTEST);
+    }
+
+    /**
+     * Build hub labels for the costs of a profile.  This runs two pruned
+     * Dijkstra searches per vertex, each settling only the vertices
+     * whose distances the labels so far miss.
+     * @param graph The graph to label
+     * @param profile How to weigh each road
+     * @return The labels
+     */
+    public static HubLabels build(CompactMapGraph graph, CostProfile profile)
+    {
+        int n = graph.getNumVertices();
+        double[] weights = graph.weightsFor(profile);
+        int[] order = importanceOrder(graph, weights);
+
+        LabelBuilder outLabels = new LabelBuilder(n);
+        LabelBuilder inLabels = new LabelBuilder(n);
+        PrunedSearch search = new PrunedSearch(graph, weights);
+        for (int r = 0; r < n; r++) {
+            search.run(order[r], r, false, inLabels, outLabels);
+            search.run(order[r], r, true, outLabels, inLabels);
+        }
+
+        int outEntries = outLabels.numEntries;
+        int inEntries = inLabels.numEntries;
+        ByteBuffer data = ByteBuffer.allocateDirect(dataBytes(n, outEntries, inEntries));
+        data.putInt(MAGIC).putInt(n).putLong(fingerprint(graph, weights))
+            .putInt(outEntries).putInt(inEntries);
+        for (int v : order) {
+            data.putInt(v);
+        }
+        outLabels.putOffsets(data);
+        inLabels.putOffsets(data);
+        outLabels.putInts(data, outLabels.hubs);
+        outLabels.putInts(data, outLabels.next);
+        inLabels.putInts(data, inLabels.hubs);
+        inLabels.putInts(data, inLabels.next);
+        data.position((data.position() + 7) & ~7);
+        outLabels.putDists(data);
+        inLabels.putDists(data);
+        data.clear();
+        return new HubLabels(graph, profile, data);
+    }
+
+    /**
+     * Load hub labels saved by save(), mapping the file into memory.
+     * @param file The file to read
+     * @param graph The graph the labels are for
+     * @param profile The profile the labels were built for
+     * @return The labels, or null if the file does not exist or was saved
+     *   for a different graph or different edge costs
+     * @throws IOException if the file cannot be read or is truncated
+     */
+    public static HubLabels load(File file, CompactMapGraph graph, CostProfile profile)
+        throws IOException
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // Check the header before mapping anything, so a stale file is
+            // left unmapped and can be rewritten straight away
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Truncated hub label file: " + file);
+                }
+            }
+            int magic = header.getInt(0);
+            int n = header.getInt(4);
+            long fingerprint = header.getLong(8);
+            if (magic != MAGIC || n != graph.getNumVertices()
+                    || fingerprint != fingerprint(graph, graph.weightsFor(profile))) {
+                return null;
+            }
+            int outEntries = header.getInt(16);
+            int inEntries = header.getInt(20);
+            if (outEntries < 0 || inEntries < 0
+                    || channel.size() != dataBytes(n, outEntries, inEntries)) {
+                throw new IOException("Truncated hub label file: " + file);
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new HubLabels(graph, profile, data);
+        }
+    }
+
+    /**
+     * Load hub labels from a file if it holds labels for this graph and
+     * profile; otherwise build them and save them to the file for next
+     * time.  Problems reading or writing the file are reported and the
+     * labels are built in memory.
+     * @param file The file the labels are kept in
+     * @param graph The graph to label
+     * @param profile How to weigh each road
+     * @return The labels
+     */
+    public static HubLabels loadOrBuild(File file, CompactMapGraph graph, CostProfile profile)
+    {
+        try {
+            HubLabels labels = load(file, graph, profile);
+            if (labels != null) {
+                return labels;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Problem loading hub label file: " + file);
+            e.printStackTrace();
+        }
+        HubLabels labels = build(graph, profile);
+        try {
+            labels.save(file);
+        }
+        catch (IOException e) {
+            System.err.println("Problem writing hub label file: " + file);
+            e.printStackTrace();
+        }
+        return labels;
+    }
+
+    /**
+     * Write the labels to a file.
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer buffer = data.duplicate();
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Get the graph these labels were built for
+     * @return The graph whose vertex ids the labels take
+     */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /**
+     * Get the profile these labels were built for
+     * @return The profile whose costs the distances are in
+     */
+    public CostProfile getProfile()
+    {
+        return profile;
+    }
+
+    /**
+     * Get the total number of hubs in all the labels
+     * @return The number of label entries, in and out
+     */
+    public long getNumEntries()
+    {
+        return (long) out.hubs.limit() + in.hubs.limit();
+    }
+
+    /**
+     * Get the average number of hubs in a label
+     * @return The mean label size over the in and out labels of every vertex
+     */
+    public double getAverageLabelSize()
+    {
+        int n = graph.getNumVertices();
+        return n == 0 ? 0 : getNumEntries() / (2.0 * n);
+    }
+
+    /**
+     * Find the cost of the cheapest path from start to goal.
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The cost of the path, or Double.POSITIVE_INFINITY if there
+     *   is none
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal)
+    {
+        return distance(vertexOf(start), vertexOf(goal));
+    }
+
+    /**
+     * Find the cost of the cheapest path between two vertices.
+     * @param s The vertex id of the start
+     * @param t The vertex id of the goal
+     * @return The cost of the path, or Double.POSITIVE_INFINITY if there
+     *   is none
+     */
+    public double distance(int s, int t)
+    {
+        int i = out.offsets.get(s);
+        int iEnd = out.offsets.get(s + 1);
+        int j = in.offsets.get(t);
+        int jEnd = in.offsets.get(t + 1);
+        double best = Double.POSITIVE_INFINITY;
+        while (i < iEnd && j < jEnd) {
+            int a = out.hubs.get(i);
+            int b = in.hubs.get(j);
+            if (a < b) {
+                i++;
+            }
+            else if (a > b) {
+                j++;
+            }
+            else {
+                double d = out.dists.get(i) + in.dists.get(j);
+                if (d < best) {
+                    best = d;
+                }
+                i++;
+                j++;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the cheapest path from start to goal, through the hub that
+     * gives its cost.
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the path from start to
+     *   goal (including both start and goal), or null if there is none.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal)
+    {
+        int s = vertexOf(start);
+        int t = vertexOf(goal);
+        int hub = hub(s, t);
+        if (hub < 0) {
+            return null;
+        }
+        List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+        for (int v = s; v != order.get(hub); v = out.next(v, hub)) {
+            path.add(graph.getLocation(v));
+        }
+        List<GeographicPoint> back = new ArrayList<GeographicPoint>();
+        for (int v = t; v != order.get(hub); v = in.next(v, hub)) {
+            back.add(graph.getLocation(v));
+        }
+        back.add(graph.getLocation(order.get(hub)));
+        Collections.reverse(back);
+        path.addAll(back);
+        return path;
+    }
+
+    /**
+     * Find the vertex the cheapest path from start to goal is found
+     * through: the most important vertex on some cheapest path.
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The location of the hub, or null if there is no path
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public GeographicPoint getHub(GeographicPoint start, GeographicPoint goal)
+    {
+        int hub = hub(vertexOf(start), vertexOf(goal));
+        return hub < 0 ? null : graph.getLocation(order.get(hub));
+    }
+
+    // The rank of the hub of the cheapest path from s to t, or -1
+    private int hub(int s, int t)
+    {
+        int i = out.offsets.get(s);
+        int iEnd = out.offsets.get(s + 1);
+        int j = in.offsets.get(t);
+        int jEnd = in.offsets.get(t + 1);
+        double best = Double.POSITIVE_INFINITY;
+        int hub = -1;
+        while (i < iEnd && j < jEnd) {
+            int a = out.hubs.get(i);
+            int b = in.hubs.get(j);
+            if (a < b) {
+                i++;
+            }
+            else if (a > b) {
+                j++;
+            }
+            else {
+                double d = out.dists.get(i) + in.dists.get(j);
+                if (d < best) {
+                    best = d;
+                    hub = a;
+                }
+                i++;
+                j++;
+            }
+        }
+        return hub;
+    }
+
+    private int vertexOf(GeographicPoint location)
+    {
+        if (location == null) {
+            throw new NullPointerException("Cannot find route from or to null node");
+        }
+        int v = graph.indexOf(location);
+        if (v < 0) {
+            throw new NullPointerException("node does not exist");
+        }
+        return v;
+    }
+
+    // The vertices by decreasing importance: how many vertices lie below
+    // them, summed over shortest path trees from random roots, with
+    // vertex degree breaking ties
+    private static int[] importanceOrder(CompactMapGraph graph, double[] weights)
+    {
+        int n = graph.getNumVertices();
+        double[] score = new double[n];
+        double[] dist = new double[n];
+        int[] parent = new int[n];
+        int[] settled = new int[n];
+        double[] below = new double[n];
+        IndexedBinaryHeap queue = new IndexedBinaryHeap(n);
+        Random random = new Random(n);
+        for (int tree = 0; tree < Math.min(SAMPLE_TREES, n); tree++) {
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            int root = random.nextInt(n);
+            dist[root] = 0;
+            parent[root] = -1;
+            queue.insert(root, 0);
+            int count = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.pollMin();
+                settled[count++] = v;
+                for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                    int w = graph.getTarget(e);
+                    double d = dist[v] + weights[e];
+                    if (d < dist[w]) {
+                        dist[w] = d;
+                        parent[w] = v;
+                        queue.offer(w, d);
+                    }
+                }
+            }
+            // Children are settled after their parents
+            for (int i = count - 1; i >= 0; i--) {
+                below[settled[i]] = 0;
+            }
+            for (int i = count - 1; i > 0; i--) {
+                int v = settled[i];
+                below[parent[v]] += below[v] + 1;
+            }
+            for (int i = 0; i < count; i++) {
+                score[settled[i]] += below[settled[i]];
+            }
+        }
+        Integer[] vertices = new Integer[n];
+        for (int v = 0; v < n; v++) {
+            vertices[v] = v;
+        }
+        Arrays.sort(vertices, (a, b) -> {
+            int c = Double.compare(score[b], score[a]);
+            if (c != 0) {
+                return c;
+            }
+            return Integer.compare(graph.lastEdge(b) - graph.firstEdge(b)
+                                   + graph.lastInEdge(b) - graph.firstInEdge(b),
+                                   graph.lastEdge(a) - graph.firstEdge(a)
+                                   + graph.lastInEdge(a) - graph.firstInEdge(a));
+        });
+        int[] order = new int[n];
+        for (int r = 0; r < n; r++) {
+            order[r] = vertices[r];
+        }
+        return order;
+    }
+
+    // A hash of the graph and its edge costs, so labels saved for other
+    // costs are not loaded
+    private static long fingerprint(CompactMapGraph graph, double[] weights)
+    {
+        long h = graph.fingerprint();
+        for (double w : weights) {
+            h = (h ^ Double.doubleToLongBits(w)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static int dataBytes(int n, int outEntries, int inEntries)
+    {
+        long ints = n + 2L * (n + 1) + 2L * outEntries + 2L * inEntries;
+        long bytes = ((HEADER_BYTES + 4 * ints + 7) & ~7) + 8L * (outEntries + inEntries);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Hub labels too large for one buffer: " + bytes + " bytes");
+        }
+        return (int) bytes;
+    }
+
+    private static IntBuffer ints(ByteBuffer data, int position, int count)
+    {
+        ByteBuffer view = data.duplicate();
+        view.position(position);
+        view.limit(position + 4 * count);
+        return view.slice().asIntBuffer();
+    }
+
+    private static DoubleBuffer doubles(ByteBuffer data, int position, int count)
+    {
+        ByteBuffer view = data.duplicate();
+        view.position(position);
+        view.limit(position + 8 * count);
+        return view.slice().asDoubleBuffer();
+    }
+
+    // The labels of one direction.  The label of v is entries
+    // offsets[v] .. offsets[v+1]-1, sorted by hub rank; next is the
+    // neighbor of v on its shortest path to (or from) the hub.
+    private static final class Labels {
+        final IntBuffer offsets;
+        final IntBuffer hubs;
+        final IntBuffer next;
+        final DoubleBuffer dists;
+
+        Labels(IntBuffer offsets, IntBuffer hubs, IntBuffer next, DoubleBuffer dists)
+        {
+            this.offsets = offsets;
+            this.hubs = hubs;
+            this.next = next;
+            this.dists = dists;
+        }
+
+        // The next vertex from v towards a hub in v's label
+        int next(int v, int hub)
+        {
+            int lo = offsets.get(v);
+            int hi = offsets.get(v + 1) - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int h = hubs.get(mid);
+                if (h < hub) {
+                    lo = mid + 1;
+                }
+                else if (h > hub) {
+                    hi = mid - 1;
+                }
+                else {
+                    return next.get(mid);
+                }
+            }
+            throw new IllegalStateException("Hub " + hub + " missing from the label of " + v);
+        }
+    }
+
+    // Growing labels of one direction, while they are built
+    private static final class LabelBuilder {
+        final int[][] hubs;
+        final int[][] next;
+        final double[][] dists;
+        final int[] sizes;
+        int numEntries;
+
+        LabelBuilder(int n)
+        {
+            hubs = new int[n][];
+            next = new int[n][];
+            dists = new double[n][];
+            sizes = new int[n];
+            for (int v = 0; v < n; v++) {
+                hubs[v] = new int[4];
+                next[v] = new int[4];
+                dists[v] = new double[4];
+            }
+        }
+
+        // Hubs are added in rank order, so each label stays sorted
+        void add(int v, int hub, double dist, int toward)
+        {
+            int size = sizes[v];
+            if (size == hubs[v].length) {
+                hubs[v] = Arrays.copyOf(hubs[v], size * 2);
+                next[v] = Arrays.copyOf(next[v], size * 2);
+                dists[v] = Arrays.copyOf(dists[v], size * 2);
+            }
+            hubs[v][size] = hub;
+            next[v][size] = toward;
+            dists[v][size] = dist;
+            sizes[v] = size + 1;
+            numEntries++;
+        }
+
+        void putOffsets(ByteBuffer data)
+        {
+            int offset = 0;
+            data.putInt(offset);
+            for (int size : sizes) {
+                offset += size;
+                data.putInt(offset);
+            }
+        }
+
+        void putInts(ByteBuffer data, int[][] values)
+        {
+            for (int v = 0; v < sizes.length; v++) {
+                for (int i = 0; i < sizes[v]; i++) {
+                    data.putInt(values[v][i]);
+                }
+            }
+        }
+
+        void putDists(ByteBuffer data)
+        {
+            for (int v = 0; v < sizes.length; v++) {
+                for (int i = 0; i < sizes[v]; i++) {
+                    data.putDouble(dists[v][i]);
+                }
+            }
+        }
+    }
+
+    // A Dijkstra search from one hub that labels the vertices it reaches
+    // and prunes those the existing labels already cover
+    private static final class PrunedSearch {
+        final CompactMapGraph graph;
+        final double[] weights;
+        final double[] dist;
+        final int[] parent;
+        final int[] touched;
+        // hubDist[r] = distance between the hub being added and hub r, from
+        // the hub's own label
+        final double[] hubDist;
+        final IndexedBinaryHeap queue;
+
+        PrunedSearch(CompactMapGraph graph, double[] weights)
+        {
+            int n = graph.getNumVertices();
+            this.graph = graph;
+            this.weights = weights;
+            dist = new double[n];
+            parent = new int[n];
+            touched = new int[n];
+            hubDist = new double[n];
+            queue = new IndexedBinaryHeap(n);
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(hubDist, Double.POSITIVE_INFINITY);
+        }
+
+        // Search from vertex source, the hub of the given rank, along the
+        // edges (or against them, if reverse), adding it to the labels it
+        // reaches.  own holds the source's labels in the other direction,
+        // which the pruning test pairs with the reached vertices' labels.
+        void run(int source, int rank, boolean reverse, LabelBuilder reached, LabelBuilder own)
+        {
+            for (int i = 0; i < own.sizes[source]; i++) {
+                hubDist[own.hubs[source][i]] = own.dists[source][i];
+            }
+            int numTouched = 0;
+            dist[source] = 0;
+            parent[source] = -1;
+            touched[numTouched++] = source;
+            queue.insert(source, 0);
+            while (!queue.isEmpty()) {
+                int v = queue.pollMin();
+                double d = dist[v];
+                if (covered(reached, v, d)) {
+                    continue;
+                }
+                reached.add(v, rank, d, parent[v] < 0 ? v : parent[v]);
+                int first = reverse ? graph.firstInEdge(v) : graph.firstEdge(v);
+                int last = reverse ? graph.lastInEdge(v) : graph.lastEdge(v);
+                for (int e = first; e < last; e++) {
+                    int w = reverse ? graph.getSource(e) : graph.getTarget(e);
+                    double dw = d + weights[reverse ? graph.getReverseEdge(e) : e];
+                    if (dw < dist[w]) {
+                        if (dist[w] == Double.POSITIVE_INFINITY) {
+                            touched[numTouched++] = w;
+                        }
+                        dist[w] = dw;
+                        parent[w] = v;
+                        queue.offer(w, dw);
+                    }
+                }
+            }
+            for (int i = 0; i < numTouched; i++) {
+                dist[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            for (int i = 0; i < own.sizes[source]; i++) {
+                hubDist[own.hubs[source][i]] = Double.POSITIVE_INFINITY;
+            }
+        }
+
+        // Whether the labels so far give a path between the source and v
+        // no longer than d
+        private boolean covered(LabelBuilder reached, int v, double d)
+        {
+            int[] hubs = reached.hubs[v];
+            double[] dists = reached.dists[v];
+            for (int i = 0; i < reached.sizes[v]; i++) {
+                if (hubDist[hubs[i]] + dists[i] <= d) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An indexed binary min-heap of vertex ids.  Keys are kept in heap order
+ * next to the vertex ids and a position array maps each vertex to its
+ * slot, so decreaseKey is a single sift up and nothing is boxed.
+ */
+public final class IndexedBinaryHeap implements IndexedPriorityQueue {
+    private final int[] heap;
+    private final double[] keys;
+    private final int[] position;
+    private int size;
+
+    /**
+     * Create an empty heap for vertex ids 0..capacity-1
+     * @param capacity The number of vertices in the graph
+     */
+    public IndexedBinaryHeap(int capacity)
+    {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean contains(int v)
+    {
+        return position[v] >= 0;
+    }
+
+    @Override
+    public double getKey(int v)
+    {
+        return keys[position[v]];
+    }
+
+    @Override
+    public void insert(int v, double key)
+    {
+        if (position[v] >= 0) {
+            throw new IllegalArgumentException("Vertex " + v + " is already in the heap");
+        }
+        siftUp(size++, v, key);
+    }
+
+    @Override
+    public void decreaseKey(int v, double key)
+    {
+        int i = position[v];
+        if (i < 0) {
+            throw new IllegalArgumentException("Vertex " + v + " is not in the heap");
+        }
+        if (key > keys[i]) {
+            throw new IllegalArgumentException("New key is larger than the current key");
+        }
+        siftUp(i, v, key);
+    }
+
+    @Override
+    public double minKey()
+    {
+        if (size == 0) {
+            throw new NoSuchElementException("Heap is empty");
+        }
+        return keys[0];
+    }
+
+    @Override
+    public int pollMin()
+    {
+        if (size == 0) {
+            throw new NoSuchElementException("Heap is empty");
+        }
+        int min = heap[0];
+        position[min] = -1;
+        size--;
+        if (size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        return min;
+    }
+
+    @Override
+    public void clear()
+    {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    // Move the hole at slot i up until (v, key) fits there.
+    private void siftUp(int i, int v, double key)
+    {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(i, heap[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, v, key);
+    }
+
+    // Move the hole at slot i down until (v, key) fits there.
+    private void siftDown(int i, int v, double key)
+    {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && keys[right] < keys[child]) {
+                child = right;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            place(i, heap[child], keys[child]);
+            i = child;
+        }
+        place(i, v, key);
+    }
+
+    private void place(int i, int v, double key)
+    {
+        heap[i] = v;
+        keys[i] = key;
+        position[v] = i;
+    }
+}
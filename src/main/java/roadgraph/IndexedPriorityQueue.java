@@ -0,0 +1,82 @@
+package roadgraph;
+
+/**
+ * A min-priority queue of vertex ids with double keys, where each vertex
+ * is in the queue at most once and its key can be lowered in place.
+ * Searches use it so the queue never holds more than one entry per
+ * vertex.
+ */
+public interface IndexedPriorityQueue {
+
+    /**
+     * Check whether the queue is empty
+     * @return true if there are no vertices in the queue
+     */
+    boolean isEmpty();
+
+    /**
+     * Get the number of vertices in the queue
+     * @return The number of vertices in the queue
+     */
+    int size();
+
+    /**
+     * Check whether a vertex is in the queue
+     * @param v The vertex id
+     * @return true if v is in the queue
+     */
+    boolean contains(int v);
+
+    /**
+     * Get the key of a vertex in the queue
+     * @param v The vertex id, which must be in the queue
+     * @return The key of v
+     */
+    double getKey(int v);
+
+    /**
+     * Add a vertex that is not in the queue yet.
+     * @param v The vertex id
+     * @param key The key of v
+     */
+    void insert(int v, double key);
+
+    /**
+     * Lower the key of a vertex that is already in the queue.
+     * @param v The vertex id
+     * @param key The new key, which must not be larger than the old one
+     */
+    void decreaseKey(int v, double key);
+
+    /**
+     * Insert v, or lower its key if it is already in the queue.
+     * @param v The vertex id
+     * @param key The (new) key of v
+     */
+    default void offer(int v, double key)
+    {
+        if (contains(v)) {
+            decreaseKey(v, key);
+        }
+        else {
+            insert(v, key);
+        }
+    }
+
+    /**
+     * Get the smallest key in the queue
+     * @return The smallest key
+     */
+    double minKey();
+
+    /**
+     * Remove the vertex with the smallest key.
+     * @return The vertex that was removed
+     */
+    int pollMin();
+
+    /**
+     * Remove all vertices from the queue.
+     */
+    void clear();
+}
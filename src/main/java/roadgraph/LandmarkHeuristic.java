@@ -0,0 +1,407 @@
+package roadgraph;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The ALT (A*, landmarks, triangle inequality) heuristic for a
+ * CompactMapGraph.
+ *
+ * A handful of landmark vertices L are chosen once, and the road distance
+ * from every landmark to every vertex, d(L,v), and from every vertex to
+ * every landmark, d(v,L), is stored.  By the triangle inequality
+ *
+ *     d(u,t) >= d(L,t) - d(L,u)   and   d(u,t) >= d(u,L) - d(t,L)
+ *
+ * so the largest of these over all landmarks is a lower bound on the
+ * road distance from u to t.  Unlike the straight line distance it knows
+ * about rivers, freeways and dead ends, and A* guided by it settles far
+ * fewer vertices.
+ *
+ * The tables are kept vertex-major (the k distances of a vertex are next
+ * to each other) so one estimate reads two short runs of memory.  They
+ * can be saved to a file and loaded again; the file records a
+ * fingerprint of the graph and is ignored if the graph has changed.
+ */
+public final class LandmarkHeuristic implements Heuristic {
+    private static final int MAGIC = 0x414c5401;  // "ALT" 1
+    private static final int HEADER_BYTES = 24;
+
+    private final CompactMapGraph graph;
+    private final int[] landmarks;
+    // fromLandmark[v*k + i] = d(landmarks[i], v), toLandmark[v*k + i] = d(v, landmarks[i])
+    private final double[] fromLandmark;
+    private final double[] toLandmark;
+
+    private LandmarkHeuristic(CompactMapGraph graph, int[] landmarks,
+                              double[] fromLandmark, double[] toLandmark)
+    {
+        this.graph = graph;
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+    }
+
+    /**
+     * Choose landmarks for a graph and compute their distance tables.
+     * This runs two full Dijkstra searches per landmark (plus one more
+     * per landmark for AVOID selection).
+     * @param graph The graph to build the heuristic for
+     * @param numLandmarks The number of landmarks to use, at least 1
+     * @param selection How to choose the landmarks
+     * @return The heuristic
+     */
+    public static LandmarkHeuristic build(CompactMapGraph graph, int numLandmarks,
+                                          LandmarkSelection selection)
+    {
+        if (numLandmarks < 1) {
+            throw new IllegalArgumentException("Need at least one landmark, got " + numLandmarks);
+        }
+        int n = graph.getNumVertices();
+        int k = Math.min(numLandmarks, n);
+        LandmarkHeuristic alt = new LandmarkHeuristic(graph, new int[k],
+                new double[n * k], new double[n * k]);
+
+        double[] dist = new double[n];
+        int[] parent = new int[n];
+        int[] order = new int[n];
+        IndexedBinaryHeap queue = new IndexedBinaryHeap(n);
+        Random random = new Random(n);
+        for (int i = 0; i < k; i++) {
+            int landmark = -1;
+            if (selection == LandmarkSelection.AVOID) {
+                landmark = alt.avoid(i, random, dist, parent, order, queue);
+            }
+            if (landmark < 0) {
+                landmark = alt.farthest(i, dist, queue);
+            }
+            alt.landmarks[i] = landmark;
+
+            shortestPaths(graph, landmark, false, dist, null, null, queue);
+            for (int v = 0; v < n; v++) {
+                alt.fromLandmark[v * k + i] = dist[v];
+            }
+            shortestPaths(graph, landmark, true, dist, null, null, queue);
+            for (int v = 0; v < n; v++) {
+                alt.toLandmark[v * k + i] = dist[v];
+            }
+        }
+        return alt;
+    }
+
+    /**
+     * Load landmark tables saved by save().
+     * @param file The file to read
+     * @param graph The graph the tables are for
+     * @return The heuristic, or null if the file does not exist or was
+     *   saved for a different graph
+     * @throws IOException if the file cannot be read or is truncated
+     */
+    public static LandmarkHeuristic load(File file, CompactMapGraph graph) throws IOException
+    {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Truncated landmark file: " + file);
+            }
+            // Read into the heap rather than mapping the file, so it can
+            // be rewritten straight away if it turns out to be stale
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated landmark file: " + file);
+                }
+            }
+            buffer.flip();
+            int magic = buffer.getInt();
+            int n = buffer.getInt();
+            int k = buffer.getInt();
+            buffer.getInt();  // padding, keeps the tables 8-byte aligned
+            long fingerprint = buffer.getLong();
+            if (magic != MAGIC || n != graph.getNumVertices() || fingerprint != graph.fingerprint()) {
+                return null;
+            }
+            long expected = HEADER_BYTES + 4L * alignedCount(k) + 16L * n * k;
+            if (k < 1 || buffer.limit() != expected) {
+                throw new IOException("Truncated landmark file: " + file);
+            }
+            int[] landmarks = new int[k];
+            buffer.asIntBuffer().get(landmarks);
+            buffer.position(buffer.position() + 4 * alignedCount(k));
+            double[] fromLandmark = new double[n * k];
+            double[] toLandmark = new double[n * k];
+            buffer.asDoubleBuffer().get(fromLandmark).get(toLandmark);
+            return new LandmarkHeuristic(graph, landmarks, fromLandmark, toLandmark);
+        }
+    }
+
+    /**
+     * Load landmark tables from a file if it holds tables for this graph
+     * with the requested number of landmarks; otherwise build them and
+     * save them to the file for next time.  Problems reading or writing
+     * the file are reported and the tables are built in memory.
+     * @param file The file the tables are kept in
+     * @param graph The graph to build the heuristic for
+     * @param numLandmarks The number of landmarks to use, at least 1
+     * @param selection How to choose the landmarks if they are built
+     * @return The heuristic
+     */
+    public static LandmarkHeuristic loadOrBuild(File file, CompactMapGraph graph,
+                                                int numLandmarks, LandmarkSelection selection)
+    {
+        try {
+            LandmarkHeuristic alt = load(file, graph);
+            if (alt != null && alt.getNumLandmarks() == Math.min(numLandmarks, graph.getNumVertices())) {
+                return alt;
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Problem loading landmark file: " + file);
+            e.printStackTrace();
+        }
+        LandmarkHeuristic alt = build(graph, numLandmarks, selection);
+        try {
+            alt.save(file);
+        }
+        catch (IOException e) {
+            System.err.println("Problem writing landmark file: " + file);
+            e.printStackTrace();
+        }
+        return alt;
+    }
+
+    /**
+     * Write the landmarks and their distance tables to a file.
+     * @param file The file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException
+    {
+        int n = graph.getNumVertices();
+        int k = landmarks.length;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 4 * alignedCount(k));
+            header.putInt(MAGIC).putInt(n).putInt(k).putInt(0).putLong(graph.fingerprint());
+            header.asIntBuffer().put(landmarks);
+            writeFully(channel, header);
+
+            ByteBuffer table = ByteBuffer.allocate(8 * n * k);
+            table.asDoubleBuffer().put(fromLandmark);
+            writeFully(channel, table);
+            table.clear();
+            table.asDoubleBuffer().put(toLandmark);
+            writeFully(channel, table);
+        }
+    }
+
+    /**
+     * Get the graph this heuristic was built for
+     * @return The graph whose vertex ids the heuristic takes
+     */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /**
+     * Get the number of landmarks
+     * @return The number of landmarks
+     */
+    public int getNumLandmarks()
+    {
+        return landmarks.length;
+    }
+
+    /**
+     * Get the vertex id of a landmark
+     * @param i The landmark number, 0 to getNumLandmarks()-1
+     * @return The vertex id of landmark i
+     */
+    public int getLandmark(int i)
+    {
+        return landmarks[i];
+    }
+
+    @Override
+    public double estimate(int from, int to)
+    {
+        return bound(from, to, landmarks.length);
+    }
+
+    // The best bound on d(from, to) from the first count landmarks.  A
+    // landmark that cannot reach, or be reached from, either vertex gives
+    // no finite bound and is skipped.
+    private double bound(int from, int to, int count)
+    {
+        int k = landmarks.length;
+        int f = from * k;
+        int t = to * k;
+        double best = 0;
+        for (int i = 0; i < count; i++) {
+            double forward = fromLandmark[t + i] - fromLandmark[f + i];
+            if (forward > best && forward != Double.POSITIVE_INFINITY) {
+                best = forward;
+            }
+            double backward = toLandmark[f + i] - toLandmark[t + i];
+            if (backward > best && backward != Double.POSITIVE_INFINITY) {
+                best = backward;
+            }
+        }
+        return best;
+    }
+
+    // The vertex farthest from the first count landmarks (from vertex 0
+    // for the first landmark).  Vertices no landmark reaches count as
+    // farthest, so every part of the graph gets covered.
+    private int farthest(int count, double[] dist, IndexedBinaryHeap queue)
+    {
+        int n = graph.getNumVertices();
+        int k = landmarks.length;
+        if (count == 0) {
+            shortestPaths(graph, 0, false, dist, null, null, queue);
+        }
+        int best = 0;
+        double bestDist = -1;
+        for (int v = 0; v < n; v++) {
+            double d;
+            if (count == 0) {
+                d = dist[v] == Double.POSITIVE_INFINITY ? -1 : dist[v];
+            }
+            else {
+                d = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < count; i++) {
+                    d = Math.min(d, fromLandmark[v * k + i]);
+                }
+            }
+            if (d > bestDist) {
+                best = v;
+                bestDist = d;
+            }
+        }
+        return best;
+    }
+
+    // Goldberg and Werneck's "avoid" selection: grow a shortest path tree
+    // from a random root, weigh each vertex by how badly the landmarks so
+    // far bound its distance from the root, and walk down to a leaf
+    // through the heaviest subtrees that hold no landmark yet.  Returns -1
+    // if a few roots in a row give nothing useful.
+    private int avoid(int count, Random random, double[] dist, int[] parent,
+                      int[] order, IndexedBinaryHeap queue)
+    {
+        int n = graph.getNumVertices();
+        double[] size = new double[n];
+        int[] bestChild = new int[n];
+        boolean[] covered = new boolean[n];
+        for (int attempt = 0; attempt < 4; attempt++) {
+            int root = random.nextInt(n);
+            int settled = shortestPaths(graph, root, false, dist, parent, order, queue);
+
+            Arrays.fill(bestChild, -1);
+            Arrays.fill(covered, false);
+            for (int i = 0; i < count; i++) {
+                covered[landmarks[i]] = true;
+            }
+            for (int j = 0; j < settled; j++) {
+                int v = order[j];
+                size[v] = dist[v] - bound(root, v, count);
+            }
+            // Children are settled after their parents, so a reverse scan
+            // finishes every subtree before it is added to its parent
+            for (int j = settled - 1; j > 0; j--) {
+                int v = order[j];
+                int p = parent[v];
+                if (covered[v]) {
+                    covered[p] = true;
+                }
+                else {
+                    size[p] += size[v];
+                    if (bestChild[p] < 0 || size[v] > size[bestChild[p]]) {
+                        bestChild[p] = v;
+                    }
+                }
+            }
+            if (bestChild[root] < 0) {
+                continue;
+            }
+            int v = root;
+            while (bestChild[v] >= 0) {
+                v = bestChild[v];
+            }
+            return v;
+        }
+        return -1;
+    }
+
+    // Dijkstra's algorithm from source over the whole graph, along the
+    // edges or (if reverse) against them.  Fills dist, and if given the
+    // shortest path tree parents and the settle order.  Returns the number
+    // of vertices settled.
+    private static int shortestPaths(CompactMapGraph graph, int source, boolean reverse,
+                                     double[] dist, int[] parent, int[] order,
+                                     IndexedBinaryHeap queue)
+    {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        if (parent != null) {
+            Arrays.fill(parent, -1);
+        }
+        queue.clear();
+        dist[source] = 0;
+        queue.insert(source, 0);
+        int settled = 0;
+        while (!queue.isEmpty()) {
+            int v = queue.pollMin();
+            if (order != null) {
+                order[settled] = v;
+            }
+            settled++;
+            int first = reverse ? graph.firstInEdge(v) : graph.firstEdge(v);
+            int last = reverse ? graph.lastInEdge(v) : graph.lastEdge(v);
+            for (int e = first; e < last; e++) {
+                int w;
+                double d;
+                if (reverse) {
+                    w = graph.getSource(e);
+                    d = dist[v] + graph.getLength(graph.getReverseEdge(e));
+                }
+                else {
+                    w = graph.getTarget(e);
+                    d = dist[v] + graph.getLength(e);
+                }
+                if (d < dist[w]) {
+                    dist[w] = d;
+                    if (parent != null) {
+                        parent[w] = v;
+                    }
+                    queue.offer(w, d);
+                }
+            }
+        }
+        return settled;
+    }
+
+    // The number of ints written for k landmarks, rounded up to keep the
+    // tables that follow them 8-byte aligned
+    private static int alignedCount(int k)
+    {
+        return (k + 1) & ~1;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package roadgraph;
+
+/**
+ * How LandmarkHeuristic picks its landmarks.
+ */
+public enum LandmarkSelection {
+    /**
+     * Each new landmark is the vertex farthest (by road) from the
+     * landmarks chosen so far.
+     */
+    FARTHEST,
+
+    /**
+     * Each new landmark is placed at the end of the shortest path subtree
+     * whose distances the chosen landmarks bound worst, from a random root
+     * (Goldberg and Werneck's "avoid" method).  Slower to build than
+     * FARTHEST but usually gives tighter bounds.
+     */
+    AVOID
+}
@@ -0,0 +1,407 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import geography.GeographicPoint;
+
+/**
+ * Edge costs for a CompactMapGraph that change while the graph is
+ * searched, such as driving times from a live traffic feed.  Costs start
+ * out as those of a time-based CostProfile (in minutes, like FASTEST)
+ * and are changed in batches of per-edge speeds with apply().
+ *
+ * The costs are kept in two arrays.  Searches read the front one; apply()
+ * writes the batch into the back one and then swaps them with a single
+ * atomic reference update, starting a new epoch.  A search pins the array
+ * it reads (with snapshot()), so it sees every edge as of one epoch
+ * however many updates land meanwhile.  Readers never wait: apply() only
+ * writes into the back array once no search still holds it, and copies
+ * the front array into a fresh one if one does.  Updates are applied one
+ * batch at a time.
+ *
+ * The edge ids are those of one frozen graph; a graph that changes needs
+ * new live weights.
+ */
+public final class LiveWeights {
+    private final CompactMapGraph graph;
+    private final CostProfile profile;
+    private final double[] base;
+    private final AtomicReference<Buffer> current;
+
+    // The costs swapped out by the last update, and the edges that update
+    // changed, which the spare does not have yet.  Guarded by this.
+    private Buffer spare;
+    private int[] lastEdges = new int[0];
+    private int lastCount;
+
+    // A lower bound on the cost per km of every edge, for the heuristic.
+    // Only ever lowered.  Guarded by this.
+    private double minCostPerKm;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder copies = new LongAdder();
+
+    /**
+     * Start live costs for a graph from a cost profile.
+     * @param graph The graph whose edges are weighed
+     * @param profile A profile with costs in minutes, such as FASTEST
+     */
+    public LiveWeights(CompactMapGraph graph, CostProfile profile)
+    {
+        this.graph = graph;
+        this.profile = profile;
+        base = graph.weightsFor(profile);
+        minCostPerKm = profile.getMinCostPerKm();
+        current = new AtomicReference<Buffer>(new Buffer(base.clone(), 0, minCostPerKm));
+    }
+
+    /** @return The graph whose edges are weighed */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /** @return The profile the costs started from */
+    public CostProfile getProfile()
+    {
+        return profile;
+    }
+
+    /** @return The current epoch: the number of batches applied so far */
+    public long getEpoch()
+    {
+        return current.get().epoch;
+    }
+
+    /** @return The number of edge costs changed so far */
+    public long getUpdates()
+    {
+        return updates.sum();
+    }
+
+    /**
+     * @return The number of updates that copied every cost into a fresh
+     *   array, because a search still held the back array
+     */
+    public long getCopies()
+    {
+        return copies.sum();
+    }
+
+    /**
+     * Start a batch of changes to apply at once.
+     * @return An empty batch for this graph
+     */
+    public Batch newBatch()
+    {
+        return new Batch();
+    }
+
+    /**
+     * Change the costs of the edges in a batch, all at once as far as
+     * searches can tell.  Searches already running carry on with the old
+     * costs.
+     * @param batch The changes to make
+     * @return The new epoch
+     */
+    public synchronized long apply(Batch batch)
+    {
+        Buffer front = current.get();
+        Buffer back = spare;
+        if (back != null && back.pins.get() == 0) {
+            // Catch up with the update that retired it
+            for (int i = 0; i < lastCount; i++) {
+                int e = lastEdges[i];
+                back.weights[e] = front.weights[e];
+            }
+        }
+        else {
+            back = new Buffer(front.weights.clone(), 0, 0);
+            copies.increment();
+        }
+        for (int i = 0; i < batch.size; i++) {
+            int e = batch.edges[i];
+            back.weights[e] = batch.costs[i];
+            double length = graph.getLength(e);
+            if (length > 0) {
+                minCostPerKm = Math.min(minCostPerKm, batch.costs[i] / length);
+            }
+        }
+        back.epoch = front.epoch + 1;
+        back.minCostPerKm = minCostPerKm;
+        current.set(back);
+        spare = front;
+        if (lastEdges.length < batch.size) {
+            lastEdges = new int[batch.size];
+        }
+        System.arraycopy(batch.edges, 0, lastEdges, 0, batch.size);
+        lastCount = batch.size;
+        updates.add(batch.size);
+        return back.epoch;
+    }
+
+    /**
+     * Pin the current costs, for one or more searches that must all see
+     * the same epoch.  Close the snapshot when done with it.
+     * @return The current costs
+     */
+    public Snapshot snapshot()
+    {
+        while (true) {
+            Buffer buffer = current.get();
+            buffer.pins.incrementAndGet();
+            // The buffer may have been swapped out and reused meanwhile
+            if (current.get() == buffer) {
+                return new Snapshot(buffer);
+            }
+            buffer.pins.decrementAndGet();
+        }
+    }
+
+    /**
+     * Find the fastest path from start to goal under the current costs,
+     * using A* search.
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the path from start to
+     *   goal (including both start and goal), or null if there is none.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal)
+    {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.route(start, goal, (x) -> {});
+        }
+    }
+
+    /**
+     * Find the time the fastest path from start to goal takes under the
+     * current costs.
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The cost of the path in minutes, or Double.POSITIVE_INFINITY
+     *   if there is none
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public double travelTime(GeographicPoint start, GeographicPoint goal)
+    {
+        try (Snapshot snapshot = snapshot()) {
+            return snapshot.travelTime(start, goal);
+        }
+    }
+
+    // One of the two cost arrays
+    private static final class Buffer {
+        final double[] weights;
+        final AtomicInteger pins = new AtomicInteger();
+        // Written before the buffer is published, so readers that find it
+        // through current see them
+        long epoch;
+        double minCostPerKm;
+
+        Buffer(double[] weights, long epoch, double minCostPerKm)
+        {
+            this.weights = weights;
+            this.epoch = epoch;
+            this.minCostPerKm = minCostPerKm;
+        }
+    }
+
+    /**
+     * The costs of one epoch, held still for as long as the snapshot is
+     * open.  Not thread safe; each thread should take its own.
+     */
+    public final class Snapshot implements AutoCloseable {
+        private Buffer buffer;
+        private final long epoch;
+
+        private Snapshot(Buffer buffer)
+        {
+            this.buffer = buffer;
+            epoch = buffer.epoch;
+        }
+
+        /** @return The epoch of the costs */
+        public long getEpoch()
+        {
+            return epoch;
+        }
+
+        /**
+         * @param edge An edge id of the graph
+         * @return The cost of the edge in minutes, or
+         *   Double.POSITIVE_INFINITY if it is closed
+         */
+        public double getCost(int edge)
+        {
+            return buffer().weights[edge];
+        }
+
+        /**
+         * Find the fastest path from start to goal under these costs.
+         * @param start The starting location
+         * @param goal The goal location
+         * @param nodeSearched A hook for visualization.
+         * @return The list of intersections that form the path from start
+         *   to goal (including both start and goal), or null if there is none.
+         * @throws NullPointerException if either point is null or not in the graph
+         */
+        public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal,
+                                           Consumer<GeographicPoint> nodeSearched)
+        {
+            Buffer costs = buffer();
+            SearchContext context = graph.getContextPool().acquire();
+            try {
+                return graph.shortestPath(start, goal, nodeSearched, context, heuristic(costs),
+                                          costs.weights);
+            }
+            finally {
+                graph.getContextPool().release(context);
+            }
+        }
+
+        /**
+         * Find the time the fastest path from start to goal takes under
+         * these costs.
+         * @param start The starting location
+         * @param goal The goal location
+         * @return The cost of the path in minutes, or
+         *   Double.POSITIVE_INFINITY if there is none
+         * @throws NullPointerException if either point is null or not in the graph
+         */
+        public double travelTime(GeographicPoint start, GeographicPoint goal)
+        {
+            Buffer costs = buffer();
+            return graph.distance(start, goal, heuristic(costs), costs.weights);
+        }
+
+        // The costs themselves, valid until the snapshot is closed
+        double[] weights()
+        {
+            return buffer().weights;
+        }
+
+        /** Unpin the costs, so a later update may reuse them. */
+        @Override
+        public void close()
+        {
+            if (buffer != null) {
+                buffer.pins.decrementAndGet();
+                buffer = null;
+            }
+        }
+
+        private Buffer buffer()
+        {
+            if (buffer == null) {
+                throw new IllegalStateException("Snapshot is closed");
+            }
+            return buffer;
+        }
+
+        // The heuristic for these costs
+        Heuristic heuristic()
+        {
+            return heuristic(buffer());
+        }
+
+        private Heuristic heuristic(Buffer costs)
+        {
+            return CompactMapGraph.scaled(graph.getStraightLineHeuristic(), costs.minCostPerKm);
+        }
+    }
+
+    /**
+     * Changes to the costs of some edges, to apply together.  Not thread
+     * safe; a feed fills a batch on one thread and applies it.
+     */
+    public final class Batch {
+        private int[] edges = new int[64];
+        private double[] costs = new double[64];
+        private int size;
+
+        private Batch()
+        {
+        }
+
+        /** @return The number of edge changes in the batch */
+        public int size()
+        {
+            return size;
+        }
+
+        /** Empty the batch, to fill it again. */
+        public void clear()
+        {
+            size = 0;
+        }
+
+        /**
+         * Set the speed traffic is moving at along an edge.
+         * @param edge An edge id of the graph
+         * @param speed The speed in km/h; 0 closes the edge
+         * @throws IllegalArgumentException if the speed is negative
+         */
+        public void setSpeed(int edge, double speed)
+        {
+            if (!(speed >= 0)) {
+                throw new IllegalArgumentException("speed must not be negative: " + speed);
+            }
+            add(edge, speed == 0 ? Double.POSITIVE_INFINITY : graph.getLength(edge) * 60 / speed);
+        }
+
+        /**
+         * Set the speed traffic is moving at along every edge (usually
+         * one) from one intersection to another.
+         * @param from The intersection the edge leaves
+         * @param to The intersection the edge enters
+         * @param speed The speed in km/h; 0 closes the edge
+         * @return The number of edges changed, 0 if there is no such edge
+         * @throws IllegalArgumentException if the speed is negative
+         */
+        public int setSpeed(GeographicPoint from, GeographicPoint to, double speed)
+        {
+            int u = graph.indexOf(from);
+            int v = graph.indexOf(to);
+            if (u < 0 || v < 0) {
+                return 0;
+            }
+            int found = 0;
+            for (int e = graph.firstEdge(u); e < graph.lastEdge(u); e++) {
+                if (graph.getTarget(e) == v) {
+                    setSpeed(e, speed);
+                    found++;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Put an edge back to its cost under the profile.
+         * @param edge An edge id of the graph
+         */
+        public void reset(int edge)
+        {
+            add(edge, base[edge]);
+        }
+
+        private void add(int edge, double cost)
+        {
+            if (edge < 0 || edge >= base.length) {
+                throw new IndexOutOfBoundsException("No edge " + edge);
+            }
+            if (size == edges.length) {
+                edges = Arrays.copyOf(edges, size * 2);
+                costs = Arrays.copyOf(costs, size * 2);
+            }
+            edges[size] = edge;
+            costs[size] = cost;
+            size++;
+        }
+    }
+}
@@ -75,6 +75,15 @@ class MapEdge
         return roadName;
     }
 
+    /**
+     * Get the road's type
+     * @return the type of the road that this edge is on
+     */
+    String getRoadType()
+    {
+        return roadType;
+    }
+
     /**
      * Given one of the nodes involved in this edge, get the other one
      * @param node The node on one side of this edge
@@ -1,6 +1,9 @@
 package roadgraph;
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 import geography.GeographicPoint;
 import util.GraphLoader;
 
@@ -8,11 +11,38 @@ import util.GraphLoader;
  * A class which reprsents a graph of geographic locations
  * Nodes in the graph are intersections between
  *
+ * Searches run on a frozen CompactMapGraph copy of the graph, rebuilt
+ * after the graph changes, and keep their state in a SearchContext.
+ * A graph can also be created straight from a frozen copy (for example
+ * one read from a GraphSnapshot); its nodes and edges are then only
+ * built if the graph is changed.
+ * Once the graph is loaded, any number of threads may search it at once;
+ * adding vertices or edges while searches are running is not supported.
+ *
+ * Each search records a SearchStats, kept as the graph's last search and
+ * passed to the SearchListener if one is set (for example a SearchMetrics).
+ * route() runs any of the searches through a RouteCache, which is
+ * emptied whenever a vertex or edge is added.
  */
 public class MapGraph {
+    // Both null while the graph is backed only by frozen
     private HashMap<GeographicPoint,MapNode> pointNodeMap;
     private HashSet<MapEdge> edges;
-    int count;
+    private volatile CompactMapGraph frozen;
+    private volatile LandmarkHeuristic landmarks;
+    private volatile SpatialIndex spatialIndex;
+    private volatile LiveWeights liveWeights;
+    private volatile GraphPartition partition;
+    private volatile HubLabels hubLabels;
+    private volatile RouteCache routeCache;
+    private volatile SearchStats lastSearch;
+    private volatile SearchListener listener;
+
+    // The number of landmarks altSearch builds when none were loaded
+    private static final int DEFAULT_LANDMARKS = 16;
+
+    // The size of the route cache new graphs start with, in route points
+    private static final long DEFAULT_CACHE_POINTS = 1 << 18;
 
     /**
      * Create a new empty MapGraph
@@ -21,7 +51,19 @@ public class MapGraph {
     {
         pointNodeMap = new HashMap<GeographicPoint,MapNode>();
         edges = new HashSet<MapEdge>();
-        count = 0;
+        routeCache = new RouteCache(DEFAULT_CACHE_POINTS);
+    }
+
+    /**
+     * Create a MapGraph backed by a frozen graph.  Searches use the frozen
+     * graph directly; nodes and edges are only built from it if a vertex
+     * or edge is added.
+     * @param graph The frozen graph
+     */
+    public MapGraph(CompactMapGraph graph)
+    {
+        frozen = graph;
+        routeCache = new RouteCache(DEFAULT_CACHE_POINTS);
     }
 
     /**
@@ -30,6 +72,9 @@ public class MapGraph {
      */
     public int getNumVertices()
     {
+        if (pointNodeMap == null) {
+            return frozen.getNumVertices();
+        }
         return pointNodeMap.values().size();
     }
 
@@ -39,6 +84,9 @@ public class MapGraph {
      */
     public Set<GeographicPoint> getVertices()
     {
+        if (pointNodeMap == null) {
+            return frozen.getVertices();
+        }
         return pointNodeMap.keySet();
     }
 
@@ -48,12 +96,75 @@ public class MapGraph {
      */
     public int getNumEdges()
     {
+        if (edges == null) {
+            return frozen.getNumEdges();
+        }
         return edges.size();
     }
 
+    /**
+     * Get the number of nodes visited by the most recent search
+     * @return The number of nodes visited
+     */
     public int getCount()
     {
-        return count;
+        SearchStats stats = lastSearch;
+        return stats == null ? 0 : stats.getNodesSettled();
+    }
+
+    /**
+     * Get the statistics of the most recent search.  With several threads
+     * searching, this is whichever search finished last.
+     * @return The statistics, or null if there has been no search
+     */
+    public SearchStats getLastSearchStats()
+    {
+        return lastSearch;
+    }
+
+    /**
+     * Set the listener told about every search this graph runs.
+     * @param listener The listener, or null for none
+     */
+    public void setSearchListener(SearchListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The listener told about every search, or null if there is none
+     */
+    public SearchListener getSearchListener()
+    {
+        return listener;
+    }
+
+    /**
+     * Set the cache route() keeps its results in.
+     * @param cache The cache, or null to stop caching routes
+     */
+    public void setRouteCache(RouteCache cache)
+    {
+        routeCache = cache;
+    }
+
+    /**
+     * @return The cache route() keeps its results in, or null if routes
+     *   are not cached
+     */
+    public RouteCache getRouteCache()
+    {
+        return routeCache;
+    }
+
+    // Keep the statistics of a finished search and pass them on
+    private void finished(SearchStats stats)
+    {
+        lastSearch = stats;
+        SearchListener l = listener;
+        if (l != null) {
+            l.searchFinished(stats);
+        }
     }
 
 
@@ -69,10 +180,12 @@ public class MapGraph {
         if (location == null) {
             return false;
         }
+        materialize();
         MapNode n = pointNodeMap.get(location);
         if (n == null) {
             n = new MapNode(location);
             pointNodeMap.put(location, n);
+            changed();
             return true;
         }
         else {
@@ -95,6 +208,7 @@ public class MapGraph {
     public void addEdge(GeographicPoint from, GeographicPoint to, String roadName,
                         String roadType, double length) throws IllegalArgumentException {
 
+        materialize();
         MapNode n1 = pointNodeMap.get(from);
         MapNode n2 = pointNodeMap.get(to);
 
@@ -107,17 +221,336 @@ public class MapGraph {
         MapEdge edge = new MapEdge(roadName, roadType, n1, n2, length);
         edges.add(edge);
         n1.addEdge(edge);
+        changed();
+
+    }
+
+    // Drop the frozen copy and the routes found in it
+    private void changed()
+    {
+        if (frozen != null) {
+            frozen = null;
+            RouteCache cache = routeCache;
+            if (cache != null) {
+                cache.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Get an immutable, compact (CSR) copy of this graph.  The copy
+     * supports the same searches as this graph but uses a fraction of the
+     * memory, and does not see vertices or edges added afterwards.
+     * The copy is built once and shared until the graph changes.
+     * @return The frozen view of the current graph
+     */
+    public CompactMapGraph freeze()
+    {
+        CompactMapGraph graph = frozen;
+        if (graph == null) {
+            synchronized (this) {
+                graph = frozen;
+                if (graph == null) {
+                    graph = CompactMapGraph.build(pointNodeMap.values());
+                    frozen = graph;
+                }
+            }
+        }
+        return graph;
+    }
+
+    // Build the nodes and edges from the frozen graph, if this graph was
+    // created from one and they have not been built yet.
+    private synchronized void materialize()
+    {
+        if (pointNodeMap != null) {
+            return;
+        }
+        CompactMapGraph graph = frozen;
+        HashMap<GeographicPoint,MapNode> nodes = new HashMap<GeographicPoint,MapNode>();
+        MapNode[] byId = new MapNode[graph.getNumVertices()];
+        for (int v = 0; v < byId.length; v++) {
+            byId[v] = new MapNode(graph.getLocation(v));
+            nodes.put(byId[v].getLocation(), byId[v]);
+        }
+        HashSet<MapEdge> allEdges = new HashSet<MapEdge>();
+        for (int v = 0; v < byId.length; v++) {
+            for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                MapEdge edge = new MapEdge(graph.getRoadName(e), graph.getRoadType(e),
+                        byId[v], byId[graph.getTarget(e)], graph.getLength(e));
+                allEdges.add(edge);
+                byId[v].addEdge(edge);
+            }
+        }
+        edges = allEdges;
+        pointNodeMap = nodes;
+    }
+
+    // Whether location is a vertex, without building the nodes
+    private boolean containsVertex(GeographicPoint location)
+    {
+        if (pointNodeMap == null) {
+            return frozen.indexOf(location) >= 0;
+        }
+        return pointNodeMap.containsKey(location);
+    }
+
+    /**
+     * Get the spatial index over the vertices and edges of the graph,
+     * building it if the graph has changed since it was last built.
+     * @return The spatial index for the current graph
+     */
+    public SpatialIndex getSpatialIndex()
+    {
+        CompactMapGraph graph = freeze();
+        SpatialIndex index = spatialIndex;
+        if (index == null || index.getGraph() != graph) {
+            synchronized (this) {
+                index = spatialIndex;
+                if (index == null || index.getGraph() != graph) {
+                    index = SpatialIndex.build(graph);
+                    spatialIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get a multilevel partition of the graph for customizable route
+     * planning (see OverlayMetric), building it if the graph has changed
+     * since it was last built.
+     * @return The partition of the current graph
+     */
+    public GraphPartition getPartition()
+    {
+        CompactMapGraph graph = freeze();
+        GraphPartition cells = partition;
+        if (cells == null || cells.getGraph() != graph) {
+            synchronized (this) {
+                cells = partition;
+                if (cells == null || cells.getGraph() != graph) {
+                    cells = GraphPartition.build(graph);
+                    partition = cells;
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Get the live travel times for the graph, which a TrafficFeed can
+     * update while routes are found with them.  They start out as the
+     * times under CostProfile.FASTEST, and start over whenever the graph
+     * changes.
+     * @return The live weights for the current graph
+     */
+    public LiveWeights getLiveWeights()
+    {
+        CompactMapGraph graph = freeze();
+        LiveWeights live = liveWeights;
+        if (live == null || live.getGraph() != graph) {
+            synchronized (this) {
+                live = liveWeights;
+                if (live == null || live.getGraph() != graph) {
+                    live = new LiveWeights(graph, CostProfile.FASTEST);
+                    liveWeights = live;
+                }
+            }
+        }
+        return live;
+    }
 
+    /**
+     * Get hub labels for road lengths, for exact distances without a
+     * search, building them if the graph has changed since they were
+     * last built or loaded.
+     * @return The hub labels for the current graph
+     */
+    public HubLabels getHubLabels()
+    {
+        CompactMapGraph graph = freeze();
+        HubLabels labels = hubLabels;
+        if (labels == null || labels.getGraph() != graph) {
+            synchronized (this) {
+                labels = hubLabels;
+                if (labels == null || labels.getGraph() != graph) {
+                    labels = HubLabels.build(graph);
+                    hubLabels = labels;
+                }
+            }
+        }
+        return labels;
     }
 
     /**
-     * Get a set of neighbor nodes from a mapNode
-     * @param node  The node to get the neighbors from
-     * @return A set containing the MapNode objects that are the neighbors
-     * 	of node
+     * Load the hub labels returned by getHubLabels from a file, or build
+     * them and save them to the file if it is missing or was made for a
+     * different graph.
+     * @param file The file the labels are kept in
+     * @return The hub labels now used
+     */
+    public HubLabels useHubLabels(File file)
+    {
+        HubLabels labels = HubLabels.loadOrBuild(file, freeze(), CostProfile.SHORTEST);
+        hubLabels = labels;
+        return labels;
+    }
+
+    /**
+     * Find the intersection nearest to a point, which need not be a
+     * vertex of the graph.
+     * @param location The point
+     * @return The nearest vertex, or null if the graph has no vertices
+     */
+    public GeographicPoint nearestVertex(GeographicPoint location)
+    {
+        SpatialIndex index = getSpatialIndex();
+        int v = index.nearest(location.getX(), location.getY());
+        return v < 0 ? null : index.getGraph().getLocation(v);
+    }
+
+    /**
+     * Snap a point, which need not be a vertex of the graph, to the road
+     * nearest to it, and return the end of that road segment nearer the
+     * snapped point.  Unlike nearestVertex, a point beside a long road is
+     * not pulled onto a different road that happens to have an
+     * intersection closer by.  Use this to turn a clicked location into
+     * a start or goal for the searches.
+     * @param location The point
+     * @return The vertex to route from, or null if the graph has no edges
+     */
+    public GeographicPoint snapToRoad(GeographicPoint location)
+    {
+        SpatialIndex index = getSpatialIndex();
+        SpatialIndex.Snap snap = index.snapToEdge(location.getX(), location.getY());
+        if (snap == null) {
+            return nearestVertex(location);
+        }
+        return index.getGraph().getLocation(snap.getNearerEnd());
+    }
+
+    /** Find the path from start to goal with the given algorithm,
+     * returning the cached route if the same search was run before on
+     * the current graph.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param algorithm The search to run
+     * @return The list of intersections that form the route from start
+     *   to goal (including both start and goal), or null if there is none.
+     *   The list must not be changed.
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal,
+                                       RouteAlgorithm algorithm)
+    {
+        return route(start, goal, algorithm, (x) -> {});
+    }
+
+    /** Find the path from start to goal with the given algorithm,
+     * returning the cached route if the same search was run before on
+     * the current graph.  A cached route is returned without searching,
+     * so nodeSearched only sees the nodes of searches that are run.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param algorithm The search to run
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the route from start
+     *   to goal (including both start and goal), or null if there is none.
+     *   The list must not be changed.
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal,
+                                       RouteAlgorithm algorithm,
+                                       Consumer<GeographicPoint> nodeSearched)
+    {
+        return route(start, goal, algorithm, CostProfile.SHORTEST, nodeSearched);
+    }
+
+    /** Find the cheapest path from start to goal under a cost profile with
+     * the given algorithm, returning the cached route if the same search
+     * was run before on the current graph.  BFS ignores the profile.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param algorithm The search to run
+     * @param profile How to weigh each road
+     * @return The list of intersections that form the route from start
+     *   to goal (including both start and goal), or null if there is none.
+     *   The list must not be changed.
      */
-    private Set<MapNode> getNeighbors(MapNode node) {
-        return node.getNeighbors();
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal,
+                                       RouteAlgorithm algorithm, CostProfile profile)
+    {
+        return route(start, goal, algorithm, profile, (x) -> {});
+    }
+
+    /** Find the cheapest path from start to goal under a cost profile with
+     * the given algorithm, returning the cached route if the same search
+     * was run before on the current graph.  BFS ignores the profile.  A
+     * cached route is returned without searching, so nodeSearched only
+     * sees the nodes of searches that are run.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param algorithm The search to run
+     * @param profile How to weigh each road
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the route from start
+     *   to goal (including both start and goal), or null if there is none.
+     *   The list must not be changed.
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal,
+                                       RouteAlgorithm algorithm, CostProfile profile,
+                                       Consumer<GeographicPoint> nodeSearched)
+    {
+        if (start == null || goal == null) {
+            throw new NullPointerException("Cannot find route from or to null node");
+        }
+        RouteCache cache = routeCache;
+        CompactMapGraph graph = freeze();
+        int s = graph.indexOf(start);
+        int t = graph.indexOf(goal);
+        if (profile == null || algorithm == RouteAlgorithm.BFS) {
+            profile = CostProfile.SHORTEST;
+        }
+        RouteCache.Key key = null;
+        if (cache != null && s >= 0 && t >= 0) {
+            key = new RouteCache.Key(s, t, algorithm, profile);
+            List<GeographicPoint> cached = cache.get(key);
+            if (cached != null) {
+                return cached.isEmpty() ? null : cached;
+            }
+        }
+
+        List<GeographicPoint> path;
+        switch (algorithm) {
+            case BFS:
+                path = bfs(start, goal, nodeSearched);
+                break;
+            case DIJKSTRA:
+                path = dijkstra(start, goal, nodeSearched, profile);
+                break;
+            case A_STAR:
+                path = aStarSearch(start, goal, nodeSearched, false, profile);
+                break;
+            case ALT:
+                path = aStarSearch(start, goal, nodeSearched, true, profile);
+                break;
+            case BIDIRECTIONAL_DIJKSTRA:
+                path = bidirectionalSearch(start, goal, nodeSearched, false, profile);
+                break;
+            case BIDIRECTIONAL_A_STAR:
+                path = bidirectionalSearch(start, goal, nodeSearched, true, profile);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown algorithm " + algorithm);
+        }
+        // Only keep the route if the graph did not change meanwhile
+        if (key != null && frozen == graph) {
+            cache.put(key, path);
+        }
+        return path == null ? null : Collections.unmodifiableList(path);
     }
 
     /** Find the path from start to goal using breadth first search
@@ -128,7 +561,6 @@ public class MapGraph {
      *   path from start to goal (including both start and goal).
      */
     public List<GeographicPoint> bfs(GeographicPoint start, GeographicPoint goal) {
-        System.out.println("call bfs");
         Consumer<GeographicPoint> temp = (x) -> {};
         return bfs(start, goal, temp);
     }
@@ -145,74 +577,31 @@ public class MapGraph {
                                      GeographicPoint goal,
                                      Consumer<GeographicPoint> nodeSearched)
     {
-        System.out.println(" bfs is calling");
         if (start == null || goal == null)
             throw new NullPointerException("Cannot find route from or to null node");
-        MapNode startNode = pointNodeMap.get(start);
-        MapNode endNode = pointNodeMap.get(goal);
-        if (startNode == null) {
+        if (!containsVertex(start)) {
             System.err.println("Start node " + start + " does not exist");
             return null;
         }
-        if (endNode == null) {
+        if (!containsVertex(goal)) {
             System.err.println("End node " + goal + " does not exist");
             return null;
         }
 
-        // setup to begin BFS
-        HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-        Queue<MapNode> toExplore = new LinkedList<MapNode>();
-        HashSet<MapNode> visited = new HashSet<MapNode>();
-        toExplore.add(startNode);
-        MapNode next = null;
-
-        while (!toExplore.isEmpty()) {
-            next = toExplore.remove();
-            nodeSearched.accept(next.getLocation());//for visualization
-            if (next.equals(endNode)) break;
-            Set<MapNode> neighbors = getNeighbors(next);
-            for (MapNode neighbor : neighbors) {
-                if (!visited.contains(neighbor)) {
-                    visited.add(neighbor);
-                    parentMap.put(neighbor, next);
-                    toExplore.add(neighbor);
-                }
-            }
-        }
-        if (!next.equals(endNode)) {
-            System.out.println("No path found from " +start+ " to " + goal);
-            return null;
+        CompactMapGraph graph = freeze();
+        SearchContext context = graph.getContextPool().acquire();
+        try {
+            long begin = System.nanoTime();
+            List<GeographicPoint> path = graph.bfs(start, goal, nodeSearched, context);
+            finished(new SearchStats(RouteAlgorithm.BFS, context,
+                                     System.nanoTime() - begin, path != null));
+            return path;
         }
-        List<GeographicPoint> path =
-                reconstructPath(parentMap, startNode, endNode);
-
-        return path;
-    }
-
-    /** Reconstruct a path from start to goal using the parentMap
-     *
-     * @param parentMap the HashNode map of children and their parents
-     * @param start The starting location
-     * @param goal The goal location
-     * @return The list of intersections that form the shortest path from
-     *   start to goal (including both start and goal).
-     */
-    private List<GeographicPoint>
-    reconstructPath(HashMap<MapNode,MapNode> parentMap,
-                    MapNode start, MapNode goal)
-    {
-        LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
-        MapNode current = goal;
-
-        while (!current.equals(start)) {
-            path.addFirst(current.getLocation());
-            current = parentMap.get(current);
+        finally {
+            graph.getContextPool().release(context);
         }
-       path.addFirst(start.getLocation()); // add start
-        return path;
     }
 
-
     /** Find the path from start to goal using Dijkstra's algorithm
      *
      * @param start The starting location
@@ -222,7 +611,6 @@ public class MapGraph {
      */
     public List<GeographicPoint> dijkstra(GeographicPoint start, GeographicPoint goal) {
         Consumer<GeographicPoint> temp = (x) -> {};
-        System.out.println("call dijkstra");
         return dijkstra(start, goal, temp);
     }
 
@@ -238,142 +626,94 @@ public class MapGraph {
     public List<GeographicPoint> dijkstra(GeographicPoint start,
                                           GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
     {
-        System.out.println("dijkstra");
+        return dijkstra(start, goal, nodeSearched, CostProfile.SHORTEST);
+    }
+
+    private List<GeographicPoint> dijkstra(GeographicPoint start,
+                                           GeographicPoint goal,
+                                           Consumer<GeographicPoint> nodeSearched,
+                                           CostProfile profile)
+    {
         if(start == null || goal == null) {
-            System.out.println("Cannot find route from or to null node");
             throw new NullPointerException("Cannot find route from or to null node");
         }
-        if(!pointNodeMap.containsKey(start) || !pointNodeMap.containsKey(goal)) {
-            System.out.println("node does not exist");
+        if(!containsVertex(start) || !containsVertex(goal)) {
             throw new NullPointerException("node does not exist");
         }
 
-        MapNode startNode = pointNodeMap.get(start);
-        MapNode endNode = pointNodeMap.get(goal);
-
-        count = 0;
-        PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
-        HashSet<MapNode> visited = new HashSet<MapNode>();
-        HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-
-        startNode.setDistance(0);
-        double distCurr = 0;
-        toExplore.add(startNode);
-
-        while(!toExplore.isEmpty()){
-            MapNode curr = toExplore.remove();
-            nodeSearched.accept(curr.getLocation());// for visualization
-            if(!visited.contains(curr)){
-                count++;
-                System.out.println("from queue: "+curr.getLocation());
-                visited.add(curr);
-
-                distCurr = curr.getDistance();
-                if(curr.equals(endNode)){
-
-                    System.out.println("Nodes visited in search: "+count);
-	                 /* for(MapNode v: visited){
-	                        System.out.println("visited: "+v.getLocation());
-	                    }*/
-                    System.out.println("Nodes visited in search: "+visited.size());
-                    return reconstructPath(parentMap, startNode, endNode);
-                }
-
-                for (MapNode neighbor: curr.getNeighbors()){
-                    if(!visited.contains(neighbor)){
-                        double dist = distCurr + curr.getLocation().distance(neighbor.getLocation());
-                        if(!parentMap.containsKey(neighbor) || dist < neighbor.getDistance())
-                        {
-                            parentMap.put(neighbor, curr);
-                            neighbor.setDistance(dist);
-                        }
-                        toExplore.add(neighbor);
-                    }
-                }
-            }
+        CompactMapGraph graph = freeze();
+        SearchContext context = graph.getContextPool().acquire();
+        try {
+            long begin = System.nanoTime();
+            List<GeographicPoint> path = graph.dijkstra(start, goal, nodeSearched, context, profile);
+            finished(new SearchStats(RouteAlgorithm.DIJKSTRA, context,
+                                     System.nanoTime() - begin, path != null));
+            return path;
+        }
+        finally {
+            graph.getContextPool().release(context);
         }
-        System.out.println("No path found from " +start+ " to " + goal);
-        return null;
     }
+
+    /** Find a short round trip from start through every intersection in
+     * the graph and back, using TourPlanner.
+     *
+     * @param start The starting location
+     * @return The list of intersections along the trip, from start back to
+     *   start, or null if some intersection cannot be reached from another
+     */
     public List<GeographicPoint> greedyAlgForSalespersonProblem(GeographicPoint start) {
         Consumer<GeographicPoint> temp = (x) -> {};
         return greedyAlgForSalespersonProblem(start, temp);
     }
+
+    /** Find a short round trip from start through every intersection it
+     * can reach and still drive back from, and back to start, using
+     * TourPlanner.  One-way streets leave some intersections that cannot
+     * be reached from start, or that start cannot be reached from; the
+     * trip skips those.
+     *
+     * @param point The starting location
+     * @param nodeSearched A hook for visualization; given each
+     *   intersection in the order the trip first visits it
+     * @return The list of intersections along the trip, from start back to
+     *   start
+     */
     public List<GeographicPoint> greedyAlgForSalespersonProblem(GeographicPoint point, Consumer<GeographicPoint> nodeSearched)
     {
-        int n = getNumVertices();// complete graph
-        System.out.println("salesperson");
         if(point == null) {
-            System.out.println("Cannot find route from null node");
             throw new NullPointerException("Cannot find route from null node");
         }
-        if(!pointNodeMap.containsKey(point)) {
-            System.out.println("node does not exist");
+        if(!containsVertex(point)) {
             throw new NullPointerException("node does not exist");
         }
-        MapNode startNode = pointNodeMap.get(point);
-        //MapNode endNode = pointNodeMap.get(goal);
-
-        count = 0;
-        PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
-        HashSet<MapNode> visited = new HashSet<MapNode>();
-        HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-
-        startNode.setDistance(0);
-        double distCurr = 0;
-        toExplore.add(startNode);
-        MapNode curr = pointNodeMap.get(point);
-
-        double wholeDist = 0;
-        for(int i = 0; i < n; i++) {
-       // while(!toExplore.isEmpty()){
-            //MapNode curr = toExplore.remove();
-            System.out.println("curr: "+ curr.getLocation());
-            visited.add(curr);
-            nodeSearched.accept(curr.getLocation());// for visualization
-            if(visited.size() == n){
-                System.out.println("all vertices are counted ");
-                if(curr.getNeighbors().contains(startNode)){
-                    double dist = curr.getLocation().distance(startNode.getLocation());
-                    wholeDist += dist;
-                    nodeSearched.accept(startNode.getLocation());
-                    System.out.println("add start: "+ startNode.getLocation()+ " dist: "+ dist);
-                    System.out.println("wholeDist: "+ wholeDist);
-                }
-                else{
-                    System.out.println("no path from last vertice to start!");
-                }
-            break;
-            }
-            double minDist = Double.POSITIVE_INFINITY;
-            MapNode nodeToAdd = null;
-            for (MapNode neighbor: curr.getNeighbors()) {
-                if (!visited.contains(neighbor)) {
-                    double dist = curr.getLocation().distance(neighbor.getLocation());
-                    System.out.println("neighbour: "+ neighbor.getLocation()+ " dist: "+ dist);
-                    if(dist < minDist) {
-                        minDist = dist;
-                        nodeToAdd = neighbor;
-                    }
-                }
-            }
-            if(nodeToAdd != null) {
-                curr = nodeToAdd;
-                wholeDist += minDist;
-                System.out.println("nearest neighbour: "+ nodeToAdd.getLocation()+ " dist: "+ minDist);
-                System.out.println("wholeDist: "+ wholeDist);
-                if(!parentMap.containsKey(nodeToAdd) || minDist < nodeToAdd.getDistance())
-                {
-                    parentMap.put(nodeToAdd, curr);
-                    nodeToAdd.setDistance(minDist);
-                }
-            }
-            else{
-                    // no node to add
-                System.out.println("no node to add! ");
+        CompactMapGraph graph = freeze();
+        List<GeographicPoint> stops = new ArrayList<GeographicPoint>();
+        stops.add(point);
+        for (GeographicPoint vertex : graph.stronglyConnected(point)) {
+            if (!vertex.equals(point)) {
+                stops.add(vertex);
             }
         }
-        return null;
+        TourPlanner.Tour tour = TourPlanner.plan(graph, stops);
+        for (GeographicPoint stop : tour.getStops()) {
+            nodeSearched.accept(stop);
+        }
+        return tour.getPath();
+    }
+
+    /** Find a short round trip that starts at the first of a list of
+     * stops, visits the rest in whatever order is shortest, and returns
+     * to the first.
+     *
+     * @param stops The stops to visit, starting with the one to start from
+     * @return The planned tour, with its stop order, length and road-level
+     *   path, or null if some stop cannot be reached from another
+     * @throws NullPointerException if any stop is null or not in the graph
+     */
+    public TourPlanner.Tour planTour(List<GeographicPoint> stops)
+    {
+        return TourPlanner.plan(freeze(), stops);
     }
 
     /** Find the path from start to goal using A-Star search
@@ -398,61 +738,304 @@ public class MapGraph {
      */
     public List<GeographicPoint> aStarSearch(GeographicPoint start,
                                              GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+    {
+        return aStarSearch(start, goal, nodeSearched, false, CostProfile.SHORTEST);
+    }
+
+    /** Find the path from start to goal using A-Star search guided by
+     * landmark distances (ALT) instead of straight line distance.
+     * Landmarks are built on first use unless useLandmarks was called.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> altSearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return altSearch(start, goal, temp);
+    }
+
+    /** Find the path from start to goal using A-Star search guided by
+     * landmark distances (ALT) instead of straight line distance.
+     * Landmarks are built on first use unless useLandmarks was called.
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> altSearch(GeographicPoint start,
+                                           GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+    {
+        return aStarSearch(start, goal, nodeSearched, true, CostProfile.SHORTEST);
+    }
+
+    /**
+     * Load the landmarks used by altSearch from a file, or choose them and
+     * save them to the file if it is missing or was made for a different
+     * graph.
+     * @param file The file the landmark tables are kept in
+     * @param numLandmarks The number of landmarks to use
+     * @return The landmark heuristic now used by altSearch
+     */
+    public LandmarkHeuristic useLandmarks(File file, int numLandmarks)
+    {
+        LandmarkHeuristic alt = LandmarkHeuristic.loadOrBuild(file, freeze(), numLandmarks,
+                LandmarkSelection.AVOID);
+        landmarks = alt;
+        return alt;
+    }
+
+    // Landmarks for the current frozen graph, built if there are none yet
+    LandmarkHeuristic landmarksFor(CompactMapGraph graph)
+    {
+        LandmarkHeuristic alt = landmarks;
+        if (alt == null || alt.getGraph() != graph) {
+            synchronized (this) {
+                alt = landmarks;
+                if (alt == null || alt.getGraph() != graph) {
+                    alt = LandmarkHeuristic.build(graph, DEFAULT_LANDMARKS, LandmarkSelection.AVOID);
+                    landmarks = alt;
+                }
+            }
+        }
+        return alt;
+    }
+
+    private List<GeographicPoint> aStarSearch(GeographicPoint start,
+                                              GeographicPoint goal,
+                                              Consumer<GeographicPoint> nodeSearched,
+                                              boolean useLandmarks,
+                                              CostProfile profile)
     {
         if(start == null || goal == null) {
             throw new NullPointerException("Cannot find route from or to null node");
         }
-        if(!pointNodeMap.containsKey(start) || !pointNodeMap.containsKey(goal)) {
+        if(!containsVertex(start) || !containsVertex(goal)) {
             throw new NullPointerException("node does not exist");
         }
 
-        MapNode startNode = pointNodeMap.get(start);
-        MapNode endNode = pointNodeMap.get(goal);
-
-        count = 0;
-        PriorityQueue<MapNode> toExplore = new PriorityQueue<MapNode>();
-        HashSet<MapNode> visited = new HashSet<MapNode>();
-        HashMap<MapNode,MapNode> parentMap = new HashMap<MapNode,MapNode>();
-
-        startNode.setDistance(0);
-        startNode.setActualDistance(0);
-        double distCurr = 0;
-        toExplore.add(startNode);
-
-        while(!toExplore.isEmpty()){
-            MapNode curr = toExplore.remove();
-            nodeSearched.accept(curr.getLocation());// for visualization
-            if(!visited.contains(curr)){
-                count++;
-                System.out.println("from queue: "+curr.getLocation());
-                visited.add(curr);
-                // System.out.println("curr: "+curr.getLocation()+ " "+ curr.getDistance());
-                distCurr = curr.getActualDistance();
-                if(curr.equals(endNode)){
-                    // for(MapNode v: visited){
-                    //    System.out.println("visited: "+v.getLocation());
-                    // }
-                    System.out.println("Nodes visited in search:: "+count);
-                    return reconstructPath(parentMap, startNode, endNode);
-                }
+        CompactMapGraph graph = freeze();
+        Heuristic heuristic = useLandmarks ? landmarksFor(graph) : graph.getStraightLineHeuristic();
+        SearchContext context = graph.getContextPool().acquire();
+        try {
+            long begin = System.nanoTime();
+            List<GeographicPoint> path = graph.aStarSearch(start, goal, nodeSearched, context, heuristic, profile);
+            finished(new SearchStats(useLandmarks ? RouteAlgorithm.ALT : RouteAlgorithm.A_STAR,
+                                     context, System.nanoTime() - begin, path != null));
+            return path;
+        }
+        finally {
+            graph.getContextPool().release(context);
+        }
+    }
 
-                for (MapNode neighbor: curr.getNeighbors()){
-                    if(!visited.contains(neighbor)){
-                        double dist = distCurr + curr.getLocation().distance(neighbor.getLocation());
-                        double predictDist = dist + neighbor.getLocation().distance(endNode.getLocation());
-                        if(!parentMap.containsKey(neighbor) || predictDist < neighbor.getDistance())
-                        {
-                            parentMap.put(neighbor, curr);
-                            neighbor.setDistance(predictDist);
-                            neighbor.setActualDistance(dist);
-                        }
-                        toExplore.add(neighbor);
-                    }
-                }
+    /** Find the path from start to goal using Dijkstra's algorithm run
+     * from both ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return bidirectionalDijkstra(start, goal, temp);
+    }
+
+    /** Find the path from start to goal using Dijkstra's algorithm run
+     * from both ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalDijkstra(GeographicPoint start,
+                                                       GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+    {
+        return bidirectionalSearch(start, goal, nodeSearched, false, CostProfile.SHORTEST);
+    }
+
+    /** Find the path from start to goal using A-Star search run from both
+     * ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start, GeographicPoint goal) {
+        Consumer<GeographicPoint> temp = (x) -> {};
+        return bidirectionalAStarSearch(start, goal, temp);
+    }
+
+    /** Find the path from start to goal using A-Star search run from both
+     * ends at once
+     *
+     * @param start The starting location
+     * @param goal The goal location
+     * @param nodeSearched A hook for visualization.
+     * @return The list of intersections that form the shortest path from
+     *   start to goal (including both start and goal).
+     */
+    public List<GeographicPoint> bidirectionalAStarSearch(GeographicPoint start,
+                                                          GeographicPoint goal, Consumer<GeographicPoint> nodeSearched)
+    {
+        return bidirectionalSearch(start, goal, nodeSearched, true, CostProfile.SHORTEST);
+    }
+
+    private List<GeographicPoint> bidirectionalSearch(GeographicPoint start,
+                                                      GeographicPoint goal,
+                                                      Consumer<GeographicPoint> nodeSearched,
+                                                      boolean useHeuristic,
+                                                      CostProfile profile)
+    {
+        if(start == null || goal == null) {
+            throw new NullPointerException("Cannot find route from or to null node");
+        }
+        if(!containsVertex(start) || !containsVertex(goal)) {
+            throw new NullPointerException("node does not exist");
+        }
+
+        CompactMapGraph graph = freeze();
+        SearchContext forward = graph.getContextPool().acquire();
+        SearchContext backward = graph.getContextPool().acquire();
+        try {
+            long begin = System.nanoTime();
+            List<GeographicPoint> path;
+            Heuristic heuristic = useHeuristic ? graph.getStraightLineHeuristic() : null;
+            path = graph.bidirectionalAStarSearch(start, goal, nodeSearched, forward, backward,
+                                                  heuristic, profile);
+            finished(new SearchStats(useHeuristic ? RouteAlgorithm.BIDIRECTIONAL_A_STAR
+                                                  : RouteAlgorithm.BIDIRECTIONAL_DIJKSTRA,
+                                     forward, backward, System.nanoTime() - begin, path != null));
+            return path;
+        }
+        finally {
+            graph.getContextPool().release(forward);
+            graph.getContextPool().release(backward);
+        }
+    }
+
+    /**
+     * Find the shortest paths from a location to every intersection within
+     * a distance of it, without searching any farther.
+     * @param source The location to start from
+     * @param cutoff The largest distance to search to, in km
+     * @return The tree of shortest paths to the intersections within cutoff
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if the cutoff is negative
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source, double cutoff)
+    {
+        return freeze().shortestPathTree(source, cutoff);
+    }
+
+    /**
+     * Find the cheapest paths under a cost profile from a location to
+     * every intersection within a cost of it, such as every intersection
+     * within ten minutes' drive under CostProfile.FASTEST.
+     * @param source The location to start from
+     * @param cutoff The largest cost to search to, in the profile's units
+     * @param profile How to weigh each road
+     * @return The tree of cheapest paths to the intersections within cutoff
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if the cutoff is negative
+     */
+    public ShortestPathTree shortestPathTree(GeographicPoint source, double cutoff,
+                                             CostProfile profile)
+    {
+        return freeze().shortestPathTree(source, cutoff, profile);
+    }
+
+    /**
+     * Outline the areas reachable from a location within each of several
+     * distances, with one search out to the largest of them.
+     * @param source The location to start from
+     * @param cutoffs The distances, in km
+     * @return An isochrone for each distance, in the same order
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if a distance is negative
+     */
+    public List<ShortestPathTree.Isochrone> isochrones(GeographicPoint source, double... cutoffs)
+    {
+        return isochrones(source, CostProfile.SHORTEST, cutoffs);
+    }
+
+    /**
+     * Outline the areas reachable from a location within each of several
+     * costs under a cost profile, such as drive times under
+     * CostProfile.FASTEST.
+     * @param source The location to start from
+     * @param profile How to weigh each road
+     * @param cutoffs The costs, in the profile's units
+     * @return An isochrone for each cost, in the same order
+     * @throws NullPointerException if the source is null or not in the graph
+     * @throws IllegalArgumentException if a cost is negative
+     */
+    public List<ShortestPathTree.Isochrone> isochrones(GeographicPoint source, CostProfile profile,
+                                                       double... cutoffs)
+    {
+        double largest = 0;
+        for (double cutoff : cutoffs) {
+            if (!(cutoff >= 0)) {
+                throw new IllegalArgumentException("cutoff must not be negative: " + cutoff);
             }
+            largest = Math.max(largest, cutoff);
         }
-        System.out.println("No path found from " +start+ " to " + goal);
-        return null;
+        return shortestPathTree(source, largest, profile).isochrones(cutoffs);
+    }
+
+    /**
+     * Find the lengths of the shortest paths from each of a list of
+     * sources to each of a list of targets.  The searches run in parallel,
+     * one per source (or per target, if there are fewer targets), and
+     * each stops as soon as it has reached every point on the other list.
+     * @param sources The locations to measure from
+     * @param targets The locations to measure to
+     * @return A matrix whose [i][j] entry is the length in km of the
+     *   shortest path from sources[i] to targets[j], or
+     *   Double.POSITIVE_INFINITY if there is no path
+     * @throws NullPointerException if any point is null or not in the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets)
+    {
+        return freeze().distanceMatrix(sources, targets);
+    }
+
+    /**
+     * Find the costs of the cheapest paths under a cost profile from each
+     * of a list of sources to each of a list of targets, in parallel like
+     * distanceMatrix(List, List).
+     * @param sources The locations to measure from
+     * @param targets The locations to measure to
+     * @param profile How to weigh each road
+     * @return A matrix whose [i][j] entry is the cost, in the profile's
+     *   units, of the cheapest path from sources[i] to targets[j], or
+     *   Double.POSITIVE_INFINITY if there is no path
+     * @throws NullPointerException if any point is null or not in the graph
+     */
+    public double[][] distanceMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets,
+                                     CostProfile profile)
+    {
+        return freeze().distanceMatrix(sources, targets, ForkJoinPool.commonPool(), profile);
+    }
+
+    /**
+     * Find the routes for a stream of queries, running them in parallel
+     * on the common fork/join pool (see RouteBatch).
+     * @param queries The queries
+     * @param results Called on this thread with the result of each query,
+     *   as they finish
+     * @return The number of queries run
+     */
+    public long routeAll(Stream<RouteBatch.Query> queries, Consumer<RouteBatch.Result> results)
+    {
+        return new RouteBatch(this).run(queries, results);
     }
 
     public static void main(String[] args)
@@ -8,14 +8,11 @@ import geography.GeographicPoint;
  * Class representing a vertex (or node) in our MapGraph
  *
  */
-class MapNode implements Comparable
+class MapNode
 {
     private HashSet<MapEdge> edges;
     private GeographicPoint location;
 
-    private double distance;
-    private double actualDistance;
-
     /**
      * Create a new MapNode at a given Geographic location
      * @param loc the location of this node
@@ -40,22 +37,6 @@ class MapNode implements Comparable
         return Math.sqrt((this.location.x - otherLocation.x)*(this.location.x - otherLocation.x) + (this.location.y - otherLocation.y)*(this.location.y - otherLocation.y));
     }
 
-    public double getDistance() {
-        return this.distance;
-    }
-
-    public void setDistance(double distance) {
-        this.distance = distance;
-    }
-
-    public double getActualDistance() {
-        return this.actualDistance;
-    }
-
-    public void setActualDistance(double actualDistance) {
-        this.actualDistance = actualDistance;
-    }
-
     /**
      * Return the neighbors of this MapNode
      * @return a set containing all the neighbors of this node
@@ -139,10 +120,4 @@ class MapNode implements Comparable
         toReturn += ")";
         return toReturn;
     }
-
-    public int compareTo(Object o) {
-        // convert to map node, may throw exception
-        MapNode m = (MapNode)o;
-        return ((Double)this.getDistance()).compareTo((Double) m.getDistance());
-    }
 }
\ No newline at end of file
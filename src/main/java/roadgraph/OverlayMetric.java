@@ -0,0 +1,381 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import geography.GeographicPoint;
+
+/**
+ * The costs of crossing the cells of a GraphPartition under one set of
+ * edge costs: the metric-dependent half of customizable route planning.
+ * For every cell of every level it holds a clique, the cost of the
+ * cheapest path inside the cell from each of its boundary vertices to
+ * each other one.
+ *
+ * Customization works out the cliques level by level.  Level 0 cliques
+ * come from Dijkstra searches over the edges inside each cell; the
+ * cliques of a higher level come from searches over the cliques and cut
+ * edges of the level below, which are much smaller than the cells.
+ * Cells of one level are independent, so they are customized in
+ * parallel.  When edge costs change (new live weights, say) the
+ * partition is kept and only customization runs again, while queries
+ * carry on with the old metric until the new one is ready.
+ *
+ * A query is an A* search over the edges of the cells that hold the
+ * start or the goal, and elsewhere only the cliques of the highest level
+ * cell that holds neither, plus the edges between cells.  Routes are unpacked by
+ * searching the inside of each cell they cross with a clique.
+ */
+public final class OverlayMetric {
+    private final GraphPartition partition;
+    private final CompactMapGraph graph;
+    private final double[] weights;
+    private final Heuristic heuristic;
+
+    // cliques[l] holds the clique matrices of the cells of level l
+    private final double[][] cliques;
+
+    private OverlayMetric(GraphPartition partition, double[] weights, Heuristic heuristic)
+    {
+        this.partition = partition;
+        this.graph = partition.getGraph();
+        this.weights = weights;
+        this.heuristic = heuristic;
+        cliques = new double[partition.getNumLevels()][];
+    }
+
+    /**
+     * Customize a partition for the costs of a profile on the common
+     * fork/join pool.
+     * @param partition The partition of the graph
+     * @param profile How to weigh each road
+     * @return The customized metric
+     */
+    public static OverlayMetric customize(GraphPartition partition, CostProfile profile)
+    {
+        return customize(partition, profile, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Customize a partition for the costs of a profile.
+     * @param partition The partition of the graph
+     * @param profile How to weigh each road
+     * @param pool The pool to customize the cells in
+     * @return The customized metric
+     */
+    public static OverlayMetric customize(GraphPartition partition, CostProfile profile,
+                                          ForkJoinPool pool)
+    {
+        CompactMapGraph graph = partition.getGraph();
+        return customize(partition, graph.weightsFor(profile),
+                         CompactMapGraph.scaled(graph.getStraightLineHeuristic(), profile.getMinCostPerKm()),
+                         pool);
+    }
+
+    /**
+     * Customize a partition for the live costs of one epoch.  The costs are
+     * copied, so the snapshot may be closed once this returns.
+     * @param partition The partition of the graph
+     * @param snapshot Live costs for the same graph
+     * @param pool The pool to customize the cells in
+     * @return The customized metric
+     */
+    public static OverlayMetric customize(GraphPartition partition, LiveWeights.Snapshot snapshot,
+                                          ForkJoinPool pool)
+    {
+        return customize(partition, snapshot.weights().clone(), snapshot.heuristic(), pool);
+    }
+
+    // The weights must not change while the metric is in use, and the
+    // heuristic must be a consistent lower bound on them
+    static OverlayMetric customize(GraphPartition partition, double[] weights,
+                                   Heuristic heuristic, ForkJoinPool pool)
+    {
+        OverlayMetric metric = new OverlayMetric(partition, weights, heuristic);
+        for (int l = 0; l < partition.getNumLevels(); l++) {
+            metric.customizeLevel(l, pool);
+        }
+        return metric;
+    }
+
+    /** @return The partition the metric is for */
+    public GraphPartition getPartition()
+    {
+        return partition;
+    }
+
+    /**
+     * Find the cost of the cheapest path from start to goal.
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The cost of the path, or Double.POSITIVE_INFINITY if there
+     *   is none
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public double distance(GeographicPoint start, GeographicPoint goal)
+    {
+        SearchContext context = graph.getContextPool().acquire();
+        try {
+            int t = vertexOf(goal);
+            if (!query(vertexOf(start), t, context)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return context.getDistance(t);
+        }
+        finally {
+            graph.getContextPool().release(context);
+        }
+    }
+
+    /**
+     * Find the cheapest path from start to goal.
+     * @param start The starting location
+     * @param goal The goal location
+     * @return The list of intersections that form the path from start to
+     *   goal (including both start and goal), or null if there is none.
+     * @throws NullPointerException if either point is null or not in the graph
+     */
+    public List<GeographicPoint> route(GeographicPoint start, GeographicPoint goal)
+    {
+        int s = vertexOf(start);
+        int t = vertexOf(goal);
+        SearchContext context = graph.getContextPool().acquire();
+        SearchContext inside = graph.getContextPool().acquire();
+        try {
+            if (!query(s, t, context)) {
+                return null;
+            }
+            LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
+            int v = t;
+            path.addFirst(graph.getLocation(v));
+            while (v != s) {
+                int p = context.getParent(v);
+                int level = queryLevel(p, s, t);
+                if (level >= 0 && partition.cells(level)[v] == partition.cells(level)[p]) {
+                    // A clique arc: find the path it stands for inside the cell
+                    searchCell(p, v, level, partition.cells(level)[p], inside);
+                    for (int u = inside.getParent(v); u != p; u = inside.getParent(u)) {
+                        path.addFirst(graph.getLocation(u));
+                    }
+                    inside.reset();
+                }
+                path.addFirst(graph.getLocation(p));
+                v = p;
+            }
+            return path;
+        }
+        finally {
+            graph.getContextPool().release(inside);
+            graph.getContextPool().release(context);
+        }
+    }
+
+    // Work out the cliques of every cell of one level
+    private void customizeLevel(int level, ForkJoinPool pool)
+    {
+        int numCells = partition.getNumCells(level);
+        int[] start = partition.boundaryStart(level);
+        int[] boundary = partition.boundary(level);
+        int[] cliqueStart = partition.cliqueStart(level);
+        double[] clique = new double[cliqueStart[numCells]];
+
+        int ranges = Math.max(1, Math.min(numCells, 4 * pool.getParallelism()));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(ranges);
+        for (int r = 0; r < ranges; r++) {
+            int first = (int) ((long) numCells * r / ranges);
+            int last = (int) ((long) numCells * (r + 1) / ranges);
+            tasks.add(() -> {
+                SearchContext context = graph.getContextPool().acquire();
+                try {
+                    for (int c = first; c < last; c++) {
+                        int k = start[c + 1] - start[c];
+                        for (int i = 0; i < k; i++) {
+                            int root = boundary[start[c] + i];
+                            if (level == 0) {
+                                searchCell(root, -1, 0, c, context);
+                            }
+                            else {
+                                searchOverlay(root, level, c, context);
+                            }
+                            for (int j = 0; j < k; j++) {
+                                int w = boundary[start[c] + j];
+                                clique[cliqueStart[c] + i * k + j] = context.isVisited(w)
+                                        ? context.getDistance(w) : Double.POSITIVE_INFINITY;
+                            }
+                            context.reset();
+                        }
+                    }
+                }
+                finally {
+                    graph.getContextPool().release(context);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> result : pool.invokeAll(tasks)) {
+            try {
+                result.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while customizing", e);
+            }
+            catch (ExecutionException e) {
+                throw new IllegalStateException("Problem customizing", e.getCause());
+            }
+        }
+        cliques[level] = clique;
+    }
+
+    // Dijkstra's algorithm from root over the edges inside one cell of a
+    // level, until goal is settled, or (if goal is -1) every boundary
+    // vertex of the cell is
+    private void searchCell(int root, int goal, int level, int cell, SearchContext context)
+    {
+        int[] cells = partition.cells(level);
+        int[] boundaryIndex = partition.boundaryIndex(level);
+        int goalsLeft = goal >= 0 ? 1 : partition.boundaryStart(level)[cell + 1]
+                                         - partition.boundaryStart(level)[cell];
+        IndexedPriorityQueue toExplore = context.queue;
+        context.reach(root, 0, -1);
+        toExplore.insert(root, 0);
+        while (!toExplore.isEmpty()) {
+            int v = toExplore.pollMin();
+            context.visit(v);
+            if (goal >= 0 ? v == goal : boundaryIndex[v] >= 0) {
+                if (--goalsLeft == 0) {
+                    return;
+                }
+            }
+            double distV = context.getDistance(v);
+            for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                int w = graph.getTarget(e);
+                double d = distV + weights[e];
+                if (cells[w] == cell && !context.isVisited(w) && d < context.getDistance(w)) {
+                    context.reach(w, d, v);
+                    toExplore.offer(w, d);
+                }
+            }
+        }
+    }
+
+    // Dijkstra's algorithm from root over the overlay of the level below,
+    // inside one cell of the level, until every boundary vertex of the
+    // cell is settled
+    private void searchOverlay(int root, int level, int cell, SearchContext context)
+    {
+        int[] cells = partition.cells(level);
+        int[] boundaryIndex = partition.boundaryIndex(level);
+        int goalsLeft = partition.boundaryStart(level)[cell + 1] - partition.boundaryStart(level)[cell];
+        IndexedPriorityQueue toExplore = context.queue;
+        context.reach(root, 0, -1);
+        toExplore.insert(root, 0);
+        while (!toExplore.isEmpty()) {
+            int v = toExplore.pollMin();
+            context.visit(v);
+            if (boundaryIndex[v] >= 0 && --goalsLeft == 0) {
+                return;
+            }
+            relaxOverlay(v, level - 1, cells, cell, -1, context);
+        }
+    }
+
+    // Relax the clique arcs of v's cell at a level, and the edges from v
+    // to other cells of that level that stay inside cell of the
+    // partition of outer (or anywhere, if outer is null).  Queue keys are
+    // guided toward goal, if it is not -1.
+    private void relaxOverlay(int v, int level, int[] outer, int cell, int goal,
+                              SearchContext context)
+    {
+        int[] cells = partition.cells(level);
+        int c = cells[v];
+        int[] start = partition.boundaryStart(level);
+        int[] boundary = partition.boundary(level);
+        int k = start[c + 1] - start[c];
+        int row = partition.cliqueStart(level)[c] + partition.boundaryIndex(level)[v] * k;
+        double[] clique = cliques[level];
+        double distV = context.getDistance(v);
+        IndexedPriorityQueue toExplore = context.queue;
+        for (int j = 0; j < k; j++) {
+            int w = boundary[start[c] + j];
+            double d = distV + clique[row + j];
+            if (!context.isVisited(w) && d < context.getDistance(w)) {
+                context.reach(w, d, v);
+                toExplore.offer(w, goal < 0 ? d : d + heuristic.estimate(w, goal));
+            }
+        }
+        for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+            int w = graph.getTarget(e);
+            if (cells[w] == c || (outer != null && outer[w] != cell)) {
+                continue;
+            }
+            double d = distV + weights[e];
+            if (!context.isVisited(w) && d < context.getDistance(w)) {
+                context.reach(w, d, v);
+                toExplore.offer(w, goal < 0 ? d : d + heuristic.estimate(w, goal));
+            }
+        }
+    }
+
+    // A* search from s to t over the edges near s and t and the overlay
+    // elsewhere, returning whether t was reached.  Clique arcs are the
+    // costs of real paths, so the heuristic stays consistent on them.
+    private boolean query(int s, int t, SearchContext context)
+    {
+        IndexedPriorityQueue toExplore = context.queue;
+        context.reach(s, 0, -1);
+        toExplore.insert(s, heuristic.estimate(s, t));
+        while (!toExplore.isEmpty()) {
+            int v = toExplore.pollMin();
+            context.visit(v);
+            if (v == t) {
+                return true;
+            }
+            int level = queryLevel(v, s, t);
+            if (level >= 0) {
+                relaxOverlay(v, level, null, 0, t, context);
+                continue;
+            }
+            double distV = context.getDistance(v);
+            for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                int w = graph.getTarget(e);
+                double d = distV + weights[e];
+                if (!context.isVisited(w) && d < context.getDistance(w)) {
+                    context.reach(w, d, v);
+                    toExplore.offer(w, d + heuristic.estimate(w, t));
+                }
+            }
+        }
+        return false;
+    }
+
+    // The highest level whose cell holding v holds neither s nor t, or -1
+    // if v shares even its smallest cell with one of them
+    private int queryLevel(int v, int s, int t)
+    {
+        for (int l = partition.getNumLevels() - 1; l >= 0; l--) {
+            int[] cells = partition.cells(l);
+            if (cells[v] != cells[s] && cells[v] != cells[t]) {
+                return l;
+            }
+        }
+        return -1;
+    }
+
+    private int vertexOf(GeographicPoint location)
+    {
+        if (location == null) {
+            throw new NullPointerException("Cannot find route from or to null node");
+        }
+        int v = graph.indexOf(location);
+        if (v < 0) {
+            throw new NullPointerException("node does not exist");
+        }
+        return v;
+    }
+}
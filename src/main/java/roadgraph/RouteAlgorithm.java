@@ -0,0 +1,24 @@
+package roadgraph;
+
+/**
+ * The search algorithms MapGraph can find a route with.
+ */
+public enum RouteAlgorithm {
+    /** Breadth first search; finds the route with fewest intersections */
+    BFS,
+
+    /** Dijkstra's algorithm */
+    DIJKSTRA,
+
+    /** A* search guided by straight line distance */
+    A_STAR,
+
+    /** A* search guided by landmark distances */
+    ALT,
+
+    /** Dijkstra's algorithm run from both ends at once */
+    BIDIRECTIONAL_DIJKSTRA,
+
+    /** A* search run from both ends at once */
+    BIDIRECTIONAL_A_STAR
+}
@@ -0,0 +1,445 @@
+package roadgraph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import geography.GeographicPoint;
+
+/**
+ * Runs many route queries at once on a fork/join pool, for offline work
+ * such as replaying historical trips.
+ *
+ * Queries are read lazily from an iterator, stream or file on the
+ * calling thread and handed to the pool in chunks.  Each chunk takes its
+ * search contexts from the graph's pool once and reuses them for every
+ * query in it, so the workers share the frozen graph and nothing else.
+ * Results come back to the calling thread as chunks finish (so not in
+ * query order; each carries the number of its query).  No more than a
+ * fixed number of queries are read ahead of the results handed back, so
+ * a slow consumer holds the reading back instead of filling memory.
+ *
+ * Unlike MapGraph.route, the queries bypass the route cache and do not
+ * record search stats.  A query that fails (say its start is not a vertex)
+ * gives a result holding the exception rather than stopping the batch.
+ */
+public class RouteBatch {
+    // The number of queries handed to the pool as one task
+    private static final int CHUNK_SIZE = 64;
+
+    private final MapGraph map;
+    private final ForkJoinPool pool;
+    private final int maxPending;
+    private long skipped;
+
+    /**
+     * Run batches on the common fork/join pool with up to 4096 queries
+     * pending at once.
+     * @param map The graph to route on
+     */
+    public RouteBatch(MapGraph map)
+    {
+        this(map, ForkJoinPool.commonPool(), 4096);
+    }
+
+    /**
+     * @param map The graph to route on
+     * @param pool The pool to run the queries on
+     * @param maxPending The most queries read but not yet handed back
+     */
+    public RouteBatch(MapGraph map, ForkJoinPool pool, int maxPending)
+    {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+        }
+        this.map = map;
+        this.pool = pool;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Run every query in a stream.
+     * @param queries The queries
+     * @param results Called on this thread with the result of each query
+     * @return The number of queries run
+     */
+    public long run(Stream<Query> queries, Consumer<Result> results)
+    {
+        return run(queries.iterator(), results);
+    }
+
+    /**
+     * Run every query in a file (see run(Reader, Consumer)).
+     * @param file The file of queries
+     * @param results Called on this thread with the result of each query
+     * @return The number of queries run
+     * @throws IOException if the file cannot be read
+     */
+    public long run(File file, Consumer<Result> results) throws IOException
+    {
+        try (Reader in = new FileReader(file)) {
+            return run(in, results);
+        }
+    }
+
+    /**
+     * Run every query read from a stream of text, one per line:
+     *
+     *   lat1 lon1 lat2 lon2 [algorithm [profile]]
+     *
+     * routing from (lat1, lon1) to (lat2, lon2) with a RouteAlgorithm
+     * (A_STAR if missing) under the shortest, fastest or
+     * avoid_motorways profile (shortest if missing).  Blank lines and
+     * lines starting with # are ignored, and lines that cannot be read
+     * are counted as skipped.
+     * @param in The queries
+     * @param results Called on this thread with the result of each query
+     * @return The number of queries run
+     * @throws IOException if the queries cannot be read
+     */
+    public long run(Reader in, Consumer<Result> results) throws IOException
+    {
+        try {
+            return run(new QueryReader(new BufferedReader(in)), results);
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Run every query from an iterator.
+     * @param queries The queries
+     * @param results Called on this thread with the result of each query
+     * @return The number of queries run
+     * @throws IllegalStateException if a query fails with an error, or the
+     *   thread is interrupted
+     */
+    public long run(Iterator<Query> queries, Consumer<Result> results)
+    {
+        CompactMapGraph graph = map.freeze();
+        BlockingQueue<Result[]> done = new LinkedBlockingQueue<Result[]>();
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        int chunkSize = Math.min(CHUNK_SIZE, maxPending);
+        int maxChunks = maxPending / chunkSize;
+        int pending = 0;
+        long count = 0;
+        try {
+            while (queries.hasNext()) {
+                // Wait for room before reading any further
+                while (pending >= maxChunks) {
+                    deliver(done.take(), failure, results);
+                    pending--;
+                }
+                Query[] chunk = new Query[chunkSize];
+                int size = 0;
+                while (size < chunkSize && queries.hasNext()) {
+                    chunk[size++] = queries.next();
+                }
+                long first = count;
+                Result[] out = new Result[size];
+                pool.execute(() -> {
+                    try {
+                        route(graph, chunk, first, out);
+                    }
+                    catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                    finally {
+                        done.add(out);
+                    }
+                });
+                pending++;
+                count += size;
+                Result[] finished;
+                while ((finished = done.poll()) != null) {
+                    deliver(finished, failure, results);
+                    pending--;
+                }
+            }
+            while (pending > 0) {
+                deliver(done.take(), failure, results);
+                pending--;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while routing", e);
+        }
+        return count;
+    }
+
+    /** @return The number of lines of query files skipped so far */
+    public long getSkipped()
+    {
+        return skipped;
+    }
+
+    // Run a chunk of queries, numbered from first, reusing one pair of
+    // contexts for all of them
+    private void route(CompactMapGraph graph, Query[] chunk, long first, Result[] out)
+    {
+        SearchContext forward = graph.getContextPool().acquire();
+        SearchContext backward = graph.getContextPool().acquire();
+        try {
+            for (int i = 0; i < out.length; i++) {
+                Query query = chunk[i];
+                try {
+                    out[i] = new Result(first + i, query, route(graph, query, forward, backward), null);
+                }
+                catch (RuntimeException e) {
+                    out[i] = new Result(first + i, query, null, e);
+                }
+                forward.reset();
+                backward.reset();
+            }
+        }
+        finally {
+            graph.getContextPool().release(forward);
+            graph.getContextPool().release(backward);
+        }
+    }
+
+    private List<GeographicPoint> route(CompactMapGraph graph, Query query,
+                                        SearchContext forward, SearchContext backward)
+    {
+        GeographicPoint start = query.getStart();
+        GeographicPoint goal = query.getGoal();
+        CostProfile profile = query.getProfile();
+        Consumer<GeographicPoint> ignore = (x) -> {};
+        switch (query.getAlgorithm()) {
+            case BFS:
+                return graph.bfs(start, goal, ignore, forward);
+            case DIJKSTRA:
+                return graph.dijkstra(start, goal, ignore, forward, profile);
+            case A_STAR:
+                return graph.aStarSearch(start, goal, ignore, forward,
+                                         graph.getStraightLineHeuristic(), profile);
+            case ALT:
+                return graph.aStarSearch(start, goal, ignore, forward,
+                                         map.landmarksFor(graph), profile);
+            case BIDIRECTIONAL_DIJKSTRA:
+                return graph.bidirectionalAStarSearch(start, goal, ignore, forward, backward,
+                                                      null, profile);
+            case BIDIRECTIONAL_A_STAR:
+                return graph.bidirectionalAStarSearch(start, goal, ignore, forward, backward,
+                                                      graph.getStraightLineHeuristic(), profile);
+            default:
+                throw new IllegalArgumentException("Unknown algorithm " + query.getAlgorithm());
+        }
+    }
+
+    private static void deliver(Result[] finished, AtomicReference<Throwable> failure,
+                                Consumer<Result> results)
+    {
+        if (failure.get() != null) {
+            throw new IllegalStateException("Problem routing", failure.get());
+        }
+        for (Result result : finished) {
+            results.accept(result);
+        }
+    }
+
+    // Reads queries a line at a time, skipping lines that are not queries
+    private class QueryReader implements Iterator<Query> {
+        private final BufferedReader reader;
+        private Query next;
+
+        QueryReader(BufferedReader reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            try {
+                String line;
+                while (next == null && (line = reader.readLine()) != null) {
+                    next = parse(line);
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Query next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Query query = next;
+            next = null;
+            return query;
+        }
+
+        // The query on one line, or null if there is none
+        private Query parse(String line)
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                return null;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                if (fields.length >= 4 && fields.length <= 6) {
+                    GeographicPoint start = new GeographicPoint(Double.parseDouble(fields[0]),
+                                                                Double.parseDouble(fields[1]));
+                    GeographicPoint goal = new GeographicPoint(Double.parseDouble(fields[2]),
+                                                               Double.parseDouble(fields[3]));
+                    RouteAlgorithm algorithm = fields.length > 4
+                            ? RouteAlgorithm.valueOf(fields[4].toUpperCase(Locale.ROOT))
+                            : RouteAlgorithm.A_STAR;
+                    CostProfile profile = fields.length > 5 ? profile(fields[5]) : CostProfile.SHORTEST;
+                    if (profile != null) {
+                        return new Query(start, goal, algorithm, profile);
+                    }
+                }
+            }
+            catch (IllegalArgumentException e) {
+                // a bad number or algorithm
+            }
+            skipped++;
+            return null;
+        }
+
+        private CostProfile profile(String name)
+        {
+            for (CostProfile profile : new CostProfile[] { CostProfile.SHORTEST, CostProfile.FASTEST,
+                                                           CostProfile.AVOID_MOTORWAYS }) {
+                if (profile.getName().replace(' ', '_').equalsIgnoreCase(name)) {
+                    return profile;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One route to find: where from and to, with which search, under
+     * which costs.
+     */
+    public static final class Query {
+        private final GeographicPoint start;
+        private final GeographicPoint goal;
+        private final RouteAlgorithm algorithm;
+        private final CostProfile profile;
+
+        /**
+         * A query for the shortest route by A* search.
+         * @param start The starting location
+         * @param goal The goal location
+         */
+        public Query(GeographicPoint start, GeographicPoint goal)
+        {
+            this(start, goal, RouteAlgorithm.A_STAR, CostProfile.SHORTEST);
+        }
+
+        /**
+         * @param start The starting location
+         * @param goal The goal location
+         * @param algorithm The search to run
+         * @param profile How to weigh each road; BFS ignores it
+         */
+        public Query(GeographicPoint start, GeographicPoint goal, RouteAlgorithm algorithm,
+                     CostProfile profile)
+        {
+            this.start = start;
+            this.goal = goal;
+            this.algorithm = algorithm;
+            this.profile = profile == null ? CostProfile.SHORTEST : profile;
+        }
+
+        /** @return The starting location */
+        public GeographicPoint getStart()
+        {
+            return start;
+        }
+
+        /** @return The goal location */
+        public GeographicPoint getGoal()
+        {
+            return goal;
+        }
+
+        /** @return The search to run */
+        public RouteAlgorithm getAlgorithm()
+        {
+            return algorithm;
+        }
+
+        /** @return How to weigh each road */
+        public CostProfile getProfile()
+        {
+            return profile;
+        }
+
+        @Override
+        public String toString()
+        {
+            return start + " -> " + goal + " by " + algorithm + " (" + profile + ")";
+        }
+    }
+
+    /**
+     * The route found for a query, or the exception it failed with.
+     */
+    public static final class Result {
+        private final long index;
+        private final Query query;
+        private final List<GeographicPoint> path;
+        private final RuntimeException error;
+
+        private Result(long index, Query query, List<GeographicPoint> path, RuntimeException error)
+        {
+            this.index = index;
+            this.query = query;
+            this.path = path == null ? null : Collections.unmodifiableList(path);
+            this.error = error;
+        }
+
+        /** @return The number of the query in the batch, counting from 0 */
+        public long getIndex()
+        {
+            return index;
+        }
+
+        /** @return The query this is the result of */
+        public Query getQuery()
+        {
+            return query;
+        }
+
+        /**
+         * @return The list of intersections that form the route (including
+         *   both start and goal), or null if there is none or the query failed
+         */
+        public List<GeographicPoint> getPath()
+        {
+            return path;
+        }
+
+        /** @return The exception the query failed with, or null if it did not */
+        public RuntimeException getError()
+        {
+            return error;
+        }
+    }
+}
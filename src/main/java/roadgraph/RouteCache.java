@@ -0,0 +1,211 @@
+package roadgraph;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import geography.GeographicPoint;
+
+/**
+ * A cache of routes found by MapGraph, keyed by start vertex, goal
+ * vertex, algorithm and cost profile.  The cache is bounded by the total number of
+ * points in the routes it holds, and evicts the least recently used
+ * route first when it is full.  Searches that found no route are cached
+ * too.
+ *
+ * Vertex ids are those of one frozen graph, so the cache must be cleared
+ * (with invalidate) whenever the graph changes; MapGraph does this in
+ * addVertex and addEdge.  All methods are thread safe.
+ */
+public class RouteCache {
+    private final long maxPoints;
+    private final LinkedHashMap<Key,List<GeographicPoint>> routes;
+    private long points;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Create an empty cache.
+     * @param maxPoints The most route points the cache may hold in total
+     */
+    public RouteCache(long maxPoints)
+    {
+        if (maxPoints < 1) {
+            throw new IllegalArgumentException("maxPoints must be positive: " + maxPoints);
+        }
+        this.maxPoints = maxPoints;
+        routes = new LinkedHashMap<Key,List<GeographicPoint>>(16, 0.75f, true);
+    }
+
+    /**
+     * Look up a route, counting a hit or a miss.
+     * @param key The start, goal and algorithm of the route
+     * @return The cached route, an empty list if the search is cached as
+     *   having found no route, or null if the search is not cached
+     */
+    public synchronized List<GeographicPoint> get(Key key)
+    {
+        List<GeographicPoint> route = routes.get(key);
+        if (route == null) {
+            misses.increment();
+        }
+        else {
+            hits.increment();
+        }
+        return route;
+    }
+
+    /**
+     * Cache the result of a search, evicting the least recently used
+     * routes if the cache would hold too many points.  Routes longer than
+     * the whole cache are not kept.
+     * @param key The start, goal and algorithm of the route
+     * @param route The route found, or null if there was none
+     */
+    public synchronized void put(Key key, List<GeographicPoint> route)
+    {
+        List<GeographicPoint> value = route == null
+                ? Collections.<GeographicPoint>emptyList()
+                : Collections.unmodifiableList(route);
+        long weight = weight(value);
+        if (weight > maxPoints) {
+            return;
+        }
+        List<GeographicPoint> old = routes.put(key, value);
+        if (old != null) {
+            points -= weight(old);
+        }
+        points += weight;
+        Iterator<Map.Entry<Key,List<GeographicPoint>>> eldest = routes.entrySet().iterator();
+        while (points > maxPoints) {
+            Map.Entry<Key,List<GeographicPoint>> entry = eldest.next();
+            points -= weight(entry.getValue());
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * Remove every route, because the graph they were found in changed.
+     */
+    public synchronized void invalidate()
+    {
+        if (!routes.isEmpty()) {
+            routes.clear();
+            points = 0;
+        }
+        invalidations.increment();
+    }
+
+    /** @return The number of routes in the cache */
+    public synchronized int size()
+    {
+        return routes.size();
+    }
+
+    /** @return The number of route points in the cache */
+    public synchronized long getPoints()
+    {
+        return points;
+    }
+
+    /** @return The most route points the cache may hold */
+    public long getMaxPoints()
+    {
+        return maxPoints;
+    }
+
+    /** @return The number of lookups that found a cached route */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /** @return The number of lookups that found nothing */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /** @return The number of routes evicted to make room for others */
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /** @return The number of times the cache was invalidated */
+    public long getInvalidations()
+    {
+        return invalidations.sum();
+    }
+
+    // Count every route as at least one point, so cached misses use space
+    private static long weight(List<GeographicPoint> route)
+    {
+        return Math.max(1, route.size());
+    }
+
+    /**
+     * What a cached route is looked up by.
+     */
+    public static final class Key {
+        private final int start;
+        private final int goal;
+        private final RouteAlgorithm algorithm;
+        private final CostProfile profile;
+
+        /**
+         * @param start The start vertex id
+         * @param goal The goal vertex id
+         * @param algorithm The algorithm the route was found with
+         */
+        public Key(int start, int goal, RouteAlgorithm algorithm)
+        {
+            this(start, goal, algorithm, CostProfile.SHORTEST);
+        }
+
+        /**
+         * @param start The start vertex id
+         * @param goal The goal vertex id
+         * @param algorithm The algorithm the route was found with
+         * @param profile The cost profile the route was found with
+         */
+        public Key(int start, int goal, RouteAlgorithm algorithm, CostProfile profile)
+        {
+            this.start = start;
+            this.goal = goal;
+            this.algorithm = algorithm;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return start == other.start && goal == other.goal && algorithm == other.algorithm
+                    && profile == other.profile;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((start * 31 + goal) * 31 + algorithm.ordinal()) * 31
+                    + System.identityHashCode(profile);
+        }
+
+        @Override
+        public String toString()
+        {
+            return algorithm + " (" + profile + ") " + start + " -> " + goal;
+        }
+    }
+}
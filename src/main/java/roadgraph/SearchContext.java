@@ -0,0 +1,177 @@
+package roadgraph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The per-query state of a search on a CompactMapGraph: tentative
+ * distances, parent links and the set of settled vertices, all indexed
+ * by vertex id.
+ *
+ * A context belongs to one search at a time, which is what lets many
+ * threads search the same graph at once.  Contexts are meant to be
+ * reused (see SearchContextPool): reset() only clears the vertices the
+ * last search touched, so a short search on a large graph stays cheap.
+ */
+public final class SearchContext {
+    private final double[] dist;
+    private final int[] parent;
+    private final BitSet visited;
+    private final int[] touched;
+    private int numTouched;
+    private int numVisited;
+
+    // Work counters for SearchStats
+    private int numScanned;
+    private int numPushes;
+    private int peakQueueSize;
+
+    // Queues used by the searches, kept here so they are reused too
+    final IndexedPriorityQueue queue;
+    final int[] fifo;
+
+    /**
+     * Create a context for searches on a graph with the given number of
+     * vertices, using a binary heap as the search queue.
+     * @param numVertices The number of vertices in the graph
+     */
+    public SearchContext(int numVertices)
+    {
+        this(numVertices, new IndexedBinaryHeap(numVertices));
+    }
+
+    /**
+     * Create a context for searches on a graph with the given number of
+     * vertices, using the given queue for weighted searches.
+     * @param numVertices The number of vertices in the graph
+     * @param queue An empty queue with room for numVertices vertices
+     */
+    public SearchContext(int numVertices, IndexedPriorityQueue queue)
+    {
+        dist = new double[numVertices];
+        parent = new int[numVertices];
+        visited = new BitSet(numVertices);
+        touched = new int[numVertices];
+        this.queue = queue;
+        fifo = new int[numVertices];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+    }
+
+    /**
+     * Get the number of vertices this context can search
+     * @return The number of vertices
+     */
+    public int capacity()
+    {
+        return dist.length;
+    }
+
+    /**
+     * Clear the state left by the last search.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < numTouched; i++) {
+            int v = touched[i];
+            dist[v] = Double.POSITIVE_INFINITY;
+            parent[v] = -1;
+            visited.clear(v);
+        }
+        numTouched = 0;
+        numVisited = 0;
+        numScanned = 0;
+        numPushes = 0;
+        peakQueueSize = 0;
+        queue.clear();
+    }
+
+    /**
+     * Get the number of vertices settled by the last search
+     * @return The number of settled vertices
+     */
+    public int getNumVisited()
+    {
+        return numVisited;
+    }
+
+    /**
+     * Get the number of edges the last search looked at from the vertices
+     * it settled
+     * @return The number of edges relaxed
+     */
+    public int getNumEdgesRelaxed()
+    {
+        return numScanned;
+    }
+
+    /**
+     * Get the number of times the last search added a vertex to its queue
+     * or lowered the key of a queued vertex
+     * @return The number of queue pushes
+     */
+    public int getNumPushes()
+    {
+        return numPushes;
+    }
+
+    /**
+     * Get the largest number of vertices the last search's queue held
+     * @return The peak queue size
+     */
+    public int getPeakQueueSize()
+    {
+        return peakQueueSize;
+    }
+
+    double getDistance(int v)
+    {
+        return dist[v];
+    }
+
+    int getParent(int v)
+    {
+        return parent[v];
+    }
+
+    boolean isReached(int v)
+    {
+        return dist[v] != Double.POSITIVE_INFINITY;
+    }
+
+    // Record a (better) distance to v, reached from p.
+    void reach(int v, double d, int p)
+    {
+        if (dist[v] == Double.POSITIVE_INFINITY) {
+            touched[numTouched++] = v;
+        }
+        dist[v] = d;
+        parent[v] = p;
+    }
+
+    boolean isVisited(int v)
+    {
+        return visited.get(v);
+    }
+
+    void visit(int v)
+    {
+        visited.set(v);
+        numVisited++;
+    }
+
+    // Record that the edges of a settled vertex were looked at.
+    void scanned(int edges)
+    {
+        numScanned += edges;
+    }
+
+    // Record a queue push, leaving queueSize vertices in the queue.
+    void pushed(int queueSize)
+    {
+        numPushes++;
+        if (queueSize > peakQueueSize) {
+            peakQueueSize = queueSize;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package roadgraph;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntFunction;
+
+/**
+ * A thread-safe pool of SearchContexts for one graph, so concurrent
+ * searches don't have to allocate their distance and parent arrays on
+ * every query.
+ */
+public final class SearchContextPool {
+    private final int numVertices;
+    private final IntFunction<IndexedPriorityQueue> queueFactory;
+    private final ConcurrentLinkedQueue<SearchContext> free;
+
+    /**
+     * Create an empty pool of contexts for a graph, whose searches use
+     * a binary heap
+     * @param numVertices The number of vertices in the graph
+     */
+    public SearchContextPool(int numVertices)
+    {
+        this(numVertices, IndexedBinaryHeap::new);
+    }
+
+    /**
+     * Create an empty pool of contexts for a graph, whose searches use
+     * queues made by the given factory, e.g.
+     * {@code n -> new IndexedDaryHeap(n, 4)}
+     * @param numVertices The number of vertices in the graph
+     * @param queueFactory Makes an empty queue for a given number of vertices
+     */
+    public SearchContextPool(int numVertices, IntFunction<IndexedPriorityQueue> queueFactory)
+    {
+        this.numVertices = numVertices;
+        this.queueFactory = queueFactory;
+        free = new ConcurrentLinkedQueue<SearchContext>();
+    }
+
+    /**
+     * Take a clean context from the pool, creating one if the pool is empty.
+     * @return A context that no other search is using
+     */
+    public SearchContext acquire()
+    {
+        SearchContext context = free.poll();
+        if (context == null) {
+            context = new SearchContext(numVertices, queueFactory.apply(numVertices));
+        }
+        return context;
+    }
+
+    /**
+     * Return a context to the pool once its search is finished.
+     * @param context The context to return
+     */
+    public void release(SearchContext context)
+    {
+        context.reset();
+        free.offer(context);
+    }
+}
@@ -0,0 +1,15 @@
+package roadgraph;
+
+/**
+ * Told about each search a MapGraph runs, once the search is finished.
+ * Listeners are called on the searching thread, so they should be quick
+ * and, if the graph is searched from several threads, thread safe.
+ */
+public interface SearchListener {
+
+    /**
+     * Called when a search finishes, whether or not it found a route.
+     * @param stats What the search did
+     */
+    void searchFinished(SearchStats stats);
+}
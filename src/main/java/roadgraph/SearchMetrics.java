@@ -0,0 +1,311 @@
+package roadgraph;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * A SearchListener that keeps running totals of the searches it is told
+ * about, per algorithm: counters of searches, settled vertices, relaxed
+ * edges and queue pushes, the largest queue seen, and histograms of
+ * search time and settled vertices.  It can be shared by several graphs
+ * and updated from several threads; recording a search takes no locks.
+ *
+ * The totals can be read directly or written out in the Prometheus text
+ * format, so a metrics endpoint can serve them as they are.
+ */
+public class SearchMetrics implements SearchListener {
+    private final EnumMap<RouteAlgorithm,AlgorithmMetrics> metrics;
+
+    /**
+     * Create metrics with every total at zero.
+     */
+    public SearchMetrics()
+    {
+        metrics = new EnumMap<RouteAlgorithm,AlgorithmMetrics>(RouteAlgorithm.class);
+        for (RouteAlgorithm algorithm : RouteAlgorithm.values()) {
+            metrics.put(algorithm, new AlgorithmMetrics());
+        }
+    }
+
+    @Override
+    public void searchFinished(SearchStats stats)
+    {
+        AlgorithmMetrics m = metrics.get(stats.getAlgorithm());
+        m.searches.increment();
+        if (!stats.isFound()) {
+            m.notFound.increment();
+        }
+        m.nodesSettled.add(stats.getNodesSettled());
+        m.edgesRelaxed.add(stats.getEdgesRelaxed());
+        m.heapPushes.add(stats.getHeapPushes());
+        m.peakQueueSize.accumulate(stats.getPeakQueueSize());
+        m.latency.record(stats.getElapsedNanos());
+        m.settled.record(stats.getNodesSettled());
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The number of searches run with the algorithm
+     */
+    public long getSearches(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).searches.sum();
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The number of those searches that found no route
+     */
+    public long getNotFound(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).notFound.sum();
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The total number of vertices settled by the algorithm
+     */
+    public long getNodesSettled(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).nodesSettled.sum();
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The total number of edges relaxed by the algorithm
+     */
+    public long getEdgesRelaxed(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).edgesRelaxed.sum();
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The total number of queue pushes made by the algorithm
+     */
+    public long getHeapPushes(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).heapPushes.sum();
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The largest queue any one search with the algorithm built
+     */
+    public long getPeakQueueSize(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).peakQueueSize.get();
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The histogram of search times, in nanoseconds
+     */
+    public Histogram getLatency(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).latency;
+    }
+
+    /**
+     * @param algorithm The algorithm to report on
+     * @return The histogram of vertices settled per search
+     */
+    public Histogram getSettled(RouteAlgorithm algorithm)
+    {
+        return metrics.get(algorithm).settled;
+    }
+
+    /**
+     * Write the totals in the Prometheus text exposition format, with the
+     * algorithm as a label.  Algorithms that have not run are left out.
+     * @param out Where to write the totals
+     * @throws IOException if out cannot be written
+     */
+    public void writePrometheus(Appendable out) throws IOException
+    {
+        writeCounter(out, "roadgraph_searches_total", "counter",
+                "Searches run.", m -> m.searches.sum());
+        writeCounter(out, "roadgraph_searches_not_found_total", "counter",
+                "Searches that found no route.", m -> m.notFound.sum());
+        writeCounter(out, "roadgraph_nodes_settled_total", "counter",
+                "Vertices settled by searches.", m -> m.nodesSettled.sum());
+        writeCounter(out, "roadgraph_edges_relaxed_total", "counter",
+                "Edges relaxed by searches.", m -> m.edgesRelaxed.sum());
+        writeCounter(out, "roadgraph_heap_pushes_total", "counter",
+                "Queue inserts and decreased keys.", m -> m.heapPushes.sum());
+        writeCounter(out, "roadgraph_peak_queue_size", "gauge",
+                "Largest queue built by one search.", m -> m.peakQueueSize.get());
+        writeHistogram(out, "roadgraph_search_duration_seconds", "Search wall time.", true);
+        writeHistogram(out, "roadgraph_search_nodes_settled", "Vertices settled per search.", false);
+    }
+
+    private void writeCounter(Appendable out, String name, String type, String help,
+                              ToLongFunction<AlgorithmMetrics> value) throws IOException
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (RouteAlgorithm algorithm : RouteAlgorithm.values()) {
+            AlgorithmMetrics m = metrics.get(algorithm);
+            if (m.searches.sum() == 0) {
+                continue;
+            }
+            out.append(name).append(label(algorithm)).append(' ')
+               .append(Long.toString(value.applyAsLong(m))).append('\n');
+        }
+    }
+
+    private void writeHistogram(Appendable out, String name, String help, boolean nanos)
+            throws IOException
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (RouteAlgorithm algorithm : RouteAlgorithm.values()) {
+            AlgorithmMetrics m = metrics.get(algorithm);
+            if (m.searches.sum() == 0) {
+                continue;
+            }
+            Histogram h = nanos ? m.latency : m.settled;
+            String algorithmLabel = "algorithm=\"" + labelValue(algorithm) + "\"";
+            long cumulative = 0;
+            int last = h.lastBucket();
+            for (int b = 0; b <= last; b++) {
+                cumulative += h.buckets.get(b);
+                long bound = Histogram.upperBound(b);
+                String le = nanos ? Double.toString(bound / 1e9) : Long.toString(bound);
+                out.append(name).append("_bucket{").append(algorithmLabel)
+                   .append(",le=\"").append(le).append("\"} ")
+                   .append(Long.toString(cumulative)).append('\n');
+            }
+            out.append(name).append("_bucket{").append(algorithmLabel)
+               .append(",le=\"+Inf\"} ").append(Long.toString(h.getCount())).append('\n');
+            String sum = nanos ? Double.toString(h.getSum() / 1e9) : Long.toString(h.getSum());
+            out.append(name).append("_sum").append(label(algorithm)).append(' ')
+               .append(sum).append('\n');
+            out.append(name).append("_count").append(label(algorithm)).append(' ')
+               .append(Long.toString(h.getCount())).append('\n');
+        }
+    }
+
+    private static String label(RouteAlgorithm algorithm)
+    {
+        return "{algorithm=\"" + labelValue(algorithm) + "\"}";
+    }
+
+    private static String labelValue(RouteAlgorithm algorithm)
+    {
+        return algorithm.name().toLowerCase(Locale.ROOT);
+    }
+
+    // The totals for one algorithm
+    private static final class AlgorithmMetrics {
+        final LongAdder searches = new LongAdder();
+        final LongAdder notFound = new LongAdder();
+        final LongAdder nodesSettled = new LongAdder();
+        final LongAdder edgesRelaxed = new LongAdder();
+        final LongAdder heapPushes = new LongAdder();
+        final LongAccumulator peakQueueSize = new LongAccumulator(Math::max, 0);
+        final Histogram latency = new Histogram();
+        final Histogram settled = new Histogram();
+    }
+
+    /**
+     * A histogram of non-negative values with power of two buckets: bucket
+     * 0 holds 0, and bucket b holds values from 2^(b-1) to 2^b - 1.
+     * Percentiles are estimated to within a factor of two.
+     */
+    public static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Add a value to the histogram.  Negative values are counted as 0.
+         * @param value The value to add
+         */
+        public void record(long value)
+        {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(bucketOf(value));
+            sum.add(value);
+            count.increment();
+        }
+
+        /** @return The number of values recorded */
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        /** @return The sum of the values recorded */
+        public long getSum()
+        {
+            return sum.sum();
+        }
+
+        /**
+         * @param bucket A bucket index, from 0 to 63
+         * @return The number of values recorded in the bucket
+         */
+        public long getBucketCount(int bucket)
+        {
+            return buckets.get(bucket);
+        }
+
+        /**
+         * Estimate a percentile of the values recorded, as the upper bound
+         * of the bucket it falls in.
+         * @param p The percentile, from 0 to 100
+         * @return The estimate, or 0 if nothing was recorded
+         */
+        public long percentile(double p)
+        {
+            long total = getCount();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * p / 100.0);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) {
+                    return upperBound(b);
+                }
+            }
+            return upperBound(lastBucket());
+        }
+
+        // The index of the highest bucket holding a value, or 0
+        int lastBucket()
+        {
+            for (int b = BUCKETS - 1; b > 0; b--) {
+                if (buckets.get(b) != 0) {
+                    return b;
+                }
+            }
+            return 0;
+        }
+
+        static int bucketOf(long value)
+        {
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+        }
+
+        // The largest value bucket b holds
+        static long upperBound(int bucket)
+        {
+            return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+}
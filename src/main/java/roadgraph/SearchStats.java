@@ -0,0 +1,127 @@
+package roadgraph;
+
+/**
+ * The work done by one search: how many vertices it settled, how many
+ * edges it relaxed, how often it pushed onto its queue and how large the
+ * queue grew, and how long it took.  For a bidirectional search the
+ * counts cover both directions and the peak queue size is the larger of
+ * the two.
+ */
+public final class SearchStats {
+    private final RouteAlgorithm algorithm;
+    private final int nodesSettled;
+    private final int edgesRelaxed;
+    private final int heapPushes;
+    private final int peakQueueSize;
+    private final long elapsedNanos;
+    private final boolean found;
+
+    /**
+     * Create the statistics for a search.
+     * @param algorithm The algorithm that ran
+     * @param nodesSettled The number of vertices settled
+     * @param edgesRelaxed The number of edges looked at from settled vertices
+     * @param heapPushes The number of queue inserts and decreased keys
+     * @param peakQueueSize The largest number of vertices queued at once
+     * @param elapsedNanos The wall time of the search, in nanoseconds
+     * @param found Whether a route was found
+     */
+    public SearchStats(RouteAlgorithm algorithm, int nodesSettled, int edgesRelaxed,
+                       int heapPushes, int peakQueueSize, long elapsedNanos, boolean found)
+    {
+        this.algorithm = algorithm;
+        this.nodesSettled = nodesSettled;
+        this.edgesRelaxed = edgesRelaxed;
+        this.heapPushes = heapPushes;
+        this.peakQueueSize = peakQueueSize;
+        this.elapsedNanos = elapsedNanos;
+        this.found = found;
+    }
+
+    /**
+     * Create the statistics for a search from the context it ran in.
+     * @param algorithm The algorithm that ran
+     * @param context The context the search kept its state in
+     * @param elapsedNanos The wall time of the search, in nanoseconds
+     * @param found Whether a route was found
+     */
+    public SearchStats(RouteAlgorithm algorithm, SearchContext context,
+                       long elapsedNanos, boolean found)
+    {
+        this(algorithm, context.getNumVisited(), context.getNumEdgesRelaxed(),
+             context.getNumPushes(), context.getPeakQueueSize(), elapsedNanos, found);
+    }
+
+    /**
+     * Create the statistics for a bidirectional search from the contexts
+     * of its two directions.
+     * @param algorithm The algorithm that ran
+     * @param forward The context of the search from the start
+     * @param backward The context of the search from the goal
+     * @param elapsedNanos The wall time of the search, in nanoseconds
+     * @param found Whether a route was found
+     */
+    public SearchStats(RouteAlgorithm algorithm, SearchContext forward, SearchContext backward,
+                       long elapsedNanos, boolean found)
+    {
+        this(algorithm,
+             forward.getNumVisited() + backward.getNumVisited(),
+             forward.getNumEdgesRelaxed() + backward.getNumEdgesRelaxed(),
+             forward.getNumPushes() + backward.getNumPushes(),
+             Math.max(forward.getPeakQueueSize(), backward.getPeakQueueSize()),
+             elapsedNanos, found);
+    }
+
+    /** @return The algorithm that ran */
+    public RouteAlgorithm getAlgorithm()
+    {
+        return algorithm;
+    }
+
+    /** @return The number of vertices settled */
+    public int getNodesSettled()
+    {
+        return nodesSettled;
+    }
+
+    /** @return The number of edges looked at from settled vertices */
+    public int getEdgesRelaxed()
+    {
+        return edgesRelaxed;
+    }
+
+    /** @return The number of queue inserts and decreased keys */
+    public int getHeapPushes()
+    {
+        return heapPushes;
+    }
+
+    /** @return The largest number of vertices queued at once */
+    public int getPeakQueueSize()
+    {
+        return peakQueueSize;
+    }
+
+    /** @return The wall time of the search, in nanoseconds */
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /** @return true if the search found a route */
+    public boolean isFound()
+    {
+        return found;
+    }
+
+    @Override
+    public String toString()
+    {
+        return algorithm + (found ? "" : " (no route)")
+                + ": settled " + nodesSettled
+                + ", relaxed " + edgesRelaxed
+                + ", pushes " + heapPushes
+                + ", peak queue " + peakQueueSize
+                + ", " + (elapsedNanos / 1000) + " us";
+    }
+}
@@ -0,0 +1,328 @@
+package roadgraph;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import geography.GeographicPoint;
+
+/**
+ * The shortest paths from one vertex of a CompactMapGraph to every vertex
+ * within a distance cutoff of it, as found by
+ * CompactMapGraph.shortestPathTree.  The reached vertices are kept in the
+ * order they were settled, nearest first, with their distances and
+ * parents in parallel arrays.  Under a CostProfile other than SHORTEST
+ * the "distances" are costs in the profile's units, such as minutes of
+ * driving, and the isochrones outline the area reachable within a time.
+ *
+ * The tree can also outline the area reachable within one or more
+ * distances (isochrones).  Each outline is a star-shaped polygon around
+ * the source: the reached points, including points partway along the
+ * roads leaving the reached area, are grouped into sectors by their
+ * direction from the source, and the farthest point of each sector is a
+ * corner of the polygon.  This follows the dents left by unreachable
+ * areas at a cost linear in the size of the tree, unlike a convex hull.
+ */
+public final class ShortestPathTree {
+    // The number of direction sectors an isochrone polygon is built from
+    private static final int SECTORS = 64;
+
+    private final CompactMapGraph graph;
+    private final CostProfile profile;
+    private final double[] weights;
+    private final double cutoff;
+
+    // Reached vertices in settled order, with distances and parent ids
+    private final int[] vertices;
+    private final double[] distances;
+    private final int[] parents;
+
+    // (vertex << 32 | index) for each reached vertex, sorted, to find a
+    // vertex by binary search
+    private final long[] byVertex;
+
+    ShortestPathTree(CompactMapGraph graph, CostProfile profile, double[] weights,
+                     double cutoff, int[] settled, int count, SearchContext context)
+    {
+        this.graph = graph;
+        this.profile = profile;
+        this.weights = weights;
+        this.cutoff = cutoff;
+        vertices = Arrays.copyOf(settled, count);
+        distances = new double[count];
+        parents = new int[count];
+        byVertex = new long[count];
+        for (int i = 0; i < count; i++) {
+            int v = vertices[i];
+            distances[i] = context.getDistance(v);
+            parents[i] = context.getParent(v);
+            byVertex[i] = ((long) v << 32) | i;
+        }
+        Arrays.sort(byVertex);
+    }
+
+    /** @return The graph the tree was found in */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /** @return The profile the paths were weighed with */
+    public CostProfile getProfile()
+    {
+        return profile;
+    }
+
+    /** @return The location the tree grows from */
+    public GeographicPoint getSource()
+    {
+        return graph.getLocation(vertices[0]);
+    }
+
+    /**
+     * @return The largest distance from the source the tree reaches, in
+     *   km or the profile's cost units
+     */
+    public double getCutoff()
+    {
+        return cutoff;
+    }
+
+    /** @return The number of vertices reached, including the source */
+    public int size()
+    {
+        return vertices.length;
+    }
+
+    /**
+     * @param i The index of a reached vertex, from 0 (the source) to size() - 1
+     * @return The id of the vertex in the graph
+     */
+    public int getVertexId(int i)
+    {
+        return vertices[i];
+    }
+
+    /**
+     * @param i The index of a reached vertex, from 0 (the source) to size() - 1
+     * @return The length (or cost) of the shortest path to it
+     */
+    public double getDistance(int i)
+    {
+        return distances[i];
+    }
+
+    /**
+     * @param i The index of a reached vertex, from 0 (the source) to size() - 1
+     * @return The id of the vertex before it on its shortest path, or -1
+     *   for the source
+     */
+    public int getParentId(int i)
+    {
+        return parents[i];
+    }
+
+    /**
+     * @return The locations of the reached vertices, nearest first
+     */
+    public List<GeographicPoint> getReached()
+    {
+        return new AbstractList<GeographicPoint>() {
+            @Override
+            public GeographicPoint get(int i)
+            {
+                return graph.getLocation(vertices[i]);
+            }
+
+            @Override
+            public int size()
+            {
+                return vertices.length;
+            }
+        };
+    }
+
+    /**
+     * @param location A location
+     * @return true if the location is a vertex the tree reaches
+     */
+    public boolean contains(GeographicPoint location)
+    {
+        return indexOf(location) >= 0;
+    }
+
+    /**
+     * @param location A location
+     * @return The length (or cost) of the shortest path to it, or
+     *   Double.POSITIVE_INFINITY if the tree does not reach it
+     */
+    public double distanceTo(GeographicPoint location)
+    {
+        int i = indexOf(location);
+        return i < 0 ? Double.POSITIVE_INFINITY : distances[i];
+    }
+
+    /**
+     * @param location A location
+     * @return The intersections along the shortest path from the source to
+     *   the location (including both), or null if the tree does not reach it
+     */
+    public List<GeographicPoint> pathTo(GeographicPoint location)
+    {
+        int i = indexOf(location);
+        if (i < 0) {
+            return null;
+        }
+        LinkedList<GeographicPoint> path = new LinkedList<GeographicPoint>();
+        for (int v = vertices[i]; v != -1; v = parents[indexOfVertex(v)]) {
+            path.addFirst(graph.getLocation(v));
+        }
+        return path;
+    }
+
+    /**
+     * Outline the areas reachable within each of several distances.
+     * @param cutoffs The distances, in km or the profile's cost units; those beyond the tree's cutoff
+     *   are treated as the cutoff
+     * @return An isochrone for each distance, in the same order
+     */
+    public List<Isochrone> isochrones(double... cutoffs)
+    {
+        int k = cutoffs.length;
+        double lat0 = graph.getLatitude(vertices[0]);
+        double lon0 = graph.getLongitude(vertices[0]);
+        double scale = Math.cos(Math.toRadians(lat0));
+
+        // The farthest point found in each sector for each cutoff
+        double[][] far = new double[k][SECTORS];
+        double[][] farLat = new double[k][SECTORS];
+        double[][] farLon = new double[k][SECTORS];
+        int[] reached = new int[k];
+        for (double[] row : far) {
+            Arrays.fill(row, -1);
+        }
+
+        for (int i = 0; i < vertices.length; i++) {
+            int u = vertices[i];
+            double du = distances[i];
+            double latU = graph.getLatitude(u);
+            double lonU = graph.getLongitude(u);
+            for (int c = 0; c < k; c++) {
+                double limit = Math.min(cutoffs[c], cutoff);
+                if (du > limit) {
+                    continue;
+                }
+                reached[c]++;
+                keepFarthest(far[c], farLat[c], farLon[c], latU, lonU, lat0, lon0, scale);
+                // Roads leaving the area end partway along
+                for (int e = graph.firstEdge(u); e < graph.lastEdge(u); e++) {
+                    double length = weights[e];
+                    if (du + length > limit && length > 0) {
+                        int w = graph.getTarget(e);
+                        double f = (limit - du) / length;
+                        double lat = latU + f * (graph.getLatitude(w) - latU);
+                        double lon = lonU + f * (graph.getLongitude(w) - lonU);
+                        keepFarthest(far[c], farLat[c], farLon[c], lat, lon, lat0, lon0, scale);
+                    }
+                }
+            }
+        }
+
+        List<Isochrone> result = new ArrayList<Isochrone>(k);
+        for (int c = 0; c < k; c++) {
+            List<GeographicPoint> polygon = new ArrayList<GeographicPoint>();
+            for (int s = 0; s < SECTORS; s++) {
+                if (far[c][s] >= 0) {
+                    polygon.add(new GeographicPoint(farLat[c][s], farLon[c][s]));
+                }
+            }
+            result.add(new Isochrone(Math.min(cutoffs[c], cutoff), reached[c],
+                                     Collections.unmodifiableList(polygon)));
+        }
+        return result;
+    }
+
+    /**
+     * The area reachable from the source of a tree within some distance.
+     */
+    public static final class Isochrone {
+        private final double cutoff;
+        private final int numReached;
+        private final List<GeographicPoint> polygon;
+
+        Isochrone(double cutoff, int numReached, List<GeographicPoint> polygon)
+        {
+            this.cutoff = cutoff;
+            this.numReached = numReached;
+            this.polygon = polygon;
+        }
+
+        /** @return The distance (or cost) the area is reachable within */
+        public double getCutoff()
+        {
+            return cutoff;
+        }
+
+        /** @return The number of vertices within the distance */
+        public int getNumReached()
+        {
+            return numReached;
+        }
+
+        /**
+         * @return The corners of the outline, anticlockwise from due west;
+         *   the last corner joins back to the first.  Has fewer than three
+         *   corners if very little is reachable.
+         */
+        public List<GeographicPoint> getPolygon()
+        {
+            return polygon;
+        }
+    }
+
+    // Keep (lat, lon) as its sector's corner if it is the farthest yet
+    private static void keepFarthest(double[] far, double[] farLat, double[] farLon,
+                                     double lat, double lon,
+                                     double lat0, double lon0, double scale)
+    {
+        double dx = (lon - lon0) * scale;
+        double dy = lat - lat0;
+        double d = dx * dx + dy * dy;
+        int s = (int) ((Math.atan2(dy, dx) + Math.PI) / (2 * Math.PI) * SECTORS);
+        s = Math.min(s, SECTORS - 1);
+        if (d > far[s]) {
+            far[s] = d;
+            farLat[s] = lat;
+            farLon[s] = lon;
+        }
+    }
+
+    private int indexOf(GeographicPoint location)
+    {
+        int v = graph.indexOf(location);
+        return v < 0 ? -1 : indexOfVertex(v);
+    }
+
+    private int indexOfVertex(int v)
+    {
+        int lo = 0;
+        int hi = byVertex.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midVertex = (int) (byVertex[mid] >>> 32);
+            if (midVertex < v) {
+                lo = mid + 1;
+            }
+            else if (midVertex > v) {
+                hi = mid - 1;
+            }
+            else {
+                return (int) byVertex[mid];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,519 @@
+package roadgraph;
+
+import java.util.Arrays;
+
+import geography.DistanceKernel;
+import geography.GeographicPoint;
+
+/**
+ * A uniform grid over the vertices and edges of a CompactMapGraph, for
+ * finding the intersections or roads nearest to an arbitrary point.
+ *
+ * Points are projected onto a plane around the middle latitude of the
+ * graph (x = longitude scaled by the cosine of that latitude, y =
+ * latitude, both in km), which over the extent of a city map is within a
+ * small fraction of a percent of the great circle distance.  Each grid
+ * cell holds about two vertices; the vertices of each cell are stored
+ * together in one int array, and each edge is listed in every cell its
+ * bounding box overlaps.  Queries search outward from the query's cell
+ * in rings, stopping once no unvisited cell can hold anything closer.
+ *
+ * The index is never changed after it is built, so any number of threads
+ * may query it at once.  Distances passed in and returned are in km.
+ */
+public final class SpatialIndex {
+    // km per degree of latitude, on the sphere GeographicPoint uses
+    private static final double KM_PER_DEGREE = DistanceKernel.KM_PER_DEGREE;
+
+    private final CompactMapGraph graph;
+    private final double lonScale;
+
+    // Projected vertex coordinates
+    private final double[] xs;
+    private final double[] ys;
+
+    // The source vertex of each forward edge
+    private final int[] edgeSources;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+
+    // The vertices in cell c are cellVertices[cellStart[c] .. cellStart[c + 1]]
+    private final int[] cellStart;
+    private final int[] cellVertices;
+    // and the edges crossing its cell are cellEdges[edgeStart[c] .. edgeStart[c + 1]]
+    private final int[] edgeStart;
+    private final int[] cellEdges;
+
+    private SpatialIndex(CompactMapGraph graph)
+    {
+        this.graph = graph;
+        int n = graph.getNumVertices();
+        double[] latitudes = graph.latitudes();
+        double[] longitudes = graph.longitudes();
+
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            minLat = Math.min(minLat, latitudes[v]);
+            maxLat = Math.max(maxLat, latitudes[v]);
+        }
+        double middle = n == 0 ? 0 : (minLat + maxLat) / 2;
+        lonScale = KM_PER_DEGREE * Math.max(Math.cos(Math.toRadians(middle)), 1e-6);
+
+        xs = new double[n];
+        ys = new double[n];
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        double highX = Double.NEGATIVE_INFINITY;
+        double highY = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            xs[v] = longitudes[v] * lonScale;
+            ys[v] = latitudes[v] * KM_PER_DEGREE;
+            lowX = Math.min(lowX, xs[v]);
+            lowY = Math.min(lowY, ys[v]);
+            highX = Math.max(highX, xs[v]);
+            highY = Math.max(highY, ys[v]);
+        }
+        if (n == 0) {
+            lowX = lowY = highX = highY = 0;
+        }
+        minX = lowX;
+        minY = lowY;
+
+        // Aim for about two vertices a cell, and no more cells than that
+        // even when the vertices lie along a line
+        double width = highX - lowX;
+        double height = highY - lowY;
+        int targetCells = Math.max(1, n / 2);
+        double size = Math.sqrt(width * height / targetCells);
+        size = Math.max(size, Math.max(width, height) / targetCells);
+        cellSize = size > 0 ? size : 1;
+        columns = Math.max(1, Math.min(targetCells, (int) (width / cellSize) + 1));
+        rows = Math.max(1, Math.min(targetCells, (int) (height / cellSize) + 1));
+
+        cellStart = new int[columns * rows + 1];
+        cellVertices = new int[n];
+        for (int v = 0; v < n; v++) {
+            cellStart[cellOf(xs[v], ys[v]) + 1]++;
+        }
+        prefixSum(cellStart);
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int v = 0; v < n; v++) {
+            cellVertices[fill[cellOf(xs[v], ys[v])]++] = v;
+        }
+
+        int[] offsets = graph.offsets();
+        int[] targets = graph.targets();
+        edgeSources = new int[targets.length];
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                edgeSources[e] = v;
+            }
+        }
+        int cells = columns * rows;
+        edgeStart = new int[cells + 1];
+        for (int e = 0; e < targets.length; e++) {
+            int u = edgeSources[e];
+            int w = targets[e];
+            int c0 = column(Math.min(xs[u], xs[w]));
+            int c1 = column(Math.max(xs[u], xs[w]));
+            int r0 = row(Math.min(ys[u], ys[w]));
+            int r1 = row(Math.max(ys[u], ys[w]));
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    edgeStart[r * columns + c + 1]++;
+                }
+            }
+        }
+        prefixSum(edgeStart);
+        cellEdges = new int[edgeStart[cells]];
+        fill = Arrays.copyOf(edgeStart, cells);
+        for (int e = 0; e < targets.length; e++) {
+            int u = edgeSources[e];
+            int w = targets[e];
+            int c0 = column(Math.min(xs[u], xs[w]));
+            int c1 = column(Math.max(xs[u], xs[w]));
+            int r0 = row(Math.min(ys[u], ys[w]));
+            int r1 = row(Math.max(ys[u], ys[w]));
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellEdges[fill[r * columns + c]++] = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the index for a graph.
+     * @param graph The graph to index
+     * @return The index
+     */
+    public static SpatialIndex build(CompactMapGraph graph)
+    {
+        return new SpatialIndex(graph);
+    }
+
+    /**
+     * @return The graph this index was built for
+     */
+    public CompactMapGraph getGraph()
+    {
+        return graph;
+    }
+
+    /**
+     * Find the vertex nearest to a point.
+     * @param latitude The latitude of the point
+     * @param longitude The longitude of the point
+     * @return The id of the nearest vertex, or -1 if the graph is empty
+     */
+    public int nearest(double latitude, double longitude)
+    {
+        int[] found = nearest(latitude, longitude, 1);
+        return found.length == 0 ? -1 : found[0];
+    }
+
+    /**
+     * Find the k vertices nearest to a point.
+     * @param latitude The latitude of the point
+     * @param longitude The longitude of the point
+     * @param k The number of vertices to find
+     * @return The ids of the k nearest vertices, nearest first; fewer if
+     *   the graph has fewer than k
+     */
+    public int[] nearest(double latitude, double longitude, int k)
+    {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+        k = Math.min(k, xs.length);
+        double x = longitude * lonScale;
+        double y = latitude * KM_PER_DEGREE;
+        int[] best = new int[k];
+        double[] bestDistance = new double[k];
+        Arrays.fill(bestDistance, Double.POSITIVE_INFINITY);
+        if (k == 0) {
+            return best;
+        }
+        int cx = column(x);
+        int cy = row(y);
+        int maxRing = Math.max(columns, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int r = cy - ring; r <= cy + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                boolean edgeRow = r == cy - ring || r == cy + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = cx - ring; c <= cx + ring; c += Math.max(step, 1)) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int v = cellVertices[i];
+                        double dx = xs[v] - x;
+                        double dy = ys[v] - y;
+                        insert(best, bestDistance, v, dx * dx + dy * dy);
+                    }
+                }
+            }
+            double bound = ringBound(x, y, cx, cy, ring);
+            if (bestDistance[k - 1] <= bound * bound) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the vertices within a distance of a point.
+     * @param latitude The latitude of the point
+     * @param longitude The longitude of the point
+     * @param radius The distance, in km
+     * @return The ids of the vertices within radius of the point,
+     *   nearest first
+     */
+    public int[] withinRadius(double latitude, double longitude, double radius)
+    {
+        double x = longitude * lonScale;
+        double y = latitude * KM_PER_DEGREE;
+        double limit = radius * radius;
+        int c0 = column(x - radius);
+        int c1 = column(x + radius);
+        int r0 = row(y - radius);
+        int r1 = row(y + radius);
+        int[] found = new int[16];
+        double[] distances = new double[16];
+        int size = 0;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int v = cellVertices[i];
+                    double dx = xs[v] - x;
+                    double dy = ys[v] - y;
+                    double d = dx * dx + dy * dy;
+                    if (d <= limit) {
+                        if (size == found.length) {
+                            found = Arrays.copyOf(found, size * 2);
+                            distances = Arrays.copyOf(distances, size * 2);
+                        }
+                        found[size] = v;
+                        distances[size] = d;
+                        size++;
+                    }
+                }
+            }
+        }
+        sortByDistance(found, distances, 0, size);
+        return Arrays.copyOf(found, size);
+    }
+
+    /**
+     * Find the point on an edge of the graph nearest to a point.
+     * @param latitude The latitude of the point
+     * @param longitude The longitude of the point
+     * @return Where the point snaps to, or null if the graph has no edges
+     */
+    public Snap snapToEdge(double latitude, double longitude)
+    {
+        if (cellEdges.length == 0) {
+            return null;
+        }
+        double x = longitude * lonScale;
+        double y = latitude * KM_PER_DEGREE;
+        int[] targets = graph.targets();
+        int bestEdge = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        double bestFraction = 0;
+        int cx = column(x);
+        int cy = row(y);
+        int maxRing = Math.max(columns, rows);
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int r = cy - ring; r <= cy + ring; r++) {
+                if (r < 0 || r >= rows) {
+                    continue;
+                }
+                boolean edgeRow = r == cy - ring || r == cy + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = cx - ring; c <= cx + ring; c += Math.max(step, 1)) {
+                    if (c < 0 || c >= columns) {
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int i = edgeStart[cell]; i < edgeStart[cell + 1]; i++) {
+                        int e = cellEdges[i];
+                        int u = edgeSources[e];
+                        int w = targets[e];
+                        double ex = xs[w] - xs[u];
+                        double ey = ys[w] - ys[u];
+                        double lengthSquared = ex * ex + ey * ey;
+                        double t = lengthSquared == 0 ? 0
+                                : ((x - xs[u]) * ex + (y - ys[u]) * ey) / lengthSquared;
+                        t = Math.max(0, Math.min(1, t));
+                        double dx = xs[u] + t * ex - x;
+                        double dy = ys[u] + t * ey - y;
+                        double d = dx * dx + dy * dy;
+                        if (d < bestDistance) {
+                            bestDistance = d;
+                            bestEdge = e;
+                            bestFraction = t;
+                        }
+                    }
+                }
+            }
+            double bound = ringBound(x, y, cx, cy, ring);
+            if (bestDistance <= bound * bound) {
+                break;
+            }
+        }
+        int u = edgeSources[bestEdge];
+        int w = targets[bestEdge];
+        double px = xs[u] + bestFraction * (xs[w] - xs[u]);
+        double py = ys[u] + bestFraction * (ys[w] - ys[u]);
+        return new Snap(bestEdge, u, w, bestFraction,
+                        new GeographicPoint(py / KM_PER_DEGREE, px / lonScale),
+                        Math.sqrt(bestDistance));
+    }
+
+    /**
+     * Where a point snapped to on an edge of the graph.
+     */
+    public static final class Snap {
+        private final int edge;
+        private final int from;
+        private final int to;
+        private final double fraction;
+        private final GeographicPoint point;
+        private final double distance;
+
+        Snap(int edge, int from, int to, double fraction, GeographicPoint point, double distance)
+        {
+            this.edge = edge;
+            this.from = from;
+            this.to = to;
+            this.fraction = fraction;
+            this.point = point;
+            this.distance = distance;
+        }
+
+        /** @return The id of the edge snapped to */
+        public int getEdge()
+        {
+            return edge;
+        }
+
+        /** @return The vertex the edge starts at */
+        public int getFrom()
+        {
+            return from;
+        }
+
+        /** @return The vertex the edge ends at */
+        public int getTo()
+        {
+            return to;
+        }
+
+        /**
+         * @return How far along the edge the snapped point is, from 0 at
+         *   its start to 1 at its end (in a straight line between them)
+         */
+        public double getFraction()
+        {
+            return fraction;
+        }
+
+        /** @return The end of the edge nearer the snapped point */
+        public int getNearerEnd()
+        {
+            return fraction <= 0.5 ? from : to;
+        }
+
+        /** @return The snapped point */
+        public GeographicPoint getPoint()
+        {
+            return point;
+        }
+
+        /** @return The distance from the query point to the snapped point, in km */
+        public double getDistance()
+        {
+            return distance;
+        }
+    }
+
+    // The distance from (x, y) to the nearest point outside the square of
+    // cells within ring of (cx, cy); nothing unvisited can be closer.
+    private double ringBound(double x, double y, int cx, int cy, int ring)
+    {
+        if (cx - ring <= 0 && cy - ring <= 0 && cx + ring >= columns - 1 && cy + ring >= rows - 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double bound = Double.POSITIVE_INFINITY;
+        if (cx - ring > 0) {
+            bound = Math.min(bound, x - (minX + (cx - ring) * cellSize));
+        }
+        if (cx + ring < columns - 1) {
+            bound = Math.min(bound, minX + (cx + ring + 1) * cellSize - x);
+        }
+        if (cy - ring > 0) {
+            bound = Math.min(bound, y - (minY + (cy - ring) * cellSize));
+        }
+        if (cy + ring < rows - 1) {
+            bound = Math.min(bound, minY + (cy + ring + 1) * cellSize - y);
+        }
+        return Math.max(bound, 0);
+    }
+
+    private int cellOf(double x, double y)
+    {
+        return row(y) * columns + column(x);
+    }
+
+    private int column(double x)
+    {
+        int c = (int) Math.floor((x - minX) / cellSize);
+        return Math.max(0, Math.min(columns - 1, c));
+    }
+
+    private int row(double y)
+    {
+        int r = (int) Math.floor((y - minY) / cellSize);
+        return Math.max(0, Math.min(rows - 1, r));
+    }
+
+    // Insert v into the k best so far, kept sorted by distance
+    private static void insert(int[] best, double[] bestDistance, int v, double d)
+    {
+        int i = best.length - 1;
+        if (d >= bestDistance[i]) {
+            return;
+        }
+        while (i > 0 && bestDistance[i - 1] > d) {
+            best[i] = best[i - 1];
+            bestDistance[i] = bestDistance[i - 1];
+            i--;
+        }
+        best[i] = v;
+        bestDistance[i] = d;
+    }
+
+    // Sort ids[from .. to) by distance: quicksort, finishing short
+    // ranges with insertion sort
+    private static void sortByDistance(int[] ids, double[] distances, int from, int to)
+    {
+        while (to - from > 16) {
+            double pivot = distances[(from + to) >>> 1];
+            int i = from;
+            int j = to - 1;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(ids, distances, i++, j--);
+                }
+            }
+            // Recurse into the smaller half, loop on the larger
+            if (j - from < to - i) {
+                sortByDistance(ids, distances, from, j + 1);
+                from = i;
+            }
+            else {
+                sortByDistance(ids, distances, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && distances[j - 1] > distances[j]; j--) {
+                swap(ids, distances, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(int[] ids, double[] distances, int i, int j)
+    {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double d = distances[i];
+        distances[i] = distances[j];
+        distances[j] = d;
+    }
+
+    private static void prefixSum(int[] counts)
+    {
+        for (int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+    }
+}
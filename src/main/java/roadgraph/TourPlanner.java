@@ -0,0 +1,527 @@
+package roadgraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import geography.GeographicPoint;
+
+/**
+ * Plans a round trip through a set of stops on a CompactMapGraph (the
+ * travelling salesperson problem).
+ *
+ * The planner measures the road distance between every pair of stops
+ * with CompactMapGraph.distanceMatrix, builds a tour by always driving to
+ * the nearest unvisited stop, and then improves it with 2-opt moves
+ * (reversing part of the tour) and Or-opt moves (moving a run of up to
+ * three stops elsewhere).  Only moves towards each stop's nearest few
+ * neighbours are tried, and a "don't look" bit skips stops whose
+ * surroundings have not changed since they last failed to improve, so
+ * each round of improvement costs far less than trying every pair.
+ *
+ * One-way streets make the distances asymmetric, so every move is priced
+ * with the real distance in the direction the tour drives it.  Reversing
+ * part of the tour changes the cost of that part, which is read from
+ * running totals of the tour's edges in each direction.  The planner
+ * never returns a tour longer than the nearest neighbour tour it starts
+ * from.
+ */
+public final class TourPlanner {
+    // The number of nearest stops each stop considers in the moves
+    private static final int NEIGHBOURS = 10;
+
+    // The longest run of stops an Or-opt move relocates
+    private static final int MAX_SEGMENT = 3;
+
+    // Improvements smaller than this (in km) are rounding noise
+    private static final double EPSILON = 1e-9;
+
+    private final double[][] distance;
+    private final int[][] neighbours;
+    private final int m;
+
+    // The tour as an array of stops, and each stop's place in it
+    private final int[] tour;
+    private final int[] position;
+
+    // forwardSum[i] is the length of the tour from position 0 to position
+    // i, and backwardSum[i] the length of driving that part the other way
+    private final double[] forwardSum;
+    private final double[] backwardSum;
+
+    // Stops whose moves are worth trying again
+    private final boolean[] active;
+    private final int[] queue;
+    private int queueHead;
+    private int queueSize;
+
+    private TourPlanner(double[][] distance)
+    {
+        this.distance = distance;
+        m = distance.length;
+        neighbours = new int[m][];
+        for (int i = 0; i < m; i++) {
+            neighbours[i] = nearest(i, Math.min(NEIGHBOURS, m - 1));
+        }
+        tour = new int[m];
+        position = new int[m];
+        forwardSum = new double[m + 1];
+        backwardSum = new double[m + 1];
+        active = new boolean[m];
+        queue = new int[m];
+    }
+
+    /**
+     * Plan a round trip that starts and ends at the first stop and visits
+     * all the others.  The distance searches run in the common fork/join
+     * pool.
+     * @param graph The graph to plan on
+     * @param stops The stops to visit, starting with the one to start from
+     * @return The tour, or null if some stop cannot be reached from
+     *   another
+     * @throws NullPointerException if any stop is null or not in the graph
+     */
+    public static Tour plan(CompactMapGraph graph, List<GeographicPoint> stops)
+    {
+        return plan(graph, stops, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Plan a round trip that starts and ends at the first stop and visits
+     * all the others.
+     * @param graph The graph to plan on
+     * @param stops The stops to visit, starting with the one to start from
+     * @param pool The pool to run the distance searches in
+     * @return The tour, or null if some stop cannot be reached from
+     *   another
+     * @throws NullPointerException if any stop is null or not in the graph
+     */
+    public static Tour plan(CompactMapGraph graph, List<GeographicPoint> stops, ForkJoinPool pool)
+    {
+        if (stops.isEmpty()) {
+            throw new IllegalArgumentException("No stops to visit");
+        }
+        double[][] distance = graph.distanceMatrix(stops, stops, pool);
+        for (double[] row : distance) {
+            for (double d : row) {
+                if (d == Double.POSITIVE_INFINITY) {
+                    return null;
+                }
+            }
+        }
+        int[] order = solve(distance);
+        List<GeographicPoint> path = roadPath(graph, stops, order);
+        if (path == null) {
+            return null;
+        }
+        List<GeographicPoint> visits = new ArrayList<GeographicPoint>(order.length);
+        for (int stop : order) {
+            visits.add(stops.get(stop));
+        }
+        return new Tour(order, Collections.unmodifiableList(visits), length(distance, order),
+                        Collections.unmodifiableList(path));
+    }
+
+    /**
+     * Find a short round trip through the stops of a distance matrix,
+     * starting from stop 0.
+     * @param distance The distance from each stop to each other, all finite
+     * @return The stops in visiting order, starting with 0
+     */
+    public static int[] solve(double[][] distance)
+    {
+        int m = distance.length;
+        if (m <= 3) {
+            int[] order = new int[m];
+            for (int i = 0; i < m; i++) {
+                order[i] = i;
+            }
+            return bestDirection(distance, order);
+        }
+        TourPlanner planner = new TourPlanner(distance);
+        planner.nearestNeighbourTour();
+        int[] initial = planner.order();
+        planner.improve();
+        int[] order = bestDirection(distance, planner.order());
+        return length(distance, order) <= length(distance, initial) ? order : initial;
+    }
+
+    // The tour, starting from stop 0
+    private int[] order()
+    {
+        int[] order = new int[m];
+        int start = position[0];
+        for (int i = 0; i < m; i++) {
+            order[i] = tour[(start + i) % m];
+        }
+        return order;
+    }
+
+    // The k stops nearest to stop i, nearest first by the average of the
+    // distances there and back
+    private int[] nearest(int i, int k)
+    {
+        Integer[] others = new Integer[m - 1];
+        for (int j = 0, o = 0; j < m; j++) {
+            if (j != i) {
+                others[o++] = j;
+            }
+        }
+        Arrays.sort(others, (a, b) -> Double.compare(distance[i][a] + distance[a][i],
+                                                     distance[i][b] + distance[b][i]));
+        int[] result = new int[k];
+        for (int j = 0; j < k; j++) {
+            result[j] = others[j];
+        }
+        return result;
+    }
+
+    private void nearestNeighbourTour()
+    {
+        boolean[] used = new boolean[m];
+        int current = 0;
+        used[0] = true;
+        tour[0] = 0;
+        for (int i = 1; i < m; i++) {
+            int next = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int c = 0; c < m; c++) {
+                if (!used[c] && (next < 0 || distance[current][c] < best)) {
+                    best = distance[current][c];
+                    next = c;
+                }
+            }
+            used[next] = true;
+            tour[i] = next;
+            current = next;
+        }
+        for (int i = 0; i < m; i++) {
+            position[tour[i]] = i;
+            push(tour[i]);
+        }
+        updateSums();
+    }
+
+    // Recompute the running totals after the tour changes
+    private void updateSums()
+    {
+        for (int i = 0; i < m; i++) {
+            int from = tour[i];
+            int to = tour[(i + 1) % m];
+            forwardSum[i + 1] = forwardSum[i] + distance[from][to];
+            backwardSum[i + 1] = backwardSum[i] + distance[to][from];
+        }
+    }
+
+    // How much longer the part of the tour from stop x forward to stop y
+    // is when driven backwards, from y to x
+    private double reversalCost(int x, int y)
+    {
+        int i = position[x];
+        int j = position[y];
+        double forward;
+        double backward;
+        if (i <= j) {
+            forward = forwardSum[j] - forwardSum[i];
+            backward = backwardSum[j] - backwardSum[i];
+        }
+        else {
+            forward = forwardSum[m] - forwardSum[i] + forwardSum[j];
+            backward = backwardSum[m] - backwardSum[i] + backwardSum[j];
+        }
+        return backward - forward;
+    }
+
+    // Apply improving moves until no active stop has one
+    private void improve()
+    {
+        while (queueSize > 0) {
+            int a = queue[queueHead];
+            queueHead = (queueHead + 1) % m;
+            queueSize--;
+            active[a] = false;
+            if (twoOpt(a) || orOpt(a)) {
+                push(a);
+            }
+        }
+    }
+
+    // Try to replace the tour edges at a and one of its neighbours c with
+    // the edge between a and c and the edge between their old partners,
+    // reversing the part of the tour between them.
+    private boolean twoOpt(int a)
+    {
+        // a -> b ... c -> d becomes a -> c ... b -> d
+        int b = next(a);
+        for (int c : neighbours[a]) {
+            int d = next(c);
+            if (c == b || d == a || distance[a][c] >= distance[a][b]) {
+                continue;
+            }
+            double delta = distance[a][c] + distance[b][d] - distance[a][b] - distance[c][d]
+                    + reversalCost(b, c);
+            if (delta < -EPSILON) {
+                reverse(position[b], position[c]);
+                pushAll(a, b, c, d);
+                return true;
+            }
+        }
+        // d -> c ... b -> a becomes d -> b ... c -> a
+        b = previous(a);
+        for (int c : neighbours[a]) {
+            int d = previous(c);
+            if (c == b || d == a || distance[c][a] >= distance[b][a]) {
+                continue;
+            }
+            double delta = distance[d][b] + distance[c][a] - distance[d][c] - distance[b][a]
+                    + reversalCost(c, b);
+            if (delta < -EPSILON) {
+                reverse(position[c], position[b]);
+                pushAll(a, b, c, d);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Try to move a run of stops starting or ending at a to sit next to
+    // a neighbour of one of its ends, either way round.
+    private boolean orOpt(int a)
+    {
+        for (int length = 1; length <= MAX_SEGMENT && length <= m - 3; length++) {
+            for (int direction = 0; direction < 2; direction++) {
+                // The run is first..last in tour order
+                int first = direction == 0 ? a : at(position[a] - length + 1);
+                int last = at(position[first] + length - 1);
+                int p = previous(first);
+                int q = next(last);
+                double removeGain = distance[p][first] + distance[last][q] - distance[p][q];
+                if (removeGain <= EPSILON) {
+                    continue;
+                }
+                // Driving the run the other way round changes its length
+                double flipCost = reversalCost(first, last);
+                for (int end = 0; end < 2; end++) {
+                    int from = end == 0 ? first : last;
+                    for (int c : neighbours[from]) {
+                        if (inRun(c, first, length)) {
+                            continue;
+                        }
+                        // Insert between c and its successor, or its predecessor and c
+                        for (int side = 0; side < 2; side++) {
+                            int left = side == 0 ? c : previous(c);
+                            int right = side == 0 ? next(c) : c;
+                            if (inRun(left, first, length) || inRun(right, first, length)) {
+                                continue;
+                            }
+                            double gap = distance[left][right];
+                            double kept = distance[left][first] + distance[last][right] - gap;
+                            double flipped = distance[left][last] + distance[first][right] - gap
+                                    + flipCost;
+                            double add = Math.min(kept, flipped);
+                            if (add < removeGain - EPSILON) {
+                                moveRun(first, length, left, flipped < kept);
+                                pushAll(p, q, left, right, first, last);
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Is stop c within the run of length stops starting at first?
+    private boolean inRun(int c, int first, int length)
+    {
+        return Math.floorMod(position[c] - position[first], m) < length;
+    }
+
+    // Move the run of length stops starting at first to just after left,
+    // reversed if flip.
+    private void moveRun(int first, int length, int left, boolean flip)
+    {
+        int[] run = new int[length];
+        for (int i = 0; i < length; i++) {
+            run[i] = at(position[first] + i);
+        }
+        if (flip) {
+            for (int i = 0; i < length / 2; i++) {
+                int t = run[i];
+                run[i] = run[length - 1 - i];
+                run[length - 1 - i] = t;
+            }
+        }
+        // Rebuild the tour without the run, inserting it after left
+        int[] rest = new int[m];
+        int size = 0;
+        int start = position[first] + length;
+        for (int i = 0; i < m - length; i++) {
+            int c = at(start + i);
+            rest[size++] = c;
+            if (c == left) {
+                for (int r : run) {
+                    rest[size++] = r;
+                }
+            }
+        }
+        System.arraycopy(rest, 0, tour, 0, m);
+        for (int i = 0; i < m; i++) {
+            position[tour[i]] = i;
+        }
+        updateSums();
+    }
+
+    // Reverse the tour from position i to position j, going forward and
+    // wrapping around.  Reversing the rest of the tour instead would give
+    // the same cycle driven the other way, which is not the same length
+    // when the distances are one way.
+    private void reverse(int i, int j)
+    {
+        int length = Math.floorMod(j - i, m) + 1;
+        for (int k = 0; k < length / 2; k++) {
+            int x = (i + k) % m;
+            int y = Math.floorMod(j - k, m);
+            int t = tour[x];
+            tour[x] = tour[y];
+            tour[y] = t;
+            position[tour[x]] = x;
+            position[tour[y]] = y;
+        }
+        updateSums();
+    }
+
+    private int at(int i)
+    {
+        return tour[Math.floorMod(i, m)];
+    }
+
+    private int next(int c)
+    {
+        return at(position[c] + 1);
+    }
+
+    private int previous(int c)
+    {
+        return at(position[c] - 1);
+    }
+
+    private void pushAll(int... stops)
+    {
+        for (int c : stops) {
+            push(c);
+        }
+    }
+
+    private void push(int c)
+    {
+        if (!active[c]) {
+            active[c] = true;
+            queue[(queueHead + queueSize) % m] = c;
+            queueSize++;
+        }
+    }
+
+    // The order, or its reverse after the start, whichever is shorter
+    // with the real (one-way) distances.
+    private static int[] bestDirection(double[][] distance, int[] order)
+    {
+        int m = order.length;
+        int[] reversed = new int[m];
+        if (m > 0) {
+            reversed[0] = order[0];
+        }
+        for (int i = 1; i < m; i++) {
+            reversed[i] = order[m - i];
+        }
+        return length(distance, reversed) < length(distance, order) ? reversed : order;
+    }
+
+    private static double length(double[][] distance, int[] order)
+    {
+        double total = 0;
+        for (int i = 0; i < order.length; i++) {
+            total += distance[order[i]][order[(i + 1) % order.length]];
+        }
+        return total;
+    }
+
+    // The intersections along the roads of the tour, back to the start
+    private static List<GeographicPoint> roadPath(CompactMapGraph graph,
+                                                  List<GeographicPoint> stops, int[] order)
+    {
+        List<GeographicPoint> path = new ArrayList<GeographicPoint>();
+        path.add(stops.get(order[0]));
+        SearchContext context = graph.getContextPool().acquire();
+        try {
+            for (int i = 0; i < order.length; i++) {
+                GeographicPoint from = stops.get(order[i]);
+                GeographicPoint to = stops.get(order[(i + 1) % order.length]);
+                if (from.equals(to)) {
+                    continue;
+                }
+                List<GeographicPoint> leg = graph.aStarSearch(from, to, (x) -> {}, context);
+                context.reset();
+                if (leg == null) {
+                    return null;
+                }
+                path.addAll(leg.subList(1, leg.size()));
+            }
+        }
+        finally {
+            graph.getContextPool().release(context);
+        }
+        return path;
+    }
+
+    /**
+     * A planned round trip.
+     */
+    public static final class Tour {
+        private final int[] order;
+        private final List<GeographicPoint> stops;
+        private final double length;
+        private final List<GeographicPoint> path;
+
+        Tour(int[] order, List<GeographicPoint> stops, double length, List<GeographicPoint> path)
+        {
+            this.order = order;
+            this.stops = stops;
+            this.length = length;
+            this.path = path;
+        }
+
+        /**
+         * @return The indexes, in the list of stops given to the planner,
+         *   of the stops in visiting order, starting with 0
+         */
+        public int[] getOrder()
+        {
+            return order.clone();
+        }
+
+        /** @return The stops in visiting order, starting with the first stop */
+        public List<GeographicPoint> getStops()
+        {
+            return stops;
+        }
+
+        /** @return The length of the round trip by road, in km */
+        public double getLength()
+        {
+            return length;
+        }
+
+        /**
+         * @return The intersections along the whole trip, from the first
+         *   stop back to it again
+         */
+        public List<GeographicPoint> getPath()
+        {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package roadgraph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import geography.GeographicPoint;
+
+/**
+ * Reads per-edge speeds from a traffic feed and applies them to
+ * LiveWeights in batches.  A feed is text, one update per line:
+ *
+ *   lat1 lon1 lat2 lon2 speed
+ *
+ * giving the speed in km/h along the road from intersection (lat1, lon1)
+ * to intersection (lat2, lon2), with 0 for a closed road.  Blank lines
+ * and lines starting with # are ignored, as are lines that cannot be
+ * read or name no road of the graph; they are counted as skipped.  A
+ * file, or a pipe or socket wrapped in a Reader, stands in for a live
+ * feed.
+ */
+public class TrafficFeed {
+    private final LiveWeights weights;
+    private final int batchSize;
+    private long applied;
+    private long skipped;
+
+    /**
+     * @param weights The costs to update
+     * @param batchSize The most updates to apply at once
+     */
+    public TrafficFeed(LiveWeights weights, int batchSize)
+    {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.weights = weights;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Apply every update in a file.
+     * @param file The feed file
+     * @return The number of lines applied
+     * @throws IOException if the file cannot be read
+     */
+    public long replay(File file) throws IOException
+    {
+        try (Reader in = new FileReader(file)) {
+            return replay(in);
+        }
+    }
+
+    /**
+     * Apply every update read from a stream until it ends, one batch at a
+     * time.  A partly filled batch is applied when the stream has nothing
+     * more ready, so a slow live feed is not held back waiting for a full
+     * batch.
+     * @param in The feed
+     * @return The number of lines applied
+     * @throws IOException if the feed cannot be read
+     */
+    public long replay(Reader in) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(in);
+        LiveWeights.Batch batch = weights.newBatch();
+        long lines = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (parse(line, batch)) {
+                lines++;
+            }
+            if (batch.size() >= batchSize || (batch.size() > 0 && !reader.ready())) {
+                weights.apply(batch);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0) {
+            weights.apply(batch);
+        }
+        applied += lines;
+        return lines;
+    }
+
+    /** @return The number of lines applied so far */
+    public long getApplied()
+    {
+        return applied;
+    }
+
+    /** @return The number of lines skipped so far */
+    public long getSkipped()
+    {
+        return skipped;
+    }
+
+    // Add the update on one line to the batch, returning whether there was one
+    private boolean parse(String line, LiveWeights.Batch batch)
+    {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+            return false;
+        }
+        String[] fields = line.split("\\s+");
+        try {
+            if (fields.length == 5) {
+                GeographicPoint from = new GeographicPoint(Double.parseDouble(fields[0]),
+                                                           Double.parseDouble(fields[1]));
+                GeographicPoint to = new GeographicPoint(Double.parseDouble(fields[2]),
+                                                         Double.parseDouble(fields[3]));
+                if (batch.setSpeed(from, to, Double.parseDouble(fields[4])) > 0) {
+                    return true;
+                }
+            }
+        }
+        catch (IllegalArgumentException e) {
+            // a bad number or a negative speed
+        }
+        skipped++;
+        return false;
+    }
+}
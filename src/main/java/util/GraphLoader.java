@@ -5,15 +5,20 @@
 package util;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
 
 import basicgraph.Graph;
 import geography.GeographicPoint;
@@ -24,6 +29,34 @@ import roadgraph.MapGraph;
 
 public class GraphLoader 
 {
+	// Chunks smaller than this are not worth parsing on their own thread
+	private static final int MIN_CHUNK_BYTES = 1 << 16;
+
+	// Pool for parallel loading, or null to load on the calling thread
+	private ForkJoinPool pool;
+
+	/**
+	 * Choose whether road maps are loaded in parallel.  In parallel mode
+	 * the file is split into chunks that are parsed at once on the common
+	 * ForkJoinPool, and intersections and edges are found in parallel;
+	 * the graph built is the same either way.
+	 * @param parallel true to load in parallel, false (the default) to
+	 *   load on the calling thread
+	 */
+	public void setParallel(boolean parallel)
+	{
+		pool = parallel ? ForkJoinPool.commonPool() : null;
+	}
+
+	/**
+	 * Load road maps in parallel on the given pool.
+	 * @param pool The pool to run on, or null to load on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool)
+	{
+		this.pool = pool;
+	}
+
 	
 	/** 
 	 * 	 * The file contains data lines as follows:
@@ -46,7 +79,7 @@ public class GraphLoader
         		buildPointMapOneWay(roadDataFile);
 		
         // Print the intersections to the file
-		List<GeographicPoint> intersections = findIntersections(pointMap);
+		List<GeographicPoint> intersections = findIntersections(pointMap, pool);
 		for (GeographicPoint pt : intersections) {
 			nodes.add(pt);
 		}
@@ -121,7 +154,7 @@ public class GraphLoader
 				buildPointMapOneWay(filename);
 
 		// Add the nodes to the graph
-		List<GeographicPoint> intersections = findIntersections(pointMap);
+		List<GeographicPoint> intersections = findIntersections(pointMap, pool);
 		for (GeographicPoint pt : intersections) {
 			map.addVertex(pt);
 			if (intersectionsToLoad != null) {
@@ -129,7 +162,12 @@ public class GraphLoader
 			}
 			nodes.add(pt);
 		}
-		addEdgesAndSegments(nodes, pointMap, map, segments);
+		if (pool != null) {
+			addEdgesAndSegments(nodes, pointMap, map, segments, pool);
+		}
+		else {
+			addEdgesAndSegments(nodes, pointMap, map, segments);
+		}
 	}
 
 	
@@ -162,7 +200,7 @@ public class GraphLoader
 				new HashMap<GeographicPoint,Integer>();
 		
         // Add the nodes to the graph
-		List<GeographicPoint> intersections = findIntersections(pointMap);
+		List<GeographicPoint> intersections = findIntersections(pointMap, pool);
 		
 		int index = 0;
 		for (GeographicPoint pt : intersections) {
@@ -304,6 +342,100 @@ public class GraphLoader
 	}
 			
 	
+	// A road traced from one intersection to the next
+	private static final class TracedEdge {
+		final GeographicPoint start;
+		final GeographicPoint end;
+		final List<GeographicPoint> pointsOnEdge;
+		final RoadLineInfo info;
+		final double length;
+
+		TracedEdge(GeographicPoint start, GeographicPoint end,
+				   List<GeographicPoint> pointsOnEdge, RoadLineInfo info)
+		{
+			this.start = start;
+			this.end = end;
+			this.pointsOnEdge = pointsOnEdge;
+			this.info = info;
+			this.length = getRoadLength(start, end, pointsOnEdge);
+		}
+	}
+
+	// The same as addEdgesAndSegments, but the roads are traced in
+	// parallel on the pool.  Only reading the pointMap is shared between
+	// threads; the edges are added to the graph afterwards, in order.
+	private static void addEdgesAndSegments(Collection<GeographicPoint> nodes,
+											HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
+											MapGraph map,
+											HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+											ForkJoinPool pool)
+	{
+		GeographicPoint[] starts = nodes.toArray(new GeographicPoint[0]);
+		List<List<TracedEdge>> traced = inParallel(pool, starts.length, (from, to) -> {
+			List<TracedEdge> edges = new ArrayList<TracedEdge>();
+			for (int i = from; i < to; i++) {
+				for (RoadLineInfo info : pointMap.get(starts[i]).get(0)) {
+					List<GeographicPoint> pointsOnEdge = findPointsOnEdge(pointMap, info, nodes);
+					GeographicPoint end = pointsOnEdge.remove(pointsOnEdge.size()-1);
+					edges.add(new TracedEdge(starts[i], end, pointsOnEdge, info));
+				}
+			}
+			return edges;
+		});
+
+		for (List<TracedEdge> edges : traced) {
+			for (TracedEdge edge : edges) {
+				map.addEdge(edge.start, edge.end, edge.info.roadName, edge.info.roadType, edge.length);
+				if (segments != null) {
+					RoadSegment seg = new RoadSegment(edge.start, edge.end, edge.pointsOnEdge,
+							edge.info.roadName, edge.info.roadType, edge.length);
+					addSegment(segments, edge.start, seg);
+					addSegment(segments, edge.end, seg);
+				}
+			}
+		}
+	}
+
+	private static void addSegment(HashMap<GeographicPoint,HashSet<RoadSegment>> segments,
+								   GeographicPoint pt, RoadSegment seg)
+	{
+		HashSet<RoadSegment> segs = segments.get(pt);
+		if (segs == null) {
+			segs = new HashSet<RoadSegment>();
+			segments.put(pt, segs);
+		}
+		segs.add(seg);
+	}
+
+	// Split [0, count) into ranges, about four per thread of the pool,
+	// run task on each range in parallel, and return the results in
+	// range order.
+	private static <T> List<T> inParallel(ForkJoinPool pool, int count,
+										  BiFunction<Integer,Integer,T> task)
+	{
+		int ranges = Math.max(1, Math.min(count, 4 * pool.getParallelism()));
+		List<Callable<T>> tasks = new ArrayList<Callable<T>>(ranges);
+		for (int r = 0; r < ranges; r++) {
+			int from = (int) ((long) count * r / ranges);
+			int to = (int) ((long) count * (r + 1) / ranges);
+			tasks.add(() -> task.apply(from, to));
+		}
+		List<T> results = new ArrayList<T>(ranges);
+		for (Future<T> result : pool.invokeAll(tasks)) {
+			try {
+				results.add(result.get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while loading map", e);
+			}
+			catch (ExecutionException e) {
+				throw new IllegalStateException("Problem loading map", e.getCause());
+			}
+		}
+		return results;
+	}
+
 	// Calculate the length of this road segment taking into account all of the 
 	// intermediate geographic points.
 	private static double getRoadLength(GeographicPoint start, GeographicPoint end,
@@ -312,10 +444,10 @@ public class GraphLoader
 		double dist = 0.0;
 		GeographicPoint curr = start;
 		for (GeographicPoint next : path) {
-			dist += curr.distance(next);
+			dist += curr.fastDistance(next);
 			curr = next;
 		}
-		dist += curr.distance(end);
+		dist += curr.fastDistance(end);
 		return dist;
 	}
 	
@@ -384,71 +516,95 @@ public class GraphLoader
 	// (1 road in and 1 road out, which are the reverse of each other)
 	// or intersections between two different roads, or where three
 	// or more segments of the same road meet.
+	// If pool is not null the points are checked in parallel on it.
 	private static List<GeographicPoint> 
-	findIntersections(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap) {
-		// Now find the intersections.  These are roads that do not have
-		// Exactly 1 or 2 roads coming in and out, where the roads in
-		// match the roads out.
-		List<GeographicPoint> intersections = new LinkedList<GeographicPoint>();
-		for (GeographicPoint pt : pointMap.keySet()) {
-			List<LinkedList<RoadLineInfo>> roadsInAndOut = pointMap.get(pt);
-			LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
-			LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
-			
-			boolean isNode = true;
-			
-			if (roadsIn.size() == 1 && roadsOut.size() == 1) {
-				// If these are the reverse of each other, then this is
-				// and intersection (dead end)
-				if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
-						roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
-						&& roadsIn.get(0).roadName.equals(roadsOut.get(0).roadName)) {
-					isNode = false;
+	findIntersections(HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap,
+					  ForkJoinPool pool) {
+		if (pool == null) {
+			List<GeographicPoint> intersections = new LinkedList<GeographicPoint>();
+			for (GeographicPoint pt : pointMap.keySet()) {
+				if (isIntersection(pointMap.get(pt))) {
+					intersections.add(pt);
 				}
 			}
-			if (roadsIn.size() == 2 && roadsOut.size() == 2) {
-				// If all the road segments have the same name, 
-				// And there are two pairs of reversed nodes, then 
-				// this is not an intersection because the roads pass
-				// through.
-			
-				String name = roadsIn.get(0).roadName;
-				boolean sameName = true;
-				for (RoadLineInfo info : roadsIn) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
-				}
-				for (RoadLineInfo info : roadsOut) {
-					if (!info.roadName.equals(name)) {
-						sameName = false;
-					}
-				}
-				
-				RoadLineInfo in1 = roadsIn.get(0);
-				RoadLineInfo in2 = roadsIn.get(1);
-				RoadLineInfo out1 = roadsOut.get(0);
-				RoadLineInfo out2 = roadsOut.get(1);
-		
-				boolean passThrough = false;
-				if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
-						(in1.isReverse(out2) && in2.isReverse(out1))) {
-					
-					passThrough = true;
-				} 
-				
-				if (sameName && passThrough) {
-					isNode = false;
-				} 
+			return intersections;
+		}
 
-			} 
-			if (isNode) {
-				intersections.add(pt);
+		GeographicPoint[] points = pointMap.keySet().toArray(new GeographicPoint[0]);
+		List<List<GeographicPoint>> found = inParallel(pool, points.length, (from, to) -> {
+			List<GeographicPoint> intersections = new ArrayList<GeographicPoint>();
+			for (int i = from; i < to; i++) {
+				if (isIntersection(pointMap.get(points[i]))) {
+					intersections.add(points[i]);
+				}
 			}
+			return intersections;
+		});
+		List<GeographicPoint> intersections = new ArrayList<GeographicPoint>();
+		for (List<GeographicPoint> part : found) {
+			intersections.addAll(part);
 		}
 		return intersections;
 	}
 
+	// Whether a point with these roads in and out is an intersection.
+	// These are points that do not have exactly 1 or 2 roads coming in
+	// and out, where the roads in match the roads out.
+	private static boolean isIntersection(List<LinkedList<RoadLineInfo>> roadsInAndOut)
+	{
+		LinkedList<RoadLineInfo> roadsOut = roadsInAndOut.get(0);
+		LinkedList<RoadLineInfo> roadsIn = roadsInAndOut.get(1);
+		
+		boolean isNode = true;
+		
+		if (roadsIn.size() == 1 && roadsOut.size() == 1) {
+			// If these are the reverse of each other, then this is
+			// and intersection (dead end)
+			if (!(roadsIn.get(0).point1.equals(roadsOut.get(0).point2) &&
+					roadsIn.get(0).point2.equals(roadsOut.get(0).point1))
+					&& roadsIn.get(0).roadName.equals(roadsOut.get(0).roadName)) {
+				isNode = false;
+			}
+		}
+		if (roadsIn.size() == 2 && roadsOut.size() == 2) {
+			// If all the road segments have the same name, 
+			// And there are two pairs of reversed nodes, then 
+			// this is not an intersection because the roads pass
+			// through.
+		
+			String name = roadsIn.get(0).roadName;
+			boolean sameName = true;
+			for (RoadLineInfo info : roadsIn) {
+				if (!info.roadName.equals(name)) {
+					sameName = false;
+				}
+			}
+			for (RoadLineInfo info : roadsOut) {
+				if (!info.roadName.equals(name)) {
+					sameName = false;
+				}
+			}
+			
+			RoadLineInfo in1 = roadsIn.get(0);
+			RoadLineInfo in2 = roadsIn.get(1);
+			RoadLineInfo out1 = roadsOut.get(0);
+			RoadLineInfo out2 = roadsOut.get(1);
+	
+			boolean passThrough = false;
+			if ((in1.isReverse(out1) && in2.isReverse(out2)) ||
+					(in1.isReverse(out2) && in2.isReverse(out1))) {
+				
+				passThrough = true;
+			} 
+			
+			if (sameName && passThrough) {
+				isNode = false;
+			} 
+
+		} 
+		return isNode;
+	}
+
 	// Build the map from points to lists of lists of lines.
 	// The map returned is indexed by a GeographicPoint.  The values
 	// are lists of length two where each entry in the list is a list.
@@ -464,12 +620,14 @@ public class GraphLoader
 		try {
 			ClassLoader classLoader = this.getClass().getClassLoader();
 			File fileName = new File(classLoader.getResource(filename).getFile());
+			if (pool != null) {
+				return buildPointMapParallel(fileName, filename);
+			}
 			stream = new FileInputStream(fileName);
-			BufferedReader reader = null;
-			String nextLine;
-			reader = new BufferedReader(new InputStreamReader(stream));
-			while ((nextLine = reader.readLine()) != null) {
-				RoadLineInfo line = splitInputString(nextLine);
+			RoadLineParser parser = new RoadLineParser(stream, filename);
+			while (parser.next()) {
+				RoadLineInfo line = new RoadLineInfo(parser.getPoint1(), parser.getPoint2(),
+						parser.getRoadName(), parser.getRoadType());
 				addToPointsMapOneWay(line, pointMap);
 			}
 		}
@@ -489,6 +647,80 @@ public class GraphLoader
 		return pointMap;
 	}
 
+	// Build the point map by parsing newline-aligned chunks of the file
+	// in parallel, each into its own map, then merging the maps in file
+	// order so every list of roads is in the same order as when the
+	// file is read on one thread.
+	private HashMap<GeographicPoint, List<LinkedList<RoadLineInfo>>>
+	buildPointMapParallel(File file, String filename) throws IOException
+	{
+		byte[] data = Files.readAllBytes(file.toPath());
+		int chunks = Math.max(1, Math.min(4 * pool.getParallelism(), data.length / MIN_CHUNK_BYTES));
+		int[] bounds = new int[chunks + 1];
+		for (int c = 1; c < chunks; c++) {
+			int b = Math.max(bounds[c - 1], (int) ((long) data.length * c / chunks));
+			while (b < data.length && b > 0 && data[b - 1] != '\n') {
+				b++;
+			}
+			bounds[c] = b;
+		}
+		bounds[chunks] = data.length;
+
+		// Number the lines of each chunk, for error messages
+		int[] firstLine = new int[chunks + 1];
+		inParallel(pool, chunks, (from, to) -> {
+			for (int c = from; c < to; c++) {
+				for (int i = bounds[c]; i < bounds[c + 1]; i++) {
+					if (data[i] == '\n') {
+						firstLine[c + 1]++;
+					}
+				}
+			}
+			return null;
+		});
+		firstLine[0] = 1;
+		for (int c = 1; c < chunks; c++) {
+			firstLine[c] += firstLine[c - 1];
+		}
+
+		List<HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>> parts =
+				inParallel(pool, chunks, (from, to) -> {
+			HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> part =
+					new HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>>();
+			for (int c = from; c < to; c++) {
+				RoadLineParser parser = new RoadLineParser(data, bounds[c], bounds[c + 1],
+						filename, firstLine[c]);
+				try {
+					while (parser.next()) {
+						RoadLineInfo line = new RoadLineInfo(parser.getPoint1(), parser.getPoint2(),
+								parser.getRoadName(), parser.getRoadType());
+						addToPointsMapOneWay(line, part);
+					}
+				}
+				catch (IOException e) {
+					// a parser over an array does no I/O
+					throw new UncheckedIOException(e);
+				}
+			}
+			return part;
+		});
+
+		HashMap<GeographicPoint,List<LinkedList<RoadLineInfo>>> pointMap = parts.get(0);
+		for (int c = 1; c < parts.size(); c++) {
+			for (Map.Entry<GeographicPoint,List<LinkedList<RoadLineInfo>>> entry : parts.get(c).entrySet()) {
+				List<LinkedList<RoadLineInfo>> infos = pointMap.get(entry.getKey());
+				if (infos == null) {
+					pointMap.put(entry.getKey(), entry.getValue());
+				}
+				else {
+					infos.get(0).addAll(entry.getValue().get(0));
+					infos.get(1).addAll(entry.getValue().get(1));
+				}
+			}
+		}
+		return pointMap;
+	}
+
 	// Add the next line read from the file to the points map.
 	private static void 
 	addToPointsMapOneWay(RoadLineInfo line,
@@ -516,34 +748,6 @@ public class GraphLoader
 		
 	}
 	
-	// Split the input string into the line information
-	private static RoadLineInfo splitInputString(String input)
-	{	
-		
-		ArrayList<String> tokens = new ArrayList<String>();
-		Pattern tokSplitter = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"");
-		Matcher m = tokSplitter.matcher(input);
-		
-		while (m.find()) {
-			if (m.group(1) != null) {
-				tokens.add(m.group(1));	
-			}
-			else {
-				tokens.add(m.group());
-			}
-		}
-
-    	double lat1 = Double.parseDouble(tokens.get(0));
-        double lon1 = Double.parseDouble(tokens.get(1));
-        double lat2 = Double.parseDouble(tokens.get(2));
-        double lon2 = Double.parseDouble(tokens.get(3));
-        GeographicPoint p1 = new GeographicPoint(lat1, lon1);
-        GeographicPoint p2 = new GeographicPoint(lat2, lon2);
-
-        return new RoadLineInfo(p1, p2, tokens.get(4), tokens.get(5));
-		
-	}
-	
 	public static void main(String[] args)
 	{
 		GraphLoader loader = new GraphLoader();
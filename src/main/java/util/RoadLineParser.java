@@ -0,0 +1,452 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import geography.GeographicPoint;
+
+/**
+ * A streaming parser for the lines of a road map file:
+ *
+ *     lat1 lon1 lat2 lon2 "road name" roadType
+ *
+ * The parser reads bytes into a buffer it reuses across lines and parses
+ * the coordinates straight into double fields, without splitting the line
+ * into Strings.  Road names and types are interned, so each distinct name
+ * is decoded once, and points are shared: a point that appears on several
+ * lines is returned as the same GeographicPoint each time.
+ *
+ * Malformed lines are reported on System.err with their line number and
+ * skipped.  Tokens are separated by whitespace or single quotes, and a
+ * token in double quotes may contain either, as with the regular
+ * expression this replaces.
+ */
+public final class RoadLineParser {
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream in;
+    private final String source;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private int lineNumber;
+    private int errorCount;
+
+    // Fields of the current line
+    private double lat1;
+    private double lon1;
+    private double lat2;
+    private double lon2;
+    private String roadName;
+    private String roadType;
+
+    // Token bounds on the current line, reused for every line
+    private final int[] tokenStart = new int[6];
+    private final int[] tokenEnd = new int[6];
+
+    private final StringTable strings;
+    private final HashMap<GeographicPoint,GeographicPoint> points;
+    private final GeographicPoint probe;
+
+    /**
+     * Create a parser reading from a stream.
+     * @param in The stream to read; the caller closes it
+     * @param source The name of the file, for error messages
+     */
+    public RoadLineParser(InputStream in, String source)
+    {
+        this(in, source, new byte[1 << 16], 0, 0, 0);
+    }
+
+    /**
+     * Create a parser over the lines held in part of a byte array.  The
+     * range should start at the beginning of a line.
+     * @param data The bytes to parse
+     * @param from The index of the first byte
+     * @param to The index one past the last byte
+     * @param source The name of the file, for error messages
+     * @param firstLine The line number of the first line in the range
+     */
+    public RoadLineParser(byte[] data, int from, int to, String source, int firstLine)
+    {
+        this(null, source, data, from, to, firstLine - 1);
+    }
+
+    private RoadLineParser(InputStream in, String source, byte[] buffer,
+                           int position, int limit, int lineNumber)
+    {
+        this.in = in;
+        this.source = source;
+        this.buffer = buffer;
+        this.position = position;
+        this.limit = limit;
+        this.lineNumber = lineNumber;
+        strings = new StringTable();
+        points = new HashMap<GeographicPoint,GeographicPoint>();
+        probe = new GeographicPoint(0, 0);
+    }
+
+    /**
+     * Move to the next well-formed line, skipping blank lines and
+     * reporting malformed ones.
+     * @return true if there is a line, false at the end of the input
+     * @throws IOException if the stream cannot be read
+     */
+    public boolean next() throws IOException
+    {
+        while (true) {
+            if (position >= limit && !fill()) {
+                return false;
+            }
+            int lineEnd = findLineEnd();
+            int start = position;
+            position = lineEnd < limit ? lineEnd + 1 : lineEnd;
+            lineNumber++;
+            if (parseLine(start, lineEnd)) {
+                return true;
+            }
+        }
+    }
+
+    /** @return The latitude of the first point of the current line */
+    public double getLat1()
+    {
+        return lat1;
+    }
+
+    /** @return The longitude of the first point of the current line */
+    public double getLon1()
+    {
+        return lon1;
+    }
+
+    /** @return The latitude of the second point of the current line */
+    public double getLat2()
+    {
+        return lat2;
+    }
+
+    /** @return The longitude of the second point of the current line */
+    public double getLon2()
+    {
+        return lon2;
+    }
+
+    /** @return The shared GeographicPoint for the first point of the current line */
+    public GeographicPoint getPoint1()
+    {
+        return point(lat1, lon1);
+    }
+
+    /** @return The shared GeographicPoint for the second point of the current line */
+    public GeographicPoint getPoint2()
+    {
+        return point(lat2, lon2);
+    }
+
+    /** @return The interned road name of the current line */
+    public String getRoadName()
+    {
+        return roadName;
+    }
+
+    /** @return The interned road type of the current line */
+    public String getRoadType()
+    {
+        return roadType;
+    }
+
+    /** @return The line number of the current line, counting from 1 */
+    public int getLineNumber()
+    {
+        return lineNumber;
+    }
+
+    /** @return The number of malformed lines skipped so far */
+    public int getErrorCount()
+    {
+        return errorCount;
+    }
+
+    // Return the shared point at (lat, lon), creating it the first time.
+    private GeographicPoint point(double lat, double lon)
+    {
+        probe.setLocation(lat, lon);
+        GeographicPoint p = points.get(probe);
+        if (p == null) {
+            p = new GeographicPoint(lat, lon);
+            points.put(p, p);
+        }
+        return p;
+    }
+
+    // Read more of the stream into the buffer, keeping the unread bytes.
+    // Returns false if there is nothing left to read.
+    private boolean fill() throws IOException
+    {
+        if (in == null) {
+            return false;
+        }
+        int unread = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, unread);
+        }
+        else if (unread == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        position = 0;
+        limit = unread;
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            return limit > 0;
+        }
+        limit += n;
+        return true;
+    }
+
+    // Find the '\n' ending the line at position, reading more of the
+    // stream if needed.  Returns limit if the last line has no newline.
+    private int findLineEnd() throws IOException
+    {
+        int i = position;
+        while (true) {
+            while (i < limit) {
+                if (buffer[i] == '\n') {
+                    return i;
+                }
+                i++;
+            }
+            int scanned = i - position;
+            int before = limit - position;
+            if (!fill() || limit - position == before) {
+                return limit;
+            }
+            i = position + scanned;
+        }
+    }
+
+    // Split the line into tokens and parse them; report and return false
+    // if it is malformed.
+    private boolean parseLine(int from, int to)
+    {
+        int count = 0;
+        int i = from;
+        while (i < to && count < 6) {
+            byte b = buffer[i];
+            if (isSeparator(b)) {
+                i++;
+            }
+            else if (b == '"') {
+                int close = i + 1;
+                while (close < to && buffer[close] != '"') {
+                    close++;
+                }
+                if (close == to) {
+                    return error("unterminated quote");
+                }
+                tokenStart[count] = i + 1;
+                tokenEnd[count] = close;
+                count++;
+                i = close + 1;
+            }
+            else {
+                tokenStart[count] = i;
+                while (i < to && !isSeparator(buffer[i]) && buffer[i] != '"') {
+                    i++;
+                }
+                tokenEnd[count] = i;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return false;  // blank line
+        }
+        if (count < 6) {
+            return error("expected 6 fields but found " + count);
+        }
+        if (!parseCoordinates()) {
+            return false;
+        }
+        roadName = strings.intern(buffer, tokenStart[4], tokenEnd[4]);
+        roadType = strings.intern(buffer, tokenStart[5], tokenEnd[5]);
+        return true;
+    }
+
+    private boolean parseCoordinates()
+    {
+        lat1 = parseDouble(tokenStart[0], tokenEnd[0]);
+        lon1 = parseDouble(tokenStart[1], tokenEnd[1]);
+        lat2 = parseDouble(tokenStart[2], tokenEnd[2]);
+        lon2 = parseDouble(tokenStart[3], tokenEnd[3]);
+        if (Double.isNaN(lat1 + lon1 + lat2 + lon2)) {
+            for (int t = 0; t < 4; t++) {
+                if (Double.isNaN(parseDouble(tokenStart[t], tokenEnd[t]))) {
+                    return error("bad number '" + new String(buffer, tokenStart[t],
+                            tokenEnd[t] - tokenStart[t], StandardCharsets.UTF_8) + "'");
+                }
+            }
+        }
+        return true;
+    }
+
+    // Parse a decimal number, giving exactly what Double.parseDouble would.
+    // Returns NaN if the bytes are not a number.
+    private double parseDouble(int from, int to)
+    {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; i < to; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    if (seenPoint) {
+                        scale--;
+                    }
+                }
+                else if (!seenPoint) {
+                    scale++;
+                }
+            }
+            else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            }
+            else {
+                break;
+            }
+        }
+        if (!seenDigit) {
+            return Double.NaN;
+        }
+        if (i < to) {
+            if (buffer[i] != 'e' && buffer[i] != 'E') {
+                return Double.NaN;
+            }
+            return parseSlowly(from, to);
+        }
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        }
+        else if (digits < 16 && scale >= -22 && scale <= 22) {
+            // Both operands are exact, so one rounding gives the
+            // correctly rounded result
+            value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+        }
+        else {
+            return parseSlowly(from, to);
+        }
+        return negative ? -value : value;
+    }
+
+    private double parseSlowly(int from, int to)
+    {
+        try {
+            return Double.parseDouble(new String(buffer, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private boolean error(String message)
+    {
+        errorCount++;
+        System.err.println(source + ":" + lineNumber + ": " + message + ", line skipped");
+        return false;
+    }
+
+    private static boolean isSeparator(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\'' || b == '\f' || b == 0x0b;
+    }
+
+    // An open addressing table from byte ranges to Strings, so a name
+    // already seen is found without decoding it again.
+    private static final class StringTable {
+        private byte[][] keys = new byte[64][];
+        private String[] values = new String[64];
+        private int size;
+
+        String intern(byte[] data, int from, int to)
+        {
+            int hash = hash(data, from, to);
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (keys[slot] != null) {
+                if (matches(keys[slot], data, from, to)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = Arrays.copyOfRange(data, from, to);
+            String value = new String(key, StandardCharsets.UTF_8);
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private void grow()
+        {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(byte[] data, int from, int to)
+        {
+            int h = 0;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + data[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean matches(byte[] key, byte[] data, int from, int to)
+        {
+            if (key.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != data[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class BidirectionalTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+    }
+
+    public double pathLength(CompactMapGraph graph, List<GeographicPoint> path) {
+        double length = 0;
+        for (int i = 0; i < path.size() - 1; i++) {
+            length += graph.distance(path.get(i), path.get(i + 1));
+        }
+        return length;
+    }
+
+    @Test
+    public void testSimpleRoute() {
+        loader.loadRoadMap("data/simpletest.map", testMap);
+        GeographicPoint testStart = new GeographicPoint(1.0, 1.0);
+        GeographicPoint testEnd = new GeographicPoint(8.0, -1.0);
+
+        List<GeographicPoint> path = Arrays.asList( new GeographicPoint(1.0, 1.0), new GeographicPoint(4.0, 1.0), new GeographicPoint(5.0, 1.0), new GeographicPoint(6.5, 0.0), new GeographicPoint(8.0, -1.0));
+        assertEquals("dijkstra route", path, testMap.bidirectionalDijkstra(testStart, testEnd));
+        assertEquals("a* route", path, testMap.bidirectionalAStarSearch(testStart, testEnd));
+    }
+
+    @Test
+    public void testStartIsGoal() {
+        loader.loadRoadMap("data/simpletest.map", testMap);
+        GeographicPoint testStart = new GeographicPoint(1.0, 1.0);
+        GeographicPoint testEnd = new GeographicPoint(8.0, -1.0);
+        List<GeographicPoint> expected = testMap.dijkstra(testStart, testEnd);
+        assertEquals("route", 5, expected.size());
+
+        // The pooled search contexts must come back clean
+        assertEquals("same point", Collections.singletonList(testEnd),
+                     testMap.bidirectionalDijkstra(testEnd, testEnd));
+        assertEquals("same point a*", Collections.singletonList(testEnd),
+                     testMap.bidirectionalAStarSearch(testEnd, testEnd));
+        assertEquals("dijkstra after", expected, testMap.dijkstra(testStart, testEnd));
+        assertEquals("bidirectional after", expected, testMap.bidirectionalDijkstra(testStart, testEnd));
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        loader.loadRoadMap("data/utc.map", testMap);
+        CompactMapGraph graph = testMap.freeze();
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(5);
+        int settledOneWay = 0;
+        int settledBothWays = 0;
+        for (int i = 0; i < 200; i++) {
+            GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+            GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+            double length = graph.distance(start, goal);
+            List<GeographicPoint> dijkstra = testMap.dijkstra(start, goal);
+            settledOneWay += testMap.getCount();
+            List<GeographicPoint> bidirectional = testMap.bidirectionalDijkstra(start, goal);
+            settledBothWays += testMap.getCount();
+            List<GeographicPoint> aStar = testMap.bidirectionalAStarSearch(start, goal);
+            if (dijkstra == null) {
+                assertNull("no dijkstra route", bidirectional);
+                assertNull("no a* route", aStar);
+                continue;
+            }
+            assertEquals("dijkstra start", start, bidirectional.get(0));
+            assertEquals("dijkstra goal", goal, bidirectional.get(bidirectional.size() - 1));
+            assertEquals("dijkstra length", length, pathLength(graph, bidirectional), 1e-9);
+            assertEquals("a* start", start, aStar.get(0));
+            assertEquals("a* goal", goal, aStar.get(aStar.size() - 1));
+            assertEquals("a* length", length, pathLength(graph, aStar), 1e-9);
+        }
+        assertTrue("fewer nodes settled", settledBothWays < settledOneWay);
+    }
+
+    @Test
+    public void testNoPath() {
+        loader.loadRoadMap("data/map2.txt", testMap);
+        GeographicPoint start = new GeographicPoint(6, 6);
+        GeographicPoint end = new GeographicPoint(0, 0);
+        assertNull("dijkstra no path", testMap.bidirectionalDijkstra(start, end));
+        assertNull("a* no path", testMap.bidirectionalAStarSearch(start, end));
+    }
+}
@@ -0,0 +1,69 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class CompactMapGraphTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+    }
+
+    @Test
+    public void testSizes() {
+        loader.loadRoadMap("data/utc.map", testMap);
+        CompactMapGraph compact = testMap.freeze();
+        assertEquals("vertex count", testMap.getNumVertices(), compact.getNumVertices());
+        assertEquals("edge count", testMap.getNumEdges(), compact.getNumEdges());
+        for (GeographicPoint pt : testMap.getVertices()) {
+            int v = compact.indexOf(pt);
+            assertTrue("vertex found", v >= 0);
+            assertEquals("vertex location", pt, compact.getLocation(v));
+        }
+        assertEquals("missing vertex", -1, compact.indexOf(new GeographicPoint(0, 0)));
+    }
+
+    @Test
+    public void testSearches() {
+        loader.loadRoadMap("data/simpletest.map", testMap);
+        CompactMapGraph compact = testMap.freeze();
+        GeographicPoint testStart = new GeographicPoint(1.0, 1.0);
+        GeographicPoint testEnd = new GeographicPoint(8.0, -1.0);
+
+        List<GeographicPoint> path = Arrays.asList( new GeographicPoint(1.0, 1.0), new GeographicPoint(4.0, 1.0), new GeographicPoint(5.0, 1.0), new GeographicPoint(6.5, 0.0), new GeographicPoint(8.0, -1.0));
+        assertEquals("dijkstra route", path, compact.dijkstra(testStart, testEnd));
+        assertEquals("a* route", path, compact.aStarSearch(testStart, testEnd));
+        assertEquals("bfs route", 4, compact.bfs(testStart, testEnd).size());
+    }
+
+    @Test
+    public void testMatchesMapGraph() {
+        loader.loadRoadMap("data/utc.map", testMap);
+        CompactMapGraph compact = testMap.freeze();
+        GeographicPoint testStart = new GeographicPoint(32.8674388, -117.2190213);
+        GeographicPoint testEnd = new GeographicPoint(32.8697828, -117.2244506);
+
+        assertEquals("dijkstra route", testMap.dijkstra(testStart, testEnd), compact.dijkstra(testStart, testEnd));
+        assertEquals("a* route", testMap.aStarSearch(testStart, testEnd), compact.aStarSearch(testStart, testEnd));
+    }
+
+    @Test
+    public void testNoPath() {
+        loader.loadRoadMap("data/map2.txt", testMap);
+        CompactMapGraph compact = testMap.freeze();
+        GeographicPoint start = new GeographicPoint(6, 6);
+        GeographicPoint end = new GeographicPoint(0, 0);
+        assertNull("bfs no path", compact.bfs(start, end));
+        assertNull("dijkstra no path", compact.dijkstra(start, end));
+    }
+}
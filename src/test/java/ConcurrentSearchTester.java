@@ -0,0 +1,52 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ConcurrentSearchTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+    }
+
+    @Test
+    public void testConcurrentRoutes() throws Exception {
+        loader.loadRoadMap("data/utc.map", testMap);
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(42);
+        int numQueries = 200;
+        GeographicPoint[] starts = new GeographicPoint[numQueries];
+        GeographicPoint[] goals = new GeographicPoint[numQueries];
+        List<List<GeographicPoint>> expected = new ArrayList<List<GeographicPoint>>();
+        for (int i = 0; i < numQueries; i++) {
+            starts[i] = vertices.get(random.nextInt(vertices.size()));
+            goals[i] = vertices.get(random.nextInt(vertices.size()));
+            expected.add(testMap.freeze().dijkstra(starts[i], goals[i]));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<List<GeographicPoint>>> dijkstraResults = new ArrayList<Future<List<GeographicPoint>>>();
+        List<Future<List<GeographicPoint>>> aStarResults = new ArrayList<Future<List<GeographicPoint>>>();
+        for (int i = 0; i < numQueries; i++) {
+            final GeographicPoint start = starts[i];
+            final GeographicPoint goal = goals[i];
+            dijkstraResults.add(executor.submit(() -> testMap.dijkstra(start, goal)));
+            aStarResults.add(executor.submit(() -> testMap.aStarSearch(start, goal)));
+        }
+        for (int i = 0; i < numQueries; i++) {
+            assertEquals("dijkstra route " + i, expected.get(i), dijkstraResults.get(i).get());
+            assertEquals("a* route " + i, expected.get(i), aStarResults.get(i).get());
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,76 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.ContractionHierarchy;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class ContractionHierarchyTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+    }
+
+    // Sum the lengths of the edges along a path, checking each edge exists.
+    public double pathLength(CompactMapGraph graph, List<GeographicPoint> path) {
+        double length = 0;
+        for (int i = 0; i < path.size() - 1; i++) {
+            double edge = graph.distance(path.get(i), path.get(i + 1));
+            assertTrue("edge exists", edge < Double.POSITIVE_INFINITY);
+            length += edge;
+        }
+        return length;
+    }
+
+    @Test
+    public void testSimpleRoute() {
+        loader.loadRoadMap("data/simpletest.map", testMap);
+        ContractionHierarchy ch = ContractionHierarchy.build(testMap.freeze());
+        GeographicPoint testStart = new GeographicPoint(1.0, 1.0);
+        GeographicPoint testEnd = new GeographicPoint(8.0, -1.0);
+
+        List<GeographicPoint> path = Arrays.asList( new GeographicPoint(1.0, 1.0), new GeographicPoint(4.0, 1.0), new GeographicPoint(5.0, 1.0), new GeographicPoint(6.5, 0.0), new GeographicPoint(8.0, -1.0));
+        assertEquals("route is correct", path, ch.route(testStart, testEnd));
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        loader.loadRoadMap("data/utc.map", testMap);
+        CompactMapGraph graph = testMap.freeze();
+        ContractionHierarchy ch = ContractionHierarchy.build(graph);
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(11);
+        for (int i = 0; i < 300; i++) {
+            GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+            GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+            List<GeographicPoint> expected = graph.dijkstra(start, goal);
+            List<GeographicPoint> route = ch.route(start, goal);
+            if (expected == null) {
+                assertNull("no route", route);
+                assertEquals("no distance", Double.POSITIVE_INFINITY, ch.distance(start, goal), 0);
+                continue;
+            }
+            double length = graph.distance(start, goal);
+            assertEquals("distance", length, ch.distance(start, goal), 1e-9);
+            assertEquals("route starts at start", start, route.get(0));
+            assertEquals("route ends at goal", goal, route.get(route.size() - 1));
+            assertEquals("route length", length, pathLength(graph, route), 1e-9);
+        }
+    }
+
+    @Test
+    public void testNoPath() {
+        loader.loadRoadMap("data/map2.txt", testMap);
+        ContractionHierarchy ch = ContractionHierarchy.build(testMap.freeze());
+        assertNull("no path", ch.route(new GeographicPoint(6, 6), new GeographicPoint(0, 0)));
+    }
+}
@@ -0,0 +1,113 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.CostProfile;
+import roadgraph.MapGraph;
+import roadgraph.RouteAlgorithm;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class CostProfileTester {
+    MapGraph bypass;
+    GeographicPoint a;
+    GeographicPoint b;
+    GeographicPoint c;
+    double direct;
+    double detour;
+
+    @Before
+    public void setUp()
+    {
+        // A short residential road from a to b, and a longer motorway
+        // bypass through c
+        bypass = new MapGraph();
+        a = new GeographicPoint(0, 0);
+        b = new GeographicPoint(0, 0.02);
+        c = new GeographicPoint(0.006, 0.01);
+        bypass.addVertex(a);
+        bypass.addVertex(b);
+        bypass.addVertex(c);
+        direct = a.distance(b);
+        detour = a.distance(c);
+        bypass.addEdge(a, b, "High Street", "residential", direct);
+        bypass.addEdge(a, c, "M1", "motorway", detour);
+        bypass.addEdge(c, b, "M1", "motorway", c.distance(b));
+    }
+
+    @Test
+    public void testProfilesChooseRoads() {
+        assertEquals("shortest", Arrays.asList(a, b),
+                     bypass.route(a, b, RouteAlgorithm.DIJKSTRA, CostProfile.SHORTEST));
+        assertEquals("fastest", Arrays.asList(a, c, b),
+                     bypass.route(a, b, RouteAlgorithm.DIJKSTRA, CostProfile.FASTEST));
+        assertEquals("avoid motorways", Arrays.asList(a, b),
+                     bypass.route(a, b, RouteAlgorithm.DIJKSTRA, CostProfile.AVOID_MOTORWAYS));
+
+        CompactMapGraph graph = bypass.freeze();
+        double minutes = 2 * detour * 60 / 100;
+        assertEquals("minutes", minutes, graph.distance(a, b, CostProfile.FASTEST), 1e-9);
+        assertEquals("km", direct, graph.distance(a, b, CostProfile.SHORTEST), 1e-9);
+        assertEquals("plain distance", direct, graph.distance(a, b), 1e-9);
+    }
+
+    @Test
+    public void testSearchesAgree() {
+        MapGraph testMap = new MapGraph();
+        new GraphLoader().loadRoadMap("data/utc.map", testMap);
+        CompactMapGraph graph = testMap.freeze();
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(17);
+        for (int trial = 0; trial < 20; trial++) {
+            GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+            GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+            double minutes = graph.distance(start, goal, CostProfile.FASTEST);
+            double tree = graph.shortestPathTree(start, Double.MAX_VALUE, CostProfile.FASTEST)
+                    .distanceTo(goal);
+            assertEquals("tree agrees", minutes, tree, 1e-9);
+
+            List<GeographicPoint> expected = testMap.route(start, goal, RouteAlgorithm.DIJKSTRA,
+                                                           CostProfile.FASTEST);
+            assertEquals("route exists", minutes != Double.POSITIVE_INFINITY, expected != null);
+            for (RouteAlgorithm algorithm : new RouteAlgorithm[] { RouteAlgorithm.A_STAR, RouteAlgorithm.ALT,
+                    RouteAlgorithm.BIDIRECTIONAL_DIJKSTRA, RouteAlgorithm.BIDIRECTIONAL_A_STAR }) {
+                assertEquals(algorithm + " agrees", expected,
+                             testMap.route(start, goal, algorithm, CostProfile.FASTEST));
+            }
+        }
+    }
+
+    @Test
+    public void testCacheKeepsProfilesApart() {
+        List<GeographicPoint> shortest = bypass.route(a, b, RouteAlgorithm.A_STAR);
+        List<GeographicPoint> fastest = bypass.route(a, b, RouteAlgorithm.A_STAR, CostProfile.FASTEST);
+        assertFalse("different routes", shortest.equals(fastest));
+        assertEquals("both cached", 2, bypass.getRouteCache().size());
+        assertEquals("default is shortest", shortest,
+                     bypass.route(a, b, RouteAlgorithm.A_STAR, CostProfile.SHORTEST));
+        assertEquals("hit", 1, bypass.getRouteCache().getHits());
+    }
+
+    @Test
+    public void testCustomProfile() {
+        Map<String,Double> speeds = new HashMap<String,Double>();
+        speeds.put("residential", 60.0);
+        CostProfile profile = CostProfile.bySpeed("quick streets", speeds, 20);
+        assertEquals("listed", 1, profile.getCostPerKm("residential"), 1e-12);
+        assertEquals("default", 3, profile.getCostPerKm("motorway"), 1e-12);
+        assertEquals("cheapest", 1, profile.getMinCostPerKm(), 1e-12);
+        assertEquals("residential now fastest", Arrays.asList(a, b),
+                     bypass.route(a, b, RouteAlgorithm.DIJKSTRA, profile));
+
+        CostProfile avoid = profile.withPenalty("avoid streets", 2, "residential");
+        assertEquals("penalised", 2, avoid.getCostPerKm("residential"), 1e-12);
+        assertEquals("unchanged", 1, profile.getCostPerKm("residential"), 1e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadSpeed() {
+        CostProfile.bySpeed("stopped", Collections.singletonMap("residential", 0.0), 30);
+    }
+}
@@ -0,0 +1,190 @@
+import mapmaker.DataFetcher;
+import mapmaker.DataSource;
+import mapmaker.FileDataSource;
+import mapmaker.MapMaker;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+public class DataFetcherTester {
+    // [south, west, north, east], across four 0.05 degree tiles
+    static final float[] BOUNDS = { 32.86f, -117.24f, 32.91f, -117.19f };
+
+    File cache;
+    AtomicInteger requests;
+    DataSource source;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        cache = Files.createTempDirectory("tiles").toFile();
+        cache.deleteOnExit();
+        requests = new AtomicInteger();
+
+        // Every tile has road 100 and its nodes, which cross the tiles,
+        // and a road of its own
+        source = (bounds, highways) -> {
+            requests.incrementAndGet();
+            long tile = 1000 + Math.round(bounds[0] * 20) * 10000 + Math.round(bounds[1] * 20);
+            double lat = (bounds[0] + bounds[2]) / 2;
+            double lon = (bounds[1] + bounds[3]) / 2;
+            String json = "{\"version\": 0.6, \"elements\": ["
+                    + "{\"type\": \"node\", \"id\": 1, \"lat\": 32.87, \"lon\": -117.23},"
+                    + "{\"type\": \"node\", \"id\": 2, \"lat\": 32.9, \"lon\": -117.2},"
+                    + "{\"type\": \"node\", \"id\": " + tile + ", \"lat\": " + lat + ", \"lon\": " + lon + "},"
+                    + "{\"type\": \"way\", \"id\": 100, \"nodes\": [1, 2],"
+                    + " \"tags\": {\"highway\": \"primary\", \"name\": \"Long Road\"}},"
+                    + "{\"type\": \"way\", \"id\": " + tile + ", \"nodes\": [1, " + tile + "],"
+                    + " \"tags\": {\"highway\": \"residential\", \"oneway\": \"yes\"}}"
+                    + "]}";
+            return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+        };
+    }
+
+    DataFetcher fetcher(DataSource source) {
+        DataFetcher fetcher = new DataFetcher(BOUNDS, source);
+        fetcher.setCacheDirectory(cache);
+        return fetcher;
+    }
+
+    @Test
+    public void testTiles() {
+        List<float[]> tiles = fetcher(source).getTiles();
+        assertEquals("tiles", 4, tiles.size());
+        assertEquals("first", "[32.85, -117.25, 32.9, -117.2]", Arrays.toString(tiles.get(0)));
+        assertEquals("last", "[32.9, -117.2, 32.95, -117.15]", Arrays.toString(tiles.get(3)));
+    }
+
+    @Test
+    public void testMerge() throws IOException {
+        DataFetcher fetcher = fetcher(source);
+        JsonObject data;
+        try (InputStream in = fetcher.openData()) {
+            data = Json.createReader(in).readObject();
+        }
+        assertEquals("requests", 4, requests.get());
+        assertEquals("fetched", 4, fetcher.getFetched());
+
+        // One of each node and way: 2 shared nodes and a shared way, and
+        // a node and a way from each tile
+        Set<String> seen = new HashSet<String>();
+        for (JsonValue value : data.getJsonArray("elements")) {
+            JsonObject element = (JsonObject) value;
+            assertTrue("once", seen.add(element.getString("type") + element.getJsonNumber("id")));
+        }
+        assertEquals("elements", 3 + 2 * 4, seen.size());
+        deleteCache();
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        fetcher(source).fetchTiles();
+        assertEquals("requests", 4, requests.get());
+
+        DataFetcher cached = fetcher(source);
+        cached.fetchTiles().forEach((file) -> assertTrue("cached", file.isFile()));
+        assertEquals("no more requests", 4, requests.get());
+        assertEquals("fetched", 0, cached.getFetched());
+
+        // A different set of highways is cached separately
+        DataFetcher primary = fetcher(source);
+        primary.setHighways("primary");
+        primary.fetchTiles();
+        assertEquals("requests", 8, requests.get());
+        deleteCache();
+    }
+
+    @Test
+    public void testConcurrent() throws IOException {
+        // Each request waits for another to start
+        CountDownLatch started = new CountDownLatch(2);
+        AtomicInteger overlapped = new AtomicInteger();
+        DataSource slow = (bounds, highways) -> {
+            started.countDown();
+            try {
+                if (started.await(5, TimeUnit.SECONDS)) {
+                    overlapped.incrementAndGet();
+                }
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return source.fetch(bounds, highways);
+        };
+        DataFetcher fetcher = fetcher(slow);
+        fetcher.setConcurrency(2);
+        fetcher.fetchTiles();
+        assertEquals("overlapped", 4, overlapped.get());
+        deleteCache();
+    }
+
+    @Test
+    public void testFileSource() throws IOException {
+        String json = "{\"elements\": ["
+                + "{\"type\": \"node\", \"id\": 1, \"lat\": 32.87, \"lon\": -117.23},"
+                + "{\"type\": \"node\", \"id\": 2, \"lat\": 32.9, \"lon\": -117.2},"
+                + "{\"type\": \"way\", \"id\": 10, \"nodes\": [1, 2], \"tags\": {\"highway\": \"primary\"}}"
+                + "]}";
+        File file = File.createTempFile("overpass", ".json");
+        file.deleteOnExit();
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        FileDataSource offline = new FileDataSource(file);
+
+        // Every tile is served the whole file, but each road is written once
+        StringWriter out = new StringWriter();
+        try (InputStream in = fetcher(offline).openData()) {
+            new MapMaker(BOUNDS).convert(in, out);
+        }
+        assertEquals("requests", 4, offline.getRequests());
+        assertEquals("32.87 -117.23 32.9 -117.2 \"\" primary" + System.lineSeparator()
+                     + "32.9 -117.2 32.87 -117.23 \"\" primary" + System.lineSeparator(),
+                     out.toString());
+        deleteCache();
+    }
+
+    @Test
+    public void testErrorNotCached() throws IOException {
+        DataSource timeout = (bounds, highways) -> new ByteArrayInputStream(
+                "{\"remark\": \"runtime error: Query timed out\", \"elements\": []}"
+                .getBytes(StandardCharsets.UTF_8));
+        try {
+            fetcher(timeout).openData().close();
+            fail("error reported");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        }
+        DataFetcher fetcher = fetcher(source);
+        fetcher.openData().close();
+        assertEquals("fetched again", 4, fetcher.getFetched());
+        deleteCache();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMaxTiles() throws IOException {
+        DataFetcher fetcher = fetcher(source);
+        fetcher.setTileSize(0.001f);
+        fetcher.fetchTiles();
+    }
+
+    void deleteCache() {
+        for (File file : cache.listFiles()) {
+            file.delete();
+        }
+    }
+}
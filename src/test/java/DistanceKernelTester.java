@@ -0,0 +1,72 @@
+import geography.DistanceKernel;
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class DistanceKernelTester {
+    double[] latitudes;
+    double[] longitudes;
+    DistanceKernel kernel;
+
+    @Before
+    public void setUp()
+    {
+        // A city-sized cluster, plus a few points far from it
+        Random random = new Random(5);
+        int n = 200;
+        latitudes = new double[n];
+        longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = 40.7 + random.nextDouble() * 0.3;
+            longitudes[i] = -74.0 + random.nextDouble() * 0.3;
+        }
+        latitudes[0] = 51.5;
+        longitudes[0] = -0.1;
+        latitudes[1] = -33.9;
+        longitudes[1] = 151.2;
+        kernel = new DistanceKernel(latitudes, longitudes);
+    }
+
+    @Test
+    public void testNearHaversine() {
+        for (int u = 0; u < latitudes.length; u++) {
+            for (int v = 0; v < latitudes.length; v++) {
+                double exact = DistanceKernel.haversine(latitudes[u], longitudes[u], latitudes[v], longitudes[v]);
+                double error = DistanceKernel.MAX_RELATIVE_ERROR * exact + 1e-12;
+                assertEquals("kernel " + u + " " + v, exact, kernel.distance(u, v), error);
+                assertEquals("static " + u + " " + v, exact,
+                             DistanceKernel.distance(latitudes[u], longitudes[u], latitudes[v], longitudes[v]),
+                             error);
+                assertTrue("lower bound " + u + " " + v, kernel.lowerBound(u, v) <= exact);
+                assertTrue("lower bound of distance " + u + " " + v,
+                           kernel.lowerBound(u, v) <= kernel.distance(u, v));
+            }
+        }
+    }
+
+    @Test
+    public void testHaversineUnchanged() {
+        GeographicPoint a = new GeographicPoint(32.8660691, -117.2217908);
+        GeographicPoint b = new GeographicPoint(32.8756538, -117.2435548);
+        assertEquals("exact", DistanceKernel.haversine(a.getX(), a.getY(), b.getX(), b.getY()),
+                     a.distance(b), 0);
+        assertEquals("fast", a.distance(b), a.fastDistance(b), a.distance(b) * DistanceKernel.MAX_RELATIVE_ERROR);
+        // far apart points are measured exactly
+        assertEquals("far", DistanceKernel.haversine(51.5, -0.1, -33.9, 151.2),
+                     DistanceKernel.distance(51.5, -0.1, -33.9, 151.2), 0);
+    }
+
+    @Test
+    public void testBatch() {
+        double[] out = new double[latitudes.length];
+        for (int u = 0; u < latitudes.length; u += 7) {
+            kernel.distancesFrom(u, out);
+            for (int v = 0; v < latitudes.length; v++) {
+                assertEquals("batch " + u + " " + v, kernel.distance(u, v), out[v], 1e-9);
+            }
+        }
+    }
+}
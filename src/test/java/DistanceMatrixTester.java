@@ -0,0 +1,96 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class DistanceMatrixTester {
+    MapGraph testMap;
+    CompactMapGraph graph;
+    List<GeographicPoint> vertices;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        GraphLoader loader = new GraphLoader();
+        loader.loadRoadMap("data/utc.map", testMap);
+        graph = testMap.freeze();
+        vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+    }
+
+    public List<GeographicPoint> randomPoints(Random random, int count) {
+        List<GeographicPoint> points = new ArrayList<GeographicPoint>();
+        for (int i = 0; i < count; i++) {
+            points.add(vertices.get(random.nextInt(vertices.size())));
+        }
+        return points;
+    }
+
+    public void checkMatrix(List<GeographicPoint> sources, List<GeographicPoint> targets,
+                            double[][] matrix) {
+        assertEquals("rows", sources.size(), matrix.length);
+        for (int i = 0; i < sources.size(); i++) {
+            assertEquals("columns", targets.size(), matrix[i].length);
+            for (int j = 0; j < targets.size(); j++) {
+                double expected = graph.distance(sources.get(i), targets.get(j));
+                assertEquals(sources.get(i) + " to " + targets.get(j), expected, matrix[i][j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesSearches() {
+        Random random = new Random(9);
+        // more targets than sources, searching forward
+        List<GeographicPoint> sources = randomPoints(random, 5);
+        List<GeographicPoint> targets = randomPoints(random, 12);
+        checkMatrix(sources, targets, testMap.distanceMatrix(sources, targets));
+        // more sources than targets, searching backward
+        checkMatrix(targets, sources, testMap.distanceMatrix(targets, sources));
+    }
+
+    @Test
+    public void testRepeatsAndPools() {
+        Random random = new Random(2);
+        List<GeographicPoint> sources = randomPoints(random, 8);
+        sources.add(sources.get(0));
+        List<GeographicPoint> targets = new ArrayList<GeographicPoint>(sources);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            double[][] matrix = graph.distanceMatrix(sources, targets, pool);
+            checkMatrix(sources, targets, matrix);
+            for (int i = 0; i < sources.size(); i++) {
+                assertEquals("diagonal", 0, matrix[i][i], 0);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+        assertEquals("no sources", 0, testMap.distanceMatrix(new ArrayList<GeographicPoint>(), targets).length);
+    }
+
+    @Test
+    public void testUnreachable() {
+        MapGraph simple = new MapGraph();
+        new GraphLoader().loadRoadMap("data/simpletest.map", simple);
+        List<GeographicPoint> points = new ArrayList<GeographicPoint>(simple.getVertices());
+        double[][] matrix = simple.distanceMatrix(points, points);
+        CompactMapGraph simpleGraph = simple.freeze();
+        for (int i = 0; i < points.size(); i++) {
+            for (int j = 0; j < points.size(); j++) {
+                assertEquals("entry", simpleGraph.distance(points.get(i), points.get(j)), matrix[i][j], 1e-9);
+            }
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testMissingPoint() {
+        testMap.distanceMatrix(Arrays.asList(new GeographicPoint(0, 0)), vertices);
+    }
+}
@@ -0,0 +1,108 @@
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.GraphSnapshot;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+public class GraphSnapshotTester {
+    MapGraph testMap;
+    HashMap<GeographicPoint,HashSet<RoadSegment>> roads;
+    File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        testMap = new MapGraph();
+        roads = new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+        new GraphLoader().loadRoadMap("data/utc.map", testMap, roads, null);
+        file = File.createTempFile("utc", ".snapshot");
+        file.deleteOnExit();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        CompactMapGraph graph = testMap.freeze();
+        GraphSnapshot.write(file, graph, roads);
+        GraphSnapshot snapshot = GraphSnapshot.read(file);
+        CompactMapGraph loaded = snapshot.getGraph();
+
+        assertEquals("vertices", graph.getNumVertices(), loaded.getNumVertices());
+        assertEquals("edges", graph.getNumEdges(), loaded.getNumEdges());
+        assertEquals("fingerprint", graph.fingerprint(), loaded.fingerprint());
+        assertEquals("vertex set", testMap.getVertices(), loaded.getVertices());
+        assertEquals("roads", roads, snapshot.getRoads());
+    }
+
+    @Test
+    public void testSearchBackedGraph() throws IOException {
+        GraphSnapshot.write(file, testMap.freeze(), roads);
+        MapGraph backed = new MapGraph(GraphSnapshot.read(file).getGraph());
+        assertEquals("vertices", testMap.getNumVertices(), backed.getNumVertices());
+        assertEquals("edges", testMap.getNumEdges(), backed.getNumEdges());
+
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(7);
+        for (int i = 0; i < 50; i++) {
+            GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+            GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+            assertEquals("dijkstra", testMap.dijkstra(start, goal), backed.dijkstra(start, goal));
+        }
+
+        // changing the graph builds its nodes from the snapshot first
+        GeographicPoint extra = new GeographicPoint(0, 0);
+        assertTrue("added", backed.addVertex(extra));
+        backed.addEdge(extra, vertices.get(0), "new road", "residential", 1.0);
+        assertEquals("vertices after add", testMap.getNumVertices() + 1, backed.getNumVertices());
+        assertEquals("edges after add", testMap.getNumEdges() + 1, backed.getNumEdges());
+        assertEquals("route from new vertex", 2, backed.dijkstra(extra, vertices.get(0)).size());
+    }
+
+    @Test
+    public void testBadFiles() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+                1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        out.close();
+        try {
+            GraphSnapshot.read(file);
+            fail("read a file that is not a snapshot");
+        }
+        catch (IOException e) {
+        }
+
+        GraphSnapshot.write(file, testMap.freeze(), roads);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        try {
+            GraphSnapshot.read(file);
+            fail("read a truncated snapshot");
+        }
+        catch (IOException e) {
+        }
+
+        // version 1 snapshots hold edge lengths from the old distance
+        GraphSnapshot.write(file, testMap.freeze(), roads);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.writeInt(1);
+        }
+        try {
+            GraphSnapshot.read(file);
+            fail("read an old snapshot");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("version 1"));
+        }
+    }
+}
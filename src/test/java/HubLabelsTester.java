@@ -0,0 +1,90 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.CostProfile;
+import roadgraph.HubLabels;
+import roadgraph.MapGraph;
+import roadgraph.RouteAlgorithm;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class HubLabelsTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+        loader.loadRoadMap("data/utc.map", testMap);
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        CompactMapGraph graph = testMap.freeze();
+        for (CostProfile profile : new CostProfile[] { CostProfile.SHORTEST, CostProfile.FASTEST }) {
+            HubLabels labels = HubLabels.build(graph, profile);
+            Random random = new Random(21);
+            int n = graph.getNumVertices();
+            for (int i = 0; i < 300; i++) {
+                int s = random.nextInt(n);
+                int t = random.nextInt(n);
+                GeographicPoint start = graph.getLocation(s);
+                GeographicPoint goal = graph.getLocation(t);
+                double expected = graph.distance(start, goal, profile);
+                assertEquals(profile + " distance", expected, labels.distance(s, t), 1e-9);
+                assertEquals(profile + " route", testMap.route(start, goal, RouteAlgorithm.DIJKSTRA, profile),
+                             labels.route(start, goal));
+                GeographicPoint hub = labels.getHub(start, goal);
+                if (expected == Double.POSITIVE_INFINITY) {
+                    assertNull("no hub", hub);
+                }
+                else {
+                    assertTrue("hub on the route", labels.route(start, goal).contains(hub));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLabelsAreSmall() {
+        HubLabels labels = testMap.getHubLabels();
+        assertSame("cached", labels, testMap.getHubLabels());
+        assertTrue("label size " + labels.getAverageLabelSize(),
+                   labels.getAverageLabelSize() < testMap.getNumVertices() / 4);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        CompactMapGraph graph = testMap.freeze();
+        File file = File.createTempFile("utc", ".hubs");
+        file.deleteOnExit();
+        HubLabels built = HubLabels.build(graph);
+        built.save(file);
+
+        HubLabels loaded = HubLabels.load(file, graph, CostProfile.SHORTEST);
+        assertNotNull("loaded", loaded);
+        assertEquals("entries", built.getNumEntries(), loaded.getNumEntries());
+        for (int v = 0; v < graph.getNumVertices(); v += 7) {
+            assertEquals("distance", built.distance(v, 0), loaded.distance(v, 0), 0);
+            assertEquals("distance", built.distance(0, v), loaded.distance(0, v), 0);
+        }
+
+        // labels saved for other costs or another graph are not used
+        assertNull("other costs", HubLabels.load(file, graph, CostProfile.FASTEST));
+        MapGraph other = new MapGraph();
+        loader.loadRoadMap("data/simpletest.map", other);
+        assertNull("other graph", HubLabels.load(file, other.freeze(), CostProfile.SHORTEST));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testMissingVertex() {
+        testMap.getHubLabels().distance(new GeographicPoint(0, 0), new GeographicPoint(1, 1));
+    }
+}
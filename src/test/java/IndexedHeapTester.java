@@ -0,0 +1,77 @@
+import geography.GeographicPoint;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.IndexedBinaryHeap;
+import roadgraph.IndexedDaryHeap;
+import roadgraph.IndexedPriorityQueue;
+import roadgraph.MapGraph;
+import roadgraph.SearchContext;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class IndexedHeapTester {
+
+    // Run random inserts, decreases and polls against a simple array model.
+    public void checkAgainstModel(IndexedPriorityQueue heap, int capacity) {
+        Random random = new Random(7);
+        double[] model = new double[capacity];
+        Arrays.fill(model, Double.NaN);
+        for (int step = 0; step < 20000; step++) {
+            int v = random.nextInt(capacity);
+            int op = random.nextInt(3);
+            if (op == 0 && Double.isNaN(model[v])) {
+                model[v] = random.nextDouble() * 100;
+                heap.insert(v, model[v]);
+            }
+            else if (op == 1 && !Double.isNaN(model[v])) {
+                model[v] -= random.nextDouble() * 10;
+                heap.decreaseKey(v, model[v]);
+            }
+            else if (op == 2 && !heap.isEmpty()) {
+                double minKey = heap.minKey();
+                int min = heap.pollMin();
+                assertEquals("polled key", model[min], minKey, 0);
+                for (double key : model) {
+                    assertTrue("polled minimum", Double.isNaN(key) || key >= minKey);
+                }
+                model[min] = Double.NaN;
+            }
+            int size = 0;
+            for (double key : model) {
+                if (!Double.isNaN(key)) size++;
+            }
+            assertEquals("size", size, heap.size());
+        }
+        heap.clear();
+        assertTrue("cleared", heap.isEmpty());
+        assertFalse("cleared vertex", heap.contains(0));
+    }
+
+    @Test
+    public void testBinaryHeap() {
+        checkAgainstModel(new IndexedBinaryHeap(50), 50);
+    }
+
+    @Test
+    public void testDaryHeap() {
+        checkAgainstModel(new IndexedDaryHeap(50, 4), 50);
+        checkAgainstModel(new IndexedDaryHeap(50, 3), 50);
+    }
+
+    @Test
+    public void testSearchWithDaryHeap() {
+        MapGraph testMap = new MapGraph();
+        new GraphLoader().loadRoadMap("data/utc.map", testMap);
+        CompactMapGraph compact = testMap.freeze();
+        GeographicPoint testStart = new GeographicPoint(32.8674388, -117.2190213);
+        GeographicPoint testEnd = new GeographicPoint(32.8697828, -117.2244506);
+
+        int n = compact.getNumVertices();
+        SearchContext context = new SearchContext(n, new IndexedDaryHeap(n, 4));
+        List<GeographicPoint> route = compact.dijkstra(testStart, testEnd, (x) -> {}, context);
+        assertEquals("route is correct", compact.dijkstra(testStart, testEnd), route);
+        assertEquals("nodes visited", 37, context.getNumVisited());
+    }
+}
@@ -0,0 +1,100 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.LandmarkHeuristic;
+import roadgraph.LandmarkSelection;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class LandmarkTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+        loader.loadRoadMap("data/utc.map", testMap);
+    }
+
+    public void checkAdmissible(CompactMapGraph graph, LandmarkHeuristic alt) {
+        Random random = new Random(11);
+        int n = graph.getNumVertices();
+        for (int i = 0; i < 300; i++) {
+            int from = random.nextInt(n);
+            int to = random.nextInt(n);
+            double length = graph.distance(graph.getLocation(from), graph.getLocation(to));
+            double estimate = alt.estimate(from, to);
+            assertTrue("estimate " + estimate + " within " + length, estimate <= length + 1e-9);
+            assertTrue("estimate not negative", estimate >= 0);
+        }
+    }
+
+    @Test
+    public void testAdmissible() {
+        CompactMapGraph graph = testMap.freeze();
+        checkAdmissible(graph, LandmarkHeuristic.build(graph, 8, LandmarkSelection.AVOID));
+        checkAdmissible(graph, LandmarkHeuristic.build(graph, 8, LandmarkSelection.FARTHEST));
+    }
+
+    @Test
+    public void testMatchesAStar() {
+        CompactMapGraph graph = testMap.freeze();
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(3);
+        int settledStraightLine = 0;
+        int settledLandmarks = 0;
+        for (int i = 0; i < 200; i++) {
+            GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+            GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+            List<GeographicPoint> aStar = testMap.aStarSearch(start, goal);
+            settledStraightLine += testMap.getCount();
+            List<GeographicPoint> alt = testMap.altSearch(start, goal);
+            settledLandmarks += testMap.getCount();
+            if (aStar == null) {
+                assertNull("no route", alt);
+                continue;
+            }
+            double length = 0;
+            for (int j = 0; j < alt.size() - 1; j++) {
+                length += graph.distance(alt.get(j), alt.get(j + 1));
+            }
+            assertEquals("start", start, alt.get(0));
+            assertEquals("goal", goal, alt.get(alt.size() - 1));
+            assertEquals("length", graph.distance(start, goal), length, 1e-9);
+        }
+        assertTrue("fewer nodes settled", settledLandmarks < settledStraightLine);
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        CompactMapGraph graph = testMap.freeze();
+        File file = File.createTempFile("utc", ".landmarks");
+        file.deleteOnExit();
+        LandmarkHeuristic built = LandmarkHeuristic.build(graph, 4, LandmarkSelection.FARTHEST);
+        built.save(file);
+
+        LandmarkHeuristic loaded = LandmarkHeuristic.load(file, graph);
+        assertNotNull("loaded", loaded);
+        assertEquals("landmarks", 4, loaded.getNumLandmarks());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("landmark " + i, built.getLandmark(i), loaded.getLandmark(i));
+        }
+        for (int v = 0; v < graph.getNumVertices(); v += 7) {
+            assertEquals("estimate", built.estimate(v, 0), loaded.estimate(v, 0), 0);
+            assertEquals("estimate", built.estimate(0, v), loaded.estimate(0, v), 0);
+        }
+
+        // tables saved for one graph are not used for another
+        MapGraph other = new MapGraph();
+        loader.loadRoadMap("data/simpletest.map", other);
+        assertNull("other graph", LandmarkHeuristic.load(file, other.freeze()));
+    }
+}
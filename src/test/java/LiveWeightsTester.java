@@ -0,0 +1,161 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.CostProfile;
+import roadgraph.LiveWeights;
+import roadgraph.MapGraph;
+import roadgraph.TrafficFeed;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LiveWeightsTester {
+    MapGraph bypass;
+    GeographicPoint a;
+    GeographicPoint b;
+    GeographicPoint c;
+
+    @Before
+    public void setUp()
+    {
+        // A residential road from a to b, and a faster motorway bypass through c
+        bypass = new MapGraph();
+        a = new GeographicPoint(0, 0);
+        b = new GeographicPoint(0, 0.02);
+        c = new GeographicPoint(0.006, 0.01);
+        bypass.addVertex(a);
+        bypass.addVertex(b);
+        bypass.addVertex(c);
+        bypass.addEdge(a, b, "High Street", "residential", a.distance(b));
+        bypass.addEdge(a, c, "M1", "motorway", a.distance(c));
+        bypass.addEdge(c, b, "M1", "motorway", c.distance(b));
+    }
+
+    @Test
+    public void testUpdates() {
+        LiveWeights live = bypass.getLiveWeights();
+        CompactMapGraph graph = bypass.freeze();
+        assertEquals("starts as fastest", graph.distance(a, b, CostProfile.FASTEST), live.travelTime(a, b), 1e-9);
+        assertEquals("motorway", Arrays.asList(a, c, b), live.route(a, b));
+
+        LiveWeights.Snapshot before = live.snapshot();
+        LiveWeights.Batch jam = live.newBatch();
+        assertEquals("one edge", 1, jam.setSpeed(a, c, 5));
+        assertEquals("no such edge", 0, jam.setSpeed(b, a, 5));
+        assertEquals("epoch", 1, live.apply(jam));
+        assertEquals("around the jam", Arrays.asList(a, b), live.route(a, b));
+        assertEquals("high street time", a.distance(b) * 60 / 25, live.travelTime(a, b), 1e-9);
+
+        // the snapshot still sees the old costs
+        assertEquals("old epoch", 0, before.getEpoch());
+        assertEquals("old route", Arrays.asList(a, c, b), before.route(a, b, (x) -> {}));
+        before.close();
+
+        // closing the high street too leaves only the jammed motorway
+        LiveWeights.Batch closed = live.newBatch();
+        closed.setSpeed(a, b, 0);
+        live.apply(closed);
+        assertEquals("jammed motorway", Arrays.asList(a, c, b), live.route(a, b));
+        closed.clear();
+        closed.setSpeed(a, c, 0);
+        live.apply(closed);
+        assertNull("no way through", live.route(a, b));
+        assertEquals("no time", Double.POSITIVE_INFINITY, live.travelTime(a, b), 0);
+        assertEquals("updates", 3, live.getUpdates());
+    }
+
+    @Test
+    public void testBuffersReused() {
+        LiveWeights live = bypass.getLiveWeights();
+        LiveWeights.Batch batch = live.newBatch();
+        batch.setSpeed(0, 50);
+        for (int i = 0; i < 10; i++) {
+            live.apply(batch);
+        }
+        // only the first update has no spare array to write into
+        assertEquals("copies", 1, live.getCopies());
+
+        LiveWeights.Snapshot held = live.snapshot();
+        live.apply(batch);
+        live.apply(batch);
+        assertEquals("copied around a held snapshot", 2, live.getCopies());
+        held.close();
+        live.apply(batch);
+        live.apply(batch);
+        assertEquals("reused again", 2, live.getCopies());
+    }
+
+    @Test
+    public void testFeed() throws Exception {
+        LiveWeights live = bypass.getLiveWeights();
+        TrafficFeed feed = new TrafficFeed(live, 2);
+        String updates = "# jam on the M1\n"
+                + "0 0 0.006 0.01 5\n"
+                + "0.006 0.01 0 0.02 5\n"
+                + "\n"
+                + "0 0 1 1 50\n"
+                + "0 0 0 0.02 not-a-speed\n"
+                + "0 0 0 0.02 -1\n";
+        assertEquals("applied", 2, feed.replay(new StringReader(updates)));
+        assertEquals("skipped", 3, feed.getSkipped());
+        assertEquals("around the jam", Arrays.asList(a, b), live.route(a, b));
+    }
+
+    @Test
+    public void testReadersSeeOneEpoch() throws Exception {
+        MapGraph testMap = new MapGraph();
+        new GraphLoader().loadRoadMap("data/utc.map", testMap);
+        CompactMapGraph graph = testMap.freeze();
+        LiveWeights live = testMap.getLiveWeights();
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        GeographicPoint start = vertices.get(0);
+        GeographicPoint goal = null;
+        double km = Double.POSITIVE_INFINITY;
+        for (int i = vertices.size() - 1; km == Double.POSITIVE_INFINITY; i--) {
+            goal = vertices.get(i);
+            km = graph.distance(start, goal);
+        }
+
+        // Every road at 30 km/h, or every road at 60 km/h, never a mix
+        LiveWeights.Batch slow = live.newBatch();
+        LiveWeights.Batch fast = live.newBatch();
+        for (int e = 0; e < graph.getNumEdges(); e++) {
+            slow.setSpeed(e, 30);
+            fast.setSpeed(e, 60);
+        }
+        live.apply(slow);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<String>();
+        GeographicPoint from = start;
+        GeographicPoint to = goal;
+        double slowTime = km * 2;
+        double fastTime = km;
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                while (!done.get()) {
+                    double time = live.travelTime(from, to);
+                    if (Math.abs(time - slowTime) > 1e-9 && Math.abs(time - fastTime) > 1e-9) {
+                        failure.set("mixed epochs: " + time);
+                    }
+                }
+            });
+            readers[r].start();
+        }
+        for (int i = 0; i < 200; i++) {
+            live.apply(i % 2 == 0 ? fast : slow);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get(), failure.get());
+        assertEquals("epoch", 201, live.getEpoch());
+    }
+}
@@ -0,0 +1,85 @@
+import mapmaker.MapMaker;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class MapMakerTester {
+    MapMaker maker;
+
+    @Before
+    public void setUp()
+    {
+        // [south, west, north, east]
+        maker = new MapMaker(new float[] { 32.0f, -118.0f, 33.0f, -117.0f });
+    }
+
+    public List<String> convert(String json) throws Exception {
+        StringWriter out = new StringWriter();
+        long written = maker.convert(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), out);
+        List<String> lines = new ArrayList<String>();
+        for (String line : out.toString().split("\\R")) {
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+        }
+        assertEquals("lines written", written, lines.size());
+        return lines;
+    }
+
+    @Test
+    public void testWays() throws Exception {
+        String json = "{\"version\": 0.6, \"osm3s\": {\"copyright\": \"ODbL\"}, \"elements\": ["
+                + "{\"type\": \"node\", \"id\": 8000000001, \"lat\": 32.5, \"lon\": -117.5},"
+                + "{\"type\": \"node\", \"id\": 8000000002, \"lat\": 32.6, \"lon\": -117.5},"
+                + "{\"type\": \"node\", \"id\": 3, \"lat\": 32.6, \"lon\": -117.4},"
+                + "{\"type\": \"node\", \"id\": 4, \"lat\": 40.0, \"lon\": -117.4},"
+                + "{\"type\": \"way\", \"id\": 10, \"nodes\": [8000000001, 8000000002, 3],"
+                + " \"tags\": {\"highway\": \"residential\", \"name\": \"Gilman Drive\"}},"
+                + "{\"type\": \"way\", \"id\": 11, \"nodes\": [3, 4],"
+                + " \"tags\": {\"highway\": \"primary\"}},"
+                + "{\"id\": 12, \"tags\": {\"oneway\": \"yes\", \"highway\": \"motorway\", \"lanes\": {\"n\": [2]}},"
+                + " \"nodes\": [3, 8000000001], \"type\": \"way\"}"
+                + "]}";
+        List<String> lines = convert(json);
+        assertEquals(Arrays.asList(
+                "32.5 -117.5 32.6 -117.5 \"Gilman Drive\" residential",
+                "32.6 -117.5 32.5 -117.5 \"Gilman Drive\" residential",
+                "32.6 -117.5 32.6 -117.4 \"Gilman Drive\" residential",
+                "32.6 -117.4 32.6 -117.5 \"Gilman Drive\" residential",
+                "32.6 -117.4 32.5 -117.5 \"\" motorway"), lines);
+        assertEquals("nodes", 4, maker.getNumNodes());
+    }
+
+    @Test
+    public void testWayBeforeNodes() throws Exception {
+        String json = "{\"elements\": ["
+                + "{\"type\": \"way\", \"id\": 10, \"nodes\": [1, 2, 99], \"tags\": {\"highway\": \"tertiary\", \"oneway\": \"yes\"}},"
+                + "{\"type\": \"node\", \"id\": 1, \"lat\": 32.1, \"lon\": -117.1},"
+                + "{\"type\": \"node\", \"id\": 2, \"lat\": 32.2, \"lon\": -117.2}"
+                + "]}";
+        assertEquals(Collections.singletonList("32.1 -117.1 32.2 -117.2 \"\" tertiary"), convert(json));
+        assertEquals("missing", 1, maker.getMissingNodes());
+    }
+
+    @Test
+    public void testManyNodes() throws Exception {
+        StringBuilder json = new StringBuilder("{\"elements\": [");
+        int n = 5000;
+        for (int i = 0; i < n; i++) {
+            json.append("{\"type\": \"node\", \"id\": ").append(1L << 40 | i)
+                .append(", \"lat\": 32.5, \"lon\": ").append(-117.9 + i * 1e-4).append("},");
+        }
+        json.append("{\"type\": \"way\", \"id\": 1, \"nodes\": [");
+        for (int i = 0; i < n; i++) {
+            json.append(i == 0 ? "" : ", ").append(1L << 40 | i);
+        }
+        json.append("], \"tags\": {\"highway\": \"trunk\", \"oneway\": \"yes\"}}]}");
+        assertEquals("segments", n - 1, convert(json.toString()).size());
+        assertEquals("nodes", n, maker.getNumNodes());
+    }
+}
@@ -0,0 +1,97 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.CostProfile;
+import roadgraph.GraphPartition;
+import roadgraph.LiveWeights;
+import roadgraph.MapGraph;
+import roadgraph.OverlayMetric;
+import roadgraph.RouteAlgorithm;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class OverlayMetricTester {
+    MapGraph testMap;
+    CompactMapGraph graph;
+    GraphPartition partition;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        new GraphLoader().loadRoadMap("data/utc.map", testMap);
+        graph = testMap.freeze();
+        partition = GraphPartition.build(graph, 16, 64);
+    }
+
+    @Test
+    public void testCellsNest() {
+        assertEquals("levels", 2, partition.getNumLevels());
+        for (int l = 0; l < partition.getNumLevels(); l++) {
+            int[] sizes = new int[partition.getNumCells(l)];
+            for (int v = 0; v < graph.getNumVertices(); v++) {
+                sizes[partition.getCell(l, v)]++;
+            }
+            for (int size : sizes) {
+                assertTrue("cell size " + size, size > 0 && size <= partition.getMaxCellSize(l));
+            }
+        }
+        // vertices that share a level 0 cell share a level 1 cell
+        Map<Integer, Integer> parents = new HashMap<Integer, Integer>();
+        for (int v = 0; v < graph.getNumVertices(); v++) {
+            Integer parent = parents.put(partition.getCell(0, v), partition.getCell(1, v));
+            assertTrue("nested", parent == null || parent == partition.getCell(1, v));
+        }
+        assertTrue("has boundary", partition.getNumBoundaryVertices(0) > 0);
+    }
+
+    @Test
+    public void testMatchesDijkstra() {
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(20);
+        for (CostProfile profile : new CostProfile[] { CostProfile.SHORTEST, CostProfile.FASTEST }) {
+            OverlayMetric metric = OverlayMetric.customize(partition, profile);
+            for (int i = 0; i < 200; i++) {
+                GeographicPoint start = vertices.get(random.nextInt(vertices.size()));
+                GeographicPoint goal = vertices.get(random.nextInt(vertices.size()));
+                assertEquals(profile + " distance", graph.distance(start, goal, profile),
+                             metric.distance(start, goal), 1e-9);
+                assertEquals(profile + " route",
+                             testMap.route(start, goal, RouteAlgorithm.DIJKSTRA, profile),
+                             metric.route(start, goal));
+            }
+        }
+    }
+
+    @Test
+    public void testCustomizeLiveWeights() {
+        LiveWeights live = testMap.getLiveWeights();
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        GeographicPoint start = vertices.get(0);
+        GeographicPoint goal = null;
+        List<GeographicPoint> route = null;
+        for (int i = vertices.size() - 1; route == null || route.size() < 4; i--) {
+            goal = vertices.get(i);
+            route = live.route(start, goal);
+        }
+
+        // Close the middle of the fastest route
+        LiveWeights.Batch closed = live.newBatch();
+        closed.setSpeed(route.get(1), route.get(2), 0);
+        live.apply(closed);
+        try (LiveWeights.Snapshot snapshot = live.snapshot()) {
+            OverlayMetric metric = OverlayMetric.customize(partition, snapshot, ForkJoinPool.commonPool());
+            assertEquals("live time", snapshot.travelTime(start, goal), metric.distance(start, goal), 1e-9);
+            assertEquals("live route", snapshot.route(start, goal, (x) -> {}), metric.route(start, goal));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizesMustIncrease() {
+        GraphPartition.build(graph, 64, 16);
+    }
+}
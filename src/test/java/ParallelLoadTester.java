@@ -0,0 +1,55 @@
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import org.junit.Test;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelLoadTester {
+
+    public void checkSameGraph(String filename, ForkJoinPool pool) {
+        MapGraph sequential = new MapGraph();
+        HashMap<GeographicPoint,HashSet<RoadSegment>> sequentialRoads =
+                new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+        new GraphLoader().loadRoadMap(filename, sequential, sequentialRoads, null);
+
+        MapGraph parallel = new MapGraph();
+        HashMap<GeographicPoint,HashSet<RoadSegment>> parallelRoads =
+                new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+        GraphLoader loader = new GraphLoader();
+        loader.setPool(pool);
+        loader.loadRoadMap(filename, parallel, parallelRoads, null);
+
+        assertEquals("vertices", sequential.getVertices(), parallel.getVertices());
+        assertEquals("edges", sequential.getNumEdges(), parallel.getNumEdges());
+        assertEquals("roads", sequentialRoads, parallelRoads);
+        assertEquals("fingerprint", sequential.freeze().fingerprint(), parallel.freeze().fingerprint());
+    }
+
+    @Test
+    public void testSameGraph() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            checkSameGraph("data/utc.map", pool);
+            checkSameGraph("data/maps/san_diego.map", pool);
+            checkSameGraph("data/maps/new_york.map", pool);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSmallMap() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            checkSameGraph("data/simpletest.map", pool);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import geography.GeographicPoint;
+import geography.RoadSegment;
+import mapmaker.PbfImporter;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.GraphSnapshot;
+import roadgraph.MapGraph;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.Deflater;
+
+public class PbfImporterTester {
+    // Node ids above 2^32, as in current OSM data
+    static final long BASE = 1L << 33;
+
+    // Nodes 1 to 7, at these coordinates in units of 1e-7 degrees
+    static final long[][] DENSE_NODES = {
+        { 1, 328800000, -1172300000 },
+        { 2, 328810000, -1172300000 },
+        { 3, 328820000, -1172300000 },
+        { 4, 328830000, -1172300000 },
+        { 5, 328820000, -1172290000 },
+        { 6, 328840000, -1172310000 },
+        { 7, 328850000, -1172320000 },
+        { 100, 328000000, -1170000000 },
+    };
+
+    // Node 8 is a plain Node at 32.886, -117.233, in a block with offsets
+    static final long LAT_OFFSET = 500000000L;
+    static final long LON_OFFSET = -1000000000L;
+
+    GeographicPoint[] points;
+    File pbf;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        points = new GeographicPoint[9];
+        for (long[] node : DENSE_NODES) {
+            if (node[0] < points.length) {
+                points[(int) node[0]] = new GeographicPoint(node[1] / 1e7, node[2] / 1e7);
+            }
+        }
+        points[8] = new GeographicPoint(32.886, -117.233);
+        pbf = File.createTempFile("test", ".osm.pbf");
+        pbf.deleteOnExit();
+        writePbf(pbf, "OsmSchema-V0.6");
+    }
+
+    @Test
+    public void testLoad() throws IOException {
+        PbfImporter importer = new PbfImporter();
+        MapGraph map = importer.load(pbf);
+
+        // 2 and 6 are on one road each, so only the rest are intersections
+        assertEquals("vertices", new HashSet<GeographicPoint>(Arrays.asList(
+                points[1], points[3], points[4], points[5], points[7], points[8])), map.getVertices());
+        assertEquals("edges", 7, map.getNumEdges());
+        assertEquals("highways", 5, importer.getNumWays());
+        assertEquals("missing", 1, importer.getMissingNodes());
+
+        assertEquals("main street", Arrays.asList(points[1], points[3], points[5]),
+                     map.dijkstra(points[1], points[5]));
+        assertNull("one way side street", map.dijkstra(points[5], points[1]));
+        assertEquals("motorway", Arrays.asList(points[4], points[7]), map.bfs(points[4], points[7]));
+        assertNull("motorways are one way", map.bfs(points[7], points[4]));
+        assertEquals("reverse one way", Arrays.asList(points[8], points[7]), map.bfs(points[8], points[7]));
+        assertNull("against reverse one way", map.bfs(points[7], points[8]));
+    }
+
+    @Test
+    public void testMatchesGraphLoader() throws IOException {
+        MapGraph map = new MapGraph();
+        HashMap<GeographicPoint,HashSet<RoadSegment>> roads = new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+        new PbfImporter().load(pbf, map, roads);
+
+        // The same roads as .map lines, loaded the usual way
+        MapGraph loaded = new MapGraph();
+        HashMap<GeographicPoint,HashSet<RoadSegment>> loadedRoads = new HashMap<GeographicPoint,HashSet<RoadSegment>>();
+        new GraphLoader().loadRoadMap("data/pbftest.map", loaded, loadedRoads, null);
+
+        assertEquals("vertices", loaded.getVertices(), map.getVertices());
+        assertEquals("edges", loaded.getNumEdges(), map.getNumEdges());
+        assertEquals("roads", loadedRoads, roads);
+        for (GeographicPoint start : map.getVertices()) {
+            for (GeographicPoint goal : map.getVertices()) {
+                assertEquals("dijkstra", loaded.dijkstra(start, goal), map.dijkstra(start, goal));
+            }
+        }
+    }
+
+    @Test
+    public void testBounds() throws IOException {
+        // [south, west, north, east], leaving out node 8
+        PbfImporter importer = new PbfImporter(new float[] { 32.8f, -117.3f, 32.8855f, -117.2f });
+        MapGraph map = importer.load(pbf);
+        assertEquals("vertices", 5, map.getNumVertices());
+        assertEquals("edges", 6, map.getNumEdges());
+        assertFalse("outside", map.getVertices().contains(points[8]));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        File snapshot = File.createTempFile("test", ".snapshot");
+        snapshot.deleteOnExit();
+        MapGraph map = new PbfImporter().writeSnapshot(pbf, snapshot);
+        MapGraph loaded = new MapGraph(GraphSnapshot.read(snapshot).getGraph());
+        assertEquals("vertices", map.getVertices(), loaded.getVertices());
+        assertEquals("route", map.dijkstra(points[1], points[7]), loaded.dijkstra(points[1], points[7]));
+        for (RoadSegment road : GraphSnapshot.read(snapshot).getRoads().get(points[1])) {
+            assertEquals("geometry", Arrays.asList(points[1], points[2], points[3]),
+                         road.getPoints(points[1], points[3]));
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnsupportedFeature() throws IOException {
+        writePbf(pbf, "HistoricalInformation");
+        new PbfImporter().load(pbf);
+    }
+
+    // Write a small extract: a header, a zlib block of dense nodes, a raw
+    // block of ways, and a zlib block with one plain node
+    static void writePbf(File file, String feature) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            Proto header = new Proto().string(4, feature).string(16, "test");
+            writeBlob(out, "OSMHeader", header.bytes(), true);
+
+            Proto dense = new Proto();
+            long[] ids = new long[DENSE_NODES.length];
+            long[] lats = new long[DENSE_NODES.length];
+            long[] lons = new long[DENSE_NODES.length];
+            for (int i = 0; i < DENSE_NODES.length; i++) {
+                ids[i] = BASE + DENSE_NODES[i][0];
+                lats[i] = DENSE_NODES[i][1];
+                lons[i] = DENSE_NODES[i][2];
+            }
+            dense.packedDelta(1, ids).packedDelta(8, lats).packedDelta(9, lons);
+            Proto nodeBlock = new Proto().message(1, new Proto().string(1, ""))
+                    .message(2, new Proto().message(2, dense));
+            writeBlob(out, "OSMData", nodeBlock.bytes(), true);
+
+            String[] strings = { "", "highway", "name", "oneway", "residential", "Main Street",
+                                 "tertiary", "Side Street", "yes", "motorway", "Ramp", "footway",
+                                 "-1", "Back Lane", "Gap" };
+            Proto table = new Proto();
+            for (String s : strings) {
+                table.string(1, s);
+            }
+            Proto ways = new Proto()
+                    .message(3, way(1, new int[] { 1, 4, 2, 5 }, 1, 2, 3, 4))
+                    .message(3, way(2, new int[] { 1, 6, 2, 7, 3, 8 }, 3, 5))
+                    .message(3, way(3, new int[] { 2, 10, 1, 9 }, 4, 6, 7))
+                    .message(3, way(4, new int[] { 1, 11 }, 1, 5))
+                    .message(3, way(5, new int[] { 1, 4, 2, 13, 3, 12 }, 7, 8))
+                    .message(3, way(6, new int[] { 1, 4, 2, 14 }, 7, 99));
+            Proto wayBlock = new Proto().message(1, table).message(2, ways);
+            writeBlob(out, "OSMData", wayBlock.bytes(), false);
+
+            // 32.886 = (LAT_OFFSET + 100 * lat) / 1e9, and the same for lon
+            Proto node = new Proto().sint(1, BASE + 8)
+                    .sint(8, (32886000000L - LAT_OFFSET) / 100)
+                    .sint(9, (-117233000000L - LON_OFFSET) / 100);
+            Proto plainBlock = new Proto().message(1, new Proto().string(1, ""))
+                    .message(2, new Proto().message(1, node))
+                    .varint(19, LAT_OFFSET).varint(20, LON_OFFSET);
+            writeBlob(out, "OSMData", plainBlock.bytes(), true);
+        }
+    }
+
+    static Proto way(long id, int[] keysVals, int... nodes) {
+        Proto way = new Proto().varint(1, id);
+        Proto keys = new Proto();
+        Proto vals = new Proto();
+        for (int i = 0; i < keysVals.length; i += 2) {
+            keys.raw(keysVals[i]);
+            vals.raw(keysVals[i + 1]);
+        }
+        long[] refs = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            refs[i] = BASE + nodes[i];
+        }
+        return way.message(2, keys).message(3, vals).packedDelta(8, refs);
+    }
+
+    static void writeBlob(DataOutputStream out, String type, byte[] data, boolean zlib) throws IOException {
+        Proto blob = new Proto();
+        if (zlib) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[data.length + 64];
+            int length = deflater.deflate(buffer);
+            deflater.end();
+            blob.varint(2, data.length).bytes(3, Arrays.copyOf(buffer, length));
+        } else {
+            blob.bytes(1, data);
+        }
+        byte[] blobBytes = blob.bytes();
+        byte[] header = new Proto().string(1, type).varint(3, blobBytes.length).bytes();
+        out.writeInt(header.length);
+        out.write(header);
+        out.write(blobBytes);
+    }
+
+    // Just enough of a protocol buffer writer to build test files
+    static final class Proto {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Proto raw(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        Proto varint(int field, long value) {
+            return raw(field << 3).raw(value);
+        }
+
+        Proto sint(int field, long value) {
+            return varint(field, (value << 1) ^ (value >> 63));
+        }
+
+        Proto bytes(int field, byte[] value) {
+            raw(field << 3 | 2).raw(value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        Proto string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Proto message(int field, Proto value) {
+            return bytes(field, value.bytes());
+        }
+
+        Proto packedDelta(int field, long[] values) {
+            Proto packed = new Proto();
+            long last = 0;
+            for (long value : values) {
+                packed.raw(((value - last) << 1) ^ ((value - last) >> 63));
+                last = value;
+            }
+            return message(field, packed);
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+}
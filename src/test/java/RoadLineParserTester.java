@@ -0,0 +1,89 @@
+import org.junit.Test;
+import util.RoadLineParser;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class RoadLineParserTester {
+
+    // A stream that returns at most a few bytes per read, so lines are
+    // split across buffer refills
+    static class TrickleStream extends FilterInputStream {
+        TrickleStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 3));
+        }
+    }
+
+    public RoadLineParser parser(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new RoadLineParser(new TrickleStream(new ByteArrayInputStream(bytes)), "test");
+    }
+
+    @Test
+    public void testFields() throws IOException {
+        RoadLineParser p = parser("32.8660005 -117.2547908 32.8660063 -117.2550694 \"Gilman Drive\" residential\r\n"
+                + "\n"
+                + "1 2 3 4 \"North Saint Andrew's Place\" primary");
+        assertTrue("first line", p.next());
+        assertEquals("lat1", Double.parseDouble("32.8660005"), p.getLat1(), 0);
+        assertEquals("lon1", Double.parseDouble("-117.2547908"), p.getLon1(), 0);
+        assertEquals("lat2", Double.parseDouble("32.8660063"), p.getLat2(), 0);
+        assertEquals("lon2", Double.parseDouble("-117.2550694"), p.getLon2(), 0);
+        assertEquals("name", "Gilman Drive", p.getRoadName());
+        assertEquals("type", "residential", p.getRoadType());
+        assertEquals("line number", 1, p.getLineNumber());
+
+        assertTrue("last line, no newline", p.next());
+        assertEquals("line number", 3, p.getLineNumber());
+        assertEquals("name with quote", "North Saint Andrew's Place", p.getRoadName());
+        assertEquals("type", "primary", p.getRoadType());
+        assertFalse("end", p.next());
+        assertEquals("no errors", 0, p.getErrorCount());
+    }
+
+    @Test
+    public void testSharing() throws IOException {
+        RoadLineParser p = parser("1 2 3 4 \"A Street\" residential\n3 4 5 6 \"A Street\" residential\n");
+        assertTrue(p.next());
+        Object point2 = p.getPoint2();
+        Object name = p.getRoadName();
+        assertTrue(p.next());
+        assertSame("shared point", point2, p.getPoint1());
+        assertSame("interned name", name, p.getRoadName());
+    }
+
+    @Test
+    public void testMalformedLines() throws IOException {
+        RoadLineParser p = parser("1 2 3 \"Short\" residential\n"
+                + "1 x 3 4 \"Bad\" residential\n"
+                + "1 2 3 4 \"Unterminated residential\n"
+                + "5 6 7 8 \"Good\" residential\n");
+        assertTrue("good line", p.next());
+        assertEquals("good line number", 4, p.getLineNumber());
+        assertEquals("good name", "Good", p.getRoadName());
+        assertEquals("errors", 3, p.getErrorCount());
+        assertFalse("end", p.next());
+    }
+
+    @Test
+    public void testByteRange() throws IOException {
+        byte[] bytes = "skip me\n1.5 2.5e1 3 4 \"X\" y\nskip me too".getBytes(StandardCharsets.UTF_8);
+        int from = 8;
+        int to = bytes.length - 12;
+        RoadLineParser p = new RoadLineParser(bytes, from, to, "test", 2);
+        assertTrue(p.next());
+        assertEquals("line number", 2, p.getLineNumber());
+        assertEquals("lat1", 1.5, p.getLat1(), 0);
+        assertEquals("exponent", 25, p.getLon1(), 0);
+        assertFalse(p.next());
+    }
+}
@@ -0,0 +1,105 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CostProfile;
+import roadgraph.MapGraph;
+import roadgraph.RouteAlgorithm;
+import roadgraph.RouteBatch;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RouteBatchTester {
+    MapGraph testMap;
+    List<GeographicPoint> vertices;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        new GraphLoader().loadRoadMap("data/utc.map", testMap);
+        vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+    }
+
+    @Test
+    public void testMatchesRoute() {
+        Random random = new Random(22);
+        RouteAlgorithm[] algorithms = RouteAlgorithm.values();
+        List<RouteBatch.Query> queries = new ArrayList<RouteBatch.Query>();
+        for (int i = 0; i < 500; i++) {
+            queries.add(new RouteBatch.Query(vertices.get(random.nextInt(vertices.size())),
+                                             vertices.get(random.nextInt(vertices.size())),
+                                             algorithms[i % algorithms.length],
+                                             i % 2 == 0 ? CostProfile.SHORTEST : CostProfile.FASTEST));
+        }
+        RouteBatch.Result[] results = new RouteBatch.Result[queries.size()];
+        long count = testMap.routeAll(queries.stream(), (result) -> {
+            assertNull("delivered once", results[(int) result.getIndex()]);
+            results[(int) result.getIndex()] = result;
+        });
+        assertEquals("count", queries.size(), count);
+        for (int i = 0; i < queries.size(); i++) {
+            RouteBatch.Query query = queries.get(i);
+            assertSame("query", query, results[i].getQuery());
+            assertNull("no error", results[i].getError());
+            assertEquals(query.toString(),
+                         testMap.route(query.getStart(), query.getGoal(), query.getAlgorithm(),
+                                       query.getProfile()),
+                         results[i].getPath());
+        }
+    }
+
+    @Test
+    public void testBackpressure() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        RouteBatch batch = new RouteBatch(testMap, pool, 8);
+        AtomicInteger read = new AtomicInteger();
+        Iterator<RouteBatch.Query> queries = new Iterator<RouteBatch.Query>() {
+            public boolean hasNext() {
+                return read.get() < 200;
+            }
+
+            public RouteBatch.Query next() {
+                read.incrementAndGet();
+                return new RouteBatch.Query(vertices.get(0), vertices.get(read.get() % vertices.size()));
+            }
+        };
+        int[] delivered = new int[1];
+        batch.run(queries, (result) -> {
+            delivered[0]++;
+            assertTrue("read ahead " + (read.get() - delivered[0]), read.get() - delivered[0] < 8);
+        });
+        assertEquals("delivered", 200, delivered[0]);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        GeographicPoint a = vertices.get(0);
+        GeographicPoint b = vertices.get(1);
+        String queries = "# trips\n"
+                + a.getX() + " " + a.getY() + " " + b.getX() + " " + b.getY() + "\n"
+                + a.getX() + " " + a.getY() + " " + b.getX() + " " + b.getY() + " dijkstra fastest\n"
+                + "\n"
+                + "0 0 1 1\n"
+                + "0 0 1 1 teleport\n"
+                + "0 0 1 1 bfs slowest\n"
+                + "0 0 not-a-point\n";
+        RouteBatch batch = new RouteBatch(testMap);
+        List<RouteBatch.Result> results = new ArrayList<RouteBatch.Result>();
+        assertEquals("run", 3, batch.run(new StringReader(queries), results::add));
+        assertEquals("skipped", 3, batch.getSkipped());
+        results.sort((x, y) -> Long.compare(x.getIndex(), y.getIndex()));
+        assertEquals("a star", testMap.aStarSearch(a, b), results.get(0).getPath());
+        assertEquals("fastest", CostProfile.FASTEST, results.get(1).getQuery().getProfile());
+        assertEquals("fastest route", testMap.route(a, b, RouteAlgorithm.DIJKSTRA, CostProfile.FASTEST),
+                     results.get(1).getPath());
+        // a trip between points that are not intersections fails on its own
+        assertNull("no path", results.get(2).getPath());
+        assertTrue("error", results.get(2).getError() instanceof NullPointerException);
+    }
+}
@@ -0,0 +1,99 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.MapGraph;
+import roadgraph.RouteAlgorithm;
+import roadgraph.RouteCache;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class RouteCacheTester {
+    MapGraph testMap;
+    GeographicPoint testStart;
+    GeographicPoint testEnd;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        GraphLoader loader = new GraphLoader();
+        loader.loadRoadMap("data/simpletest.map", testMap);
+        testStart = new GeographicPoint(1.0, 1.0);
+        testEnd = new GeographicPoint(8.0, -1.0);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        RouteCache cache = testMap.getRouteCache();
+        List<GeographicPoint> first = testMap.route(testStart, testEnd, RouteAlgorithm.DIJKSTRA);
+        assertEquals("miss", 1, cache.getMisses());
+        assertEquals("no hit yet", 0, cache.getHits());
+        assertEquals("route", testMap.dijkstra(testStart, testEnd), first);
+
+        int[] searched = new int[1];
+        List<GeographicPoint> second = testMap.route(testStart, testEnd, RouteAlgorithm.DIJKSTRA,
+                                                     (p) -> searched[0]++);
+        assertEquals("hit", 1, cache.getHits());
+        assertEquals("no search on a hit", 0, searched[0]);
+        assertEquals("same route", first, second);
+
+        // a different algorithm is a different entry
+        testMap.route(testStart, testEnd, RouteAlgorithm.A_STAR);
+        assertEquals("second miss", 2, cache.getMisses());
+        assertEquals("entries", 2, cache.size());
+    }
+
+    @Test
+    public void testNoRouteCached() {
+        MapGraph oneWay = new MapGraph();
+        GeographicPoint a = new GeographicPoint(0, 0);
+        GeographicPoint b = new GeographicPoint(0, 1);
+        oneWay.addVertex(a);
+        oneWay.addVertex(b);
+        oneWay.addEdge(a, b, "road", "residential", 1);
+        assertNull("no route back", oneWay.route(b, a, RouteAlgorithm.BFS));
+        assertNull("still no route", oneWay.route(b, a, RouteAlgorithm.BFS));
+        assertEquals("cached miss", 1, oneWay.getRouteCache().getHits());
+    }
+
+    @Test
+    public void testInvalidatedByChanges() {
+        testMap.route(testStart, testEnd, RouteAlgorithm.DIJKSTRA);
+        RouteCache cache = testMap.getRouteCache();
+        assertEquals("cached", 1, cache.size());
+
+        // a shortcut straight to the goal changes the route
+        testMap.addEdge(testStart, testEnd, "shortcut", "residential", 0.001);
+        assertEquals("emptied", 0, cache.size());
+        List<GeographicPoint> route = testMap.route(testStart, testEnd, RouteAlgorithm.DIJKSTRA);
+        assertEquals("new route", Arrays.asList(testStart, testEnd), route);
+
+        GeographicPoint added = new GeographicPoint(20.0, 20.0);
+        testMap.addVertex(added);
+        assertEquals("emptied again", 0, cache.size());
+        assertEquals("invalidations", 2, cache.getInvalidations());
+    }
+
+    @Test
+    public void testEviction() {
+        RouteCache cache = new RouteCache(12);
+        testMap.setRouteCache(cache);
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        for (GeographicPoint goal : vertices) {
+            testMap.route(testStart, goal, RouteAlgorithm.BFS);
+            assertTrue("bounded", cache.getPoints() <= 12);
+        }
+        assertTrue("evicted", cache.getEvictions() > 0);
+
+        // the most recently used route is kept
+        GeographicPoint last = vertices.get(vertices.size() - 1);
+        long hits = cache.getHits();
+        testMap.route(testStart, last, RouteAlgorithm.BFS);
+        assertEquals("recent route kept", hits + 1, cache.getHits());
+
+        testMap.setRouteCache(null);
+        assertNotNull("works without a cache", testMap.route(testStart, testEnd, RouteAlgorithm.BFS));
+    }
+}
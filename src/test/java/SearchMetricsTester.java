@@ -0,0 +1,99 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.MapGraph;
+import roadgraph.RouteAlgorithm;
+import roadgraph.SearchMetrics;
+import roadgraph.SearchStats;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.*;
+
+public class SearchMetricsTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+        loader.loadRoadMap("data/simpletest.map", testMap);
+    }
+
+    @Test
+    public void testLastSearchStats() {
+        GeographicPoint testStart = new GeographicPoint(1.0, 1.0);
+        GeographicPoint testEnd = new GeographicPoint(8.0, -1.0);
+        assertNull("no search yet", testMap.getLastSearchStats());
+
+        testMap.dijkstra(testStart, testEnd);
+        SearchStats stats = testMap.getLastSearchStats();
+        assertEquals("algorithm", RouteAlgorithm.DIJKSTRA, stats.getAlgorithm());
+        assertEquals("settled", 9, stats.getNodesSettled());
+        assertEquals("count", 9, testMap.getCount());
+        assertTrue("found", stats.isFound());
+        assertTrue("relaxed", stats.getEdgesRelaxed() >= stats.getNodesSettled() - 1);
+        assertTrue("pushes", stats.getHeapPushes() >= stats.getNodesSettled());
+        assertTrue("peak", stats.getPeakQueueSize() >= 1);
+        assertTrue("time", stats.getElapsedNanos() >= 0);
+
+        testMap.bfs(testStart, testEnd);
+        assertEquals("algorithm", RouteAlgorithm.BFS, testMap.getLastSearchStats().getAlgorithm());
+        testMap.bidirectionalAStarSearch(testStart, testEnd);
+        assertEquals("algorithm", RouteAlgorithm.BIDIRECTIONAL_A_STAR,
+                testMap.getLastSearchStats().getAlgorithm());
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        SearchMetrics metrics = new SearchMetrics();
+        testMap.setSearchListener(metrics);
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        long settled = 0;
+        for (GeographicPoint start : vertices) {
+            for (GeographicPoint goal : vertices) {
+                testMap.aStarSearch(start, goal);
+                settled += testMap.getCount();
+            }
+        }
+        int searches = vertices.size() * vertices.size();
+        assertEquals("searches", searches, metrics.getSearches(RouteAlgorithm.A_STAR));
+        assertEquals("settled", settled, metrics.getNodesSettled(RouteAlgorithm.A_STAR));
+        assertEquals("no dijkstra", 0, metrics.getSearches(RouteAlgorithm.DIJKSTRA));
+        assertEquals("histogram count", searches, metrics.getSettled(RouteAlgorithm.A_STAR).getCount());
+        assertEquals("histogram sum", settled, metrics.getSettled(RouteAlgorithm.A_STAR).getSum());
+        long median = metrics.getSettled(RouteAlgorithm.A_STAR).percentile(50);
+        assertTrue("median", median >= 1 && median <= vertices.size() * 2);
+
+        StringBuilder text = new StringBuilder();
+        metrics.writePrometheus(text);
+        String out = text.toString();
+        assertTrue(out, out.contains("roadgraph_searches_total{algorithm=\"a_star\"} " + searches + "\n"));
+        assertTrue(out, out.contains("roadgraph_search_nodes_settled_count{algorithm=\"a_star\"} " + searches + "\n"));
+        assertTrue(out, out.contains("roadgraph_search_duration_seconds_bucket{algorithm=\"a_star\",le=\"+Inf\"} "));
+        assertFalse(out, out.contains("algorithm=\"dijkstra\""));
+
+        testMap.setSearchListener(null);
+        testMap.aStarSearch(vertices.get(0), vertices.get(1));
+        assertEquals("listener removed", searches, metrics.getSearches(RouteAlgorithm.A_STAR));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        SearchMetrics.Histogram histogram = new SearchMetrics().getLatency(RouteAlgorithm.BFS);
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(7);
+        histogram.record(8);
+        assertEquals("zero", 1, histogram.getBucketCount(0));
+        assertEquals("one", 1, histogram.getBucketCount(1));
+        assertEquals("4 to 7", 2, histogram.getBucketCount(3));
+        assertEquals("8 to 15", 1, histogram.getBucketCount(4));
+        assertEquals("median", 7, histogram.percentile(50));
+        assertEquals("max", 15, histogram.percentile(100));
+    }
+}
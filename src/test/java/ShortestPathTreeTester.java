@@ -0,0 +1,96 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.MapGraph;
+import roadgraph.ShortestPathTree;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class ShortestPathTreeTester {
+    MapGraph testMap;
+    CompactMapGraph graph;
+    List<GeographicPoint> vertices;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        GraphLoader loader = new GraphLoader();
+        loader.loadRoadMap("data/utc.map", testMap);
+        graph = testMap.freeze();
+        vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+    }
+
+    @Test
+    public void testMatchesSearches() {
+        Random random = new Random(12);
+        for (int trial = 0; trial < 10; trial++) {
+            GeographicPoint source = vertices.get(random.nextInt(vertices.size()));
+            double cutoff = random.nextDouble() * 2;
+            ShortestPathTree tree = testMap.shortestPathTree(source, cutoff);
+            assertEquals("source", source, tree.getSource());
+            assertEquals("source distance", 0, tree.getDistance(0), 0);
+
+            double last = 0;
+            for (int i = 0; i < tree.size(); i++) {
+                assertTrue("nearest first", tree.getDistance(i) >= last);
+                last = tree.getDistance(i);
+            }
+            for (GeographicPoint vertex : vertices) {
+                double d = graph.distance(source, vertex);
+                if (d <= cutoff) {
+                    assertEquals("distance to " + vertex, d, tree.distanceTo(vertex), 1e-9);
+                    List<GeographicPoint> path = tree.pathTo(vertex);
+                    assertEquals("path start", source, path.get(0));
+                    assertEquals("path end", vertex, path.get(path.size() - 1));
+                }
+                else {
+                    assertFalse("beyond cutoff " + vertex, tree.contains(vertex));
+                    assertNull("no path", tree.pathTo(vertex));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIsochrones() {
+        GeographicPoint source = vertices.get(vertices.size() / 2);
+        List<ShortestPathTree.Isochrone> isochrones = testMap.isochrones(source, 0.5, 1.0, 0.25);
+        assertEquals("one per cutoff", 3, isochrones.size());
+        assertEquals("cutoff", 0.5, isochrones.get(0).getCutoff(), 0);
+        assertEquals("cutoff", 0.25, isochrones.get(2).getCutoff(), 0);
+
+        ShortestPathTree tree = testMap.shortestPathTree(source, 1.0);
+        for (ShortestPathTree.Isochrone isochrone : isochrones) {
+            int reached = 0;
+            for (int i = 0; i < tree.size(); i++) {
+                if (tree.getDistance(i) <= isochrone.getCutoff()) {
+                    reached++;
+                }
+            }
+            assertEquals("reached", reached, isochrone.getNumReached());
+            // every corner is no farther in a straight line than the cutoff
+            for (GeographicPoint corner : isochrone.getPolygon()) {
+                assertTrue("corner within cutoff", source.distance(corner) <= isochrone.getCutoff() + 1e-6);
+            }
+        }
+        assertTrue("polygon", isochrones.get(1).getPolygon().size() >= 3);
+        assertTrue("larger area reaches more", isochrones.get(1).getNumReached() >= isochrones.get(0).getNumReached());
+    }
+
+    @Test
+    public void testZeroCutoff() {
+        GeographicPoint source = vertices.get(0);
+        ShortestPathTree tree = testMap.shortestPathTree(source, 0);
+        assertEquals("only the source", 1, tree.size());
+        assertEquals("path to source", Arrays.asList(source), tree.pathTo(source));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCutoff() {
+        testMap.isochrones(vertices.get(0), 1.0, -1.0);
+    }
+}
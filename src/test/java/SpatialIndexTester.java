@@ -0,0 +1,107 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.MapGraph;
+import roadgraph.SpatialIndex;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class SpatialIndexTester {
+    MapGraph testMap;
+    CompactMapGraph graph;
+    SpatialIndex index;
+    Random random;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        GraphLoader loader = new GraphLoader();
+        loader.loadRoadMap("data/utc.map", testMap);
+        graph = testMap.freeze();
+        index = testMap.getSpatialIndex();
+        random = new Random(5);
+    }
+
+    // A random point around the map, including a margin outside it
+    public GeographicPoint randomPoint() {
+        GeographicPoint a = graph.getLocation(random.nextInt(graph.getNumVertices()));
+        return new GeographicPoint(a.getX() + (random.nextDouble() - 0.5) * 0.02,
+                                   a.getY() + (random.nextDouble() - 0.5) * 0.02);
+    }
+
+    public double[] sortedDistances(GeographicPoint p) {
+        double[] distances = new double[graph.getNumVertices()];
+        for (int v = 0; v < distances.length; v++) {
+            distances[v] = p.distance(graph.getLocation(v));
+        }
+        Arrays.sort(distances);
+        return distances;
+    }
+
+    @Test
+    public void testNearest() {
+        for (int i = 0; i < 200; i++) {
+            GeographicPoint p = randomPoint();
+            double[] expected = sortedDistances(p);
+            int[] found = index.nearest(p.getX(), p.getY(), 5);
+            assertEquals("found 5", 5, found.length);
+            for (int j = 0; j < 5; j++) {
+                double d = p.distance(graph.getLocation(found[j]));
+                assertEquals("neighbour " + j, expected[j], d, expected[j] * 1e-3 + 1e-9);
+            }
+            assertEquals("nearest", found[0], index.nearest(p.getX(), p.getY()));
+        }
+    }
+
+    @Test
+    public void testVerticesSnapToThemselves() {
+        for (GeographicPoint vertex : testMap.getVertices()) {
+            assertEquals("nearest", vertex, testMap.nearestVertex(vertex));
+            assertEquals("snap", vertex, testMap.snapToRoad(vertex));
+        }
+    }
+
+    @Test
+    public void testWithinRadius() {
+        for (int i = 0; i < 100; i++) {
+            GeographicPoint p = randomPoint();
+            double radius = random.nextDouble() * 0.5;
+            int[] found = index.withinRadius(p.getX(), p.getY(), radius);
+            double[] expected = sortedDistances(p);
+            int count = 0;
+            while (count < expected.length && expected[count] <= radius * 0.999) {
+                count++;
+            }
+            assertTrue("all within radius found", found.length >= count);
+            double last = 0;
+            for (int v : found) {
+                double d = p.distance(graph.getLocation(v));
+                assertTrue("within radius", d <= radius * 1.001);
+                assertTrue("nearest first", d >= last * 0.999);
+                last = d;
+            }
+        }
+        assertEquals("empty", 0, index.withinRadius(0, 0, 1).length);
+    }
+
+    @Test
+    public void testSnapToEdge() {
+        for (int i = 0; i < 200; i++) {
+            GeographicPoint p = randomPoint();
+            SpatialIndex.Snap snap = index.snapToEdge(p.getX(), p.getY());
+            assertNotNull("snapped", snap);
+            // no farther than the nearest vertex, which is on an edge
+            double nearestVertex = sortedDistances(p)[0];
+            assertTrue("no farther than a vertex", snap.getDistance() <= nearestVertex * 1.001 + 1e-9);
+            assertEquals("distance", p.distance(snap.getPoint()), snap.getDistance(),
+                         snap.getDistance() * 1e-3 + 1e-9);
+            assertTrue("fraction", snap.getFraction() >= 0 && snap.getFraction() <= 1);
+            int nearer = snap.getNearerEnd();
+            assertTrue("end", nearer == snap.getFrom() || nearer == snap.getTo());
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import geography.GeographicPoint;
+import org.junit.Before;
+import org.junit.Test;
+import roadgraph.CompactMapGraph;
+import roadgraph.MapGraph;
+import roadgraph.TourPlanner;
+import util.GraphLoader;
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+public class TourPlannerTester {
+    MapGraph testMap;
+    GraphLoader loader;
+
+    @Before
+    public void setUp()
+    {
+        testMap = new MapGraph();
+        loader = new GraphLoader();
+        loader.loadRoadMap("data/utc.map", testMap);
+    }
+
+    public double length(double[][] distance, int[] order) {
+        double total = 0;
+        for (int i = 0; i < order.length; i++) {
+            total += distance[order[i]][order[(i + 1) % order.length]];
+        }
+        return total;
+    }
+
+    // The shortest tour starting at 0, by trying every order
+    public double bruteForce(double[][] distance, int[] order, int fixed) {
+        if (fixed == order.length) {
+            return length(distance, order);
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = fixed; i < order.length; i++) {
+            int t = order[fixed]; order[fixed] = order[i]; order[i] = t;
+            best = Math.min(best, bruteForce(distance, order, fixed + 1));
+            t = order[fixed]; order[fixed] = order[i]; order[i] = t;
+        }
+        return best;
+    }
+
+    public void checkPermutation(int[] order, int m) {
+        assertEquals("size", m, order.length);
+        assertEquals("starts at 0", 0, order[0]);
+        boolean[] seen = new boolean[m];
+        for (int stop : order) {
+            assertFalse("visited once", seen[stop]);
+            seen[stop] = true;
+        }
+    }
+
+    @Test
+    public void testSolveSmall() {
+        Random random = new Random(4);
+        for (int trial = 0; trial < 20; trial++) {
+            int m = 2 + random.nextInt(7);
+            double[][] distance = new double[m][m];
+            double[] x = new double[m];
+            double[] y = new double[m];
+            for (int i = 0; i < m; i++) {
+                x[i] = random.nextDouble();
+                y[i] = random.nextDouble();
+            }
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < m; j++) {
+                    distance[i][j] = Math.hypot(x[i] - x[j], y[i] - y[j]);
+                }
+            }
+            int[] order = TourPlanner.solve(distance);
+            checkPermutation(order, m);
+            int[] all = new int[m];
+            for (int i = 0; i < m; i++) {
+                all[i] = i;
+            }
+            double optimal = bruteForce(distance, all, 1);
+            assertTrue("near optimal", length(distance, order) <= optimal * 1.1 + 1e-9);
+        }
+    }
+
+    @Test
+    public void testSolveImproves() {
+        Random random = new Random(8);
+        int m = 300;
+        double[][] distance = new double[m][m];
+        double[] x = new double[m];
+        double[] y = new double[m];
+        for (int i = 0; i < m; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+        }
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+                distance[i][j] = Math.hypot(x[i] - x[j], y[i] - y[j]);
+            }
+        }
+        int[] order = TourPlanner.solve(distance);
+        checkPermutation(order, m);
+        // The optimal tour through m random points in the unit square is
+        // about 0.7124 * sqrt(m) long; 2-opt and Or-opt get within a few percent
+        assertTrue("length " + length(distance, order), length(distance, order) < 0.7124 * Math.sqrt(m) * 1.1);
+    }
+
+    // Random points joined by one-way streets: between each pair, one
+    // direction is straight and the other takes a detour
+    public double[][] oneWay(Random random, int m) {
+        double[] x = new double[m];
+        double[] y = new double[m];
+        for (int i = 0; i < m; i++) {
+            x[i] = random.nextDouble();
+            y[i] = random.nextDouble();
+        }
+        double[][] distance = new double[m][m];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < i; j++) {
+                double straight = Math.hypot(x[i] - x[j], y[i] - y[j]);
+                boolean forward = random.nextBoolean();
+                distance[i][j] = forward ? straight : straight + 0.2;
+                distance[j][i] = forward ? straight + 0.2 : straight;
+            }
+        }
+        return distance;
+    }
+
+    // The tour that always drives to the nearest unvisited stop
+    public int[] nearestNeighbour(double[][] distance) {
+        int m = distance.length;
+        int[] order = new int[m];
+        boolean[] used = new boolean[m];
+        used[0] = true;
+        for (int i = 1; i < m; i++) {
+            int next = -1;
+            for (int c = 0; c < m; c++) {
+                if (!used[c] && (next < 0 || distance[order[i - 1]][c] < distance[order[i - 1]][next])) {
+                    next = c;
+                }
+            }
+            used[next] = true;
+            order[i] = next;
+        }
+        return order;
+    }
+
+    @Test
+    public void testSolveAsymmetric() {
+        Random random = new Random(12);
+        for (int trial = 0; trial < 20; trial++) {
+            int m = 4 + random.nextInt(5);
+            double[][] distance = oneWay(random, m);
+            int[] order = TourPlanner.solve(distance);
+            checkPermutation(order, m);
+            int[] all = new int[m];
+            for (int i = 0; i < m; i++) {
+                all[i] = i;
+            }
+            double optimal = bruteForce(distance, all, 1);
+            assertTrue("near optimal", length(distance, order) <= optimal * 1.1 + 1e-9);
+        }
+
+        for (int trial = 0; trial < 5; trial++) {
+            double[][] distance = oneWay(random, 300);
+            int[] order = TourPlanner.solve(distance);
+            checkPermutation(order, 300);
+            double greedy = length(distance, nearestNeighbour(distance));
+            assertTrue("length " + length(distance, order) + " greedy " + greedy,
+                       length(distance, order) < greedy * 0.95);
+        }
+    }
+
+    @Test
+    public void testPlanOnRoads() {
+        CompactMapGraph graph = testMap.freeze();
+        List<GeographicPoint> vertices = new ArrayList<GeographicPoint>(testMap.getVertices());
+        Random random = new Random(6);
+        // stops that can reach, and be reached from, the first one
+        List<GeographicPoint> stops = new ArrayList<GeographicPoint>();
+        stops.add(vertices.get(random.nextInt(vertices.size())));
+        while (stops.size() < 25) {
+            GeographicPoint stop = vertices.get(random.nextInt(vertices.size()));
+            if (graph.distance(stops.get(0), stop) < Double.POSITIVE_INFINITY
+                    && graph.distance(stop, stops.get(0)) < Double.POSITIVE_INFINITY) {
+                stops.add(stop);
+            }
+        }
+        TourPlanner.Tour tour = testMap.planTour(stops);
+        assertNotNull("tour", tour);
+        checkPermutation(tour.getOrder(), stops.size());
+        assertEquals("first stop", stops.get(0), tour.getStops().get(0));
+
+        List<GeographicPoint> path = tour.getPath();
+        assertEquals("starts at first stop", stops.get(0), path.get(0));
+        assertEquals("ends at first stop", stops.get(0), path.get(path.size() - 1));
+        assertTrue("visits every stop", path.containsAll(stops));
+        double length = 0;
+        for (int i = 0; i < path.size() - 1; i++) {
+            length += graph.distance(path.get(i), path.get(i + 1));
+        }
+        assertEquals("path length", tour.getLength(), length, 1e-6);
+
+        double[][] distance = testMap.distanceMatrix(stops, stops);
+        int[] given = new int[stops.size()];
+        for (int i = 0; i < given.length; i++) {
+            given[i] = i;
+        }
+        assertTrue("shorter than the given order", tour.getLength() <= length(distance, given));
+
+        // a stop that cannot be reached gives no tour
+        for (GeographicPoint vertex : vertices) {
+            if (graph.distance(stops.get(0), vertex) == Double.POSITIVE_INFINITY) {
+                stops.add(vertex);
+                assertNull("unreachable stop", testMap.planTour(stops));
+                break;
+            }
+        }
+    }
+
+    @Test
+    public void testSalesperson() {
+        MapGraph simple = new MapGraph();
+        loader.loadRoadMap("data/simpletest.map", simple);
+        GeographicPoint start = new GeographicPoint(1.0, 1.0);
+        List<GeographicPoint> visited = new ArrayList<GeographicPoint>();
+        List<GeographicPoint> route = simple.greedyAlgForSalespersonProblem(start, visited::add);
+        assertNotNull("route", route);
+        assertEquals("starts at start", start, route.get(0));
+        assertEquals("ends at start", start, route.get(route.size() - 1));
+        assertTrue("visits every vertex", route.containsAll(simple.getVertices()));
+        assertEquals("each vertex reported once", simple.getNumVertices(), visited.size());
+    }
+
+    @Test
+    public void testSalespersonOneWay() {
+        // utc.map has one-way streets, so not every intersection can be
+        // reached from every other
+        CompactMapGraph graph = testMap.freeze();
+        GeographicPoint start = new GeographicPoint(32.860222, -117.217293);
+        List<GeographicPoint> component = graph.stronglyConnected(start);
+        assertTrue("start in component", component.contains(start));
+        assertTrue("some unreachable", component.size() < testMap.getNumVertices());
+        for (GeographicPoint vertex : component) {
+            assertTrue("reachable", graph.distance(start, vertex) < Double.POSITIVE_INFINITY);
+            assertTrue("returns", graph.distance(vertex, start) < Double.POSITIVE_INFINITY);
+        }
+
+        List<GeographicPoint> visited = new ArrayList<GeographicPoint>();
+        List<GeographicPoint> route = testMap.greedyAlgForSalespersonProblem(start, visited::add);
+        assertNotNull("route", route);
+        assertEquals("starts at start", start, route.get(0));
+        assertEquals("ends at start", start, route.get(route.size() - 1));
+        assertEquals("visits the component", new HashSet<GeographicPoint>(component),
+                     new HashSet<GeographicPoint>(route));
+        assertEquals("each vertex reported once", component.size(), visited.size());
+    }
+}